@@ -0,0 +1,363 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.blockgenerator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+
+/**
+ * This tool amplifies an fsimage in XML format by adding clones of its entire namespace, to model the growth of
+ * a cluster to more tenants. Clone i (for i from 1 to factor - 1) is placed at /{clone_dir}/i, and each of its
+ * files and directories is owned by the original owner with the suffix {user_suffix}i, matching the audit trace
+ * amplified by the workload's AuditTraceAmplifier with the same arguments. The output is again an fsimage in
+ * XML format, which can be used as the input of {@link GenerateBlockImagesDriver}, and converted back into a
+ * binary fsimage for the NameNode using the Offline Image Viewer's ReverseXML processor (Hadoop 2.8 onwards).
+ *
+ * Each clone's inodes and blocks are given IDs above those of the original, offset by a multiple of the range
+ * of IDs in use, and the last inode and block IDs of the image are raised to match. Only the INodeSection and
+ * INodeDirectorySection are cloned; snapshots, references and leases exist only in the original namespace.
+ * Blocks with legacy (randomly generated) IDs are not supported. It takes in the following arguments:
+ *   - Required: input path of the fsimage in XML format
+ *   - Required: output path for the amplified fsimage in XML format
+ *   - Required: amplification factor, i.e. the number of copies of the namespace including the original
+ *   - Optional: name of the top-level directory holding the clones, and the suffix of the cloned users
+ */
+public class NamespaceCloner extends Configured implements Tool {
+
+  public static final String FSIMAGE_INPUT_PATH_ARG = "fsimage_input_path";
+  public static final String FSIMAGE_OUTPUT_PATH_ARG = "fsimage_output_path";
+  public static final String FACTOR_ARG = "factor";
+  public static final String CLONE_DIR_ARG = "clone_dir";
+  public static final String CLONE_DIR_DEFAULT = "dynamometer_clones";
+  public static final String USER_SUFFIX_ARG = "user_suffix";
+  public static final String USER_SUFFIX_DEFAULT = "_clone";
+
+  // As defined by INodeId.ROOT_INODE_ID
+  static final long ROOT_INODE_ID = 16385;
+  // As defined by SequentialBlockIdGenerator.LAST_RESERVED_BLOCK_ID
+  static final long LAST_RESERVED_BLOCK_ID = 1024L * 1024 * 1024;
+
+  private static final Pattern LAST_BLOCK_ID_PATTERN = Pattern.compile("<lastAllocatedBlockId>(\\d+)</");
+  private static final Pattern LAST_INODE_ID_PATTERN = Pattern.compile("<lastInodeId>(\\d+)</");
+  private static final Pattern NUM_INODES_PATTERN = Pattern.compile("<numInodes>(\\d+)</");
+  private static final Pattern INODE_ID_PATTERN = Pattern.compile("<inode><id>(\\d+)</id>");
+  private static final Pattern BLOCK_ID_PATTERN = Pattern.compile("<block><id>(\\d+)</id>");
+  private static final Pattern PERMISSION_PATTERN = Pattern.compile("<permission>([^:<]*):");
+  private static final Pattern PARENT_PATTERN = Pattern.compile("<parent>(\\d+)</parent>");
+  private static final Pattern CHILD_PATTERN = Pattern.compile("<inode>(\\d+)</inode>");
+
+  public NamespaceCloner(Configuration conf) {
+    setConf(conf);
+  }
+
+  public int run(String[] args) throws Exception {
+    Options options = new Options();
+    options.addOption("h", "help", false, "Shows this message");
+    options.addOption(OptionBuilder.withArgName("Input path of the XML fsImage").hasArg().isRequired(true)
+        .withDescription("Input path to the Hadoop fsImage XML file (required)").create(FSIMAGE_INPUT_PATH_ARG));
+    options.addOption(OptionBuilder.withArgName("Output path of the XML fsImage").hasArg().isRequired(true)
+        .withDescription("Output path for the amplified fsImage XML file (required)").create(FSIMAGE_OUTPUT_PATH_ARG));
+    options.addOption(OptionBuilder.withArgName("Amplification factor").hasArg().isRequired(true)
+        .withDescription("Number of copies of the namespace, including the original (required)").create(FACTOR_ARG));
+    options.addOption(OptionBuilder.withArgName("Clone directory").hasArg().isRequired(false)
+        .withDescription("Name of the top-level directory in which to place the clones (defaults to " +
+            CLONE_DIR_DEFAULT + ")").create(CLONE_DIR_ARG));
+    options.addOption(OptionBuilder.withArgName("User suffix").hasArg().isRequired(false)
+        .withDescription("Suffix, followed by the clone index, added to the owner of each cloned inode (defaults to " +
+            USER_SUFFIX_DEFAULT + ")").create(USER_SUFFIX_ARG));
+
+    CommandLineParser parser = new PosixParser();
+    CommandLine cli = parser.parse(options, args);
+    if (cli.hasOption("h")) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp(200,
+          "hadoop jar dynamometer-*.jar com.linkedin.dynamometer.blockgenerator.NamespaceCloner [options]",
+          null, options, null);
+      return 0;
+    }
+
+    Path input = new Path(cli.getOptionValue(FSIMAGE_INPUT_PATH_ARG));
+    Path output = new Path(cli.getOptionValue(FSIMAGE_OUTPUT_PATH_ARG));
+    FileSystem inputFs = input.getFileSystem(getConf());
+    FileSystem outputFs = output.getFileSystem(getConf());
+    try (BufferedReader reader =
+             new BufferedReader(new InputStreamReader(inputFs.open(input), StandardCharsets.UTF_8));
+         Writer writer = new BufferedWriter(new OutputStreamWriter(outputFs.create(output), StandardCharsets.UTF_8))) {
+      new Cloner(Integer.parseInt(cli.getOptionValue(FACTOR_ARG)),
+          cli.getOptionValue(CLONE_DIR_ARG, CLONE_DIR_DEFAULT),
+          cli.getOptionValue(USER_SUFFIX_ARG, USER_SUFFIX_DEFAULT)).clone(reader, writer);
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    NamespaceCloner cloner = new NamespaceCloner(new Configuration());
+    System.exit(ToolRunner.run(cloner, args));
+  }
+
+  /**
+   * Copies an fsimage line by line, adding the clones of each inode and directory after the original. An inode
+   * may be spread across multiple lines, but its ID is always on the first, and each directory's children are
+   * on a single line.
+   */
+  static class Cloner {
+
+    private final int factor;
+    private final String cloneDir;
+    private final String userSuffix;
+
+    private long blockIdSpan = -1;
+    private long inodeIdSpan = -1;
+    // The ID of the directory holding the clones
+    private long cloneDirId;
+    private String rootPermission = "hdfs:hdfs:rwxr-xr-x";
+    private boolean rootDirectorySeen = false;
+
+    private boolean inINodeSection = false;
+    private boolean inDirectorySection = false;
+    // The lines of the inode currently being read
+    private final List<String> inode = new ArrayList<>();
+
+    Cloner(int factor, String cloneDir, String userSuffix) throws IOException {
+      if (factor < 1) {
+        throw new IOException("The amplification factor must be at least 1; got " + factor);
+      }
+      if (cloneDir.isEmpty() || cloneDir.contains("/")) {
+        throw new IOException("The clone directory must be a single path component; got " + cloneDir);
+      }
+      this.factor = factor;
+      this.cloneDir = cloneDir;
+      this.userSuffix = userSuffix;
+    }
+
+    void clone(BufferedReader reader, Writer writer) throws IOException {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (factor > 1) {
+          processLine(line, writer);
+        } else {
+          writer.write(line);
+          writer.write('\n');
+        }
+      }
+      if (!inode.isEmpty()) {
+        throw new IOException("The fsimage ended within an inode");
+      }
+    }
+
+    private void processLine(String line, Writer writer) throws IOException {
+      Matcher lastBlockIdMatcher = LAST_BLOCK_ID_PATTERN.matcher(line);
+      if (lastBlockIdMatcher.find()) {
+        long lastBlockId = Long.parseLong(lastBlockIdMatcher.group(1));
+        blockIdSpan = lastBlockId - LAST_RESERVED_BLOCK_ID;
+        line = replaceGroup(lastBlockIdMatcher, line, lastBlockId + (factor - 1) * blockIdSpan);
+      }
+      int sectionStart = line.indexOf("<INodeSection>");
+      if (sectionStart >= 0) {
+        // The section's header may share a line with its first inode
+        int inodeStart = line.indexOf("<inode>", sectionStart);
+        String header = inodeStart < 0 ? line : line.substring(0, inodeStart);
+        writer.write(processINodeSectionHeader(header));
+        inINodeSection = true;
+        if (inodeStart < 0) {
+          writer.write('\n');
+          return;
+        }
+        line = line.substring(inodeStart);
+      }
+      if (inINodeSection) {
+        processINodeSectionLine(line, writer);
+        return;
+      }
+      sectionStart = line.indexOf("<INodeDirectorySection>");
+      if (sectionStart >= 0) {
+        int directoryStart = line.indexOf("<directory>", sectionStart);
+        writer.write(directoryStart < 0 ? line : line.substring(0, directoryStart));
+        inDirectorySection = true;
+        if (directoryStart < 0) {
+          writer.write('\n');
+          return;
+        }
+        line = line.substring(directoryStart);
+      }
+      if (inDirectorySection) {
+        processDirectorySectionLine(line, writer);
+        return;
+      }
+      writer.write(line);
+      writer.write('\n');
+    }
+
+    private String processINodeSectionHeader(String header) throws IOException {
+      Matcher lastInodeIdMatcher = LAST_INODE_ID_PATTERN.matcher(header);
+      if (!lastInodeIdMatcher.find()) {
+        throw new IOException("Unable to find the last inode ID in: " + header);
+      }
+      if (blockIdSpan < 0) {
+        throw new IOException("Unable to find the last allocated block ID before the INodeSection");
+      }
+      long lastInodeId = Long.parseLong(lastInodeIdMatcher.group(1));
+      inodeIdSpan = lastInodeId - ROOT_INODE_ID + 1;
+      cloneDirId = lastInodeId + (factor - 1) * inodeIdSpan + 1;
+      header = replaceGroup(lastInodeIdMatcher, header, cloneDirId);
+      Matcher numInodesMatcher = NUM_INODES_PATTERN.matcher(header);
+      if (numInodesMatcher.find()) {
+        header = replaceGroup(numInodesMatcher, header, Long.parseLong(numInodesMatcher.group(1)) * factor + 1);
+      }
+      return header;
+    }
+
+    private void processINodeSectionLine(String line, Writer writer) throws IOException {
+      int sectionEnd = line.indexOf("</INodeSection>");
+      if (sectionEnd >= 0) {
+        if (!inode.isEmpty()) {
+          throw new IOException("The INodeSection ended within an inode");
+        }
+        writer.write("<inode><id>" + cloneDirId + "</id><type>DIRECTORY</type><name>" + cloneDir +
+            "</name><mtime>0</mtime><permission>" + rootPermission +
+            "</permission><nsquota>-1</nsquota><dsquota>-1</dsquota></inode>\n");
+        writer.write(line);
+        writer.write('\n');
+        inINodeSection = false;
+        return;
+      }
+      writer.write(line);
+      writer.write('\n');
+      inode.add(line);
+      if (!line.contains("</inode>")) {
+        return;
+      }
+      Matcher idMatcher = INODE_ID_PATTERN.matcher(inode.get(0));
+      if (!idMatcher.find()) {
+        throw new IOException("Unable to find the ID of inode: " + inode.get(0));
+      }
+      boolean root = Long.parseLong(idMatcher.group(1)) == ROOT_INODE_ID;
+      if (root) {
+        Matcher permissionMatcher = Pattern.compile("<permission>([^<]*)</permission>").matcher(inode.get(0));
+        if (permissionMatcher.find()) {
+          rootPermission = permissionMatcher.group(1);
+        }
+      }
+      for (int i = 1; i < factor; i++) {
+        for (int j = 0; j < inode.size(); j++) {
+          String cloned = cloneINodeLine(inode.get(j), i);
+          if (root && j == 0) {
+            // The root of each clone is an ordinary directory named by its index
+            cloned = cloned.replaceFirst("<name></name>", "<name>" + i + "</name>")
+                .replaceFirst("<nsquota>-?\\d+</nsquota>", "<nsquota>-1</nsquota>")
+                .replaceFirst("<dsquota>-?\\d+</dsquota>", "<dsquota>-1</dsquota>");
+          }
+          writer.write(cloned);
+          writer.write('\n');
+        }
+      }
+      inode.clear();
+    }
+
+    private String cloneINodeLine(String line, int clone) throws IOException {
+      StringBuffer cloned = new StringBuffer(line.length() + 16);
+      Matcher idMatcher = INODE_ID_PATTERN.matcher(line);
+      while (idMatcher.find()) {
+        idMatcher.appendReplacement(cloned, "<inode><id>" + getClonedInodeId(idMatcher.group(1), clone) + "</id>");
+      }
+      idMatcher.appendTail(cloned);
+      Matcher blockMatcher = BLOCK_ID_PATTERN.matcher(cloned.toString());
+      cloned = new StringBuffer(cloned.length());
+      while (blockMatcher.find()) {
+        long blockId = Long.parseLong(blockMatcher.group(1));
+        if (blockId <= LAST_RESERVED_BLOCK_ID) {
+          throw new IOException("Blocks with legacy IDs cannot be cloned; found block ID " + blockId);
+        }
+        blockMatcher.appendReplacement(cloned, "<block><id>" + (blockId + clone * blockIdSpan) + "</id>");
+      }
+      blockMatcher.appendTail(cloned);
+      Matcher permissionMatcher = PERMISSION_PATTERN.matcher(cloned.toString());
+      cloned = new StringBuffer(cloned.length());
+      while (permissionMatcher.find()) {
+        permissionMatcher.appendReplacement(cloned,
+            Matcher.quoteReplacement("<permission>" + permissionMatcher.group(1) + userSuffix + clone + ":"));
+      }
+      permissionMatcher.appendTail(cloned);
+      return cloned.toString();
+    }
+
+    private void processDirectorySectionLine(String line, Writer writer) throws IOException {
+      int sectionEnd = line.indexOf("</INodeDirectorySection>");
+      if (sectionEnd >= 0) {
+        if (!rootDirectorySeen) {
+          writer.write("<directory><parent>" + ROOT_INODE_ID + "</parent><inode>" + cloneDirId +
+              "</inode></directory>\n");
+        }
+        writer.write("<directory><parent>" + cloneDirId + "</parent>");
+        for (int i = 1; i < factor; i++) {
+          writer.write("<inode>" + (ROOT_INODE_ID + i * inodeIdSpan) + "</inode>");
+        }
+        writer.write("</directory>\n");
+        writer.write(line);
+        writer.write('\n');
+        inDirectorySection = false;
+        return;
+      }
+      Matcher parentMatcher = PARENT_PATTERN.matcher(line);
+      if (!parentMatcher.find()) {
+        writer.write(line);
+        writer.write('\n');
+        return;
+      }
+      long parent = Long.parseLong(parentMatcher.group(1));
+      if (parent == ROOT_INODE_ID) {
+        rootDirectorySeen = true;
+        writer.write(line.replace("</directory>", "<inode>" + cloneDirId + "</inode></directory>"));
+      } else {
+        writer.write(line);
+      }
+      writer.write('\n');
+      List<String> children = new ArrayList<>();
+      Matcher childMatcher = CHILD_PATTERN.matcher(line);
+      while (childMatcher.find()) {
+        children.add(childMatcher.group(1));
+      }
+      for (int i = 1; i < factor; i++) {
+        // References to inodes renamed within snapshots are only kept by the original
+        writer.write("<directory><parent>" + (parent + i * inodeIdSpan) + "</parent>");
+        for (String child : children) {
+          writer.write("<inode>" + getClonedInodeId(child, i) + "</inode>");
+        }
+        writer.write("</directory>\n");
+      }
+    }
+
+    private long getClonedInodeId(String id, int clone) {
+      return Long.parseLong(id) + clone * inodeIdSpan;
+    }
+
+    private static String replaceGroup(Matcher matcher, String line, long value) {
+      return line.substring(0, matcher.start(1)) + value + line.substring(matcher.end(1));
+    }
+  }
+
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.blockgenerator;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestNamespaceCloner {
+
+  private static final String fsImageName = "fsimage_0000000000000061740.xml";
+
+  private static String cloneFsImage(int factor) throws Exception {
+    StringWriter writer = new StringWriter();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        TestNamespaceCloner.class.getClassLoader().getResourceAsStream(fsImageName), StandardCharsets.UTF_8))) {
+      new NamespaceCloner.Cloner(factor, "clones", "_clone").clone(reader, writer);
+    }
+    return writer.toString();
+  }
+
+  private static List<BlockInfo> parseBlocks(String fsImage) throws Exception {
+    List<BlockInfo> blocks = new ArrayList<>();
+    XMLParser parser = new XMLParser();
+    BufferedReader reader = new BufferedReader(new StringReader(fsImage));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      blocks.addAll(parser.parseLine(line));
+    }
+    return blocks;
+  }
+
+  private static List<String> findAll(String pattern, String fsImage) {
+    List<String> values = new ArrayList<>();
+    Matcher matcher = Pattern.compile(pattern).matcher(fsImage);
+    while (matcher.find()) {
+      values.add(matcher.group(1));
+    }
+    return values;
+  }
+
+  @Test
+  public void testFactorOfOneIsUnchanged() throws Exception {
+    StringBuilder original = new StringBuilder();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        TestNamespaceCloner.class.getClassLoader().getResourceAsStream(fsImageName), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        original.append(line).append('\n');
+      }
+    }
+    assertEquals(original.toString(), cloneFsImage(1));
+  }
+
+  @Test
+  public void testCloneNamespace() throws Exception {
+    String original = cloneFsImage(1);
+    String cloned = cloneFsImage(3);
+
+    // Every block is cloned with a new ID, and can still be parsed by the block generator
+    List<BlockInfo> originalBlocks = parseBlocks(original);
+    List<BlockInfo> clonedBlocks = parseBlocks(cloned);
+    assertEquals(3 * originalBlocks.size(), clonedBlocks.size());
+    Set<Long> blockIds = new HashSet<>();
+    for (String id : findAll("<block><id>(\\d+)</id>", cloned)) {
+      assertTrue("Duplicate block ID " + id, blockIds.add(Long.parseLong(id)));
+    }
+    long lastBlockId = Long.parseLong(findAll("<lastAllocatedBlockId>(\\d+)</", cloned).get(0));
+    for (long id : blockIds) {
+      assertTrue(id > NamespaceCloner.LAST_RESERVED_BLOCK_ID && id <= lastBlockId);
+    }
+
+    // Every inode is cloned with a new ID, plus the directory holding the clones
+    List<String> originalInodes = findAll("<inode><id>(\\d+)</id>", original);
+    List<String> inodeIds = findAll("<inode><id>(\\d+)</id>", cloned);
+    assertEquals(3 * originalInodes.size() + 1, inodeIds.size());
+    assertEquals(inodeIds.size(), new HashSet<>(inodeIds).size());
+    long lastInodeId = Long.parseLong(findAll("<lastInodeId>(\\d+)</", cloned).get(0));
+    String cloneDirId = String.valueOf(lastInodeId);
+    assertTrue(inodeIds.contains(cloneDirId));
+    assertTrue(cloned.contains("<id>" + cloneDirId + "</id><type>DIRECTORY</type><name>clones</name>"));
+
+    // Each clone's root is a child of the clone directory, which is a child of the root
+    long span = 26700 - NamespaceCloner.ROOT_INODE_ID + 1;
+    Map<String, List<String>> children = new HashMap<>();
+    Matcher directoryMatcher = Pattern.compile("<directory><parent>(\\d+)</parent>(.*)</directory>").matcher(cloned);
+    while (directoryMatcher.find()) {
+      assertTrue("Duplicate directory " + directoryMatcher.group(1),
+          children.put(directoryMatcher.group(1), findAll("<inode>(\\d+)</inode>", directoryMatcher.group(2))) == null);
+    }
+    assertEquals(3 * findAll("<directory><parent>(\\d+)</parent>", original).size() + 1, children.size());
+    assertTrue(children.get("16385").contains(cloneDirId));
+    assertEquals(2, children.get(cloneDirId).size());
+    String cloneRootId = String.valueOf(16385 + 2 * span);
+    assertEquals(cloneRootId, children.get(cloneDirId).get(1));
+    assertTrue(cloned.contains("<id>" + cloneRootId + "</id><type>DIRECTORY</type><name>2</name>"));
+    assertEquals(children.get("16385").size() - 1, children.get(cloneRootId).size());
+    assertTrue(children.get(String.valueOf(16390 + span)).contains(String.valueOf(26491 + span)));
+
+    // Cloned inodes are owned by the cloned users
+    assertTrue(cloned.contains("<permission>hdfs_clone1:hdfs:rw-r-----</permission>"));
+    assertTrue(cloned.contains("<permission>hdfs_clone2:hdfs:rw-r-----</permission>"));
+  }
+
+}
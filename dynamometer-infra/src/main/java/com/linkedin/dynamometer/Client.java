@@ -824,6 +824,28 @@ public class Client extends Configured implements Tool {
     return new Path(getRemoteStoragePath(getConf(), infraAppId), DynoConstants.NN_INFO_FILE_NAME);
   }
 
+  /**
+   * Default the path of the file controlling the rate of the workload to one within the remote storage path,
+   * unless the rate is instead changed by the rate ramp or is ignored by the closed-loop load model.
+   * @param workloadConf The configuration of the workload job, which is updated.
+   * @param remoteStoragePath The remote storage path of the infrastructure application.
+   * @return The path of the control file, or null if the rate cannot be controlled.
+   */
+  @VisibleForTesting
+  static String setRateControlPathIfUnset(Configuration workloadConf, Path remoteStoragePath) {
+    if (workloadConf.getBoolean(AuditReplayMapper.RATE_RAMP_ENABLED_KEY,
+        AuditReplayMapper.RATE_RAMP_ENABLED_DEFAULT)) {
+      return null;
+    }
+    if (workloadConf.getEnum(AuditReplayMapper.LOAD_MODEL_KEY, AuditReplayMapper.LOAD_MODEL_DEFAULT) ==
+        AuditReplayMapper.LoadModel.CLOSED_LOOP) {
+      return null;
+    }
+    workloadConf.setIfUnset(AuditReplayMapper.RATE_CONTROL_PATH_KEY,
+        new Path(remoteStoragePath, DynoConstants.WORKLOAD_RATE_CONTROL_FILE_NAME).toString());
+    return workloadConf.get(AuditReplayMapper.RATE_CONTROL_PATH_KEY);
+  }
+
   /**
    * Launch the workload driver ({@link WorkloadDriver}) and monitor the job. Waits for the launched
    * job to complete.
@@ -838,6 +860,12 @@ public class Client extends Configured implements Tool {
       workloadConf.set(AuditReplayMapper.INPUT_PATH_KEY, workloadInputPath);
       workloadConf.setInt(AuditReplayMapper.NUM_THREADS_KEY, workloadThreadsPerMapper);
       workloadConf.setDouble(AuditReplayMapper.RATE_FACTOR_KEY, workloadRateFactor);
+      workloadConf.setIfUnset(AuditReplayMapper.RATE_RAMP_NAMENODE_WEB_URI_KEY,
+          DynoInfraUtils.getNameNodeWebUri(nameNodeProperties).toString());
+      String rateControlPath = setRateControlPathIfUnset(workloadConf, getRemoteStoragePath(getConf(), infraAppId));
+      if (rateControlPath != null) {
+        LOG.info("The workload rate can be controlled via " + rateControlPath);
+      }
       workloadJob = WorkloadDriver.getJobForSubmission(workloadConf, nameNodeURI.toString(),
           workloadStartTime, AuditReplayMapper.class);
       workloadJob.submit();
@@ -848,6 +876,10 @@ public class Client extends Configured implements Tool {
       }
       if (isCompleted(workloadAppState)) {
         LOG.info("Workload job completed successfully!");
+        String resultSummary = new AuditReplayMapper().getResultSummary(workloadJob);
+        if (workloadAppState == JobStatus.State.SUCCEEDED && resultSummary != null) {
+          LOG.info(resultSummary);
+        }
       } else {
         LOG.warn("Workload job failed.");
       }
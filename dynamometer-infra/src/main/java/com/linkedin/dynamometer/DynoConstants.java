@@ -70,6 +70,10 @@ public class DynoConstants {
   // (within the remote storage directory)
   public static final String NN_INFO_FILE_NAME = "nn_info.prop";
 
+  // The name of the file through which the rate of the workload can be controlled
+  // while it is running (within the remote storage directory)
+  public static final String WORKLOAD_RATE_CONTROL_FILE_NAME = "workload_rate_control.prop";
+
   // Environment variable which will contain additional arguments for the NameNode
   public static final String NN_ADDITIONAL_ARGS_ENV = "NN_ADDITIONAL_ARGS";
   // Environment variable which will contain additional arguments for the DataNode
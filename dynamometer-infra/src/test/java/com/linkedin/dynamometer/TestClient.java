@@ -0,0 +1,49 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer;
+
+import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class TestClient {
+
+  private static final Path STORAGE_PATH = new Path("hdfs://namenode/user/dyno/.dynamometer/application_1_0001");
+
+  @Test
+  public void testRateControlPath() {
+    Configuration conf = new Configuration(false);
+    String expected = new Path(STORAGE_PATH, DynoConstants.WORKLOAD_RATE_CONTROL_FILE_NAME).toString();
+    assertEquals(expected, Client.setRateControlPathIfUnset(conf, STORAGE_PATH));
+    assertEquals(expected, conf.get(AuditReplayMapper.RATE_CONTROL_PATH_KEY));
+
+    conf = new Configuration(false);
+    conf.set(AuditReplayMapper.RATE_CONTROL_PATH_KEY, "/custom/control");
+    assertEquals("/custom/control", Client.setRateControlPathIfUnset(conf, STORAGE_PATH));
+  }
+
+  @Test
+  public void testNoRateControlPathWithRateRamp() {
+    Configuration conf = new Configuration(false);
+    conf.setBoolean(AuditReplayMapper.RATE_RAMP_ENABLED_KEY, true);
+    assertNull(Client.setRateControlPathIfUnset(conf, STORAGE_PATH));
+    assertNull(conf.get(AuditReplayMapper.RATE_CONTROL_PATH_KEY));
+  }
+
+  @Test
+  public void testNoRateControlPathWithClosedLoop() {
+    Configuration conf = new Configuration(false);
+    conf.setEnum(AuditReplayMapper.LOAD_MODEL_KEY, AuditReplayMapper.LoadModel.CLOSED_LOOP);
+    assertNull(Client.setRateControlPathIfUnset(conf, STORAGE_PATH));
+    // The mapper would otherwise refuse to start, since a closed loop ignores the rate
+    assertNull(conf.get(AuditReplayMapper.RATE_CONTROL_PATH_KEY));
+  }
+
+}
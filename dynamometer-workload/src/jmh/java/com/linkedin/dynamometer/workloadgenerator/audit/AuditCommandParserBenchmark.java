@@ -0,0 +1,130 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Compares the cost of parsing a single command with each of the {@link AuditCommandParser}
+ * implementations, using a synthetic trace of {@value #NUM_COMMANDS} commands over a small
+ * set of users and directories.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuditCommandParserBenchmark {
+
+  private static final int NUM_COMMANDS = 10000;
+  private static final String[] COMMANDS = { "open", "getfileinfo", "listStatus", "create", "mkdirs", "delete" };
+  private static final Function<Long, Long> IDENTITY_FN = Functions.identity();
+
+  private Text[] directLines;
+  private Text[] hiveLines;
+  private Text[] compiledRecords;
+  private AuditLogDirectParser directParser;
+  private AuditLogHiveTableParser hiveParser;
+
+  @Setup
+  public void setup() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setLong(AuditLogDirectParser.AUDIT_START_TIMESTAMP_KEY, 0);
+    directParser = new AuditLogDirectParser();
+    directParser.initialize(conf);
+    hiveParser = new AuditLogHiveTableParser();
+    hiveParser.initialize(conf);
+
+    SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
+    dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    Random random = new Random(0);
+    directLines = new Text[NUM_COMMANDS];
+    hiveLines = new Text[NUM_COMMANDS];
+    ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+    CompiledAuditTraceWriter writer = new CompiledAuditTraceWriter(new DataOutputStream(compiled));
+    for (int i = 0; i < NUM_COMMANDS; i++) {
+      long timestamp = i * 7;
+      String ugi = "user" + random.nextInt(50);
+      String cmd = COMMANDS[random.nextInt(COMMANDS.length)];
+      String src = "/data/" + ugi + "/dir" + random.nextInt(100) + "/part-" + random.nextInt(10000);
+      String ip = "10.0.0." + random.nextInt(100);
+      directLines[i] = new Text(String.format("%s INFO FSNamesystem.audit: allowed=true\tugi=%s (auth:KERBEROS)\t" +
+          "ip=/%s\tcmd=%s\tsrc=%s\tdst=null\tperm=null\tproto=rpc", dateFormat.format(new Date(timestamp)),
+          ugi, ip, cmd, src));
+      hiveLines[i] = new Text(timestamp + "\u0001" + ugi + "\u0001" + cmd + "\u0001" + src + "\u0001null\u0001" + ip);
+      writer.write(timestamp, ugi, cmd, src, "null", ip);
+    }
+    writer.close();
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(compiled.toByteArray()));
+    in.skipBytes(CompiledAuditTraceInputFormat.MAGIC.length);
+    WritableUtils.readVInt(in);
+    compiledRecords = new Text[NUM_COMMANDS];
+    for (int i = 0; i < NUM_COMMANDS; i++) {
+      compiledRecords[i] = new Text();
+      compiledRecords[i].readWithKnownLength(in, WritableUtils.readVInt(in));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_COMMANDS)
+  public void direct(Blackhole blackhole) throws Exception {
+    for (Text line : directLines) {
+      consume(directParser.parse(line, IDENTITY_FN), blackhole);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_COMMANDS)
+  public void hive(Blackhole blackhole) throws Exception {
+    for (Text line : hiveLines) {
+      consume(hiveParser.parse(line, IDENTITY_FN), blackhole);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_COMMANDS)
+  public void compiled(Blackhole blackhole) throws Exception {
+    // Records refer to those before them, so each pass over the trace needs a new parser
+    CompiledAuditTraceParser compiledParser = new CompiledAuditTraceParser();
+    for (Text record : compiledRecords) {
+      consume(compiledParser.parse(record, IDENTITY_FN), blackhole);
+    }
+  }
+
+  private static void consume(AuditReplayCommand cmd, Blackhole blackhole) {
+    blackhole.consume(cmd.getAbsoluteTimestamp());
+    blackhole.consume(cmd.getSrc());
+    cmd.release();
+  }
+
+}
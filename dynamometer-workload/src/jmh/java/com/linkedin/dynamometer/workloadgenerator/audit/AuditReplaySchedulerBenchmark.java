@@ -0,0 +1,153 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Compares the {@link AuditReplayScheduler} implementations by replaying a synthetic,
+ * evenly spaced stream of commands through them. Each replay thread simulates a command
+ * by spinning for {@code serviceTimeMicros}. The time reported by JMH is the time taken
+ * for the whole replay; after each invocation the percentage of late commands (using the
+ * same tolerance as {@link AuditReplayThread}) and the distribution of dispatch jitter
+ * (actual minus scheduled dispatch time) are printed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AuditReplaySchedulerBenchmark {
+
+  private static final long LATE_TOLERANCE_MICROS = 5000;
+  private static final long START_DELAY_MS = 500;
+
+  @Param({ "DelayQueueScheduler", "TimingWheelScheduler" })
+  public String schedulerName;
+
+  @Param({ "1", "16", "64" })
+  public int numThreads;
+
+  @Param({ "20000" })
+  public int commandsPerSecond;
+
+  @Param({ "2000" })
+  public int durationMs;
+
+  @Param({ "0", "100" })
+  public int serviceTimeMicros;
+
+  @Benchmark
+  public void replay() throws Exception {
+    AuditReplayScheduler scheduler = (AuditReplayScheduler) Class.forName(
+        AuditReplayScheduler.class.getPackage().getName() + "." + schedulerName).newInstance();
+    scheduler.initialize(new Configuration(false), numThreads, new ReplayClock());
+
+    int numCommands = (int) ((long) commandsPerSecond * durationMs / 1000);
+    long[] jitterMicros = new long[numCommands];
+    long baseWallMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    long baseNanos = System.nanoTime();
+    ConsumerThread[] threads = new ConsumerThread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new ConsumerThread(scheduler, i, jitterMicros, baseWallMicros, baseNanos);
+      threads[i].start();
+    }
+
+    long startMs = System.currentTimeMillis() + START_DELAY_MS;
+    for (int i = 0; i < numCommands; i++) {
+      scheduler.schedule(new BenchmarkCommand(startMs + (long) i * durationMs / numCommands, i));
+    }
+    for (int i = 0; i < numThreads; i++) {
+      scheduler.schedule(AuditReplayCommand.getPoisonPill(startMs + durationMs + 1), i);
+    }
+    for (ConsumerThread thread : threads) {
+      thread.join();
+    }
+
+    long lateCount = 0;
+    for (long jitter : jitterMicros) {
+      if (jitter > LATE_TOLERANCE_MICROS) {
+        lateCount++;
+      }
+    }
+    Arrays.sort(jitterMicros);
+    System.out.println(String.format("%n%s with %d threads: late commands: %.3f%%, dispatch jitter (us): " +
+        "p50=%d p99=%d p999=%d max=%d", schedulerName, numThreads, lateCount * 100.0 / numCommands,
+        percentile(jitterMicros, 0.5), percentile(jitterMicros, 0.99), percentile(jitterMicros, 0.999),
+        jitterMicros[numCommands - 1]));
+  }
+
+  private static long percentile(long[] sortedValues, double percentile) {
+    return sortedValues[(int) Math.min(sortedValues.length - 1, Math.floor(sortedValues.length * percentile))];
+  }
+
+  /**
+   * A command which only carries its sequence number in addition to its timestamp.
+   */
+  private static class BenchmarkCommand extends AuditReplayCommand {
+
+    private final int sequence;
+
+    BenchmarkCommand(long absoluteTimestamp, int sequence) {
+      super(absoluteTimestamp, null, null, null, null, null);
+      this.sequence = sequence;
+    }
+
+  }
+
+  private class ConsumerThread extends Thread {
+
+    private final AuditReplayScheduler scheduler;
+    private final int threadIndex;
+    private final long[] jitterMicros;
+    private final long baseWallMicros;
+    private final long baseNanos;
+
+    ConsumerThread(AuditReplayScheduler scheduler, int threadIndex, long[] jitterMicros,
+        long baseWallMicros, long baseNanos) {
+      this.scheduler = scheduler;
+      this.threadIndex = threadIndex;
+      this.jitterMicros = jitterMicros;
+      this.baseWallMicros = baseWallMicros;
+      this.baseNanos = baseNanos;
+    }
+
+    @Override
+    public void run() {
+      try {
+        AuditReplayCommand cmd = scheduler.take(threadIndex);
+        while (!cmd.isPoison()) {
+          long nowNanos = System.nanoTime();
+          long nowMicros = baseWallMicros + TimeUnit.NANOSECONDS.toMicros(nowNanos - baseNanos);
+          jitterMicros[((BenchmarkCommand) cmd).sequence] =
+              nowMicros - TimeUnit.MILLISECONDS.toMicros(cmd.getAbsoluteTimestamp());
+          long serviceEndNanos = nowNanos + TimeUnit.MICROSECONDS.toNanos(serviceTimeMicros);
+          while (System.nanoTime() < serviceEndNanos) {
+            // Simulate the time spent performing the command
+          }
+          cmd = scheduler.take(threadIndex);
+        }
+      } catch (InterruptedException ie) {
+        throw new RuntimeException(ie);
+      }
+    }
+
+  }
+
+}
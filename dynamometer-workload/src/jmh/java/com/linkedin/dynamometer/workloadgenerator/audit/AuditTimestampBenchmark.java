@@ -0,0 +1,74 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Compares {@link AuditTimestampDecoder} against the {@link SimpleDateFormat} previously used
+ * by {@link AuditLogDirectParser}, over {@value #NUM_TIMESTAMPS} increasing timestamps which
+ * span a change of day. Run with {@code -prof gc} to also compare allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuditTimestampBenchmark {
+
+  private static final int NUM_TIMESTAMPS = 1024;
+
+  private byte[][] timestamps;
+  private SimpleDateFormat dateFormat;
+  private AuditTimestampDecoder decoder;
+
+  @Setup
+  public void setup() {
+    dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
+    dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    decoder = new AuditTimestampDecoder();
+    timestamps = new byte[NUM_TIMESTAMPS][];
+    // Start shortly before midnight so that the day changes partway through
+    long start = TimeUnit.DAYS.toMillis(17000) - NUM_TIMESTAMPS / 2 * 37;
+    for (int i = 0; i < NUM_TIMESTAMPS; i++) {
+      timestamps[i] = dateFormat.format(new Date(start + i * 37)).getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_TIMESTAMPS)
+  public void simpleDateFormat(Blackhole blackhole) throws Exception {
+    for (byte[] timestamp : timestamps) {
+      blackhole.consume(dateFormat.parse(new String(timestamp, StandardCharsets.UTF_8)).getTime());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_TIMESTAMPS)
+  public void decoder(Blackhole blackhole) throws Exception {
+    for (byte[] timestamp : timestamps) {
+      blackhole.consume(decoder.decode(timestamp, 0, timestamp.length));
+    }
+  }
+
+}
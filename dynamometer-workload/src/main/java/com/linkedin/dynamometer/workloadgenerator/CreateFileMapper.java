@@ -9,11 +9,14 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 
 
@@ -30,14 +33,18 @@ import org.apache.hadoop.mapreduce.Mapper;
  *       number of file objects.</li>
  *   <li>{@value FILE_PARENT_PATH_KEY} (default: {@value FILE_PARENT_PATH_DEFAULT}): The root directory
  *       in which to create files.</li>
+ *   <li>{@value PATH_DICTIONARY_KEY} (default: none): Path to a dictionary of the namespace, as written by
+ *       {@link NamespaceSampler}. If set, each file is created in a directory drawn from the dictionary rather
+ *       than beneath {@value FILE_PARENT_PATH_KEY}.</li>
  * </ul>
  */
-public class CreateFileMapper extends WorkloadMapper<NullWritable, NullWritable> {
+public class CreateFileMapper extends WorkloadMapper<LongWritable, NullWritable> {
 
   public static final String NUM_MAPPERS_KEY = "createfile.num-mappers";
   public static final String DURATION_MIN_KEY = "createfile.duration-min";
   public static final String FILE_PARENT_PATH_KEY = "createfile.file-parent-path";
   public static final String FILE_PARENT_PATH_DEFAULT = "/tmp/createFileMapper";
+  public static final String PATH_DICTIONARY_KEY = "createfile.path-dictionary";
   public static final String SHOULD_DELETE_KEY = "createfile.should-delete";
   public static final boolean SHOULD_DELETE_DEFAULT = false;
 
@@ -66,17 +73,27 @@ public class CreateFileMapper extends WorkloadMapper<NullWritable, NullWritable>
         SHOULD_DELETE_KEY + " (default: " + SHOULD_DELETE_DEFAULT + "): If true, delete the files after creating " +
             "them. This can be useful for generating constant load without increasing the number of file objects.",
         FILE_PARENT_PATH_KEY + " (default: " + FILE_PARENT_PATH_DEFAULT +
-            "): The root directory in which to create files."
+            "): The root directory in which to create files.",
+        PATH_DICTIONARY_KEY + " (default: none): Path to a dictionary of the namespace, as written by " +
+            "sample-namespace.sh. If set, each file is created in a directory drawn from the dictionary rather " +
+            "than beneath " + FILE_PARENT_PATH_KEY + "."
     );
   }
 
+  @Override
+  public void configureJob(Job job) {
+    super.configureJob(job);
+    // The single record of each mapper creates files for the whole duration
+    job.getConfiguration().setInt(VirtualInputFormat.RECORDS_PER_SPLIT_KEY, 1);
+  }
+
   @Override
   public boolean verifyConfigurations(Configuration conf) {
     return conf.get(NUM_MAPPERS_KEY) != null && conf.get(DURATION_MIN_KEY) != null;
   }
 
   @Override
-  public void map(NullWritable key, NullWritable value, Mapper.Context mapperContext)
+  public void map(LongWritable key, NullWritable value, Mapper.Context mapperContext)
       throws IOException, InterruptedException {
     taskID = mapperContext.getTaskAttemptID().getTaskID().getId();
     conf = mapperContext.getConfiguration();
@@ -92,6 +109,14 @@ public class CreateFileMapper extends WorkloadMapper<NullWritable, NullWritable>
     fs = FileSystem.get(URI.create(namenodeURI), conf);
     System.out.println("Start timestamp: " + startTimestampMs);
 
+    // Open any dictionary before the start time, since it may have to be copied locally
+    PathDictionary dictionary = null;
+    if (conf.get(PATH_DICTIONARY_KEY) != null) {
+      Path dictionaryPath = new Path(conf.get(PATH_DICTIONARY_KEY));
+      dictionary = PathDictionary.open(dictionaryPath.getFileSystem(conf), dictionaryPath);
+    }
+    Random random = new Random();
+
     long currentEpoch = System.currentTimeMillis();
     long delay = startTimestampMs - currentEpoch;
     if (delay > 0) {
@@ -100,12 +125,21 @@ public class CreateFileMapper extends WorkloadMapper<NullWritable, NullWritable>
     }
 
     String mapperSpecifcPathPrefix = fileParentPath + "/mapper" + taskID;
-    System.out.println("Mapper path prefix: " + mapperSpecifcPathPrefix);
+    if (dictionary != null) {
+      System.out.println("Creating files in " + dictionary.getNumDirectories() + " directories from " +
+          conf.get(PATH_DICTIONARY_KEY));
+    } else {
+      System.out.println("Mapper path prefix: " + mapperSpecifcPathPrefix);
+    }
     long numFilesCreated = 0;
     Path path;
     final byte[] content = {0x0};
     while (System.currentTimeMillis() < endTimeStampMs ) {
-      path = new Path(mapperSpecifcPathPrefix + "/file" + numFilesCreated);
+      if (dictionary != null) {
+        path = new Path(dictionary.getRandomDirectory(random), "createFileMapper-" + taskID + "-" + numFilesCreated);
+      } else {
+        path = new Path(mapperSpecifcPathPrefix + "/file" + numFilesCreated);
+      }
       OutputStream out = fs.create(path);
       out.write(content);
       out.close();
@@ -0,0 +1,322 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+
+/**
+ * This is a tool which samples the paths of a namespace from an fsimage in XML format, the same input as is used
+ * by the block generation job, and writes them into a {@link PathDictionary} from which synthetic workloads
+ * draw the paths they operate on, so that they exercise the directories and path depths of a real namespace.
+ * Up to a maximum number of files, and of directories, are sampled uniformly. Each is then weighted by the
+ * fan-out of its directory (the directory itself, or the parent of a file), so that the busiest directories
+ * see the most load, and by its depth, so that the cost of resolving deep paths is represented:
+ * <pre>
+ *   weight = fanOut ^ fanOutExponent * depth ^ depthExponent
+ * </pre>
+ * where the depth of the root is 1. The fsimage is read in a single pass; the name and parent of every
+ * directory are held in memory to build full paths, so the heap must be sized according to the number of
+ * directories in the namespace. It takes in the following arguments:
+ *   - Required: input path of the fsimage in XML format
+ *   - Required: output path for the dictionary
+ *   - Optional: maximum number of files, and of directories, to sample
+ *   - Optional: the fan-out and depth exponents
+ */
+public class NamespaceSampler extends Configured implements Tool {
+
+  public static final String FSIMAGE_INPUT_PATH_ARG = "fsimage_input_path";
+  public static final String OUTPUT_PATH_ARG = "output_path";
+  public static final String MAX_PATHS_ARG = "max_paths";
+  public static final int MAX_PATHS_DEFAULT = 1000000;
+  public static final String FAN_OUT_EXPONENT_ARG = "fan_out_exponent";
+  public static final double FAN_OUT_EXPONENT_DEFAULT = 1;
+  public static final String DEPTH_EXPONENT_ARG = "depth_exponent";
+  public static final double DEPTH_EXPONENT_DEFAULT = 1;
+
+  private static final Log LOG = LogFactory.getLog(NamespaceSampler.class);
+
+  // The ID of the root inode, as defined by INodeId.ROOT_INODE_ID
+  private static final long ROOT_INODE_ID = 16385;
+  // An inode's ID, type and name are all on the first line of its element
+  private static final Pattern INODE_PATTERN =
+      Pattern.compile("<inode><id>(\\d+)</id><type>(\\w+)</type><name>(.*?)</name>");
+  // Each directory's children are on a single line
+  private static final Pattern DIRECTORY_PATTERN = Pattern.compile("<directory><parent>(\\d+)</parent>");
+  private static final Pattern CHILD_PATTERN = Pattern.compile("<inode>(\\d+)</inode>");
+
+  public NamespaceSampler(Configuration conf) {
+    setConf(conf);
+  }
+
+  public int run(String[] args) throws Exception {
+    Options options = new Options();
+    options.addOption("h", "help", false, "Shows this message");
+    options.addOption(OptionBuilder.withArgName("Input path").hasArg().isRequired(true)
+        .withDescription("Input path of the fsimage in XML format (required)").create(FSIMAGE_INPUT_PATH_ARG));
+    options.addOption(OptionBuilder.withArgName("Output path").hasArg().isRequired(true)
+        .withDescription("Path where the dictionary should be written (required)").create(OUTPUT_PATH_ARG));
+    options.addOption(OptionBuilder.withArgName("Maximum paths").hasArg()
+        .withDescription("Maximum number of files, and of directories, to sample (default " + MAX_PATHS_DEFAULT +
+            ")").create(MAX_PATHS_ARG));
+    options.addOption(OptionBuilder.withArgName("Fan-out exponent").hasArg()
+        .withDescription("Exponent of the fan-out of each path's directory in its weight (default " +
+            FAN_OUT_EXPONENT_DEFAULT + ")").create(FAN_OUT_EXPONENT_ARG));
+    options.addOption(OptionBuilder.withArgName("Depth exponent").hasArg()
+        .withDescription("Exponent of the depth of each path in its weight (default " + DEPTH_EXPONENT_DEFAULT +
+            ")").create(DEPTH_EXPONENT_ARG));
+
+    CommandLineParser parser = new PosixParser();
+    CommandLine cli = parser.parse(options, args);
+    if (cli.hasOption("h")) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp(200, "./sample-namespace [options]", null, options,
+          "The fsimage can be converted to XML using `hdfs oiv -p XML`, as for the block generation job.");
+      return 0;
+    }
+
+    int maxPaths = Integer.parseInt(cli.getOptionValue(MAX_PATHS_ARG, String.valueOf(MAX_PATHS_DEFAULT)));
+    double fanOutExponent = Double.parseDouble(
+        cli.getOptionValue(FAN_OUT_EXPONENT_ARG, String.valueOf(FAN_OUT_EXPONENT_DEFAULT)));
+    double depthExponent = Double.parseDouble(
+        cli.getOptionValue(DEPTH_EXPONENT_ARG, String.valueOf(DEPTH_EXPONENT_DEFAULT)));
+    sample(getConf(), new Path(cli.getOptionValue(FSIMAGE_INPUT_PATH_ARG)),
+        new Path(cli.getOptionValue(OUTPUT_PATH_ARG)), maxPaths, fanOutExponent, depthExponent, new Random());
+    return 0;
+  }
+
+  /**
+   * Sample the paths of an fsimage into a dictionary.
+   * @param conf The configuration used to access the input and output.
+   * @param fsImage The fsimage in XML format.
+   * @param output The path to which the dictionary is written.
+   * @param maxPaths The maximum number of files, and of directories, to sample.
+   * @param fanOutExponent The exponent of the fan-out in the weight of each path.
+   * @param depthExponent The exponent of the depth in the weight of each path.
+   * @param random The source of randomness used to sample the paths.
+   */
+  public static void sample(Configuration conf, Path fsImage, Path output, int maxPaths, double fanOutExponent,
+      double depthExponent, Random random) throws IOException {
+    Namespace namespace = new Namespace(maxPaths, random);
+    FileSystem inputFs = fsImage.getFileSystem(conf);
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(inputFs.open(fsImage), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        namespace.parseLine(line);
+      }
+    }
+    LOG.info("Read " + namespace.directories.size() + " directories and " + namespace.numFiles + " files");
+
+    List<String> files = new ArrayList<>();
+    List<Double> fileWeights = new ArrayList<>();
+    for (int i = 0; i < namespace.sampledFileNames.size(); i++) {
+      Directory parent = namespace.directories.get(namespace.sampledFileParents.get(i));
+      String parentPath = namespace.getPath(parent);
+      if (parentPath == null) {
+        continue;
+      }
+      files.add((parentPath.equals("/") ? "" : parentPath) + "/" + namespace.sampledFileNames.get(i));
+      fileWeights.add(getWeight(parent.children, parent.depth + 1, fanOutExponent, depthExponent));
+    }
+    List<String> directories = new ArrayList<>();
+    List<Double> directoryWeights = new ArrayList<>();
+    for (Directory directory : namespace.sampledDirectories) {
+      String path = namespace.getPath(directory);
+      if (path == null) {
+        continue;
+      }
+      directories.add(path);
+      directoryWeights.add(getWeight(directory.children, directory.depth, fanOutExponent, depthExponent));
+    }
+    if (files.isEmpty() || directories.isEmpty()) {
+      throw new IOException("The fsimage must include at least one file and one directory: " + fsImage);
+    }
+
+    FileSystem outputFs = output.getFileSystem(conf);
+    PathDictionary.write(outputFs.create(output, true), files, toArray(fileWeights), directories,
+        toArray(directoryWeights));
+    LOG.info("Wrote " + files.size() + " files and " + directories.size() + " directories to " + output);
+  }
+
+  private static double getWeight(int fanOut, int depth, double fanOutExponent, double depthExponent) {
+    return Math.pow(Math.max(fanOut, 1), fanOutExponent) * Math.pow(depth, depthExponent);
+  }
+
+  private static double[] toArray(List<Double> values) {
+    double[] array = new double[values.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = values.get(i);
+    }
+    return array;
+  }
+
+  public static void main(String[] args) throws Exception {
+    NamespaceSampler sampler = new NamespaceSampler(new Configuration());
+    System.exit(ToolRunner.run(sampler, args));
+  }
+
+  private static class Directory {
+    private final String name;
+    private long parent = -1;
+    private int children = 0;
+    // Set once the directory's path has been resolved
+    private int depth = 0;
+
+    private Directory(String name) {
+      this.name = name;
+    }
+  }
+
+  /**
+   * The directories of the namespace, and a reservoir sample of its files and directories, built up as the
+   * fsimage is read.
+   */
+  private static class Namespace {
+    private final int maxPaths;
+    private final Random random;
+    private final Map<Long, Directory> directories = new HashMap<>();
+    private final List<Directory> sampledDirectories = new ArrayList<>();
+    private final List<String> sampledFileNames = new ArrayList<>();
+    private final List<Long> sampledFileIds = new ArrayList<>();
+    private final List<Long> sampledFileParents = new ArrayList<>();
+    // The index within the sample of each sampled file, until its parent is known
+    private final Map<Long, Integer> sampledFileIndexes = new HashMap<>();
+    private long numFiles = 0;
+
+    private Namespace(int maxPaths, Random random) {
+      this.maxPaths = maxPaths;
+      this.random = random;
+    }
+
+    private void parseLine(String line) {
+      Matcher inodeMatcher = INODE_PATTERN.matcher(line);
+      if (inodeMatcher.find()) {
+        long id = Long.parseLong(inodeMatcher.group(1));
+        String name = unescape(inodeMatcher.group(3));
+        if (inodeMatcher.group(2).equals("DIRECTORY")) {
+          Directory directory = new Directory(name);
+          directories.put(id, directory);
+          int index = getSampleIndex(directories.size());
+          if (index == sampledDirectories.size()) {
+            sampledDirectories.add(directory);
+          } else if (index >= 0) {
+            sampledDirectories.set(index, directory);
+          }
+        } else if (inodeMatcher.group(2).equals("FILE")) {
+          numFiles++;
+          int index = getSampleIndex(numFiles);
+          if (index == sampledFileNames.size()) {
+            sampledFileNames.add(name);
+            sampledFileIds.add(id);
+            sampledFileParents.add(-1L);
+            sampledFileIndexes.put(id, index);
+          } else if (index >= 0) {
+            // Forget the file which was replaced
+            sampledFileIndexes.remove(sampledFileIds.get(index));
+            sampledFileNames.set(index, name);
+            sampledFileIds.set(index, id);
+            sampledFileIndexes.put(id, index);
+          }
+        }
+        return;
+      }
+      Matcher directoryMatcher = DIRECTORY_PATTERN.matcher(line);
+      if (directoryMatcher.find()) {
+        long parentId = Long.parseLong(directoryMatcher.group(1));
+        Directory parent = directories.get(parentId);
+        Matcher childMatcher = CHILD_PATTERN.matcher(line);
+        while (childMatcher.find()) {
+          long childId = Long.parseLong(childMatcher.group(1));
+          if (parent != null) {
+            parent.children++;
+          }
+          Directory child = directories.get(childId);
+          if (child != null) {
+            child.parent = parentId;
+            continue;
+          }
+          Integer index = sampledFileIndexes.remove(childId);
+          if (index != null) {
+            sampledFileParents.set(index, parentId);
+          }
+        }
+      }
+    }
+
+    /**
+     * @return The index within the sample at which to store the n-th item seen, or -1 if it is not sampled.
+     */
+    private int getSampleIndex(long n) {
+      if (n <= maxPaths) {
+        return (int) n - 1;
+      }
+      long index = (long) (random.nextDouble() * n);
+      return index < maxPaths ? (int) index : -1;
+    }
+
+    /**
+     * @return The full path of a directory, or null if it is not connected to the root, e.g. if it only
+     *         exists within a snapshot.
+     */
+    private String getPath(Directory directory) {
+      Directory root = directories.get(ROOT_INODE_ID);
+      if (directory == null || root == null) {
+        return null;
+      } else if (directory == root) {
+        directory.depth = 1;
+        return "/";
+      }
+      List<String> names = new ArrayList<>();
+      Directory current = directory;
+      while (current != root) {
+        if (current == null || current.parent == -1 || names.size() > directories.size()) {
+          return null;
+        }
+        names.add(current.name);
+        current = directories.get(current.parent);
+      }
+      directory.depth = names.size() + 1;
+      StringBuilder path = new StringBuilder();
+      for (int i = names.size() - 1; i >= 0; i--) {
+        path.append('/').append(names.get(i));
+      }
+      return path.toString();
+    }
+
+    private static String unescape(String xml) {
+      if (xml.indexOf('&') < 0) {
+        return xml;
+      }
+      return xml.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'")
+          .replace("&amp;", "&");
+    }
+  }
+
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+
+
+/**
+ * A dictionary of files and directories, each with a weight, from which random paths are drawn in proportion
+ * to their weights. It is written once by {@link NamespaceSampler} and then memory-mapped by each reader, so
+ * that a sample of millions of paths can be shared by every thread of a map task without being loaded onto
+ * the heap. Each draw takes constant time, using Walker's alias method: a slot is picked uniformly, and then
+ * either its own path or its alias is returned, according to the probability stored in the slot.
+ *
+ * <p>The format of the dictionary, in which all values are big-endian, is:
+ * <pre>
+ *   int magic, int version, int numFiles, int numDirectories
+ *   the table of files, followed by the table of directories, each of n entries consisting of:
+ *     float[n] probability of returning the slot's own path rather than its alias
+ *     int[n] index of the slot's alias
+ *     int[n + 1] offset within the dictionary of the start of each path, and of the end of the last
+ *     the UTF-8 encoding of each path
+ * </pre>
+ * Since a single mapping is used, the dictionary may be no larger than 2 GB.
+ */
+class PathDictionary extends SyntheticNamespace {
+
+  private static final int MAGIC = 0x44594E50;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 16;
+
+  private final ByteBuffer buffer;
+  private final Table files;
+  private final Table directories;
+
+  private PathDictionary(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a path dictionary");
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported path dictionary version: " + buffer.getInt(4));
+    }
+    files = new Table(buffer.getInt(8), HEADER_BYTES);
+    directories = new Table(buffer.getInt(12), files.end);
+    if (files.size == 0 || directories.size == 0) {
+      throw new IOException("The path dictionary must include at least one file and one directory");
+    }
+  }
+
+  /**
+   * Open a dictionary. If it is not on the local file system, it is first copied to a temporary local file,
+   * which is deleted once it has been mapped.
+   * @param fs The FileSystem holding the dictionary.
+   * @param path The path of the dictionary.
+   * @return The dictionary.
+   */
+  static PathDictionary open(FileSystem fs, Path path) throws IOException {
+    if (fs instanceof LocalFileSystem || fs instanceof RawLocalFileSystem) {
+      return open(new File(fs.makeQualified(path).toUri().getPath()));
+    }
+    File localFile = File.createTempFile("pathDictionary", null);
+    try {
+      fs.copyToLocalFile(false, path, new Path(localFile.getAbsolutePath()), true);
+      return open(localFile);
+    } finally {
+      // The mapping remains valid after the file is deleted
+      localFile.delete();
+    }
+  }
+
+  /**
+   * Open a dictionary on the local file system.
+   * @param file The dictionary.
+   * @return The dictionary.
+   */
+  static PathDictionary open(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      if (raf.length() > Integer.MAX_VALUE) {
+        throw new IOException("Path dictionary is too large to map: " + file);
+      }
+      return new PathDictionary(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+    }
+  }
+
+  /**
+   * Write a dictionary.
+   * @param out The stream to which the dictionary is written; it is closed once the dictionary is written.
+   * @param files The files.
+   * @param fileWeights The relative weight with which each file should be drawn.
+   * @param directories The directories.
+   * @param directoryWeights The relative weight with which each directory should be drawn.
+   */
+  static void write(OutputStream out, List<String> files, double[] fileWeights, List<String> directories,
+      double[] directoryWeights) throws IOException {
+    byte[][] fileBytes = encode(files);
+    byte[][] directoryBytes = encode(directories);
+    long size = HEADER_BYTES + getTableBytes(fileBytes) + getTableBytes(directoryBytes);
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Path dictionary would be too large to map: " + size + " bytes");
+    }
+    try (DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out))) {
+      dataOut.writeInt(MAGIC);
+      dataOut.writeInt(VERSION);
+      dataOut.writeInt(files.size());
+      dataOut.writeInt(directories.size());
+      writeTable(dataOut, fileBytes, fileWeights);
+      writeTable(dataOut, directoryBytes, directoryWeights);
+    }
+  }
+
+  private static byte[][] encode(List<String> paths) {
+    byte[][] encoded = new byte[paths.size()][];
+    for (int i = 0; i < encoded.length; i++) {
+      encoded[i] = paths.get(i).getBytes(StandardCharsets.UTF_8);
+    }
+    return encoded;
+  }
+
+  private static long getTableBytes(byte[][] paths) {
+    long size = 12L * paths.length + 4;
+    for (byte[] path : paths) {
+      size += path.length;
+    }
+    return size;
+  }
+
+  private static void writeTable(DataOutputStream out, byte[][] paths, double[] weights) throws IOException {
+    int n = paths.length;
+    float[] probabilities = new float[n];
+    int[] aliases = new int[n];
+    buildAliasTable(weights, probabilities, aliases);
+    for (float probability : probabilities) {
+      out.writeFloat(probability);
+    }
+    for (int alias : aliases) {
+      out.writeInt(alias);
+    }
+    // Paths start after the offsets
+    int offset = out.size() + 4 * (n + 1);
+    for (byte[] path : paths) {
+      out.writeInt(offset);
+      offset += path.length;
+    }
+    out.writeInt(offset);
+    for (byte[] path : paths) {
+      out.write(path);
+    }
+  }
+
+  /**
+   * Build the alias table for the given weights using Vose's algorithm.
+   */
+  static void buildAliasTable(double[] weights, float[] probabilities, int[] aliases) {
+    int n = weights.length;
+    double total = 0;
+    for (double weight : weights) {
+      total += weight;
+    }
+    double[] scaled = new double[n];
+    Deque<Integer> small = new ArrayDeque<>();
+    Deque<Integer> large = new ArrayDeque<>();
+    for (int i = 0; i < n; i++) {
+      scaled[i] = total > 0 ? weights[i] * n / total : 1;
+      if (scaled[i] < 1) {
+        small.push(i);
+      } else {
+        large.push(i);
+      }
+    }
+    while (!small.isEmpty() && !large.isEmpty()) {
+      int less = small.pop();
+      int more = large.pop();
+      probabilities[less] = (float) scaled[less];
+      aliases[less] = more;
+      scaled[more] = scaled[more] + scaled[less] - 1;
+      if (scaled[more] < 1) {
+        small.push(more);
+      } else {
+        large.push(more);
+      }
+    }
+    // Whatever remains is within rounding error of 1
+    while (!large.isEmpty()) {
+      int i = large.pop();
+      probabilities[i] = 1;
+      aliases[i] = i;
+    }
+    while (!small.isEmpty()) {
+      int i = small.pop();
+      probabilities[i] = 1;
+      aliases[i] = i;
+    }
+  }
+
+  @Override
+  String getRandomFile(Random random) {
+    return files.getRandomPath(random);
+  }
+
+  @Override
+  String getRandomDirectory(Random random) {
+    return directories.getRandomPath(random);
+  }
+
+  @Override
+  int getNumFiles() {
+    return files.size;
+  }
+
+  @Override
+  int getNumDirectories() {
+    return directories.size;
+  }
+
+  /**
+   * The location of one table within the buffer.
+   */
+  private class Table {
+    private final int size;
+    private final int probabilities;
+    private final int aliases;
+    private final int offsets;
+    private final int end;
+
+    private Table(int size, int start) throws IOException {
+      this.size = size;
+      probabilities = start;
+      aliases = probabilities + 4 * size;
+      offsets = aliases + 4 * size;
+      if (size < 0 || offsets + 4L * (size + 1) > buffer.capacity()) {
+        throw new IOException("Truncated path dictionary");
+      }
+      end = buffer.getInt(offsets + 4 * size);
+    }
+
+    private String getRandomPath(Random random) {
+      int index = random.nextInt(size);
+      if (random.nextFloat() >= buffer.getFloat(probabilities + 4 * index)) {
+        index = buffer.getInt(aliases + 4 * index);
+      }
+      return getPath(index);
+    }
+
+    private String getPath(int index) {
+      int start = buffer.getInt(offsets + 4 * index);
+      byte[] bytes = new byte[buffer.getInt(offsets + 4 * (index + 1)) - start];
+      // Absolute gets leave the buffer's position untouched, so it can be shared between threads
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = buffer.get(start + i);
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+
+}
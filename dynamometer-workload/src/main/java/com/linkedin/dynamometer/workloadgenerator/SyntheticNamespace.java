@@ -0,0 +1,194 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+
+/**
+ * A sample of the paths of a namespace, from which {@link SyntheticWorkloadMapper} picks the targets of its
+ * operations. The sample is either read from a listing of an existing namespace, such as the one loaded
+ * into the NameNode under test, generated as a tree of directories and files, or drawn from a
+ * {@link PathDictionary} built from an fsimage by {@link NamespaceSampler}.
+ *
+ * <p>A listing has one path per line. Only the first tab-separated field of each line is used, so the output
+ * of the Offline Image Viewer's Delimited processor ({@code hdfs oiv -p Delimited}) can be used directly;
+ * its permission field identifies directories, and lines which are not absolute paths, such as its header,
+ * are skipped. All other paths are treated as files. The directories picked are the parents of the listed
+ * paths, so each is picked in proportion to the number of its children which were listed. At most a given
+ * number of paths of each kind are kept, chosen by reservoir sampling.
+ */
+abstract class SyntheticNamespace {
+
+  // The index of the permission field in the output of the Delimited processor
+  private static final int PERMISSION_FIELD = 9;
+
+  /**
+   * Read a sample of the paths in a listing of a namespace.
+   * @param fs The FileSystem holding the listing.
+   * @param listing The path of the listing.
+   * @param maxPaths The maximum number of files, and of directories, to keep.
+   * @param random The source of randomness used to sample the paths.
+   * @return The sample.
+   */
+  static SyntheticNamespace load(FileSystem fs, Path listing, int maxPaths, Random random) throws IOException {
+    Reservoir files = new Reservoir(maxPaths, random);
+    Reservoir directories = new Reservoir(maxPaths, random);
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(fs.open(listing), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.startsWith("/")) {
+          continue;
+        }
+        String[] fields = line.split("\t");
+        String path = fields[0];
+        if (path.length() > 1 && path.endsWith("/")) {
+          path = path.substring(0, path.length() - 1);
+        }
+        if (path.length() > 1) {
+          int lastSlash = path.lastIndexOf('/');
+          directories.add(lastSlash == 0 ? "/" : path.substring(0, lastSlash));
+        }
+        if (fields.length <= PERMISSION_FIELD || !fields[PERMISSION_FIELD].startsWith("d")) {
+          files.add(path);
+        }
+      }
+    }
+    return new SampledNamespace(files.toArray(), directories.toArray());
+  }
+
+  /**
+   * Create a tree of directories, with a number of empty files in each of the directories at the bottom of
+   * the tree, and return it as a sample.
+   * @param fs The FileSystem in which to create the tree.
+   * @param root The directory beneath which to create the tree.
+   * @param depth The number of levels of directories beneath the root.
+   * @param fanOut The number of subdirectories of each directory above the bottom level.
+   * @param filesPerDirectory The number of files in each directory at the bottom level.
+   * @return The sample, containing every path in the tree.
+   */
+  static SyntheticNamespace generate(FileSystem fs, Path root, int depth, int fanOut, int filesPerDirectory)
+      throws IOException {
+    List<String> directories = new ArrayList<>();
+    List<String> level = new ArrayList<>();
+    level.add(root.toUri().getPath());
+    for (int i = 0; i < depth; i++) {
+      List<String> nextLevel = new ArrayList<>();
+      for (String parent : level) {
+        for (int j = 0; j < fanOut; j++) {
+          nextLevel.add(parent + "/dir" + j);
+        }
+      }
+      directories.addAll(level);
+      level = nextLevel;
+    }
+    directories.addAll(level);
+    List<String> files = new ArrayList<>();
+    for (String directory : level) {
+      // Creates the ancestors as well
+      fs.mkdirs(new Path(directory));
+      for (int i = 0; i < filesPerDirectory; i++) {
+        String file = directory + "/file" + i;
+        fs.create(new Path(file), true).close();
+        files.add(file);
+      }
+    }
+    return new SampledNamespace(files.toArray(new String[files.size()]),
+        directories.toArray(new String[directories.size()]));
+  }
+
+  abstract String getRandomFile(Random random);
+
+  abstract String getRandomDirectory(Random random);
+
+  abstract int getNumFiles();
+
+  abstract int getNumDirectories();
+
+  /**
+   * @return A file or directory, each chosen in proportion to their number in the sample.
+   */
+  String getRandomPath(Random random) {
+    return random.nextInt(getNumFiles() + getNumDirectories()) < getNumFiles()
+        ? getRandomFile(random) : getRandomDirectory(random);
+  }
+
+  /**
+   * A sample held in memory, from which each path is picked with equal probability.
+   */
+  private static class SampledNamespace extends SyntheticNamespace {
+    private final String[] files;
+    private final String[] directories;
+
+    private SampledNamespace(String[] files, String[] directories) throws IOException {
+      if (files.length == 0 || directories.length == 0) {
+        throw new IOException("The namespace sample must include at least one file and one directory");
+      }
+      this.files = files;
+      this.directories = directories;
+    }
+
+    @Override
+    String getRandomFile(Random random) {
+      return files[random.nextInt(files.length)];
+    }
+
+    @Override
+    String getRandomDirectory(Random random) {
+      return directories[random.nextInt(directories.length)];
+    }
+
+    @Override
+    int getNumFiles() {
+      return files.length;
+    }
+
+    @Override
+    int getNumDirectories() {
+      return directories.length;
+    }
+  }
+
+  /**
+   * Keeps a uniform random sample of a bounded number of the strings added to it.
+   */
+  private static class Reservoir {
+    private final int maxSize;
+    private final Random random;
+    private final List<String> sample = new ArrayList<>();
+    private long added = 0;
+
+    private Reservoir(int maxSize, Random random) {
+      this.maxSize = maxSize;
+      this.random = random;
+    }
+
+    private void add(String value) {
+      added++;
+      if (sample.size() < maxSize) {
+        sample.add(value);
+      } else {
+        long index = (long) (random.nextDouble() * added);
+        if (index < maxSize) {
+          sample.set((int) index, value);
+        }
+      }
+    }
+
+    private String[] toArray() {
+      return sample.toArray(new String[sample.size()]);
+    }
+  }
+
+}
@@ -0,0 +1,475 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper;
+import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayReducer;
+import com.linkedin.dynamometer.workloadgenerator.audit.LatencyHistogram;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+
+
+/**
+ * <p>SyntheticWorkloadMapper generates a controlled mix of operations against the NameNode for the specified
+ * duration, from multiple threads per mapper, for use as a microbenchmark when no production trace fits.
+ * Each operation is chosen at random according to the weights of the operation mix, and its target is chosen
+ * at random from a {@link SyntheticNamespace}: a {@link PathDictionary} sampled from an fsimage by
+ * {@link NamespaceSampler}, a sample of a listing of an existing namespace, such as the one loaded into the
+ * NameNode under test, or a tree generated by each mapper before it starts.
+ *
+ * <p>Reads target existing paths: GETFILEINFO any path, OPEN a file, and LISTSTATUS and CONTENTSUMMARY a
+ * directory. CREATE and MKDIRS create new paths within an existing directory. RENAME and DELETE act on
+ * the paths previously created by the same thread, renaming the oldest into another directory or deleting
+ * it; while a thread has none, they create one instead. Each thread only remembers the
+ * {@value #MAX_CREATED_PATHS_PER_THREAD} paths it created most recently, so older ones are left in place.
+ *
+ * <p>Like {@link CreateFileMapper}, this uses {@link VirtualInputFormat}, and so takes the number of mappers
+ * and the duration from the same configurations; each mapper reads one record per thread, and starts that
+ * thread when the record is mapped. The number of operations, failures and the total
+ * latency of each operation are reported as counters in the {@value OPERATIONS_COUNTER_GROUP} group, and
+ * their latency histograms are merged by an {@link AuditReplayReducer} as is done for {@link AuditReplayMapper}.
+ *
+ * <p>Configuration options available:
+ * <ul>
+ *   <li>{@value CreateFileMapper#NUM_MAPPERS_KEY} (required): Number of mappers to launch.</li>
+ *   <li>{@value CreateFileMapper#DURATION_MIN_KEY} (required): Number of minutes to induce workload for.</li>
+ *   <li>{@value NUM_THREADS_KEY} (default: {@value NUM_THREADS_DEFAULT}): Number of threads per mapper.</li>
+ *   <li>{@value OPERATION_MIX_KEY} (default: {@value OPERATION_MIX_DEFAULT}): The operations to perform, with
+ *       the relative weight of each.</li>
+ *   <li>{@value TARGET_RATE_KEY} (default: {@value TARGET_RATE_DEFAULT}): The number of operations per second
+ *       which each mapper should perform; if not positive, as many as possible.</li>
+ *   <li>{@value MAX_OPERATIONS_KEY} (default: {@value MAX_OPERATIONS_DEFAULT}): If positive, each mapper
+ *       stops after performing this many operations, even if the duration has not passed.</li>
+ *   <li>{@value NAMESPACE_DICTIONARY_KEY} (default: none): Path to a dictionary of the namespace from which
+ *       to choose paths, as written by {@link NamespaceSampler}.</li>
+ *   <li>{@value NAMESPACE_LISTING_KEY} (default: none): Path to a listing of the namespace from which to
+ *       choose paths, if no dictionary is set. If neither is set, a tree is generated instead.</li>
+ *   <li>{@value NAMESPACE_MAX_PATHS_KEY} (default: {@value NAMESPACE_MAX_PATHS_DEFAULT}): The maximum number
+ *       of files, and of directories, sampled from the listing.</li>
+ *   <li>{@value NAMESPACE_ROOT_KEY} (default: {@value NAMESPACE_ROOT_DEFAULT}): The directory within which
+ *       each mapper generates its tree.</li>
+ *   <li>{@value NAMESPACE_DEPTH_KEY}, {@value NAMESPACE_FAN_OUT_KEY} and {@value NAMESPACE_FILES_PER_DIR_KEY}
+ *       (defaults: {@value NAMESPACE_DEPTH_DEFAULT}, {@value NAMESPACE_FAN_OUT_DEFAULT} and
+ *       {@value NAMESPACE_FILES_PER_DIR_DEFAULT}): The shape of the generated tree.</li>
+ * </ul>
+ */
+public class SyntheticWorkloadMapper extends WorkloadOutputMapper<LongWritable, NullWritable, Text, LatencyHistogram> {
+
+  public static final String NUM_THREADS_KEY = "synthetic.num-threads";
+  public static final int NUM_THREADS_DEFAULT = 1;
+  public static final String OPERATION_MIX_KEY = "synthetic.operation-mix";
+  public static final String OPERATION_MIX_DEFAULT = "getfileinfo:70,liststatus:15,create:10,rename:5";
+  public static final String TARGET_RATE_KEY = "synthetic.target-rate";
+  public static final double TARGET_RATE_DEFAULT = 0;
+  public static final String MAX_OPERATIONS_KEY = "synthetic.max-operations";
+  public static final long MAX_OPERATIONS_DEFAULT = 0;
+  public static final String NAMESPACE_DICTIONARY_KEY = "synthetic.namespace.dictionary";
+  public static final String NAMESPACE_LISTING_KEY = "synthetic.namespace.listing";
+  public static final String NAMESPACE_MAX_PATHS_KEY = "synthetic.namespace.max-paths";
+  public static final int NAMESPACE_MAX_PATHS_DEFAULT = 1000000;
+  public static final String NAMESPACE_ROOT_KEY = "synthetic.namespace.root";
+  public static final String NAMESPACE_ROOT_DEFAULT = "/tmp/syntheticWorkload";
+  public static final String NAMESPACE_DEPTH_KEY = "synthetic.namespace.depth";
+  public static final int NAMESPACE_DEPTH_DEFAULT = 2;
+  public static final String NAMESPACE_FAN_OUT_KEY = "synthetic.namespace.fan-out";
+  public static final int NAMESPACE_FAN_OUT_DEFAULT = 10;
+  public static final String NAMESPACE_FILES_PER_DIR_KEY = "synthetic.namespace.files-per-dir";
+  public static final int NAMESPACE_FILES_PER_DIR_DEFAULT = 10;
+
+  public static final String OPERATIONS_COUNTER_GROUP = "SYNTHETIC_OPERATIONS";
+  public static final String OPERATIONS_COUNT_SUFFIX = "_COUNT";
+  public static final String OPERATIONS_FAILED_SUFFIX = "_FAILED";
+  public static final String OPERATIONS_LATENCY_SUFFIX = "_LATENCY";
+
+  private static final Log LOG = LogFactory.getLog(SyntheticWorkloadMapper.class);
+
+  // Bounds the memory used to remember created paths when they are created faster than they are deleted
+  static final int MAX_CREATED_PATHS_PER_THREAD = 10000;
+
+  public enum SYNTHETICCOUNTERS {
+    // Total number of operations performed
+    TOTALOPERATIONS,
+    // Total number of operations which failed
+    FAILEDOPERATIONS,
+    // Number of operations performed per second over the duration of the workload
+    OPERATIONSPERSECOND
+  }
+
+  public enum Operation {
+    GETFILEINFO,
+    LISTSTATUS,
+    OPEN,
+    CONTENTSUMMARY,
+    CREATE,
+    MKDIRS,
+    RENAME,
+    DELETE
+  }
+
+  /**
+   * A weighted choice between operations.
+   */
+  static class OperationMix {
+    private final Operation[] operations;
+    private final double[] cumulativeWeights;
+
+    /**
+     * @param mix A comma-separated list of operation:weight pairs, e.g. getfileinfo:70,create:30.
+     */
+    OperationMix(String mix) throws IOException {
+      List<Operation> operationList = new ArrayList<>();
+      List<Double> weightList = new ArrayList<>();
+      for (String entry : Splitter.on(',').trimResults().omitEmptyStrings().split(mix)) {
+        String[] parts = entry.split(":");
+        try {
+          if (parts.length != 2) {
+            throw new IllegalArgumentException("Expected operation:weight");
+          }
+          double weight = Double.parseDouble(parts[1].trim());
+          if (weight < 0) {
+            throw new IllegalArgumentException("Weights must not be negative");
+          }
+          operationList.add(Operation.valueOf(parts[0].trim().toUpperCase()));
+          weightList.add(weight);
+        } catch (IllegalArgumentException e) {
+          throw new IOException("Invalid entry in the operation mix: " + entry + "; operations supported are " +
+              Arrays.toString(Operation.values()), e);
+        }
+      }
+      operations = operationList.toArray(new Operation[operationList.size()]);
+      cumulativeWeights = new double[weightList.size()];
+      double total = 0;
+      for (int i = 0; i < cumulativeWeights.length; i++) {
+        total += weightList.get(i);
+        cumulativeWeights[i] = total;
+      }
+      if (total <= 0) {
+        throw new IOException("The operation mix must have a positive total weight: " + mix);
+      }
+    }
+
+    Operation choose(Random random) {
+      double value = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+      for (int i = 0; i < cumulativeWeights.length - 1; i++) {
+        if (value < cumulativeWeights[i]) {
+          return operations[i];
+        }
+      }
+      return operations[operations.length - 1];
+    }
+  }
+
+  // State shared by the worker threads, which are started one per input record
+  private int taskID;
+  private long endTimestampMs;
+  private int numWorkers;
+  private OperationMix mix;
+  private long intervalNanos;
+  private long maxOperations;
+  private FileSystem fs;
+  private SyntheticNamespace namespace;
+  private long startMs;
+  private final List<WorkerThread> threads = new ArrayList<>();
+
+  @Override
+  public String getDescription() {
+    return "This mapper performs a weighted mix of operations on a sample of a namespace for the specified " +
+        "duration, using multiple threads.";
+  }
+
+  @Override
+  public List<String> getConfigDescriptions() {
+    return Lists.newArrayList(
+        CreateFileMapper.NUM_MAPPERS_KEY + " (required): Number of mappers to launch.",
+        CreateFileMapper.DURATION_MIN_KEY + " (required): Number of minutes to induce workload for.",
+        NUM_THREADS_KEY + " (default: " + NUM_THREADS_DEFAULT + "): Number of threads per mapper.",
+        OPERATION_MIX_KEY + " (default: " + OPERATION_MIX_DEFAULT + "): Comma-separated list of operation:weight " +
+            "pairs giving the relative frequency of each operation. Operations supported are " +
+            Arrays.toString(Operation.values()) + ".",
+        TARGET_RATE_KEY + " (default: " + TARGET_RATE_DEFAULT + "): The number of operations per second which " +
+            "each mapper should perform, spread evenly across its threads. If not positive, each thread " +
+            "performs operations as fast as it can.",
+        MAX_OPERATIONS_KEY + " (default: " + MAX_OPERATIONS_DEFAULT + "): If positive, each mapper stops after " +
+            "performing this many operations, even if the duration has not passed.",
+        NAMESPACE_DICTIONARY_KEY + " (default: none): Path to a dictionary of the namespace from which to " +
+            "choose paths, as written by sample-namespace.sh from an fsimage. Paths are chosen according to the " +
+            "weights assigned when sampling.",
+        NAMESPACE_LISTING_KEY + " (default: none): Path to a listing of the namespace from which to choose " +
+            "paths, with one path per line, such as the output of `hdfs oiv -p Delimited`, if no dictionary is " +
+            "set. If neither is set, each mapper generates a tree to use instead.",
+        NAMESPACE_MAX_PATHS_KEY + " (default: " + NAMESPACE_MAX_PATHS_DEFAULT + "): The maximum number of files, " +
+            "and of directories, sampled from the listing by each mapper.",
+        NAMESPACE_ROOT_KEY + " (default: " + NAMESPACE_ROOT_DEFAULT + "): The directory within which each " +
+            "mapper generates its tree.",
+        NAMESPACE_DEPTH_KEY + " (default: " + NAMESPACE_DEPTH_DEFAULT + "): The number of levels of directories " +
+            "in the generated tree.",
+        NAMESPACE_FAN_OUT_KEY + " (default: " + NAMESPACE_FAN_OUT_DEFAULT + "): The number of subdirectories of " +
+            "each directory in the generated tree.",
+        NAMESPACE_FILES_PER_DIR_KEY + " (default: " + NAMESPACE_FILES_PER_DIR_DEFAULT + "): The number of files " +
+            "in each directory at the bottom of the generated tree."
+    );
+  }
+
+  @Override
+  public boolean verifyConfigurations(Configuration conf) {
+    return conf.get(CreateFileMapper.NUM_MAPPERS_KEY) != null && conf.get(CreateFileMapper.DURATION_MIN_KEY) != null;
+  }
+
+  @Override
+  public void configureJob(Job job) {
+    job.setMapOutputKeyClass(Text.class);
+    job.setMapOutputValueClass(LatencyHistogram.class);
+    // Merges the latency histograms of all of the mappers into percentiles
+    job.setReducerClass(AuditReplayReducer.class);
+    job.setNumReduceTasks(1);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(LatencyHistogram.class);
+    job.setOutputFormatClass(NullOutputFormat.class);
+    // Each record of the input starts one of the mapper's threads
+    Configuration conf = job.getConfiguration();
+    conf.setInt(VirtualInputFormat.RECORDS_PER_SPLIT_KEY, conf.getInt(NUM_THREADS_KEY, NUM_THREADS_DEFAULT));
+  }
+
+  @Override
+  public void setup(Context context) throws IOException, InterruptedException {
+    Configuration conf = context.getConfiguration();
+    taskID = context.getTaskAttemptID().getTaskID().getId();
+    long startTimestampMs = conf.getLong(WorkloadDriver.START_TIMESTAMP_MS, -1);
+    int durationMin = conf.getInt(CreateFileMapper.DURATION_MIN_KEY, -1);
+    if (durationMin < 0) {
+      throw new IOException("Duration must not be negative; got: " + durationMin);
+    }
+    endTimestampMs = startTimestampMs + TimeUnit.MINUTES.toMillis(durationMin);
+    numWorkers = ((VirtualInputSplit) context.getInputSplit()).getNumRecords();
+    mix = new OperationMix(conf.get(OPERATION_MIX_KEY, OPERATION_MIX_DEFAULT));
+    double targetRate = conf.getDouble(TARGET_RATE_KEY, TARGET_RATE_DEFAULT);
+    intervalNanos = targetRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * numWorkers / targetRate) : 0;
+    maxOperations = conf.getLong(MAX_OPERATIONS_KEY, MAX_OPERATIONS_DEFAULT);
+    fs = FileSystem.get(URI.create(conf.get(WorkloadDriver.NN_URI)), conf);
+
+    String dictionary = conf.get(NAMESPACE_DICTIONARY_KEY);
+    String listing = conf.get(NAMESPACE_LISTING_KEY);
+    if (dictionary != null) {
+      Path dictionaryPath = new Path(dictionary);
+      namespace = PathDictionary.open(dictionaryPath.getFileSystem(conf), dictionaryPath);
+    } else if (listing != null) {
+      Path listingPath = new Path(listing);
+      namespace = SyntheticNamespace.load(listingPath.getFileSystem(conf), listingPath,
+          conf.getInt(NAMESPACE_MAX_PATHS_KEY, NAMESPACE_MAX_PATHS_DEFAULT), new Random());
+    } else {
+      Path root = new Path(conf.get(NAMESPACE_ROOT_KEY, NAMESPACE_ROOT_DEFAULT), "mapper" + taskID);
+      LOG.info("Generating a namespace within " + root);
+      namespace = SyntheticNamespace.generate(fs, root, conf.getInt(NAMESPACE_DEPTH_KEY, NAMESPACE_DEPTH_DEFAULT),
+          conf.getInt(NAMESPACE_FAN_OUT_KEY, NAMESPACE_FAN_OUT_DEFAULT),
+          conf.getInt(NAMESPACE_FILES_PER_DIR_KEY, NAMESPACE_FILES_PER_DIR_DEFAULT));
+    }
+    LOG.info("Choosing paths from " + namespace.getNumFiles() + " files and " + namespace.getNumDirectories() +
+        " directories");
+
+    long delay = startTimestampMs - System.currentTimeMillis();
+    if (delay > 0) {
+      LOG.info("Sleeping for " + delay + " ms");
+      Thread.sleep(delay);
+    }
+    startMs = System.currentTimeMillis();
+  }
+
+  /**
+   * Start the worker thread for a single record; each mapper has one record per thread.
+   */
+  @Override
+  public void map(LongWritable key, NullWritable value, Context context) {
+    int index = (int) key.get();
+    long threadMaxOperations = maxOperations / numWorkers + (index < maxOperations % numWorkers ? 1 : 0);
+    WorkerThread thread = new WorkerThread(fs, namespace, mix, "synthetic-" + taskID + "-" + index,
+        endTimestampMs, maxOperations > 0 ? threadMaxOperations : Long.MAX_VALUE, intervalNanos);
+    threads.add(thread);
+    thread.start();
+  }
+
+  @Override
+  public void cleanup(Context context) throws IOException, InterruptedException {
+    for (WorkerThread thread : threads) {
+      while (thread.isAlive()) {
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+        context.progress();
+      }
+    }
+    long durationMs = Math.max(System.currentTimeMillis() - startMs, 1);
+    long totalOperations = 0;
+    for (Operation operation : Operation.values()) {
+      LatencyHistogram merged = new LatencyHistogram();
+      long failures = 0;
+      long latencyNanos = 0;
+      for (WorkerThread thread : threads) {
+        merged.add(thread.histograms[operation.ordinal()]);
+        failures += thread.failures[operation.ordinal()];
+        latencyNanos += thread.latencyNanos[operation.ordinal()];
+      }
+      long count = merged.getTotalCount();
+      if (count == 0) {
+        continue;
+      }
+      totalOperations += count;
+      context.getCounter(SYNTHETICCOUNTERS.FAILEDOPERATIONS).increment(failures);
+      context.getCounter(OPERATIONS_COUNTER_GROUP, operation + OPERATIONS_COUNT_SUFFIX).increment(count);
+      context.getCounter(OPERATIONS_COUNTER_GROUP, operation + OPERATIONS_FAILED_SUFFIX).increment(failures);
+      context.getCounter(OPERATIONS_COUNTER_GROUP, operation + OPERATIONS_LATENCY_SUFFIX)
+          .increment(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+      context.write(new Text(operation.name()), merged);
+    }
+    context.getCounter(SYNTHETICCOUNTERS.TOTALOPERATIONS).increment(totalOperations);
+    context.getCounter(SYNTHETICCOUNTERS.OPERATIONSPERSECOND).increment(totalOperations * 1000 / durationMs);
+    LOG.info("Performed " + totalOperations + " operations in " + durationMs + " ms");
+  }
+
+  /**
+   * Performs operations until the end of the workload.
+   */
+  private static class WorkerThread extends Thread {
+    private final FileSystem fs;
+    private final SyntheticNamespace namespace;
+    private final OperationMix mix;
+    private final String namePrefix;
+    private final long endTimestampMs;
+    private final long maxOperations;
+    private final long intervalNanos;
+    private final Random random = new Random();
+    // Paths created by this thread, which are the targets of RENAME and DELETE
+    private final Deque<String> created = new ArrayDeque<>();
+    private long nameCounter = 0;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Operation.values().length];
+    private final long[] failures = new long[Operation.values().length];
+    private final long[] latencyNanos = new long[Operation.values().length];
+
+    WorkerThread(FileSystem fs, SyntheticNamespace namespace, OperationMix mix, String namePrefix,
+        long endTimestampMs, long maxOperations, long intervalNanos) {
+      this.fs = fs;
+      this.namespace = namespace;
+      this.mix = mix;
+      this.namePrefix = namePrefix;
+      this.endTimestampMs = endTimestampMs;
+      this.maxOperations = maxOperations;
+      this.intervalNanos = intervalNanos;
+      for (int i = 0; i < histograms.length; i++) {
+        histograms[i] = new LatencyHistogram();
+      }
+      setName(namePrefix);
+    }
+
+    @Override
+    public void run() {
+      long nextOperationNanos = System.nanoTime();
+      try {
+        for (long i = 0; i < maxOperations && System.currentTimeMillis() < endTimestampMs; i++) {
+          if (intervalNanos > 0) {
+            long waitNanos = nextOperationNanos - System.nanoTime();
+            if (waitNanos > 0) {
+              TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } else if (waitNanos < -TimeUnit.SECONDS.toNanos(1)) {
+              // Having fallen far behind, don't try to catch up with a burst of operations
+              nextOperationNanos -= waitNanos;
+            }
+            nextOperationNanos += intervalNanos;
+          }
+          Operation operation = mix.choose(random);
+          if ((operation == Operation.RENAME || operation == Operation.DELETE) && created.isEmpty()) {
+            operation = Operation.CREATE;
+          }
+          long startNanos = System.nanoTime();
+          boolean success = perform(operation);
+          long latency = System.nanoTime() - startNanos;
+          histograms[operation.ordinal()].recordNanos(latency);
+          latencyNanos[operation.ordinal()] += latency;
+          if (!success) {
+            failures[operation.ordinal()]++;
+          }
+        }
+      } catch (InterruptedException e) {
+        LOG.warn("Interrupted; exiting from thread.", e);
+      }
+    }
+
+    private boolean perform(Operation operation) {
+      try {
+        switch (operation) {
+          case GETFILEINFO:
+            fs.getFileStatus(new Path(namespace.getRandomPath(random)));
+            return true;
+          case LISTSTATUS:
+            fs.listStatus(new Path(namespace.getRandomDirectory(random)));
+            return true;
+          case OPEN:
+            fs.open(new Path(namespace.getRandomFile(random))).close();
+            return true;
+          case CONTENTSUMMARY:
+            fs.getContentSummary(new Path(namespace.getRandomDirectory(random)));
+            return true;
+          case CREATE:
+            String file = getNewPath();
+            fs.create(new Path(file), true).close();
+            addCreated(file);
+            return true;
+          case MKDIRS:
+            String directory = getNewPath();
+            boolean madeDirs = fs.mkdirs(new Path(directory));
+            if (madeDirs) {
+              addCreated(directory);
+            }
+            return madeDirs;
+          case RENAME:
+            String renamed = getNewPath();
+            boolean success = fs.rename(new Path(created.pollFirst()), new Path(renamed));
+            if (success) {
+              addCreated(renamed);
+            }
+            return success;
+          case DELETE:
+            return fs.delete(new Path(created.pollFirst()), true);
+          default:
+            throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+      } catch (IOException e) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Failed to perform " + operation, e);
+        }
+        return false;
+      }
+    }
+
+    private void addCreated(String path) {
+      if (created.size() >= MAX_CREATED_PATHS_PER_THREAD) {
+        created.pollFirst();
+      }
+      created.addLast(path);
+    }
+
+    private String getNewPath() {
+      String parent = namespace.getRandomDirectory(random);
+      return (parent.endsWith("/") ? parent : parent + "/") + namePrefix + "-" + nameCounter++;
+    }
+  }
+
+}
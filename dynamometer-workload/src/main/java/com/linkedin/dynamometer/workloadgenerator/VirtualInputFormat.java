@@ -7,34 +7,71 @@ package com.linkedin.dynamometer.workloadgenerator;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputFormat;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 
-public class VirtualInputFormat<K, V> extends FileInputFormat<K, V>
-{
-  // Number of splits = Number of mappers. Creates fakeSplits to launch
-  // the required number of mappers
+
+/**
+ * An {@link InputFormat} for workloads which read no input, which launches the number of mappers given by
+ * {@value CreateFileMapper#NUM_MAPPERS_KEY}. Each split contains {@value RECORDS_PER_SPLIT_KEY} records, each
+ * of which is keyed by its index within the split (see {@link VirtualInputSplit}), with an empty value. A mapper
+ * can treat each record as a unit of work, e.g. one per worker thread or per slice of the workload's duration.
+ *
+ * <p>Configuration options available:
+ * <ul>
+ *   <li>{@value CreateFileMapper#NUM_MAPPERS_KEY} (required): Number of splits, i.e. of mappers.</li>
+ *   <li>{@value RECORDS_PER_SPLIT_KEY} (default: {@value RECORDS_PER_SPLIT_DEFAULT}): Number of records in each
+ *       split. Mappers which divide their work by record may set this themselves.</li>
+ *   <li>{@value DURATION_MS_KEY} (default: the value of {@value CreateFileMapper#DURATION_MIN_KEY}, if any): The
+ *       expected duration of each mapper from the start of the workload, used to report its progress over
+ *       time. Without one, progress is reported only as records are read.</li>
+ * </ul>
+ */
+public class VirtualInputFormat extends InputFormat<LongWritable, NullWritable> {
+
+  public static final String RECORDS_PER_SPLIT_KEY = "virtual.records-per-split";
+  public static final int RECORDS_PER_SPLIT_DEFAULT = 1;
+  public static final String DURATION_MS_KEY = "virtual.duration-ms";
+
   @Override
-  public List<InputSplit> getSplits(JobContext job) throws IOException
-  {
+  public List<InputSplit> getSplits(JobContext job) throws IOException {
     Configuration conf = job.getConfiguration();
     int numMappers = conf.getInt(CreateFileMapper.NUM_MAPPERS_KEY, -1);
-    if (numMappers == -1)
-      throw new IOException("Number of mappers should be provided as input");
-    List<InputSplit> splits = new ArrayList<InputSplit>(numMappers);
-    for (int i = 0; i < numMappers; i++)
-      splits.add(new VirtualInputSplit<K, V>());
+    if (numMappers < 1) {
+      throw new IOException("Number of mappers should be provided as input; got " + numMappers);
+    }
+    int recordsPerSplit = conf.getInt(RECORDS_PER_SPLIT_KEY, RECORDS_PER_SPLIT_DEFAULT);
+    if (recordsPerSplit < 1) {
+      throw new IOException("Each split must have at least one record; got " + recordsPerSplit);
+    }
+    List<InputSplit> splits = new ArrayList<>(numMappers);
+    for (int i = 0; i < numMappers; i++) {
+      splits.add(new VirtualInputSplit(i, recordsPerSplit));
+    }
     return splits;
   }
 
   @Override
-  public RecordReader<K, V> createRecordReader(InputSplit split,
-      TaskAttemptContext context) throws IOException, InterruptedException
-  {
-    return new VirtualRecordReader<K, V>();
+  public RecordReader<LongWritable, NullWritable> createRecordReader(InputSplit split, TaskAttemptContext context) {
+    return new VirtualRecordReader();
+  }
+
+  /**
+   * Get the expected duration of each mapper, or -1 if none is known.
+   */
+  static long getDurationMs(Configuration conf) {
+    long durationMs = conf.getLong(DURATION_MS_KEY, -1);
+    if (durationMs < 0 && conf.get(CreateFileMapper.DURATION_MIN_KEY) != null) {
+      durationMs = TimeUnit.MINUTES.toMillis(conf.getLong(CreateFileMapper.DURATION_MIN_KEY, -1));
+    }
+    return durationMs;
   }
+
 }
@@ -11,26 +11,63 @@ import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.InputSplit;
 
 
-public class VirtualInputSplit<K, V> extends InputSplit implements Writable {
+/**
+ * A split of {@link VirtualInputFormat}, which reads no data but identifies the mapper and the number of
+ * records it will read. Mappers can retrieve it via {@code context.getInputSplit()}.
+ */
+public class VirtualInputSplit extends InputSplit implements Writable {
+
+  private int splitIndex;
+  private int numRecords;
+
+  public VirtualInputSplit() {
+    // Used for deserialization
+  }
+
+  public VirtualInputSplit(int splitIndex, int numRecords) {
+    this.splitIndex = splitIndex;
+    this.numRecords = numRecords;
+  }
+
+  /**
+   * @return The index of this split among all of the splits of the job.
+   */
+  public int getSplitIndex() {
+    return splitIndex;
+  }
+
+  /**
+   * @return The number of records in this split.
+   */
+  public int getNumRecords() {
+    return numRecords;
+  }
 
   @Override
   public void write(DataOutput out) throws IOException {
-    // do Nothing
+    out.writeInt(splitIndex);
+    out.writeInt(numRecords);
   }
 
   @Override
   public void readFields(DataInput in) throws IOException {
-    // do Nothing
+    splitIndex = in.readInt();
+    numRecords = in.readInt();
   }
 
   @Override
-  public long getLength() throws IOException, InterruptedException {
+  public long getLength() {
     return 0;
   }
 
   @Override
-  public String[] getLocations() throws IOException, InterruptedException {
+  public String[] getLocations() {
     return new String[] {};
   }
 
+  @Override
+  public String toString() {
+    return "VirtualInputSplit{index=" + splitIndex + ", records=" + numRecords + "}";
+  }
+
 }
@@ -6,56 +6,87 @@ package com.linkedin.dynamometer.workloadgenerator;
 
 import java.io.IOException;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 
 
-public class VirtualRecordReader<K, V> extends RecordReader<K, V> {
-  int durationMs;
-  long startTimestampInMs;
-  long endTimestampInMs;
-  static int numRows = 1;
+/**
+ * Reads the records of a {@link VirtualInputSplit}, keyed by their index within the split. If the duration of
+ * the workload is known, progress is the fraction of it which has passed since the workload's start time, so
+ * that it remains accurate for mappers which consume all of their records at once (e.g. one per worker thread),
+ * including once they have all been read.
+ * Otherwise, progress is the fraction of records which have been read and processed. All state belongs to the
+ * reader, so tasks sharing a JVM do not interfere with each other.
+ */
+public class VirtualRecordReader extends RecordReader<LongWritable, NullWritable> {
+
+  private final LongWritable key = new LongWritable();
+  private int numRecords;
+  private volatile int recordsRead;
+  private long startTimestampMs;
+  private long durationMs;
 
   @Override
-  public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+  public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
+    if (!(split instanceof VirtualInputSplit)) {
+      throw new IOException("Expected a VirtualInputSplit; got " + split);
+    }
     Configuration conf = context.getConfiguration();
-    durationMs = conf.getInt(CreateFileMapper.DURATION_MIN_KEY, 0) * 60 * 1000;
-    startTimestampInMs = conf.getInt(WorkloadDriver.START_TIMESTAMP_MS, 0);
-    endTimestampInMs = startTimestampInMs + durationMs;
+    numRecords = ((VirtualInputSplit) split).getNumRecords();
+    recordsRead = 0;
+    startTimestampMs = conf.getLong(WorkloadDriver.START_TIMESTAMP_MS, -1);
+    durationMs = VirtualInputFormat.getDurationMs(conf);
   }
 
-  // The map function per split should be invoked only once.
   @Override
-  public boolean nextKeyValue() throws IOException, InterruptedException {
-    if (numRows > 0) {
-      numRows--;
-      return true;
-    } else {
+  public boolean nextKeyValue() {
+    if (recordsRead >= numRecords) {
+      // Marks the final record as processed
+      recordsRead = numRecords + 1;
       return false;
     }
+    key.set(recordsRead);
+    recordsRead++;
+    return true;
   }
 
   @Override
-  public K getCurrentKey() throws IOException, InterruptedException {
-    return (K) NullWritable.get();
+  public LongWritable getCurrentKey() {
+    return key;
   }
 
   @Override
-  public V getCurrentValue() throws IOException, InterruptedException {
-    return (V) NullWritable.get();
+  public NullWritable getCurrentValue() {
+    return NullWritable.get();
   }
 
   @Override
-  public float getProgress() throws IOException, InterruptedException {
-    long remainingMs = endTimestampInMs - System.currentTimeMillis();
-    float progress = (remainingMs * 100) / durationMs;
-    return progress;
+  public float getProgress() {
+    if (durationMs > 0 && startTimestampMs > 0) {
+      // Regardless of whether all of the records have been read, since their work may continue after
+      return getFraction(System.currentTimeMillis() - startTimestampMs, durationMs);
+    }
+    int read = recordsRead;
+    if (read > numRecords) {
+      return 1.0f;
+    }
+    // The current record has been read but not yet processed
+    return getFraction(read - 1, numRecords);
   }
 
   @Override
-  public void close() throws IOException {
-    // do Nothing
+  public void close() {
+    // Nothing to release
   }
-};
+
+  private static float getFraction(long numerator, long denominator) {
+    if (denominator <= 0 || numerator <= 0) {
+      return 0.0f;
+    }
+    return Math.min(1.0f, (float) numerator / denominator);
+  }
+
+}
@@ -21,9 +21,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
-import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.MRJobConfig;
-import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -31,9 +29,10 @@ import org.apache.hadoop.util.ToolRunner;
 
 /**
  * This is the driver for generating generic workloads against a NameNode under test. It launches
- * a map-only job with a mapper class specified by the {@value MAPPER_CLASS_NAME} argument.
- * See the specific mappers (currently {@link AuditReplayMapper} and {@link CreateFileMapper}) for
- * information on their specific behavior and parameters.
+ * a job with a mapper class specified by the {@value MAPPER_CLASS_NAME} argument, which is map-only
+ * unless the mapper configures otherwise.
+ * See the specific mappers (currently {@link AuditReplayMapper}, {@link CreateFileMapper} and
+ * {@link SyntheticWorkloadMapper}) for information on their specific behavior and parameters.
  */
 public class WorkloadDriver extends Configured implements Tool {
 
@@ -60,8 +59,9 @@ public class WorkloadDriver extends Configured implements Tool {
             "e.g. 10m (default " + START_TIME_OFFSET_DEFAULT + ").").create(START_TIME_OFFSET));
     options.addOptionGroup(startTimeOptions);
     Option mapperClassOption = OptionBuilder.withArgName("Mapper ClassName").hasArg().withDescription(
-        "Class name of the mapper; must be a WorkloadMapper subclass. Mappers supported currently: \n" +
-            "1. AuditReplayMapper \n" + "2. CreateFileMapper \nFully specified class names are also supported.")
+        "Class name of the mapper; must be a WorkloadMapper or WorkloadOutputMapper subclass. " +
+            "Mappers supported currently: \n" + "1. AuditReplayMapper \n" + "2. CreateFileMapper \n" +
+            "3. SyntheticWorkloadMapper \nFully specified class names are also supported.")
         .isRequired().create(MAPPER_CLASS_NAME);
     options.addOption(mapperClassOption);
 
@@ -96,7 +96,7 @@ public class WorkloadDriver extends Configured implements Tool {
       tmpConf.set(tmpConfKey, cli.getOptionValue(START_TIME_OFFSET, START_TIME_OFFSET_DEFAULT));
       startTimestampMs = tmpConf.getTimeDuration(tmpConfKey, 0, TimeUnit.MILLISECONDS) + System.currentTimeMillis();
     }
-    Class<? extends WorkloadMapper> mapperClass = getMapperClass(cli.getOptionValue(MAPPER_CLASS_NAME));
+    Class<? extends WorkloadOutputMapper> mapperClass = getMapperClass(cli.getOptionValue(MAPPER_CLASS_NAME));
     if (!mapperClass.newInstance().verifyConfigurations(getConf())) {
       System.err.println(getMapperUsageInfo(cli.getOptionValue(MAPPER_CLASS_NAME)));
       return 1;
@@ -105,11 +105,17 @@ public class WorkloadDriver extends Configured implements Tool {
     Job job = getJobForSubmission(getConf(), nnURI, startTimestampMs, mapperClass);
 
     boolean success = job.waitForCompletion(true);
+    if (success) {
+      String resultSummary = mapperClass.newInstance().getResultSummary(job);
+      if (resultSummary != null) {
+        LOG.info(resultSummary);
+      }
+    }
     return success ? 0 : 1;
   }
 
   public static Job getJobForSubmission(Configuration baseConf, String nnURI, long startTimestampMs,
-      Class<? extends WorkloadMapper> mapperClass) throws IOException, ClassNotFoundException,
+      Class<? extends WorkloadOutputMapper> mapperClass) throws IOException, ClassNotFoundException,
       InstantiationException, IllegalAccessException {
     Configuration conf = new Configuration(baseConf);
     conf.set(NN_URI, nnURI);
@@ -120,16 +126,11 @@ public class WorkloadDriver extends Configured implements Tool {
     conf.setLong(START_TIMESTAMP_MS, startTimestampMs);
 
     Job job = Job.getInstance(conf, "Dynamometer Workload Driver");
-    job.setOutputFormatClass(NullOutputFormat.class);
     job.setJarByClass(mapperClass);
     job.setMapperClass(mapperClass);
-    job.setInputFormatClass(mapperClass.newInstance().getInputFormat(conf));
-    job.setOutputFormatClass(NullOutputFormat.class);
-    job.setNumReduceTasks(0);
-    job.setMapOutputKeyClass(NullWritable.class);
-    job.setMapOutputValueClass(NullWritable.class);
-    job.setOutputKeyClass(NullWritable.class);
-    job.setOutputValueClass(NullWritable.class);
+    WorkloadOutputMapper<?, ?, ?, ?> mapper = mapperClass.newInstance();
+    job.setInputFormatClass(mapper.getInputFormat(conf));
+    mapper.configureJob(job);
 
     return job;
   }
@@ -139,21 +140,21 @@ public class WorkloadDriver extends Configured implements Tool {
     System.exit(ToolRunner.run(driver, args));
   }
 
-  private Class<? extends WorkloadMapper> getMapperClass(String className) throws ClassNotFoundException {
+  private Class<? extends WorkloadOutputMapper> getMapperClass(String className) throws ClassNotFoundException {
     if (!className.contains(".")) {
       className = WorkloadDriver.class.getPackage().getName() + "." + className;
     }
     Class<?> mapperClass = getConf().getClassByName(className);
-    if (!WorkloadMapper.class.isAssignableFrom(mapperClass)) {
+    if (!WorkloadOutputMapper.class.isAssignableFrom(mapperClass)) {
       throw new IllegalArgumentException(className + " is not a subclass of " +
-          WorkloadMapper.class.getCanonicalName());
+          WorkloadOutputMapper.class.getCanonicalName());
     }
-    return (Class<? extends WorkloadMapper>) mapperClass;
+    return mapperClass.asSubclass(WorkloadOutputMapper.class);
   }
 
   private String getMapperUsageInfo(String mapperClassName) throws ClassNotFoundException,
       InstantiationException, IllegalAccessException {
-    WorkloadMapper<?, ?> mapper = getMapperClass(mapperClassName).newInstance();
+    WorkloadOutputMapper<?, ?, ?, ?> mapper = getMapperClass(mapperClassName).newInstance();
     StringBuilder builder = new StringBuilder("Usage for ");
     builder.append(mapper.getClass().getSimpleName());
     builder.append(":\n");
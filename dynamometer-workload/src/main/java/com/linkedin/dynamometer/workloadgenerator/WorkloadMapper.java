@@ -4,41 +4,29 @@
  */
 package com.linkedin.dynamometer.workloadgenerator;
 
-import java.util.List;
-import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.InputFormat;
-import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
 
 
 /**
- * Represents the base class for a generic workload-generating mapper. By default, it will expect to use
- * {@link VirtualInputFormat} as its {@link InputFormat}. Subclasses expecting a different {@link InputFormat}
- * should override the {@link #getInputFormat(Configuration)} method.
+ * Represents the base class for a generic workload-generating mapper which runs in a map-only job and produces
+ * no output. By default, it will expect to use {@link VirtualInputFormat} as its {@link InputFormat}. Subclasses
+ * expecting a different {@link InputFormat} should override the {@link #getInputFormat} method. Mappers which
+ * produce output should extend {@link WorkloadOutputMapper} instead.
  */
-public abstract class WorkloadMapper<KEYIN, VALUEIN> extends Mapper<KEYIN, VALUEIN, NullWritable, NullWritable> {
-
-  /**
-   * Return the input class to be used by this mapper.
-   */
-  public Class<? extends InputFormat> getInputFormat(Configuration conf) {
-    return VirtualInputFormat.class;
+public abstract class WorkloadMapper<KEYIN, VALUEIN>
+    extends WorkloadOutputMapper<KEYIN, VALUEIN, NullWritable, NullWritable> {
+
+  @Override
+  public void configureJob(Job job) {
+    job.setNumReduceTasks(0);
+    job.setOutputFormatClass(NullOutputFormat.class);
+    job.setMapOutputKeyClass(NullWritable.class);
+    job.setMapOutputValueClass(NullWritable.class);
+    job.setOutputKeyClass(NullWritable.class);
+    job.setOutputValueClass(NullWritable.class);
   }
 
-  /**
-   * Get the description of the behavior of this mapper.
-   */
-  public abstract String getDescription();
-
-  /**
-   * Get a list of the description of each configuration that this mapper accepts.
-   */
-  public abstract List<String> getConfigDescriptions();
-
-  /**
-   * Verify that the provided configuration contains all configurations
-   * required by this mapper.
-   */
-  public abstract boolean verifyConfigurations(Configuration conf);
-
 }
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator;
+
+import java.io.IOException;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+
+
+/**
+ * Represents the base class for a generic workload-generating mapper which produces output, e.g. to be merged
+ * by a reduce phase. Mappers which produce no output should extend {@link WorkloadMapper} instead. By default,
+ * it will expect to use {@link VirtualInputFormat} as its {@link InputFormat}. Subclasses expecting a different
+ * {@link InputFormat} should override the {@link #getInputFormat(Configuration)} method.
+ */
+public abstract class WorkloadOutputMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>
+    extends Mapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> {
+
+  /**
+   * Return the input class to be used by this mapper.
+   */
+  public Class<? extends InputFormat> getInputFormat(Configuration conf) {
+    return VirtualInputFormat.class;
+  }
+
+  /**
+   * Configure the output, and any reduce phase, of the job in which this mapper will run.
+   */
+  public abstract void configureJob(Job job);
+
+  /**
+   * Summarize the results of a completed job in which this mapper ran, for display to the user.
+   * @return The summary, or null if there is nothing to report beyond the job's counters.
+   */
+  public String getResultSummary(Job job) throws IOException {
+    return null;
+  }
+
+  /**
+   * Get the description of the behavior of this mapper.
+   */
+  public abstract String getDescription();
+
+  /**
+   * Get a list of the description of each configuration that this mapper accepts.
+   */
+  public abstract List<String> getConfigDescriptions();
+
+  /**
+   * Verify that the provided configuration contains all configurations
+   * required by this mapper.
+   */
+  public abstract boolean verifyConfigurations(Configuration conf);
+
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Executes replayed commands on behalf of the {@link AuditReplayThread}s when the
+ * mapper is running in asynchronous mode. The replay threads then act only as
+ * dispatchers: they hand each command off as soon as it is due and never block on
+ * the NameNode, so a slow command does not delay the ones behind it.
+ *
+ * <p>Workers are created on demand and exit after being idle for a minute, so the
+ * number of live workers tracks the number of commands actually outstanding rather
+ * than the peak. Workers are created with a reduced stack size since they only ever
+ * perform a single RPC. The number of commands in flight is capped; once the cap is
+ * reached, {@link #execute(Runnable)} blocks until a command completes, which
+ * surfaces as late commands rather than unbounded growth.
+ */
+class AsyncReplayExecutor {
+
+  private static final long WORKER_KEEPALIVE_SEC = 60;
+
+  private final ThreadPoolExecutor executor;
+  private final Semaphore inFlightPermits;
+
+  /**
+   * @param maxInFlight The maximum number of commands which may be executing at once.
+   * @param workerStackSizeBytes The stack size to request for each worker thread;
+   *                             0 to use the JVM default.
+   */
+  AsyncReplayExecutor(int maxInFlight, final long workerStackSizeBytes) {
+    inFlightPermits = new Semaphore(maxInFlight);
+    ThreadFactory threadFactory = new ThreadFactory() {
+      private final AtomicInteger threadCount = new AtomicInteger();
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(null, r, "AsyncReplayWorker-" + threadCount.getAndIncrement(), workerStackSizeBytes);
+        t.setDaemon(true);
+        return t;
+      }
+    };
+    // A SynchronousQueue never holds tasks; the semaphore provides the bound, and
+    // the pool is unbounded so that a handoff racing with a worker becoming idle
+    // never results in a rejection.
+    executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, WORKER_KEEPALIVE_SEC, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), threadFactory);
+  }
+
+  /**
+   * Execute a command asynchronously, waiting until there is room if the maximum
+   * number of commands are already in flight.
+   * @param command The command to execute.
+   */
+  void execute(final Runnable command) throws InterruptedException {
+    inFlightPermits.acquire();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            command.run();
+          } finally {
+            inFlightPermits.release();
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      inFlightPermits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * @return The number of worker threads currently alive.
+   */
+  int getPoolSize() {
+    return executor.getPoolSize();
+  }
+
+  /**
+   * Stop accepting new commands and wait for all in-flight commands to complete.
+   */
+  void shutdownAndWait() throws InterruptedException {
+    executor.shutdown();
+    while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+      // Keep waiting; in-flight commands are bounded by the RPC timeout
+    }
+  }
+
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.apache.hadoop.io.Text;
+
+
+/**
+ * Splits a line of audit input into tokens by scanning the bytes of the {@link Text}
+ * in place, for use by {@link AuditCommandParser} implementations. Unlike calling
+ * {@link Text#toString()} and then splitting the result, this does not decode or
+ * copy any part of the line except for the tokens which are actually converted via
+ * {@link #getTokenString()}. Separators must be single-byte (ASCII) characters, which
+ * are never part of a multi-byte UTF-8 character.
+ *
+ * <p>A tokenizer can be reused for many lines by calling {@link #reset(Text)}, but
+ * is not thread-safe. Positions are byte offsets into the line.
+ */
+public class AuditLineTokenizer {
+
+  private byte[] bytes;
+  private int pos;
+  private int end;
+  private int tokenStart;
+  private int tokenEnd;
+
+  /**
+   * Start tokenizing a new line. The line must not be modified while it is in use.
+   */
+  public void reset(Text line) {
+    bytes = line.getBytes();
+    pos = 0;
+    end = line.getLength();
+    tokenStart = 0;
+    tokenEnd = 0;
+  }
+
+  /**
+   * @return The position from which the next token will start.
+   */
+  public int getPosition() {
+    return pos;
+  }
+
+  public void setPosition(int position) {
+    pos = Math.min(position, end);
+  }
+
+  /**
+   * @return Whether there are any bytes remaining after the current position.
+   */
+  public boolean hasRemaining() {
+    return pos < end;
+  }
+
+  /**
+   * Advance the position to just past the next occurrence of the given delimiter.
+   * @return False, leaving the position unchanged, if the delimiter does not occur.
+   */
+  public boolean skipPast(byte[] delimiter) {
+    for (int i = pos; i <= end - delimiter.length; i++) {
+      if (regionEquals(i, i + delimiter.length, delimiter)) {
+        pos = i + delimiter.length;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Advance to the next token, which extends from the current position up to
+   * the next occurrence of the separator or the end of the line. The position
+   * is left just past the separator.
+   * @return False if there are no bytes remaining.
+   */
+  public boolean nextToken(char separator) {
+    if (pos >= end) {
+      return false;
+    }
+    tokenStart = pos;
+    tokenEnd = indexOf(separator, pos, end);
+    if (tokenEnd < 0) {
+      tokenEnd = end;
+    }
+    pos = tokenEnd + 1;
+    return true;
+  }
+
+  /**
+   * Advance to the next token as in {@link #nextToken(char)}, failing if there is none.
+   */
+  public void requireNextToken(char separator) throws IOException {
+    if (!nextToken(separator)) {
+      throw new IOException("Missing field in line: " + Text.decode(bytes, 0, end));
+    }
+  }
+
+  public int getTokenStart() {
+    return tokenStart;
+  }
+
+  public int getTokenEnd() {
+    return tokenEnd;
+  }
+
+  /**
+   * Narrow the current token to the given bounds, which must lie within it.
+   */
+  public void setToken(int start, int end) {
+    if (start < tokenStart || end > tokenEnd || start > end) {
+      throw new IllegalArgumentException("Invalid bounds [" + start + ", " + end + ") for token [" +
+          tokenStart + ", " + tokenEnd + ")");
+    }
+    tokenStart = start;
+    tokenEnd = end;
+  }
+
+  /**
+   * Remove any leading or trailing whitespace from the current token.
+   */
+  public void trimToken() {
+    while (tokenStart < tokenEnd && isWhitespace(bytes[tokenStart])) {
+      tokenStart++;
+    }
+    while (tokenEnd > tokenStart && isWhitespace(bytes[tokenEnd - 1])) {
+      tokenEnd--;
+    }
+  }
+
+  /**
+   * @return The position of the first occurrence of the character within the current token, or -1 if none.
+   */
+  public int indexOfInToken(char c) {
+    return indexOf(c, tokenStart, tokenEnd);
+  }
+
+  /**
+   * @return Whether the bytes from start (inclusive) to end (exclusive) are equal to those given.
+   */
+  public boolean regionEquals(int start, int end, byte[] expected) {
+    if (end - start != expected.length) {
+      return false;
+    }
+    for (int i = 0; i < expected.length; i++) {
+      if (bytes[start + i] != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return The current token, decoded as a String.
+   */
+  public String getTokenString() throws IOException {
+    for (int i = tokenStart; i < tokenEnd; i++) {
+      if (bytes[i] < 0) {
+        return Text.decode(bytes, tokenStart, tokenEnd - tokenStart);
+      }
+    }
+    // ASCII is a subset of both UTF-8 and ISO-8859-1, which can be decoded more cheaply
+    return new String(bytes, tokenStart, tokenEnd - tokenStart, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * @return The current token, parsed as a decimal number.
+   */
+  public long getTokenLong() throws IOException {
+    boolean negative = tokenStart < tokenEnd && bytes[tokenStart] == '-';
+    int digitsStart = negative ? tokenStart + 1 : tokenStart;
+    // Up to 18 digits can't overflow
+    if (digitsStart == tokenEnd || tokenEnd - digitsStart > 18) {
+      throw new IOException("Invalid number: " + getTokenString());
+    }
+    long value = 0;
+    for (int i = digitsStart; i < tokenEnd; i++) {
+      int digit = bytes[i] - '0';
+      if (digit < 0 || digit > 9) {
+        throw new IOException("Invalid number: " + getTokenString());
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  private int indexOf(char c, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (bytes[i] == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    // Matches the definition used by String.trim()
+    return b >= 0 && b <= ' ';
+  }
+
+}
@@ -5,15 +5,8 @@
 package com.linkedin.dynamometer.workloadgenerator.audit;
 
 import com.google.common.base.Function;
-import com.google.common.base.Splitter;
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Map;
-import java.util.TimeZone;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.charset.StandardCharsets;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
 
@@ -23,20 +16,29 @@ import org.apache.hadoop.io.Text;
  * original format audit logs are produced in with a standard configuration. It
  * requires setting the {@value AUDIT_START_TIMESTAMP_KEY} configuration to specify
  * what the start time of the audit log was to determine when events occurred
- * relative to this start time.
+ * relative to this start time. Timestamps are expected to be in UTC, in the
+ * {@code yyyy-MM-dd HH:mm:ss,SSS} layout. This parser is thread-safe.
  */
-public class AuditLogDirectParser implements AuditCommandParser {
+public class AuditLogDirectParser implements TimestampedAuditCommandParser {
 
   public static final String AUDIT_START_TIMESTAMP_KEY = "auditreplay.log-start-time.ms";
 
-  private static final Pattern MESSAGE_ONLY_PATTERN = Pattern.compile("^([0-9-]+ [0-9:,]+) [^:]+: (.+)$");
-  private static final Splitter.MapSplitter AUDIT_SPLITTER =
-      Splitter.on("\t").trimResults().omitEmptyStrings().withKeyValueSeparator("=");
-  private static final Splitter SPACE_SPLITTER = Splitter.on(" ").trimResults().omitEmptyStrings();
-  private static final DateFormat AUDIT_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss,SSS");
-  static {
-    AUDIT_DATE_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
-  }
+  // Separates the log level and logger name from the audit message
+  private static final byte[] MESSAGE_START = ": ".getBytes(StandardCharsets.UTF_8);
+  private static final char FIELD_SEPARATOR = '\t';
+  private static final char KEY_VALUE_SEPARATOR = '=';
+  private static final byte[] UGI_KEY = "ugi".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] IP_KEY = "ip".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] CMD_KEY = "cmd".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] SRC_KEY = "src".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] DST_KEY = "dst".getBytes(StandardCharsets.UTF_8);
+  private static final AuditTimestampDecoder AUDIT_TIMESTAMP_DECODER = new AuditTimestampDecoder();
+  private static final ThreadLocal<AuditLineTokenizer> TOKENIZER = new ThreadLocal<AuditLineTokenizer>() {
+    @Override
+    protected AuditLineTokenizer initialValue() {
+      return new AuditLineTokenizer();
+    }
+  };
 
   private long startTimestamp;
 
@@ -48,26 +50,62 @@ public class AuditLogDirectParser implements AuditCommandParser {
     }
   }
 
+  @Override
+  public long parseRelativeTimestamp(Text inputLine) throws IOException {
+    return AUDIT_TIMESTAMP_DECODER.decode(inputLine.getBytes(), 0, inputLine.getLength()) - startTimestamp;
+  }
+
   @Override
   public AuditReplayCommand parse(Text inputLine, Function<Long, Long> relativeToAbsolute) throws IOException {
-    Matcher m = MESSAGE_ONLY_PATTERN.matcher(inputLine.toString());
-    if (!m.find()) {
+    long relativeTimestamp = parseRelativeTimestamp(inputLine);
+    AuditLineTokenizer tokenizer = TOKENIZER.get();
+    tokenizer.reset(inputLine);
+    tokenizer.setPosition(AuditTimestampDecoder.LENGTH);
+    if (!tokenizer.skipPast(MESSAGE_START) || !tokenizer.hasRemaining()) {
       throw new IOException("Unable to find valid message pattern from audit log line: " + inputLine);
     }
-    long relativeTimestamp;
-    try {
-      relativeTimestamp = AUDIT_DATE_FORMAT.parse(m.group(1)).getTime() - startTimestamp;
-    } catch (ParseException p) {
-      throw new IOException("Exception while parsing timestamp from audit log", p);
+    String ugi = null;
+    String ip = null;
+    String cmd = null;
+    String src = null;
+    String dst = null;
+    // The message consists of key=value fields; values may themselves contain '=', e.g. "rename (options=[...])"
+    while (tokenizer.nextToken(FIELD_SEPARATOR)) {
+      tokenizer.trimToken();
+      int keyStart = tokenizer.getTokenStart();
+      int keyEnd = tokenizer.indexOfInToken(KEY_VALUE_SEPARATOR);
+      if (keyEnd < 0) {
+        continue;
+      }
+      int valueStart = keyEnd + 1;
+      if (tokenizer.regionEquals(keyStart, keyEnd, UGI_KEY)) {
+        // Remove the auth and proxy portions of the UGI, e.g. "user (auth:TOKEN) via proxy"
+        tokenizer.setToken(valueStart, tokenizer.getTokenEnd());
+        tokenizer.trimToken();
+        int space = tokenizer.indexOfInToken(' ');
+        if (space >= 0) {
+          tokenizer.setToken(tokenizer.getTokenStart(), space);
+        }
+        ugi = tokenizer.getTokenString();
+      } else if (tokenizer.regionEquals(keyStart, keyEnd, IP_KEY)) {
+        ip = getValue(tokenizer, valueStart);
+      } else if (tokenizer.regionEquals(keyStart, keyEnd, CMD_KEY)) {
+        cmd = getValue(tokenizer, valueStart);
+      } else if (tokenizer.regionEquals(keyStart, keyEnd, SRC_KEY)) {
+        src = getValue(tokenizer, valueStart);
+      } else if (tokenizer.regionEquals(keyStart, keyEnd, DST_KEY)) {
+        dst = getValue(tokenizer, valueStart);
+      }
+    }
+    if (ugi == null) {
+      throw new IOException("Missing ugi in audit log line: " + inputLine);
     }
-    // We sanitize the = in the rename options field into a : so we can split on =
-    String auditMessageSanitized = m.group(2).replace("(options=", "(options:");
-    Map<String, String> parameterMap = AUDIT_SPLITTER.split(auditMessageSanitized);
-    return new AuditReplayCommand(relativeToAbsolute.apply(relativeTimestamp),
-        // Split the UGI on space to remove the auth and proxy portions of it
-        SPACE_SPLITTER.split(parameterMap.get("ugi")).iterator().next(),
-        parameterMap.get("cmd").replace("(options:", "(options="),
-        parameterMap.get("src"), parameterMap.get("dst"), parameterMap.get("ip"));
+    return AuditReplayCommand.obtain(relativeToAbsolute.apply(relativeTimestamp), ugi, cmd, src, dst, ip);
+  }
+
+  private static String getValue(AuditLineTokenizer tokenizer, int valueStart) throws IOException {
+    tokenizer.setToken(valueStart, tokenizer.getTokenEnd());
+    return tokenizer.getTokenString();
   }
 
 }
@@ -32,20 +32,46 @@ import org.apache.hadoop.io.Text;
  * Note that the sorting step is important; events in each distinct file must be in
  * time-ascending order.
  */
-public class AuditLogHiveTableParser implements AuditCommandParser {
+public class AuditLogHiveTableParser implements TimestampedAuditCommandParser {
 
-  private static final String FIELD_SEPARATOR = "\u0001";
+  private static final char FIELD_SEPARATOR = '\u0001';
+  private static final ThreadLocal<AuditLineTokenizer> TOKENIZER = new ThreadLocal<AuditLineTokenizer>() {
+    @Override
+    protected AuditLineTokenizer initialValue() {
+      return new AuditLineTokenizer();
+    }
+  };
 
   @Override
   public void initialize(Configuration conf) throws IOException {
     // Nothing to be done
   }
 
+  @Override
+  public long parseRelativeTimestamp(Text inputLine) throws IOException {
+    AuditLineTokenizer tokenizer = TOKENIZER.get();
+    tokenizer.reset(inputLine);
+    tokenizer.requireNextToken(FIELD_SEPARATOR);
+    return tokenizer.getTokenLong();
+  }
+
   @Override
   public AuditReplayCommand parse(Text inputLine, Function<Long, Long> relativeToAbsolute) throws IOException {
-    String[] fields = inputLine.toString().split(FIELD_SEPARATOR);
-    long absoluteTimestamp = relativeToAbsolute.apply(Long.parseLong(fields[0]));
-    return new AuditReplayCommand(absoluteTimestamp, fields[1], fields[2], fields[3], fields[4], fields[5]);
+    AuditLineTokenizer tokenizer = TOKENIZER.get();
+    tokenizer.reset(inputLine);
+    tokenizer.requireNextToken(FIELD_SEPARATOR);
+    long absoluteTimestamp = relativeToAbsolute.apply(tokenizer.getTokenLong());
+    String ugi = nextField(tokenizer);
+    String command = nextField(tokenizer);
+    String src = nextField(tokenizer);
+    String dest = nextField(tokenizer);
+    String sourceIP = nextField(tokenizer);
+    return AuditReplayCommand.obtain(absoluteTimestamp, ugi, command, src, dest, sourceIP);
+  }
+
+  private static String nextField(AuditLineTokenizer tokenizer) throws IOException {
+    tokenizer.requireNextToken(FIELD_SEPARATOR);
+    return tokenizer.getTokenString();
   }
 
 }
@@ -4,14 +4,16 @@
  */
 package com.linkedin.dynamometer.workloadgenerator.audit;
 
-import java.io.IOException;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import org.apache.hadoop.security.UserGroupInformation;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+
+import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.ReplayCommand;
 
 
 /**
@@ -20,67 +22,191 @@ import org.slf4j.LoggerFactory;
  * from a {@link java.util.concurrent.DelayQueue}. You can use the
  * {@link #getPoisonPill(long)} method to retrieve "Poison Pill" {@link AuditReplayCommand} which has
  * {@link #isPoison()} as true, representing to a consumer(s) of the
- * {@link java.util.concurrent.DelayQueue} that it should stop processing further items
+ * {@link AuditReplayScheduler} that it should stop processing further items
  * and instead terminate itself.
+ *
+ * <p>Since a large number of commands may be held in memory waiting to be replayed, commands
+ * are stored in a pre-resolved, compact form. The {@link ReplayCommand} and simple UGI are
+ * resolved once when the command is created rather than each time it is replayed. The UGI,
+ * command and source IP strings, which take on few distinct values, are interned, as are the
+ * parent directories of the source and destination paths; only the final path component is
+ * stored per command. The full paths are joined at most once, when first needed (typically
+ * once the command is being replayed), and dropped again when the command is released, so
+ * that replaying a command does not repeatedly allocate its paths. Sharding by path uses
+ * {@link #getSrcHashCode()} and {@link #getSrcParentHashCode()}, which do not join them at all.
+ * Commands created via {@link #obtain} come from an
+ * {@link AuditReplayCommandPool} and should be returned to it via {@link #release()} once
+ * they have been replayed.
+ *
+ * <p>The timestamp of a command is in the replay time of the {@link ReplayClock} of the mapper which
+ * replays it, set via {@link #setClock(ReplayClock)}; until then it is compared to the wall clock.
  */
 class AuditReplayCommand implements Delayed {
 
-  private static final Logger LOG = LoggerFactory.getLogger(AuditReplayCommand.class);
-  private static final Pattern SIMPLE_UGI_PATTERN = Pattern.compile("([^/@ ]*).*?");
+  // Weak so that strings only referenced by commands which have been replayed can be collected
+  private static final Interner<String> INTERNER = Interners.newWeakInterner();
+  private static final ConcurrentMap<String, Optional<ReplayCommand>> REPLAY_COMMAND_CACHE =
+      new ConcurrentHashMap<>();
 
   private long absoluteTimestamp;
   private String ugi;
+  private String simpleUgi;
   private String command;
+  private ReplayCommand replayCommand;
+  private String srcParent;
+  private String srcName;
+  private String destParent;
+  private String destName;
+  private String sourceIP;
+  // The joined paths, built upon first use. A command is only used by one thread at a time, and is
+  // handed off between threads via concurrent queues, so no further synchronization is needed.
   private String src;
   private String dest;
-  private String sourceIP;
+  // Null to follow the wall clock
+  private ReplayClock clock;
+
+  // The pool this command should be released to, if any
+  private final AuditReplayCommandPool pool;
+  // Used by the pool to link free commands
+  AuditReplayCommand next;
+  // The command's dependencies while it is outstanding, if tracked
+  DependencyTracker.Operation dependency;
+
+  AuditReplayCommand(AuditReplayCommandPool pool) {
+    this.pool = pool;
+  }
 
   AuditReplayCommand(long absoluteTimestamp, String ugi, String command, String src, String dest, String sourceIP) {
+    this(null);
+    set(absoluteTimestamp, ugi, command, src, dest, sourceIP);
+  }
+
+  /**
+   * Get a command with the given fields from the calling thread's {@link AuditReplayCommandPool}.
+   * The parameters are the same as those of the constructor.
+   */
+  static AuditReplayCommand obtain(long absoluteTimestamp, String ugi, String command, String src, String dest,
+      String sourceIP) {
+    AuditReplayCommand cmd = AuditReplayCommandPool.getThreadLocalPool().obtain();
+    cmd.set(absoluteTimestamp, ugi, command, src, dest, sourceIP);
+    return cmd;
+  }
+
+  /**
+   * Return this command to the pool it was obtained from, if any. It must not be
+   * used again by the caller after this.
+   */
+  void release() {
+    if (pool != null) {
+      src = null;
+      dest = null;
+      clock = null;
+      pool.release(this);
+    }
+  }
+
+  private void set(long absoluteTimestamp, String ugi, String command, String src, String dest, String sourceIP) {
     this.absoluteTimestamp = absoluteTimestamp;
-    this.ugi = ugi;
-    this.command = command;
-    this.src = src;
-    this.dest = dest;
-    this.sourceIP = sourceIP;
+    this.ugi = intern(ugi);
+    this.simpleUgi = intern(toSimpleUgi(ugi));
+    this.command = intern(command);
+    this.replayCommand = resolveReplayCommand(command);
+    int srcSplit = getNameIndex(src);
+    this.srcParent = srcSplit < 0 ? null : intern(src.substring(0, srcSplit));
+    this.srcName = srcSplit < 0 ? intern(src) : src.substring(srcSplit);
+    int destSplit = getNameIndex(dest);
+    this.destParent = destSplit < 0 ? null : intern(dest.substring(0, destSplit));
+    this.destName = destSplit < 0 ? intern(dest) : dest.substring(destSplit);
+    this.sourceIP = intern(sourceIP);
+    this.src = null;
+    this.dest = null;
   }
 
   long getAbsoluteTimestamp() {
     return absoluteTimestamp;
   }
 
+  String getUgi() {
+    return ugi;
+  }
+
   String getSimpleUgi() {
-    Matcher m = SIMPLE_UGI_PATTERN.matcher(ugi);
-    if (m.matches()) {
-      return m.group(1);
-    } else {
-      LOG.error("Error parsing simple UGI <{}>; falling back to current user", ugi);
-      try {
-        return UserGroupInformation.getCurrentUser().getShortUserName();
-      } catch (IOException ioe) {
-        return "";
-      }
-    }
+    return simpleUgi;
   }
 
   String getCommand() {
     return command;
   }
 
+  /**
+   * @return The command to replay, or null if the command is not supported for replay.
+   */
+  ReplayCommand getReplayCommand() {
+    return replayCommand;
+  }
+
   String getSrc() {
-    return src;
+    if (src == null && srcParent != null) {
+      src = srcParent.concat(srcName);
+    }
+    return srcParent == null ? srcName : src;
   }
 
   String getDest() {
-    return dest;
+    if (dest == null && destParent != null) {
+      dest = destParent.concat(destName);
+    }
+    return destParent == null ? destName : dest;
+  }
+
+  boolean hasSrc() {
+    return srcName != null;
+  }
+
+  /**
+   * @return The same value as {@code getSrc().hashCode()}, computed without joining the path; 0 if
+   *         there is no source path.
+   */
+  int getSrcHashCode() {
+    if (srcParent == null) {
+      return srcName == null ? 0 : srcName.hashCode();
+    }
+    // The hash of the interned parent is cached by the string itself
+    int hash = srcParent.hashCode();
+    for (int i = 0; i < srcName.length(); i++) {
+      hash = 31 * hash + srcName.charAt(i);
+    }
+    return hash;
+  }
+
+  /**
+   * @return The hash code of the parent directory of the source path, i.e. of the portion before its
+   *         final slash, or 0 if it has none or it is the root.
+   */
+  int getSrcParentHashCode() {
+    return srcParent == null ? 0 : srcParent.hashCode();
   }
 
   String getSourceIP() {
     return sourceIP;
   }
 
+  /**
+   * Set the clock against which the timestamp of this command is compared.
+   * @param clock The clock, or null to follow the wall clock.
+   */
+  void setClock(ReplayClock clock) {
+    this.clock = clock;
+  }
+
   @Override
   public long getDelay(TimeUnit unit) {
-    return unit.convert(absoluteTimestamp - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    // Expressed in wall-clock time, which is how long a caller would need to wait
+    ReplayClock c = clock;
+    if (c == null) {
+      return unit.convert(absoluteTimestamp - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+    return unit.convert(c.toWallDurationMs(absoluteTimestamp - c.currentTimeMillis()), TimeUnit.MILLISECONDS);
   }
 
   @Override
@@ -118,19 +244,70 @@ class AuditReplayCommand implements Delayed {
     return new PoisonPillCommand(relativeTimestamp);
   }
 
+  /**
+   * Strip the auth and realm portions from a UGI, e.g. hdfs/127.0.0.1@REALM.COM becomes hdfs.
+   */
+  private static String toSimpleUgi(String ugi) {
+    if (ugi == null) {
+      return null;
+    }
+    for (int i = 0; i < ugi.length(); i++) {
+      char c = ugi.charAt(i);
+      if (c == '/' || c == '@' || c == ' ') {
+        return ugi.substring(0, i);
+      }
+    }
+    return ugi;
+  }
+
+  /**
+   * @return The index at which the final component of the path (including its leading
+   *         slash) begins, or -1 if the path should not be split.
+   */
+  private static int getNameIndex(String path) {
+    return path == null ? -1 : path.lastIndexOf('/');
+  }
+
+  private static String intern(String str) {
+    return str == null ? null : INTERNER.intern(str);
+  }
+
+  private static ReplayCommand resolveReplayCommand(String command) {
+    if (command == null) {
+      return null;
+    }
+    Optional<ReplayCommand> replayCommand = REPLAY_COMMAND_CACHE.get(command);
+    if (replayCommand == null) {
+      // Strip any options, e.g. "rename (options=[TO_TRASH])"
+      try {
+        replayCommand = Optional.of(ReplayCommand.valueOf(command.split(" ")[0].toUpperCase()));
+      } catch (IllegalArgumentException iae) {
+        replayCommand = Optional.absent();
+      }
+      REPLAY_COMMAND_CACHE.putIfAbsent(command, replayCommand);
+    }
+    return replayCommand.orNull();
+  }
+
   @Override
   public boolean equals(Object other) {
     if (other == null || !(other instanceof AuditReplayCommand)) {
       return false;
     }
     AuditReplayCommand o = (AuditReplayCommand) other;
-    return absoluteTimestamp == o.absoluteTimestamp && ugi.equals(o.ugi) && command.equals(o.command) &&
-        src.equals(o.src) && dest.equals(o.dest) && sourceIP.equals(o.sourceIP);
+    return absoluteTimestamp == o.absoluteTimestamp && Objects.equal(ugi, o.ugi) &&
+        Objects.equal(command, o.command) && Objects.equal(getSrc(), o.getSrc()) &&
+        Objects.equal(getDest(), o.getDest()) && Objects.equal(sourceIP, o.sourceIP);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(absoluteTimestamp, ugi, command, getSrc(), getDest(), sourceIP);
   }
 
   @Override
   public String toString() {
     return String.format("AuditReplayCommand(absoluteTimestamp=%d, ugi=%s, command=%s, src=%s, dest=%s, sourceIP=%s",
-        absoluteTimestamp, ugi, command, src, dest, sourceIP);
+        absoluteTimestamp, ugi, command, getSrc(), getDest(), sourceIP);
   }
 }
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * A pool of {@link AuditReplayCommand} objects, allowing commands to be recycled once
+ * they have been replayed rather than leaving them to be collected. Since commands may
+ * be queued for up to the readahead time before being replayed, they tend to survive
+ * into the old generation, which makes them expensive to collect.
+ *
+ * <p>Each pool is owned by the thread which obtains commands from it; see
+ * {@link #getThreadLocalPool()}. Commands may be released back to the pool by any
+ * thread. Released commands are pushed onto a lock-free stack linked through the
+ * commands themselves, so releasing does not allocate. The owner takes the entire
+ * stack at once when its private free list runs out, which avoids the ABA problem
+ * of popping single entries.
+ */
+class AuditReplayCommandPool {
+
+  private static final ThreadLocal<AuditReplayCommandPool> THREAD_LOCAL_POOL =
+      new ThreadLocal<AuditReplayCommandPool>() {
+        @Override
+        protected AuditReplayCommandPool initialValue() {
+          return new AuditReplayCommandPool();
+        }
+      };
+
+  private final AtomicReference<AuditReplayCommand> released = new AtomicReference<>();
+  // Only accessed by the owning thread
+  private AuditReplayCommand free;
+
+  /**
+   * @return The pool owned by the calling thread.
+   */
+  static AuditReplayCommandPool getThreadLocalPool() {
+    return THREAD_LOCAL_POOL.get();
+  }
+
+  /**
+   * Get a command from this pool, allocating a new one if none are available. Must only
+   * be called by the thread owning this pool. The returned command's fields must be set
+   * before it is used.
+   */
+  AuditReplayCommand obtain() {
+    if (free == null) {
+      free = released.getAndSet(null);
+      if (free == null) {
+        return new AuditReplayCommand(this);
+      }
+    }
+    AuditReplayCommand command = free;
+    free = command.next;
+    command.next = null;
+    return command;
+  }
+
+  /**
+   * Return a command to this pool. The caller must not retain any reference to it.
+   * May be called from any thread.
+   */
+  void release(AuditReplayCommand command) {
+    AuditReplayCommand head;
+    do {
+      head = released.get();
+      command.next = head;
+    } while (!released.compareAndSet(head, command));
+  }
+
+}
@@ -8,26 +8,34 @@ import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import com.google.common.base.Function;
 import com.linkedin.dynamometer.workloadgenerator.WorkloadDriver;
-import com.linkedin.dynamometer.workloadgenerator.WorkloadMapper;
+import com.linkedin.dynamometer.workloadgenerator.WorkloadOutputMapper;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.DelayQueue;
+import java.util.Map;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.MRJobConfig;
-import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.security.UserGroupInformation;
 
 import static com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.CommandType.READ;
 import static com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.CommandType.WRITE;
@@ -41,43 +49,193 @@ import static com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper
  * splitting disabled is used so any files present in the input path directory (given by the
  * {@value INPUT_PATH_KEY} configuration) will be used as input; one file per mapper. The expected
  * format of these files is determined by the value of the {@value COMMAND_PARSER_KEY} configuration,
- * which defaults to {@link AuditLogDirectParser}.
+ * which defaults to {@link AuditLogDirectParser}. Traces which will be replayed repeatedly can first be
+ * converted by {@link AuditTraceCompiler} and then read using {@link CompiledAuditTraceParser}. The
+ * engine used to hold commands until they are due and hand them off to the replay threads is determined
+ * by the value of the {@value SCHEDULER_KEY} configuration, which defaults to {@link TimingWheelScheduler}.
  *
  * <p>This generates a number of {@link org.apache.hadoop.mapreduce.Counter} values which can be used to
  * get information into the replay, including the number of commands replayed, how many of them were
  * "invalid" (threw an exception), how many were "late" (replayed later than they should have been),
- * and the latency (from client perspective) of each command. If there are a large number of "late"
- * commands, you likely need to increase the number of threads used and/or the number of mappers.
+ * and the latency (from client perspective) of each command. The less common commands, such as those
+ * on ACLs and extended attributes, share a single set of {@value OTHER_COMMANDS_COUNTER_NAME} counters
+ * so that the job stays within its counter limit. If there are a large number of "late" commands, you
+ * likely need to increase the number of threads used and/or the number of mappers.
+ * The latency of each command is also recorded in a {@link LatencyHistogram} per command; these are
+ * merged across all of the mappers by a single {@link AuditReplayReducer}, which logs them and writes
+ * them to the directory given by the {@value OUTPUT_PATH_KEY} configuration, if any. The latency
+ * percentiles of all of the commands together are also reported as counters in the
+ * {@value LATENCY_PERCENTILES_COUNTER_GROUP} group.
+ * Since these are only available once the job completes, each mapper can additionally publish the
+ * throughput, late and invalid commands, and latency percentiles of each command over every
+ * {@value LIVE_METRICS_INTERVAL_MS_KEY} while it runs, to a file within {@value LIVE_METRICS_PATH_KEY}
+ * and/or as a Hadoop metrics2 source if {@value LIVE_METRICS_METRICS2_KEY} is set. See
+ * {@link ReplayMetricsAggregator}.
  *
- * By default, commands will be replayed at the same rate as they were originally performed. However
+ * <p>By default, each replay thread performs the commands it receives synchronously, so a slow command
+ * delays all of the commands behind it on the same thread. If {@value ASYNC_ENABLED_KEY} is set, the
+ * replay threads instead act only as dispatchers which hand each command off to an
+ * {@link AsyncReplayExecutor} as soon as it is due; at most {@value ASYNC_MAX_IN_FLIGHT_KEY} commands
+ * will be outstanding at once. In this mode a small number of threads (e.g. 2-4) is sufficient.
+ *
+ * <p>By default, commands are spread across all of the replay threads, so two commands on the same path
+ * may be performed out of order if they are close together in time. The {@value SHARD_BY_KEY} configuration
+ * can be used to instead always send commands on the same path (or within the same parent directory) to the
+ * same thread, preserving their relative order. See {@link ShardingMode}.
+ *
+ * <p>By default, each line of input is parsed by the thread reading the input, which can become the
+ * bottleneck at high rate factors. The {@value PARSE_NUM_THREADS_KEY} configuration can be used to
+ * instead parse lines in parallel on a number of threads; commands are still scheduled in input order.
+ * See {@link AuditReplayParseStage}.
+ *
+ * <p>Since each file is read by a single mapper, a file containing a disproportionate share of the
+ * commands results in a single overloaded mapper. If {@value INPUT_SPLIT_BY_TIME_KEY} is set,
+ * {@link TimeSplitInputFormat} is used instead: each file is cut into pieces by time range, and the
+ * pieces are spread across {@value INPUT_NUM_SPLITS_KEY} mappers such that each mapper has a similar
+ * expected rate of commands throughout the replay. Each mapper reads its pieces merged in time order.
+ *
+ * <p>By default, commands will be replayed at the same rate as they were originally performed. However
  * a rate factor can be specified via the {@value RATE_FACTOR_KEY} configuration; all of the (relative)
  * timestamps will be divided by this rate factor, effectively changing the rate at which they are
  * replayed. For example, a rate factor of 2 would make the replay occur twice as fast, and a rate
  * factor of 0.5 would make it occur half as fast.
+ *
+ * <p>By default, the latency of each command is measured from when it is actually issued, so when the
+ * NameNode stalls, the commands queued behind it start late and the stall is mostly hidden from the
+ * reported latencies. The {@value LOAD_MODEL_KEY} configuration can be used to instead measure latency
+ * from the time at which each command was due, or to ignore the timestamps entirely and replay commands
+ * as fast as possible with a fixed number outstanding. See {@link LoadModel}. In every model, the rate
+ * at which each mapper completed commands is reported by the {@link REPLAYCOUNTERS#COMMANDSPERSECOND}
+ * counter, which when summed across the (concurrently running) mappers gives the total throughput.
+ *
+ * <p>To find the highest rate which the NameNode can sustain in a single run, {@value RATE_RAMP_ENABLED_KEY} can
+ * be set to start at the configured rate factor and increase it step by step until the NameNode saturates, at
+ * which point the mappers stop reading further input. The rate factor and throughput of each step are reported
+ * as counters in the {@value RATE_RAMP_COUNTER_GROUP} group. See {@link RateRampController}.
+ *
+ * <p>The rate factor can also be changed while the replay is running, and the replay paused and resumed, by
+ * updating the file given by the {@value RATE_CONTROL_PATH_KEY} configuration, which every mapper polls every
+ * {@value RATE_CONTROL_POLL_INTERVAL_MS_KEY}. See {@link ReplayRateControl}.
+ *
+ * <p>Commands are replayed as the users who originally performed them, each of which requires its own
+ * {@link FileSystem}. At most {@value FS_POOL_MAX_SIZE_KEY} of these are kept open per mapper, evicting the
+ * least recently used; the pool's hits, misses and evictions are reported as counters. See
+ * {@link ProxyFileSystemPool}. By default commands are replayed via the {@link FileSystem} API; the
+ * {@value BACKEND_KEY} configuration can be used to instead call the NameNode's RPC interface directly, which
+ * costs the client less per command. See {@link ReplayBackend}.
+ *
+ * <p>CREATE commands write a single byte unless {@value CREATE_SIZE_DISTRIBUTION_PATH_KEY} is set, in which case
+ * each file is written with a size drawn from the given distribution of file sizes, giving a realistic number of
+ * blocks. See {@link SizedFileWriter}.
+ *
+ * <p>Commands scheduled close together may be replayed out of order by different threads, especially at high rate
+ * factors, causing commands such as a create within a newly created directory to fail. With
+ * {@value DEPENDENCY_TRACKING_ENABLED_KEY}, each command instead waits for the earlier commands it depends upon.
+ * See {@link DependencyTracker}.
+ *
+ * <p>To compare two replays of the same trace, e.g. against two versions of the NameNode, each mapper can record the
+ * outcome of every command (its scheduled and actual time, latency, and any exception) to a file within
+ * {@value RECORDING_PATH_KEY}. Recording is buffered and asynchronous, dropping records rather than slowing the
+ * replay if the buffer of {@value RECORDING_BUFFER_SIZE_KEY} records fills. Two recordings can then be compared by
+ * {@link ReplayRecordingDiff}. See {@link ReplayRecorder}.
  */
-public class AuditReplayMapper extends WorkloadMapper<LongWritable, Text> {
+public class AuditReplayMapper extends WorkloadOutputMapper<LongWritable, Text, Text, LatencyHistogram> {
 
   public static final String INPUT_PATH_KEY = "auditreplay.input-path";
+  public static final String OUTPUT_PATH_KEY = "auditreplay.output-path";
   public static final String NUM_THREADS_KEY = "auditreplay.num-threads";
   public static final int NUM_THREADS_DEFAULT = 1;
   public static final String CREATE_BLOCKS_KEY = "auditreplay.create-blocks";
   public static final boolean CREATE_BLOCKS_DEFAULT = true;
+  public static final String CREATE_SIZE_DISTRIBUTION_PATH_KEY = "auditreplay.create-blocks.size-distribution.path";
+  public static final String CREATE_BLOCK_SIZE_KEY = "auditreplay.create-blocks.block-size";
+  public static final String CREATE_BYTES_PER_BLOCK_KEY = "auditreplay.create-blocks.bytes-per-block";
+  public static final long CREATE_BYTES_PER_BLOCK_DEFAULT = 0;
   public static final String RATE_FACTOR_KEY = "auditreplay.rate-factor";
   public static final double RATE_FACTOR_DEFAULT = 1.0;
   public static final String COMMAND_PARSER_KEY = "auditreplay.command-parser.class";
   public static final Class<AuditLogDirectParser> COMMAND_PARSER_DEFAULT = AuditLogDirectParser.class;
+  public static final String ASYNC_ENABLED_KEY = "auditreplay.async.enabled";
+  public static final boolean ASYNC_ENABLED_DEFAULT = false;
+  public static final String ASYNC_MAX_IN_FLIGHT_KEY = "auditreplay.async.max-in-flight";
+  public static final int ASYNC_MAX_IN_FLIGHT_DEFAULT = 1000;
+  public static final String ASYNC_WORKER_STACK_SIZE_KEY = "auditreplay.async.worker-stack-size-bytes";
+  public static final long ASYNC_WORKER_STACK_SIZE_DEFAULT = 256 * 1024;
+  public static final String SHARD_BY_KEY = "auditreplay.shard-by";
+  public static final ShardingMode SHARD_BY_DEFAULT = ShardingMode.NONE;
+  public static final String SCHEDULER_KEY = "auditreplay.scheduler.class";
+  public static final Class<TimingWheelScheduler> SCHEDULER_DEFAULT = TimingWheelScheduler.class;
+  public static final String PARSE_NUM_THREADS_KEY = "auditreplay.parse.num-threads";
+  public static final int PARSE_NUM_THREADS_DEFAULT = 0;
+  public static final String PARSE_BUFFER_SIZE_KEY = "auditreplay.parse.buffer-size";
+  public static final int PARSE_BUFFER_SIZE_DEFAULT = 16384;
+  public static final String INPUT_SPLIT_BY_TIME_KEY = "auditreplay.input.split-by-time";
+  public static final boolean INPUT_SPLIT_BY_TIME_DEFAULT = false;
+  public static final String INPUT_NUM_SPLITS_KEY = "auditreplay.input.num-splits";
+  public static final int INPUT_NUM_SPLITS_DEFAULT = 0;
+  public static final String INPUT_TIME_WINDOWS_KEY = "auditreplay.input.time-windows";
+  public static final int INPUT_TIME_WINDOWS_DEFAULT = 60;
+  public static final String INPUT_SAMPLES_PER_FILE_KEY = "auditreplay.input.samples-per-file";
+  public static final int INPUT_SAMPLES_PER_FILE_DEFAULT = 1000;
+  public static final String LIVE_METRICS_PATH_KEY = "auditreplay.live-metrics.path";
+  public static final String LIVE_METRICS_METRICS2_KEY = "auditreplay.live-metrics.metrics2.enabled";
+  public static final boolean LIVE_METRICS_METRICS2_DEFAULT = false;
+  public static final String LIVE_METRICS_INTERVAL_MS_KEY = "auditreplay.live-metrics.interval-ms";
+  public static final long LIVE_METRICS_INTERVAL_MS_DEFAULT = 10000;
+  public static final String LOAD_MODEL_KEY = "auditreplay.load-model";
+  public static final LoadModel LOAD_MODEL_DEFAULT = LoadModel.TIMED;
+  public static final String CLOSED_LOOP_EXPECTED_INTERVAL_US_KEY =
+      "auditreplay.load-model.closed-loop.expected-interval-us";
+  public static final long CLOSED_LOOP_EXPECTED_INTERVAL_US_DEFAULT = 0;
+  public static final String RATE_RAMP_ENABLED_KEY = "auditreplay.rate-ramp.enabled";
+  public static final boolean RATE_RAMP_ENABLED_DEFAULT = false;
+  public static final String RATE_RAMP_STEP_MS_KEY = "auditreplay.rate-ramp.step-ms";
+  public static final long RATE_RAMP_STEP_MS_DEFAULT = 60000;
+  public static final String RATE_RAMP_STEP_MULTIPLIER_KEY = "auditreplay.rate-ramp.step-multiplier";
+  public static final double RATE_RAMP_STEP_MULTIPLIER_DEFAULT = 1.25;
+  public static final String RATE_RAMP_MAX_LATE_FRACTION_KEY = "auditreplay.rate-ramp.max-late-fraction";
+  public static final double RATE_RAMP_MAX_LATE_FRACTION_DEFAULT = 0.01;
+  public static final String RATE_RAMP_MAX_P99_LATENCY_MS_KEY = "auditreplay.rate-ramp.max-p99-latency-ms";
+  public static final long RATE_RAMP_MAX_P99_LATENCY_MS_DEFAULT = 0;
+  public static final String RATE_RAMP_MAX_RPC_QUEUE_TIME_MS_KEY = "auditreplay.rate-ramp.max-rpc-queue-time-ms";
+  public static final double RATE_RAMP_MAX_RPC_QUEUE_TIME_MS_DEFAULT = 0;
+  public static final String RATE_RAMP_NAMENODE_WEB_URI_KEY = "auditreplay.rate-ramp.namenode-web-uri";
+  public static final String RATE_CONTROL_PATH_KEY = "auditreplay.rate-control.path";
+  public static final String RATE_CONTROL_POLL_INTERVAL_MS_KEY = "auditreplay.rate-control.poll-interval-ms";
+  public static final long RATE_CONTROL_POLL_INTERVAL_MS_DEFAULT = 500;
+  public static final String FS_POOL_MAX_SIZE_KEY = "auditreplay.fs-pool.max-size";
+  public static final int FS_POOL_MAX_SIZE_DEFAULT = 1000;
+  public static final String FS_POOL_IMPERSONATE_KEY = "auditreplay.fs-pool.impersonate";
+  public static final boolean FS_POOL_IMPERSONATE_DEFAULT = true;
+  public static final String BACKEND_KEY = "auditreplay.backend";
+  public static final ReplayBackend BACKEND_DEFAULT = ReplayBackend.FILESYSTEM;
+  public static final String DEPENDENCY_TRACKING_ENABLED_KEY = "auditreplay.dependency-tracking.enabled";
+  public static final boolean DEPENDENCY_TRACKING_ENABLED_DEFAULT = false;
+  public static final String RECORDING_PATH_KEY = "auditreplay.recording.path";
+  public static final String RECORDING_BUFFER_SIZE_KEY = "auditreplay.recording.buffer-size";
+  public static final int RECORDING_BUFFER_SIZE_DEFAULT = 65536;
 
-  private static final Log LOG = LogFactory.getLog(AuditReplayMapper.class);
   // This is the maximum amount that the mapper should read ahead from the input
   // as compared to the replay time. Setting this to one minute avoids reading too
   // many entries into memory simultaneously but ensures that the replay threads
   // should not ever run out of entries to replay.
-  private static final long MAX_READAHEAD_MS = 60000;
+  public static final String READAHEAD_MAX_MS_KEY = "auditreplay.readahead.max-ms";
+  public static final long READAHEAD_MAX_MS_DEFAULT = 60000;
+  // This is the maximum number of commands which the mapper should hold in memory
+  // waiting to be replayed. At high rate factors, the time-based limit alone can
+  // still allow millions of commands to be queued.
+  public static final String READAHEAD_MAX_COMMANDS_KEY = "auditreplay.readahead.max-commands";
+  public static final long READAHEAD_MAX_COMMANDS_DEFAULT = 500000;
+
+  private static final Log LOG = LogFactory.getLog(AuditReplayMapper.class);
 
   public static final String INDIVIDUAL_COMMANDS_COUNTER_GROUP = "INDIVIDUAL_COMMANDS";
   public static final String INDIVIDUAL_COMMANDS_LATENCY_SUFFIX = "_LATENCY";
   public static final String INDIVIDUAL_COMMANDS_INVALID_SUFFIX = "_INVALID";
   public static final String INDIVIDUAL_COMMANDS_COUNT_SUFFIX = "_COUNT";
+  public static final String OTHER_COMMANDS_COUNTER_NAME = "OTHER";
+  public static final String LATENCY_PERCENTILES_COUNTER_GROUP = "LATENCY_PERCENTILES";
+  public static final String RATE_RAMP_COUNTER_GROUP = "RATE_RAMP";
 
   public enum REPLAYCOUNTERS {
     // Total number of commands that were replayed
@@ -97,7 +255,36 @@ public class AuditReplayMapper extends WorkloadMapper<LongWritable, Text> {
     // Total number of read operations
     TOTALREADCOMMANDS,
     // Total latency for all read operations
-    TOTALREADCOMMANDLATENCY
+    TOTALREADCOMMANDLATENCY,
+    // Largest number of commands which were queued waiting to be replayed at once by each mapper, summed
+    // across all mappers; the peak for an individual mapper is logged by that mapper
+    READAHEADSUMMAXQUEUEDCOMMANDS,
+    // Total time the input reader spent blocked because the readahead limits were reached
+    READAHEADBLOCKEDTIME,
+    // Total time spent parsing input lines, summed across all parsing threads
+    PARSETIME,
+    // Total time the input reader spent waiting for parser threads
+    PARSEWAITTIME,
+    // Total number of commands which were already due to be replayed by the time they had been parsed
+    PARSELATECOMMANDS,
+    // Number of commands whose user's FileSystem was already in the pool
+    FSPOOLHITS,
+    // Number of commands for which a FileSystem had to be created
+    FSPOOLMISSES,
+    // Number of FileSystems closed to keep the pool within its maximum size
+    FSPOOLEVICTIONS,
+    // Number of commands which were due but had to wait for earlier commands they depend upon to complete
+    DEPENDENCYWAITS,
+    // Total number of blocks written by CREATE commands, when sized using a distribution of file sizes
+    CREATEDBLOCKS,
+    // Number of commands whose outcome was written to the recording, if enabled
+    RECORDEDCOMMANDS,
+    // Number of commands whose outcome was dropped from the recording because it could not keep up
+    RECORDINGDROPPEDCOMMANDS,
+    // Number of commands scheduled to a replay thread which exited before replaying them
+    DROPPEDCOMMANDS,
+    // Number of commands successfully replayed per second over the duration of the replay
+    COMMANDSPERSECOND
   }
 
   public enum ReplayCommand {
@@ -114,7 +301,33 @@ public class AuditReplayMapper extends WorkloadMapper<LongWritable, Text> {
     SETOWNER(WRITE),
     SETTIMES(WRITE),
     SETREPLICATION(WRITE),
-    CONCAT(WRITE);
+    CONCAT(WRITE),
+    TRUNCATE(WRITE),
+    CREATESYMLINK(WRITE),
+    SETACL(WRITE),
+    MODIFYACLENTRIES(WRITE),
+    REMOVEACLENTRIES(WRITE),
+    REMOVEDEFAULTACL(WRITE),
+    REMOVEACL(WRITE),
+    SETXATTR(WRITE),
+    REMOVEXATTR(WRITE),
+    SETSTORAGEPOLICY(WRITE),
+    GETACLSTATUS(READ),
+    GETXATTRS(READ),
+    LISTXATTRS(READ),
+    CHECKACCESS(READ),
+    GETEZFORPATH(READ),
+    GETSTORAGEPOLICIES(READ),
+    LISTCACHEPOOLS(READ),
+    LISTCACHEDIRECTIVES(READ),
+    LISTSNAPSHOTTABLEDIRECTORY(READ),
+    LISTENCRYPTIONZONES(READ);
+
+    // The commands which have counters of their own; each counter is created whether or not the command was
+    // replayed, so the others share OTHER_COMMANDS_COUNTER_NAME to keep the job within its counter limit
+    private static final EnumSet<ReplayCommand> INDIVIDUALLY_COUNTED = EnumSet.of(APPEND, CREATE, GETFILEINFO,
+        CONTENTSUMMARY, MKDIRS, RENAME, LISTSTATUS, DELETE, OPEN, SETPERMISSION, SETOWNER, SETTIMES, SETREPLICATION,
+        CONCAT);
 
     private final CommandType type;
 
@@ -125,27 +338,127 @@ public class AuditReplayMapper extends WorkloadMapper<LongWritable, Text> {
     public CommandType getType() {
       return type;
     }
+
+    /**
+     * @return The prefix of the counters of this command in the
+     *         {@value AuditReplayMapper#INDIVIDUAL_COMMANDS_COUNTER_GROUP} group, which is shared by all of the
+     *         less common commands.
+     */
+    public String getCounterName() {
+      return INDIVIDUALLY_COUNTED.contains(this) ? name() : OTHER_COMMANDS_COUNTER_NAME;
+    }
   }
 
   public enum CommandType {
     READ, WRITE
   }
 
+  /**
+   * Determines when commands are replayed, and how their latency is measured.
+   */
+  public enum LoadModel {
+    // Commands are replayed at their (scaled) original times; latency is measured from when each is issued
+    TIMED,
+    // Commands are replayed at their (scaled) original times; latency is measured from when each was due,
+    // so any time spent waiting for a replay thread to become free is included
+    OPEN_LOOP,
+    // Timestamps are ignored, and each replay thread (or, in asynchronous mode, each of the in-flight slots)
+    // replays its next command as soon as the previous one completes; latency is measured from when each is
+    // issued, optionally corrected for the expected interval between commands
+    CLOSED_LOOP
+  }
+
+  /**
+   * Determines how commands are sent to the NameNode.
+   */
+  public enum ReplayBackend {
+    // Commands are performed via the FileSystem API, as a client application would
+    FILESYSTEM,
+    // Commands are performed by calling ClientProtocol directly, avoiding most of the client-side overhead;
+    // commands which require writing to DataNodes still use the FileSystem. See ClientProtocolReplayer.
+    CLIENT_PROTOCOL
+  }
+
+  /**
+   * Determines how commands are assigned to replay threads.
+   */
+  public enum ShardingMode {
+    // Any thread may replay any command
+    NONE,
+    // Commands with the same source path are always replayed by the same thread
+    SOURCE,
+    // Commands whose source paths share a parent directory are always replayed by the same thread
+    PARENT;
+
+    /**
+     * Get the index of the thread which should replay a given command.
+     * @param cmd The command to be replayed.
+     * @param numThreads The total number of replay threads.
+     * @return The index of the thread, or -1 if any thread may replay it.
+     */
+    int getThreadIndex(AuditReplayCommand cmd, int numThreads) {
+      if (this == NONE || !cmd.hasSrc()) {
+        return -1;
+      }
+      // Hashed without joining the path, which would be held in memory until the command is replayed
+      int hash = this == PARENT ? cmd.getSrcParentHashCode() : cmd.getSrcHashCode();
+      // Spread the higher bits since paths frequently differ only in their last characters
+      hash ^= hash >>> 16;
+      return (hash & Integer.MAX_VALUE) % numThreads;
+    }
+  }
+
   private long startTimestampMs;
   private int numThreads;
   private double rateFactor;
+  private ReplayClock clock;
   private long highestTimestamp;
   private List<AuditReplayThread> threads;
-  private DelayQueue<AuditReplayCommand> commandQueue;
+  private ReadaheadLimitingScheduler scheduler;
   private Function<Long, Long> relativeToAbsoluteTimestamp;
-  private AuditCommandParser commandParser;
+  private AuditReplayParseStage parseStage;
   private ScheduledThreadPoolExecutor progressExecutor;
+  private AsyncReplayExecutor asyncExecutor;
+  private ReplayMetricsAggregator metricsAggregator;
+  private ShardingMode shardingMode;
+  private LoadModel loadModel;
+  private long replayStartMs;
+  private RateRampController rateRamp;
+  private ProxyFileSystemPool fsPool;
+  private DependencyTracker dependencyTracker;
+  private ReplayRecorder recorder;
+  // Set once no further input should be replayed
+  private volatile boolean stopRequested = false;
 
   @Override
   public Class<? extends InputFormat> getInputFormat(Configuration conf) {
+    if (CompiledAuditTraceParser.class.isAssignableFrom(
+        conf.getClass(COMMAND_PARSER_KEY, COMMAND_PARSER_DEFAULT, AuditCommandParser.class))) {
+      return CompiledAuditTraceInputFormat.class;
+    }
+    if (conf.getBoolean(INPUT_SPLIT_BY_TIME_KEY, INPUT_SPLIT_BY_TIME_DEFAULT)) {
+      return TimeSplitInputFormat.class;
+    }
     return NoSplitTextInputFormat.class;
   }
 
+  @Override
+  public void configureJob(Job job) {
+    job.setMapOutputKeyClass(Text.class);
+    job.setMapOutputValueClass(LatencyHistogram.class);
+    job.setReducerClass(AuditReplayReducer.class);
+    job.setNumReduceTasks(1);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(LatencyHistogram.class);
+    String outputPath = job.getConfiguration().get(OUTPUT_PATH_KEY);
+    if (outputPath == null) {
+      job.setOutputFormatClass(NullOutputFormat.class);
+    } else {
+      job.setOutputFormatClass(SequenceFileOutputFormat.class);
+      FileOutputFormat.setOutputPath(job, new Path(outputPath));
+    }
+  }
+
   @Override
   public String getDescription() {
     return "This mapper replays audit log files.";
@@ -155,42 +468,236 @@ public class AuditReplayMapper extends WorkloadMapper<LongWritable, Text> {
   public List<String> getConfigDescriptions() {
     return Lists.newArrayList(
         INPUT_PATH_KEY + " (required): Path to directory containing input files.",
+        OUTPUT_PATH_KEY + " (default none): Path to a directory to which the latency histogram of each command " +
+            "is written, as a SequenceFile of command name to " + LatencyHistogram.class.getSimpleName() + ". " +
+            "The latency percentiles of all commands together are reported as counters regardless.",
         NUM_THREADS_KEY + " (default " + NUM_THREADS_DEFAULT + "): Number of threads to use per mapper for replay.",
         CREATE_BLOCKS_KEY + " (default " + CREATE_BLOCKS_DEFAULT + "): Whether or not to create 1-byte blocks when " +
             "performing `create` commands.",
+        CREATE_SIZE_DISTRIBUTION_PATH_KEY + " (default none): Path to a distribution of file sizes, in the " +
+            "format output by `hdfs oiv -p FileDistribution`. If set, `create` commands write files with sizes " +
+            "drawn from it rather than 1 byte. Requires " + CREATE_BLOCKS_KEY + ".",
+        CREATE_BLOCK_SIZE_KEY + " (default " + DFSConfigKeys.DFS_BLOCK_SIZE_KEY + "): The block size used to " +
+            "determine the number of blocks in a file of a given size.",
+        CREATE_BYTES_PER_BLOCK_KEY + " (default " + CREATE_BYTES_PER_BLOCK_DEFAULT + "): If positive, each block " +
+            "of a sized file is written with only this many bytes, keeping the number of blocks while sending " +
+            "far less data. Must be at least the NameNode's " + DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY +
+            " and a multiple of " + DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY + ".",
         RATE_FACTOR_KEY + " (default " + RATE_FACTOR_DEFAULT + "): Multiplicative speed at which to replay the audit " +
             " log; e.g. a value of 2.0 would make the replay occur at twice the original speed. This can be useful " +
-            "to induce heavier loads."
+            "to induce heavier loads.",
+        SCHEDULER_KEY + " (default " + SCHEDULER_DEFAULT.getName() + "): The engine used to schedule commands " +
+            "onto the replay threads. " + DelayQueueScheduler.class.getName() + " uses a single queue shared by " +
+            "all threads, as was done originally.",
+        ASYNC_ENABLED_KEY + " (default " + ASYNC_ENABLED_DEFAULT + "): If true, the replay threads only dispatch " +
+            "commands, which are then performed asynchronously; " + NUM_THREADS_KEY + " can then be kept small.",
+        ASYNC_MAX_IN_FLIGHT_KEY + " (default " + ASYNC_MAX_IN_FLIGHT_DEFAULT + "): In asynchronous mode, the " +
+            "maximum number of commands which may be outstanding at once per mapper.",
+        ASYNC_WORKER_STACK_SIZE_KEY + " (default " + ASYNC_WORKER_STACK_SIZE_DEFAULT + "): In asynchronous mode, " +
+            "the stack size of the threads performing the commands.",
+        SHARD_BY_KEY + " (default " + SHARD_BY_DEFAULT + "): One of " + Arrays.toString(ShardingMode.values()) +
+            ". If not " + ShardingMode.NONE + ", commands on the same source path (or parent directory) are " +
+            "always replayed in order by the same thread. Not supported in asynchronous mode.",
+        READAHEAD_MAX_MS_KEY + " (default " + READAHEAD_MAX_MS_DEFAULT + "): The maximum amount of time, in ms, " +
+            "by which reading the input may run ahead of the replay.",
+        READAHEAD_MAX_COMMANDS_KEY + " (default " + READAHEAD_MAX_COMMANDS_DEFAULT + "): The maximum number of " +
+            "commands which may be held in memory waiting to be replayed. Reading the input is blocked once either " +
+            "this or the readahead time is reached.",
+        PARSE_NUM_THREADS_KEY + " (default " + PARSE_NUM_THREADS_DEFAULT + "): The number of threads per mapper " +
+            "used to parse the input. If 0, the input is parsed by the thread reading it, which may be unable to " +
+            "keep up at high rate factors. Not supported for compiled traces.",
+        PARSE_BUFFER_SIZE_KEY + " (default " + PARSE_BUFFER_SIZE_DEFAULT + "): The maximum number of input lines " +
+            "which may be waiting to be parsed when using parser threads.",
+        INPUT_SPLIT_BY_TIME_KEY + " (default " + INPUT_SPLIT_BY_TIME_DEFAULT + "): If true, input files are cut " +
+            "into pieces by time range which are spread across the mappers so as to balance their expected rate of " +
+            "commands, rather than each file being read by a single mapper. Files must be uncompressed. Not " +
+            "supported for compiled traces.",
+        INPUT_NUM_SPLITS_KEY + " (default " + INPUT_NUM_SPLITS_DEFAULT + "): When splitting input by time, the " +
+            "number of mappers to use. If not positive, the number of input files is used.",
+        INPUT_TIME_WINDOWS_KEY + " (default " + INPUT_TIME_WINDOWS_DEFAULT + "): When splitting input by time, " +
+            "the number of time ranges into which each file is cut.",
+        INPUT_SAMPLES_PER_FILE_KEY + " (default " + INPUT_SAMPLES_PER_FILE_DEFAULT + "): When splitting input by " +
+            "time, the number of lines sampled from each file to determine where to cut it.",
+        LOAD_MODEL_KEY + " (default " + LOAD_MODEL_DEFAULT + "): One of " + Arrays.toString(LoadModel.values()) +
+            ". " + LoadModel.OPEN_LOOP + " measures latency from when each command was due rather than from when " +
+            "it was issued; " + LoadModel.CLOSED_LOOP + " ignores the timestamps and replays commands as fast as " +
+            "possible, with " + NUM_THREADS_KEY + " (or in asynchronous mode, " + ASYNC_MAX_IN_FLIGHT_KEY + ") " +
+            "commands outstanding at once.",
+        CLOSED_LOOP_EXPECTED_INTERVAL_US_KEY + " (default " + CLOSED_LOOP_EXPECTED_INTERVAL_US_DEFAULT + "): In " +
+            "closed-loop mode, the expected interval between the commands of each thread, in microseconds. If " +
+            "positive, commands which take longer than this also record the latencies of the commands they " +
+            "delayed into the latency histograms.",
+        RATE_RAMP_ENABLED_KEY + " (default " + RATE_RAMP_ENABLED_DEFAULT + "): If true, the rate factor starts at " +
+            RATE_FACTOR_KEY + " and is increased step by step until the NameNode saturates, after which no further " +
+            "input is replayed. Not supported in closed-loop mode.",
+        RATE_RAMP_STEP_MS_KEY + " (default " + RATE_RAMP_STEP_MS_DEFAULT + "): The duration of each step of the " +
+            "rate ramp, in ms. Must be at least " + LIVE_METRICS_INTERVAL_MS_KEY + ".",
+        RATE_RAMP_STEP_MULTIPLIER_KEY + " (default " + RATE_RAMP_STEP_MULTIPLIER_DEFAULT + "): The factor by which " +
+            "the rate factor is multiplied after each step of the rate ramp.",
+        RATE_RAMP_MAX_LATE_FRACTION_KEY + " (default " + RATE_RAMP_MAX_LATE_FRACTION_DEFAULT + "): A step of the " +
+            "rate ramp saturates the NameNode if more than this fraction of its commands were replayed late.",
+        RATE_RAMP_MAX_P99_LATENCY_MS_KEY + " (default " + RATE_RAMP_MAX_P99_LATENCY_MS_DEFAULT + "): If positive, " +
+            "a step of the rate ramp also saturates the NameNode if the p99 latency of its commands exceeds this.",
+        RATE_RAMP_MAX_RPC_QUEUE_TIME_MS_KEY + " (default " + RATE_RAMP_MAX_RPC_QUEUE_TIME_MS_DEFAULT + "): If " +
+            "positive, a step of the rate ramp also saturates the NameNode if the average RPC queue time reported " +
+            "by its JMX exceeds this. Requires " + RATE_RAMP_NAMENODE_WEB_URI_KEY + ".",
+        RATE_RAMP_NAMENODE_WEB_URI_KEY + " (default none): The URI of the web UI of the NameNode under test, " +
+            "e.g. http://host:50070, used to retrieve its JMX.",
+        RATE_CONTROL_PATH_KEY + " (default none): Path to a file, which need not exist yet, through which the " +
+            "rate factor can be changed and the replay paused or resumed while it is running. It can be updated " +
+            "using " + ReplayRateControl.class.getName() + ". Not supported in closed-loop mode or with the " +
+            "rate ramp.",
+        RATE_CONTROL_POLL_INTERVAL_MS_KEY + " (default " + RATE_CONTROL_POLL_INTERVAL_MS_DEFAULT + "): How " +
+            "often each mapper checks the rate control file for changes, in ms.",
+        FS_POOL_MAX_SIZE_KEY + " (default " + FS_POOL_MAX_SIZE_DEFAULT + "): The maximum number of per-user " +
+            "FileSystems, each with its own RPC connection, which each mapper keeps open. If not positive, there " +
+            "is no limit.",
+        FS_POOL_IMPERSONATE_KEY + " (default " + FS_POOL_IMPERSONATE_DEFAULT + "): If false, all commands are " +
+            "replayed as the user running the job over a single RPC connection per mapper, rather than as the " +
+            "users who originally performed them.",
+        BACKEND_KEY + " (default " + BACKEND_DEFAULT + "): One of " + Arrays.toString(ReplayBackend.values()) +
+            ". " + ReplayBackend.CLIENT_PROTOCOL + " calls the NameNode's ClientProtocol directly rather than " +
+            "using the FileSystem API, allowing each mapper to generate a higher rate of commands. Commands " +
+            "which write to DataNodes are still performed via the FileSystem.",
+        DEPENDENCY_TRACKING_ENABLED_KEY + " (default " + DEPENDENCY_TRACKING_ENABLED_DEFAULT + "): If true, a " +
+            "command is not replayed until the earlier commands of the same mapper on the same path, or one of " +
+            "its ancestors or descendants, have completed, so that commands which depend upon each other are not " +
+            "reordered at high rate factors. Independent commands are still replayed in parallel.",
+        LIVE_METRICS_PATH_KEY + " (default none): Path to a directory within which each mapper writes a " +
+            "tab-separated file of the throughput, late and invalid commands, and latency percentiles of each " +
+            "command during every interval of the replay.",
+        LIVE_METRICS_METRICS2_KEY + " (default " + LIVE_METRICS_METRICS2_DEFAULT + "): If true, each mapper " +
+            "publishes the same per-interval metrics as a Hadoop metrics2 source.",
+        LIVE_METRICS_INTERVAL_MS_KEY + " (default " + LIVE_METRICS_INTERVAL_MS_DEFAULT + "): The length of each " +
+            "interval over which live metrics are published, in ms.",
+        RECORDING_PATH_KEY + " (default none): Path to a directory within which each mapper writes a SequenceFile " +
+            "recording the outcome of every command it replays, for comparison with another replay using " +
+            "diff-replay-recordings.sh.",
+        RECORDING_BUFFER_SIZE_KEY + " (default " + RECORDING_BUFFER_SIZE_DEFAULT + "): The number of records " +
+            "which each mapper buffers while they are written; beyond this, records are dropped rather than " +
+            "slowing down the replay."
     );
   }
 
+  @Override
+  public String getResultSummary(Job job) throws IOException {
+    if (!job.getConfiguration().getBoolean(RATE_RAMP_ENABLED_KEY, RATE_RAMP_ENABLED_DEFAULT)) {
+      return null;
+    }
+    return RateRampController.summarize(job.getCounters(), job.getConfiguration());
+  }
+
   @Override
   public boolean verifyConfigurations(Configuration conf) {
     return conf.get(INPUT_PATH_KEY) != null;
   }
 
   @Override
-  public void setup(final Mapper.Context context) throws IOException {
+  public void setup(final Context context) throws IOException {
     Configuration conf = context.getConfiguration();
+    // Not shared with any other task in this JVM, so that changes to its speed only affect this one
+    clock = new ReplayClock();
     // WorkloadDriver ensures that the starttimestamp is set
     startTimestampMs = conf.getLong(WorkloadDriver.START_TIMESTAMP_MS, -1);
     numThreads = conf.getInt(NUM_THREADS_KEY, NUM_THREADS_DEFAULT);
     rateFactor = conf.getDouble(RATE_FACTOR_KEY, RATE_FACTOR_DEFAULT);
+    int numParseThreads = conf.getInt(PARSE_NUM_THREADS_KEY, PARSE_NUM_THREADS_DEFAULT);
+    Class<? extends AuditCommandParser> commandParserClass =
+        conf.getClass(COMMAND_PARSER_KEY, COMMAND_PARSER_DEFAULT, AuditCommandParser.class);
+    if (CompiledAuditTraceParser.class.isAssignableFrom(commandParserClass)) {
+      if (numParseThreads > 0) {
+        throw new IOException(PARSE_NUM_THREADS_KEY + " cannot be used with " + commandParserClass.getName() +
+            " since each of its records depends on those before it");
+      }
+      if (conf.getBoolean(INPUT_SPLIT_BY_TIME_KEY, INPUT_SPLIT_BY_TIME_DEFAULT)) {
+        throw new IOException(INPUT_SPLIT_BY_TIME_KEY + " cannot be used with " + commandParserClass.getName() +
+            " since each of its records depends on those before it");
+      }
+    }
+    List<AuditCommandParser> commandParsers = new ArrayList<>();
+    for (int i = 0; i < Math.max(numParseThreads, 1); i++) {
+      try {
+        commandParsers.add(commandParserClass.getConstructor().newInstance());
+      } catch (NoSuchMethodException|InstantiationException|IllegalAccessException|InvocationTargetException e) {
+        throw new IOException("Exception encountered while instantiating the command parser", e);
+      }
+      commandParsers.get(i).initialize(conf);
+    }
+    if (conf.getBoolean(DEPENDENCY_TRACKING_ENABLED_KEY, DEPENDENCY_TRACKING_ENABLED_DEFAULT)) {
+      LOG.info("Tracking the dependencies between commands");
+      dependencyTracker = new DependencyTracker();
+    }
     try {
-      commandParser = conf.getClass(COMMAND_PARSER_KEY, COMMAND_PARSER_DEFAULT, AuditCommandParser.class)
-          .getConstructor().newInstance();
+      // Commands held back by the dependency tracker still count towards the readahead limit
+      scheduler = new ReadaheadLimitingScheduler(conf.getClass(SCHEDULER_KEY, SCHEDULER_DEFAULT,
+          AuditReplayScheduler.class).getConstructor().newInstance(), dependencyTracker);
     } catch (NoSuchMethodException|InstantiationException|IllegalAccessException|InvocationTargetException e) {
-      throw new IOException("Exception encountered while instantiating the command parser", e);
+      throw new IOException("Exception encountered while instantiating the scheduler", e);
+    }
+    scheduler.initialize(conf, numThreads, clock);
+    loadModel = conf.getEnum(LOAD_MODEL_KEY, LOAD_MODEL_DEFAULT);
+    if (loadModel != LoadModel.TIMED) {
+      LOG.info("Using load model " + loadModel);
+    }
+    shardingMode = conf.getEnum(SHARD_BY_KEY, SHARD_BY_DEFAULT);
+    if (shardingMode != ShardingMode.NONE) {
+      if (!scheduler.supportsThreadAffinity()) {
+        throw new IOException(SHARD_BY_KEY + " is not supported by the scheduler " + scheduler.getClass().getName());
+      }
+      if (conf.getBoolean(ASYNC_ENABLED_KEY, ASYNC_ENABLED_DEFAULT)) {
+        throw new IOException(SHARD_BY_KEY + " cannot be combined with " + ASYNC_ENABLED_KEY +
+            " since asynchronous commands from the same thread may complete out of order");
+      }
+      LOG.info("Sharding commands across threads by " + shardingMode);
     }
-    commandParser.initialize(conf);
     relativeToAbsoluteTimestamp = new Function<Long, Long>() {
       @Override
       public Long apply(Long input) {
+        if (loadModel == LoadModel.CLOSED_LOOP) {
+          // Every command is due immediately, and is replayed as soon as a thread is free
+          return startTimestampMs;
+        }
         return startTimestampMs + Math.round(input / rateFactor);
       }
     };
 
+    if (numParseThreads > 0) {
+      LOG.info("Parsing input using " + numParseThreads + " threads");
+    }
+    parseStage = new AuditReplayParseStage(commandParsers, numParseThreads,
+        conf.getInt(PARSE_BUFFER_SIZE_KEY, PARSE_BUFFER_SIZE_DEFAULT), relativeToAbsoluteTimestamp, clock,
+        new AuditReplayParseStage.CommandSink() {
+          @Override
+          public void accept(AuditReplayCommand cmd) throws InterruptedException {
+            schedule(cmd);
+          }
+        });
+
+    if (conf.getBoolean(ASYNC_ENABLED_KEY, ASYNC_ENABLED_DEFAULT)) {
+      int maxInFlight = conf.getInt(ASYNC_MAX_IN_FLIGHT_KEY, ASYNC_MAX_IN_FLIGHT_DEFAULT);
+      LOG.info("Replaying asynchronously with up to " + maxInFlight + " commands in flight");
+      asyncExecutor = new AsyncReplayExecutor(maxInFlight,
+          conf.getLong(ASYNC_WORKER_STACK_SIZE_KEY, ASYNC_WORKER_STACK_SIZE_DEFAULT));
+    }
+
+    boolean impersonate = conf.getBoolean(FS_POOL_IMPERSONATE_KEY, FS_POOL_IMPERSONATE_DEFAULT);
+    if (!impersonate) {
+      LOG.info("Replaying all commands as " + UserGroupInformation.getLoginUser().getShortUserName());
+    }
+    fsPool = new ProxyFileSystemPool(conf, URI.create(conf.get(WorkloadDriver.NN_URI)),
+        UserGroupInformation.getLoginUser(), conf.getInt(FS_POOL_MAX_SIZE_KEY, FS_POOL_MAX_SIZE_DEFAULT), impersonate);
+
+    SizedFileWriter sizedFileWriter = SizedFileWriter.create(conf);
+    if (sizedFileWriter != null) {
+      if (!conf.getBoolean(CREATE_BLOCKS_KEY, CREATE_BLOCKS_DEFAULT)) {
+        throw new IOException(CREATE_SIZE_DISTRIBUTION_PATH_KEY + " cannot be used when " + CREATE_BLOCKS_KEY +
+            " is false");
+      }
+      LOG.info("Sizing created files using the distribution in " + conf.get(CREATE_SIZE_DISTRIBUTION_PATH_KEY));
+    }
+
     LOG.info("Starting " + numThreads + " threads");
+    replayStartMs = Math.max(startTimestampMs, System.currentTimeMillis());
 
     progressExecutor = new ScheduledThreadPoolExecutor(1);
     // half of the timeout or once per minute if none specified
@@ -199,52 +706,195 @@ public class AuditReplayMapper extends WorkloadMapper<LongWritable, Text> {
       @Override
       public void run() {
         context.progress();
+        LOG.info("Commands queued for replay: " + scheduler.getQueueDepth() + "; reader blocked for a total of " +
+            scheduler.getBlockedTimeMs() + " ms");
+        LOG.info("Lines read: " + parseStage.getSubmittedCount() + "; awaiting parsing: " +
+            parseStage.getBacklog() + "; total parse time: " + parseStage.getParseTimeMs() + " ms; " +
+            "commands already due when parsed: " + parseStage.getLateCommands());
+        LOG.info("FileSystems open: " + fsPool.getSize() + "; pool hits: " + fsPool.getHits() + "; misses: " +
+            fsPool.getMisses() + "; evictions: " + fsPool.getEvictions());
+        if (dependencyTracker != null) {
+          LOG.info("Commands waiting for those they depend upon: " + dependencyTracker.getWaitingCommands() +
+              "; paths with outstanding commands: " + dependencyTracker.getTrackedPaths());
+        }
       }
     }, progressFrequencyMs, progressFrequencyMs, TimeUnit.MILLISECONDS);
 
+    List<ReplayMetricsAggregator.Sink> metricsSinks = new ArrayList<>();
+    String taskAttemptId = context.getTaskAttemptID().toString();
+    String liveMetricsPath = conf.get(LIVE_METRICS_PATH_KEY);
+    if (liveMetricsPath != null) {
+      Path metricsFile = new Path(liveMetricsPath, taskAttemptId + ".tsv");
+      metricsSinks.add(new ReplayMetricsAggregator.FileSink(metricsFile.getFileSystem(conf).create(metricsFile)));
+    }
+    if (conf.getBoolean(LIVE_METRICS_METRICS2_KEY, LIVE_METRICS_METRICS2_DEFAULT)) {
+      metricsSinks.add(new ReplayMetricsAggregator.MetricsSystemSink(taskAttemptId));
+    }
+    long metricsIntervalMs = conf.getLong(LIVE_METRICS_INTERVAL_MS_KEY, LIVE_METRICS_INTERVAL_MS_DEFAULT);
+    if (conf.getBoolean(RATE_RAMP_ENABLED_KEY, RATE_RAMP_ENABLED_DEFAULT)) {
+      if (loadModel == LoadModel.CLOSED_LOOP) {
+        throw new IOException(RATE_RAMP_ENABLED_KEY + " cannot be used with the " + LoadModel.CLOSED_LOOP +
+            " load model since it ignores the rate factor");
+      }
+      if (conf.getLong(RATE_RAMP_STEP_MS_KEY, RATE_RAMP_STEP_MS_DEFAULT) < metricsIntervalMs) {
+        throw new IOException(RATE_RAMP_STEP_MS_KEY + " must be at least " + LIVE_METRICS_INTERVAL_MS_KEY);
+      }
+      rateRamp = new RateRampController(conf, clock, rateFactor, startTimestampMs, new Runnable() {
+        @Override
+        public void run() {
+          stopRequested = true;
+        }
+      });
+      metricsSinks.add(rateRamp);
+    }
+    if (!metricsSinks.isEmpty()) {
+      metricsAggregator = new ReplayMetricsAggregator(metricsIntervalMs, metricsSinks);
+      metricsAggregator.start(progressExecutor);
+    }
+
+    String rateControlPath = conf.get(RATE_CONTROL_PATH_KEY);
+    if (rateControlPath != null) {
+      if (loadModel == LoadModel.CLOSED_LOOP) {
+        throw new IOException(RATE_CONTROL_PATH_KEY + " cannot be used with the " + LoadModel.CLOSED_LOOP +
+            " load model since it ignores the rate factor");
+      }
+      if (rateRamp != null) {
+        throw new IOException(RATE_CONTROL_PATH_KEY + " cannot be combined with " + RATE_RAMP_ENABLED_KEY +
+            " since both change the rate factor");
+      }
+      Path controlPath = new Path(rateControlPath);
+      ReplayRateControl.Poller rateControlPoller = new ReplayRateControl.Poller(controlPath.getFileSystem(conf),
+          controlPath, clock, rateFactor);
+      // Apply any existing settings, e.g. a pause, before the replay begins
+      rateControlPoller.run();
+      long pollIntervalMs = conf.getLong(RATE_CONTROL_POLL_INTERVAL_MS_KEY, RATE_CONTROL_POLL_INTERVAL_MS_DEFAULT);
+      progressExecutor.scheduleWithFixedDelay(rateControlPoller, pollIntervalMs, pollIntervalMs,
+          TimeUnit.MILLISECONDS);
+      LOG.info("Polling " + controlPath + " for changes to the replay rate every " + pollIntervalMs + " ms");
+    }
+
+    String recordingPath = conf.get(RECORDING_PATH_KEY);
+    if (recordingPath != null) {
+      Path recordingFile = new Path(recordingPath, taskAttemptId + ".seq");
+      LOG.info("Recording the outcome of each command to " + recordingFile);
+      recorder = ReplayRecorder.create(conf, recordingFile,
+          conf.getInt(RECORDING_BUFFER_SIZE_KEY, RECORDING_BUFFER_SIZE_DEFAULT));
+    }
+
     threads = new ArrayList<>();
-    ConcurrentMap<String, FileSystem> fsCache = new ConcurrentHashMap<>();
-    commandQueue = new DelayQueue<>();
     for (int i = 0; i < numThreads; i++) {
-      AuditReplayThread thread = new AuditReplayThread(context, commandQueue, fsCache);
+      AuditReplayThread thread = new AuditReplayThread(context, scheduler, clock, i, fsPool, sizedFileWriter,
+          dependencyTracker, asyncExecutor, metricsAggregator == null ? null : metricsAggregator.createRecorder(),
+          recorder);
       threads.add(thread);
       thread.start();
     }
   }
 
   @Override
-  public void map(LongWritable lineNum, Text inputLine, Mapper.Context context)
+  public void run(Context context) throws IOException, InterruptedException {
+    setup(context);
+    try {
+      while (!stopRequested && context.nextKeyValue()) {
+        map(context.getCurrentKey(), context.getCurrentValue(), context);
+      }
+      if (stopRequested) {
+        LOG.info("Stopped reading input after " + parseStage.getSubmittedCount() + " lines");
+      }
+    } finally {
+      cleanup(context);
+    }
+  }
+
+  @Override
+  public void map(LongWritable lineNum, Text inputLine, Context context)
       throws IOException, InterruptedException {
-    AuditReplayCommand cmd = commandParser.parse(inputLine, relativeToAbsoluteTimestamp);
-    long delay = cmd.getDelay(TimeUnit.MILLISECONDS);
-    // Prevent from loading too many elements into memory all at once
-    if (delay > MAX_READAHEAD_MS) {
-      Thread.sleep(delay - (MAX_READAHEAD_MS / 2));
+    parseStage.submit(inputLine);
+  }
+
+  private void schedule(AuditReplayCommand cmd) throws InterruptedException {
+    cmd.setClock(clock);
+    // Scheduling blocks to prevent from loading too many elements into memory all at once
+    int threadIndex = shardingMode.getThreadIndex(cmd, numThreads);
+    // The command may be replayed and recycled as soon as it is scheduled. Input split by time
+    // may be very slightly out of order where its chunks meet, so keep the maximum.
+    highestTimestamp = Math.max(highestTimestamp, cmd.getAbsoluteTimestamp());
+    if (dependencyTracker != null) {
+      // Commands are scheduled in the order of the trace, so this is the order in which they depend on each other
+      dependencyTracker.register(cmd);
+    }
+    if (threadIndex < 0) {
+      scheduler.schedule(cmd);
+    } else {
+      scheduler.schedule(cmd, threadIndex);
     }
-    commandQueue.put(cmd);
-    highestTimestamp = cmd.getAbsoluteTimestamp();
   }
 
   @Override
-  public void cleanup(Mapper.Context context) throws InterruptedException {
-    for (AuditReplayThread t : threads) {
-      // Add in an indicator for each thread to shut down after the last real command
-      t.addToQueue(AuditReplayCommand.getPoisonPill(highestTimestamp + 1));
+  public void cleanup(Context context) throws IOException, InterruptedException {
+    try {
+      parseStage.finish();
+    } finally {
+      // Stop the threads even if the remaining input could not be scheduled, e.g. since one of them failed
+      for (AuditReplayThread t : threads) {
+        // Add in an indicator for each thread to shut down after the last real command
+        AuditReplayCommand poisonPill = AuditReplayCommand.getPoisonPill(highestTimestamp + 1);
+        poisonPill.setClock(clock);
+        t.addToQueue(poisonPill);
+      }
+      for (AuditReplayThread t : threads) {
+        t.join();
+      }
+    }
+    if (asyncExecutor != null) {
+      // Wait for the commands dispatched by the threads to finish so that their counters are complete
+      asyncExecutor.shutdownAndWait();
+    }
+    if (metricsAggregator != null) {
+      metricsAggregator.close();
+    }
+    if (recorder != null) {
+      recorder.close();
+      context.getCounter(REPLAYCOUNTERS.RECORDEDCOMMANDS).increment(recorder.getWrittenRecords());
+      context.getCounter(REPLAYCOUNTERS.RECORDINGDROPPEDCOMMANDS).increment(recorder.getDroppedRecords());
+    }
+    if (rateRamp != null) {
+      rateRamp.setCounters(context);
     }
     Optional<Exception> threadException = Optional.absent();
+    Map<ReplayCommand, LatencyHistogram> latencyHistograms = new EnumMap<>(ReplayCommand.class);
     for (AuditReplayThread t : threads) {
-      t.join();
-      t.drainCounters(context);
+      t.drainCounters(context, latencyHistograms);
       if (t.getException() != null) {
         threadException = Optional.of(t.getException());
       }
     }
+    long replayDurationMs = Math.max(System.currentTimeMillis() - replayStartMs, 1);
+    long successfulCommands = context.getCounter(REPLAYCOUNTERS.TOTALCOMMANDS).getValue() -
+        context.getCounter(REPLAYCOUNTERS.TOTALINVALIDCOMMANDS).getValue();
+    context.getCounter(REPLAYCOUNTERS.COMMANDSPERSECOND).setValue(successfulCommands * 1000 / replayDurationMs);
     progressExecutor.shutdown();
+    LOG.info("Largest number of commands queued waiting to be replayed at once: " + scheduler.getMaxQueueDepth());
+    // Counters from each mapper are summed, so this is only an upper bound on the queue depth of any one mapper
+    context.getCounter(REPLAYCOUNTERS.READAHEADSUMMAXQUEUEDCOMMANDS).increment(scheduler.getMaxQueueDepth());
+    context.getCounter(REPLAYCOUNTERS.READAHEADBLOCKEDTIME).increment(scheduler.getBlockedTimeMs());
+    context.getCounter(REPLAYCOUNTERS.PARSETIME).increment(parseStage.getParseTimeMs());
+    context.getCounter(REPLAYCOUNTERS.PARSEWAITTIME).increment(parseStage.getWaitTimeMs());
+    context.getCounter(REPLAYCOUNTERS.PARSELATECOMMANDS).increment(parseStage.getLateCommands());
+    context.getCounter(REPLAYCOUNTERS.FSPOOLHITS).increment(fsPool.getHits());
+    context.getCounter(REPLAYCOUNTERS.FSPOOLMISSES).increment(fsPool.getMisses());
+    context.getCounter(REPLAYCOUNTERS.FSPOOLEVICTIONS).increment(fsPool.getEvictions());
+    fsPool.close();
 
     if (threadException.isPresent()) {
       throw new RuntimeException("Exception in AuditReplayThread", threadException.get());
     }
-    LOG.info("Time taken to replay the logs in ms: " + (System.currentTimeMillis() - startTimestampMs));
+    // Merged across mappers by AuditReplayReducer
+    for (Map.Entry<ReplayCommand, LatencyHistogram> ent : latencyHistograms.entrySet()) {
+      context.write(new Text(ent.getKey().name()), ent.getValue());
+    }
+    LOG.info("Time taken to replay the logs in ms: " + (System.currentTimeMillis() - startTimestampMs) +
+        "; commands replayed per second: " + context.getCounter(REPLAYCOUNTERS.COMMANDSPERSECOND).getValue());
     long totalCommands = context.getCounter(REPLAYCOUNTERS.TOTALCOMMANDS).getValue();
     if (totalCommands != 0) {
       float percentageOfInvalidOps =
@@ -0,0 +1,288 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import com.google.common.base.Function;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.hadoop.io.Text;
+
+
+/**
+ * Converts input lines into {@link AuditReplayCommand}s and passes them on to a {@link CommandSink},
+ * in the same order as the lines were submitted. If no parser threads are used, each line is parsed
+ * by the thread which submits it. Otherwise, submitted lines are copied into a ring buffer and the
+ * i-th line is parsed by parser thread (i mod numThreads), so that parsing can proceed in parallel
+ * and the thread reading the input only has to copy each line. Parsed commands are passed to the sink
+ * by the submitting thread, strictly in submission order, whenever it finds the oldest outstanding
+ * line has been parsed or it needs to free up space in the buffer; the sink therefore only ever sees
+ * a single thread.
+ *
+ * <p>This keeps metrics on its own behavior: the time spent parsing, the time the submitting thread
+ * spent waiting on the parser threads, and the number of commands which were already due to be
+ * replayed by the time they had been parsed. A large number of the latter indicates that parsing
+ * cannot keep up with the replay.
+ *
+ * <p>Other than the metric getters, methods must be called from a single thread.
+ */
+class AuditReplayParseStage {
+
+  /**
+   * Receives commands from the parse stage.
+   */
+  interface CommandSink {
+    void accept(AuditReplayCommand cmd) throws InterruptedException;
+  }
+
+  private static final int EMPTY = 0;
+  private static final int FILLED = 1;
+  private static final int PARSED = 2;
+
+  private static final int SPIN_TRIES = 100;
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final List<AuditCommandParser> parsers;
+  private final Function<Long, Long> relativeToAbsolute;
+  private final ReplayClock clock;
+  private final CommandSink sink;
+  private final Slot[] slots;
+  private final int mask;
+  private final ParserThread[] threads;
+
+  // Sequence number of the next line to be submitted; written only by the submitting thread
+  private volatile long submitted = 0;
+  // Sequence number of the next line to be passed to the sink; accessed only by the submitting thread
+  private long emitted = 0;
+  private volatile boolean closed = false;
+  // The submitting thread, and whether it is waiting for a line to be parsed
+  private Thread submitter;
+  private volatile boolean submitterWaiting = false;
+
+  private volatile long inlineParseNanos = 0;
+  private volatile long waitNanos = 0;
+  private volatile long lateCommands = 0;
+
+  /**
+   * @param parsers The parsers to use; one per parser thread, or a single parser to parse all lines
+   *                on the submitting thread.
+   * @param numThreads The number of parser threads to use, or 0 to parse lines as they are submitted.
+   * @param bufferSize The maximum number of lines which may be submitted but not yet passed to the sink.
+   *                   Rounded up to a power of two.
+   * @param relativeToAbsolute Passed to {@link AuditCommandParser#parse(Text, Function)}.
+   * @param clock The clock against which commands are judged to be late.
+   * @param sink The recipient of parsed commands.
+   */
+  AuditReplayParseStage(List<AuditCommandParser> parsers, int numThreads, int bufferSize,
+      Function<Long, Long> relativeToAbsolute, ReplayClock clock, CommandSink sink) {
+    if (parsers.size() != Math.max(numThreads, 1)) {
+      throw new IllegalArgumentException("Expected one parser per thread but got " + parsers.size() +
+          " parsers for " + numThreads + " threads");
+    }
+    this.parsers = parsers;
+    this.relativeToAbsolute = relativeToAbsolute;
+    this.clock = clock;
+    this.sink = sink;
+    int capacity = Integer.highestOneBit(Math.max(bufferSize, 1) - 1) << 1;
+    slots = new Slot[numThreads == 0 ? 0 : Math.max(capacity, 1)];
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = new Slot();
+    }
+    mask = slots.length - 1;
+    threads = new ParserThread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new ParserThread(i, parsers.get(i));
+      threads[i].start();
+    }
+  }
+
+  /**
+   * Submit the next line to be parsed. The contents of the line are copied, so it may be reused by
+   * the caller. This may pass any number of previously submitted commands on to the sink.
+   */
+  void submit(Text line) throws IOException, InterruptedException {
+    if (threads.length == 0) {
+      long startNanos = System.nanoTime();
+      AuditReplayCommand cmd = parsers.get(0).parse(line, relativeToAbsolute);
+      inlineParseNanos += System.nanoTime() - startNanos;
+      submitted++;
+      emit(cmd);
+      emitted++;
+      return;
+    }
+    // Emit whatever is ready without waiting, then wait only if the buffer is full
+    while (emitted < submitted && slots[(int) emitted & mask].state == PARSED) {
+      emitNext();
+    }
+    if (submitted - emitted == slots.length) {
+      emitNext();
+    }
+    Slot slot = slots[(int) submitted & mask];
+    slot.line.set(line);
+    slot.sequence = submitted;
+    slot.state = FILLED;
+    ParserThread thread = threads[(int) (submitted % threads.length)];
+    submitted++;
+    if (thread.waiting) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  /**
+   * Pass all submitted lines to the sink and stop the parser threads. No further lines may be submitted.
+   */
+  void finish() throws IOException, InterruptedException {
+    try {
+      while (emitted < submitted) {
+        emitNext();
+      }
+    } finally {
+      closed = true;
+      for (ParserThread thread : threads) {
+        LockSupport.unpark(thread);
+      }
+      for (ParserThread thread : threads) {
+        thread.join();
+      }
+    }
+  }
+
+  /** @return The number of lines which have been submitted but not yet passed to the sink. */
+  long getBacklog() {
+    return submitted - emitted;
+  }
+
+  /** @return The number of lines which have been submitted. */
+  long getSubmittedCount() {
+    return submitted;
+  }
+
+  /** @return The total time spent parsing lines, summed across all threads. */
+  long getParseTimeMs() {
+    long parseNanos = inlineParseNanos;
+    for (ParserThread thread : threads) {
+      parseNanos += thread.parseNanos;
+    }
+    return TimeUnit.NANOSECONDS.toMillis(parseNanos);
+  }
+
+  /** @return The total time the submitting thread spent waiting for lines to be parsed. */
+  long getWaitTimeMs() {
+    return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+  }
+
+  /** @return The number of commands which were already due to be replayed when they were passed to the sink. */
+  long getLateCommands() {
+    return lateCommands;
+  }
+
+  private void emitNext() throws IOException, InterruptedException {
+    Slot slot = slots[(int) emitted & mask];
+    if (slot.state != PARSED) {
+      long startNanos = System.nanoTime();
+      submitter = Thread.currentThread();
+      for (int tries = 0; slot.state != PARSED; tries++) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        if (tries < SPIN_TRIES) {
+          Thread.yield();
+        } else {
+          submitterWaiting = true;
+          // Check again after setting the flag so that a wakeup can't be missed
+          if (slot.state != PARSED) {
+            LockSupport.parkNanos(this, MAX_PARK_NANOS);
+          }
+          submitterWaiting = false;
+        }
+      }
+      waitNanos += System.nanoTime() - startNanos;
+    }
+    AuditReplayCommand cmd = slot.cmd;
+    IOException error = slot.error;
+    slot.cmd = null;
+    slot.error = null;
+    slot.state = EMPTY;
+    emitted++;
+    if (error != null) {
+      throw error;
+    }
+    emit(cmd);
+  }
+
+  private void emit(AuditReplayCommand cmd) throws InterruptedException {
+    if (cmd.getAbsoluteTimestamp() <= clock.currentTimeMillis()) {
+      lateCommands++;
+    }
+    sink.accept(cmd);
+  }
+
+  private static class Slot {
+    private final Text line = new Text();
+    // Written before state is set to FILLED, so reads after observing FILLED are safe
+    private long sequence = -1;
+    private AuditReplayCommand cmd;
+    private IOException error;
+    private volatile int state = EMPTY;
+  }
+
+  private class ParserThread extends Thread {
+
+    private final int index;
+    private final AuditCommandParser parser;
+    private volatile long parseNanos = 0;
+    private volatile boolean waiting = false;
+
+    ParserThread(int index, AuditCommandParser parser) {
+      super("AuditReplayParser-" + index);
+      setDaemon(true);
+      this.index = index;
+      this.parser = parser;
+    }
+
+    @Override
+    public void run() {
+      for (long sequence = index; ; sequence += threads.length) {
+        Slot slot = slots[(int) sequence & mask];
+        for (int tries = 0; !isFilled(slot, sequence); tries++) {
+          if (closed && sequence >= submitted) {
+            return;
+          }
+          if (tries < SPIN_TRIES) {
+            Thread.yield();
+          } else {
+            waiting = true;
+            // Check again after setting the flag so that a wakeup can't be missed
+            if (!isFilled(slot, sequence) && !closed) {
+              LockSupport.parkNanos(this, MAX_PARK_NANOS);
+            }
+            waiting = false;
+          }
+        }
+        long startNanos = System.nanoTime();
+        try {
+          slot.cmd = parser.parse(slot.line, relativeToAbsolute);
+        } catch (IOException ioe) {
+          slot.error = ioe;
+        } catch (Throwable t) {
+          // Includes errors, which would otherwise kill this thread and leave the submitter waiting forever
+          slot.error = new IOException("Exception while parsing line: " + slot.line, t);
+        }
+        parseNanos += System.nanoTime() - startNanos;
+        slot.state = PARSED;
+        if (submitterWaiting) {
+          LockSupport.unpark(submitter);
+        }
+      }
+    }
+
+    private boolean isFilled(Slot slot, long sequence) {
+      return slot.state == FILLED && slot.sequence == sequence;
+    }
+
+  }
+
+}
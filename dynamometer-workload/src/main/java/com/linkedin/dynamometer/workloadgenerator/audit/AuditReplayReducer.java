@@ -0,0 +1,58 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.IOException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+import static com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.LATENCY_PERCENTILES_COUNTER_GROUP;
+
+
+/**
+ * Merges the {@link LatencyHistogram}s produced by each {@link AuditReplayMapper} into a single
+ * histogram per command, which is logged and written to the job output. Since counters are summed
+ * across tasks, percentiles cannot be reported by the mappers themselves; instead this sets counters
+ * in the {@value AuditReplayMapper#LATENCY_PERCENTILES_COUNTER_GROUP} group holding the latency
+ * percentiles, in microseconds, of all of the commands together. Only this fixed set of counters is
+ * published, regardless of how many commands were replayed, so that the job stays within its counter
+ * limit; the percentiles of each command are available from the job output. This must be the only
+ * reducer.
+ */
+public class AuditReplayReducer extends Reducer<Text, LatencyHistogram, Text, LatencyHistogram> {
+
+  private static final Log LOG = LogFactory.getLog(AuditReplayReducer.class);
+
+  private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+  private static final String[] PERCENTILE_COUNTERS = { "ALL_P50_US", "ALL_P90_US", "ALL_P99_US", "ALL_P999_US" };
+  private static final String MAX_COUNTER = "ALL_MAX_US";
+
+  private final LatencyHistogram all = new LatencyHistogram();
+
+  @Override
+  public void reduce(Text command, Iterable<LatencyHistogram> histograms, Context context)
+      throws IOException, InterruptedException {
+    LatencyHistogram merged = new LatencyHistogram();
+    for (LatencyHistogram histogram : histograms) {
+      merged.add(histogram);
+    }
+    all.add(merged);
+    LOG.info("Latency of " + command + ": " + merged);
+    context.write(command, merged);
+  }
+
+  @Override
+  public void cleanup(Context context) {
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      context.getCounter(LATENCY_PERCENTILES_COUNTER_GROUP, PERCENTILE_COUNTERS[i])
+          .setValue(all.getValueAtPercentile(PERCENTILES[i]));
+    }
+    context.getCounter(LATENCY_PERCENTILES_COUNTER_GROUP, MAX_COUNTER).setValue(all.getMaxValue());
+    LOG.info("Latency of all commands: " + all);
+  }
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+
+
+/**
+ * This interface represents a pluggable scheduling engine for the replay path. It holds
+ * the {@link AuditReplayCommand}s read by {@link AuditReplayMapper} until they are due
+ * (as determined by their absolute timestamp) and then hands them off to the
+ * {@link AuditReplayThread}s.
+ *
+ * <p>Commands are only ever added by a single producer thread (the one calling
+ * {@link AuditReplayMapper#map}); implementations may rely on this. Each consumer
+ * identifies itself by a thread index in the range [0, numThreads), and each index
+ * is only ever used by a single consumer thread. A consumer may exit early if it fails,
+ * in which case the producer must find out upon its next attempt to schedule a command
+ * which can no longer be replayed rather than waiting on it forever.
+ */
+public interface AuditReplayScheduler {
+
+  /**
+   * Initialize this scheduler with the given configuration. Guaranteed to be called
+   * prior to any other method.
+   * @param conf The Configuration to be used to set up this scheduler.
+   * @param numThreads The number of replay threads which will consume from this scheduler.
+   * @param clock The clock against which the timestamps of commands are compared.
+   */
+  void initialize(Configuration conf, int numThreads, ReplayClock clock) throws IOException;
+
+  /**
+   * Schedule a command to be replayed by any of the replay threads.
+   * @param command The command to schedule.
+   */
+  void schedule(AuditReplayCommand command) throws InterruptedException;
+
+  /**
+   * Schedule a command to be replayed by a specific replay thread. This is used
+   * e.g. to deliver a poison pill to each of the threads.
+   * @param command The command to schedule.
+   * @param threadIndex The index of the thread which should replay the command.
+   */
+  void schedule(AuditReplayCommand command, int threadIndex) throws InterruptedException;
+
+  /**
+   * @return True iff commands passed to {@link #schedule(AuditReplayCommand, int)} are
+   *         guaranteed to be replayed, in order, by the specified thread. If false, they
+   *         may be replayed by any thread.
+   */
+  boolean supportsThreadAffinity();
+
+  /**
+   * Retrieve the next command which is due for the given replay thread, waiting
+   * until one is available if necessary.
+   * @param threadIndex The index of the calling thread.
+   * @return The next command to replay.
+   */
+  AuditReplayCommand take(int threadIndex) throws InterruptedException;
+
+  /**
+   * Notify this scheduler that the consumer with the given thread index will not take any
+   * further commands, either because it has received a poison pill or because it has failed.
+   * Called by the consumer itself as it exits. Commands which can then no longer be replayed
+   * must not be dropped silently; scheduling them should instead fail with an
+   * {@link IllegalStateException}, and any which were already scheduled are discarded and
+   * counted in the return value. Poison pills for a consumer which has exited are ignored.
+   * @param threadIndex The index of the exiting thread.
+   * @return The number of commands, excluding poison pills, which had already been scheduled
+   *         and will now never be replayed.
+   */
+  int consumerExited(int threadIndex);
+
+}
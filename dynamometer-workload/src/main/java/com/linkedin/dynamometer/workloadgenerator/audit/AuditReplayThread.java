@@ -7,14 +7,14 @@ package com.linkedin.dynamometer.workloadgenerator.audit;
 import com.google.common.base.Splitter;
 import com.linkedin.dynamometer.workloadgenerator.WorkloadDriver;
 import java.io.IOException;
-import java.net.URI;
-import java.security.PrivilegedAction;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.DelayQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -22,15 +22,22 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.XAttrSetFlag;
+import org.apache.hadoop.fs.permission.AclEntry;
+import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.counters.GenericCounter;
 import org.apache.hadoop.security.UserGroupInformation;
 
+import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.LoadModel;
 import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.REPLAYCOUNTERS;
+import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.ReplayBackend;
 import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.ReplayCommand;
 
 import static com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.INDIVIDUAL_COMMANDS_COUNTER_GROUP;
@@ -41,61 +48,128 @@ import static com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper
 
 /**
  * This class replays each audit log entry at a specified timestamp in the future.
- * Each of these threads maintains a {@link DelayQueue} into which items are inserted
- * by the {@link AuditReplayMapper}. Once an item is ready, this thread will fetch the
- * command from the queue and attempt to replay it.
+ * Items are inserted by the {@link AuditReplayMapper} into an {@link AuditReplayScheduler}
+ * shared by all of the threads, each of which identifies itself to the scheduler by its
+ * thread index. Once an item is ready, this thread will fetch the command from the
+ * scheduler and attempt to replay it. If an {@link AsyncReplayExecutor} is provided, the
+ * command is instead handed off to it to be replayed asynchronously, and this thread
+ * only acts as a dispatcher.
  */
 public class AuditReplayThread extends Thread {
 
   private static final Log LOG = LogFactory.getLog(AuditReplayThread.class);
 
-  private DelayQueue<AuditReplayCommand> commandQueue;
-  private ConcurrentMap<String, FileSystem> fsCache;
-  private URI namenodeUri;
-  private UserGroupInformation loginUser;
-  private Configuration mapperConf;
+  // Since the audit log does not include the ACL entries or extended attributes of a command, fixed ones are used
+  static final List<AclEntry> BASE_ACL = AclEntry.parseAclSpec("user::rwx,group::r-x,other::r-x", true);
+  static final List<AclEntry> NAMED_USER_ACL = AclEntry.parseAclSpec("user:dynamometer:r-x", true);
+  static final List<AclEntry> NAMED_USER_ACL_REMOVAL = AclEntry.parseAclSpec("user:dynamometer", false);
+  static final String XATTR_NAME = "user.dynamometer";
+  static final byte[] XATTR_VALUE = new byte[] { 1 };
+
+  private AuditReplayScheduler scheduler;
+  // The clock against which the timestamps of commands are compared
+  private ReplayClock clock;
+  private int threadIndex;
+  private ProxyFileSystemPool fsPool;
+  // Writes created files with realistic sizes, if enabled; else null
+  private SizedFileWriter sizedFileWriter;
+  private AsyncReplayExecutor asyncExecutor;
+  // Holds back commands until those they depend upon have completed, if enabled; else null
+  private DependencyTracker dependencyTracker;
+  // Records the outcome of each command for the live metrics, if enabled; else null
+  private ReplayMetricsRecorder metricsRecorder;
+  // Records the outcome of each command to a file for later comparison, if enabled; else null
+  private ReplayRecorder recorder;
   // If any exception is encountered it will be stored here
-  private Exception exception;
+  private volatile Exception exception;
   private long startTimestampMs;
   private boolean createBlocks;
+  private LoadModel loadModel;
+  private long closedLoopExpectedIntervalNanos;
+  // Used to replay commands directly via ClientProtocol, if enabled; else null
+  private ClientProtocolReplayer clientProtocolReplayer;
 
   // Counters are not thread-safe so we store a local mapping in our thread
-  // and merge them all together at the end.
+  // and merge them all together at the end. When replaying asynchronously, these
+  // are also incremented by the executor's workers; GenericCounter is synchronized.
+  // Latencies are accumulated in nanoseconds and converted to milliseconds when drained.
   private Map<REPLAYCOUNTERS, Counter> replayCountersMap = new HashMap<>();
   private Map<String, Counter> individualCommandsMap = new HashMap<>();
+  // Latency histograms, indexed by ReplayCommand ordinal; each is created upon its first use
+  private AtomicReferenceArray<LatencyHistogram> latencyHistograms =
+      new AtomicReferenceArray<>(ReplayCommand.values().length);
 
-  AuditReplayThread(Mapper.Context mapperContext, DelayQueue<AuditReplayCommand> queue,
-      ConcurrentMap<String, FileSystem> fsCache) throws IOException {
-    commandQueue = queue;
-    this.fsCache = fsCache;
-    loginUser = UserGroupInformation.getLoginUser();
-    mapperConf = mapperContext.getConfiguration();
-    namenodeUri = URI.create(mapperConf.get(WorkloadDriver.NN_URI));
+  AuditReplayThread(Mapper.Context mapperContext, AuditReplayScheduler scheduler, ReplayClock clock, int threadIndex,
+      ProxyFileSystemPool fsPool, SizedFileWriter sizedFileWriter, DependencyTracker dependencyTracker,
+      AsyncReplayExecutor asyncExecutor, ReplayMetricsRecorder metricsRecorder, ReplayRecorder recorder) {
+    this.scheduler = scheduler;
+    this.clock = clock;
+    this.threadIndex = threadIndex;
+    this.fsPool = fsPool;
+    this.sizedFileWriter = sizedFileWriter;
+    this.dependencyTracker = dependencyTracker;
+    this.asyncExecutor = asyncExecutor;
+    this.metricsRecorder = metricsRecorder;
+    this.recorder = recorder;
+    Configuration mapperConf = mapperContext.getConfiguration();
     startTimestampMs = mapperConf.getLong(WorkloadDriver.START_TIMESTAMP_MS, -1);
     createBlocks = mapperConf.getBoolean(AuditReplayMapper.CREATE_BLOCKS_KEY,
         AuditReplayMapper.CREATE_BLOCKS_DEFAULT);
+    loadModel = mapperConf.getEnum(AuditReplayMapper.LOAD_MODEL_KEY, AuditReplayMapper.LOAD_MODEL_DEFAULT);
+    closedLoopExpectedIntervalNanos = TimeUnit.MICROSECONDS.toNanos(mapperConf.getLong(
+        AuditReplayMapper.CLOSED_LOOP_EXPECTED_INTERVAL_US_KEY,
+        AuditReplayMapper.CLOSED_LOOP_EXPECTED_INTERVAL_US_DEFAULT));
+    if (mapperConf.getEnum(AuditReplayMapper.BACKEND_KEY, AuditReplayMapper.BACKEND_DEFAULT) ==
+        ReplayBackend.CLIENT_PROTOCOL) {
+      clientProtocolReplayer = new ClientProtocolReplayer(mapperConf, createBlocks);
+    }
     LOG.info("Start timestamp: " + startTimestampMs);
     for (REPLAYCOUNTERS rc : REPLAYCOUNTERS.values()) {
       replayCountersMap.put(rc, new GenericCounter());
     }
     for (ReplayCommand replayCommand : ReplayCommand.values()) {
-      individualCommandsMap.put(replayCommand + INDIVIDUAL_COMMANDS_COUNT_SUFFIX, new GenericCounter());
-      individualCommandsMap.put(replayCommand + INDIVIDUAL_COMMANDS_LATENCY_SUFFIX, new GenericCounter());
-      individualCommandsMap.put(replayCommand + INDIVIDUAL_COMMANDS_INVALID_SUFFIX, new GenericCounter());
+      String counterName = replayCommand.getCounterName();
+      if (!individualCommandsMap.containsKey(counterName + INDIVIDUAL_COMMANDS_COUNT_SUFFIX)) {
+        individualCommandsMap.put(counterName + INDIVIDUAL_COMMANDS_COUNT_SUFFIX, new GenericCounter());
+        individualCommandsMap.put(counterName + INDIVIDUAL_COMMANDS_LATENCY_SUFFIX, new GenericCounter());
+        individualCommandsMap.put(counterName + INDIVIDUAL_COMMANDS_INVALID_SUFFIX, new GenericCounter());
+      }
     }
   }
 
   /**
    * Merge all of this thread's counter values into the counters contained within the
-   * passed context.
+   * passed context, and its latency histograms into those in the passed map.
    * @param context The context holding the counters to increment.
+   * @param mergedHistograms The latency histograms to add to, by command; missing entries are created.
    */
-  void drainCounters(Mapper.Context context) {
+  void drainCounters(Mapper.Context context, Map<ReplayCommand, LatencyHistogram> mergedHistograms) {
     for (Map.Entry<REPLAYCOUNTERS, Counter> ent : replayCountersMap.entrySet()) {
-      context.getCounter(ent.getKey()).increment(ent.getValue().getValue());
+      long value = ent.getValue().getValue();
+      if (ent.getKey() == REPLAYCOUNTERS.TOTALREADCOMMANDLATENCY ||
+          ent.getKey() == REPLAYCOUNTERS.TOTALWRITECOMMANDLATENCY) {
+        value = TimeUnit.NANOSECONDS.toMillis(value);
+      }
+      context.getCounter(ent.getKey()).increment(value);
     }
     for (Map.Entry<String, Counter> ent : individualCommandsMap.entrySet()) {
-      context.getCounter(INDIVIDUAL_COMMANDS_COUNTER_GROUP, ent.getKey()).increment(ent.getValue().getValue());
+      long value = ent.getValue().getValue();
+      if (ent.getKey().endsWith(INDIVIDUAL_COMMANDS_LATENCY_SUFFIX)) {
+        value = TimeUnit.NANOSECONDS.toMillis(value);
+      }
+      context.getCounter(INDIVIDUAL_COMMANDS_COUNTER_GROUP, ent.getKey()).increment(value);
+    }
+    for (ReplayCommand replayCommand : ReplayCommand.values()) {
+      LatencyHistogram histogram = latencyHistograms.get(replayCommand.ordinal());
+      if (histogram == null) {
+        continue;
+      }
+      LatencyHistogram merged = mergedHistograms.get(replayCommand);
+      if (merged == null) {
+        merged = new LatencyHistogram();
+        mergedHistograms.put(replayCommand, merged);
+      }
+      merged.add(histogram);
     }
   }
 
@@ -103,8 +177,8 @@ public class AuditReplayThread extends Thread {
    * Add a command to this thread's processing queue.
    * @param cmd Command to add.
    */
-  void addToQueue(AuditReplayCommand cmd) {
-    commandQueue.put(cmd);
+  void addToQueue(AuditReplayCommand cmd) throws InterruptedException {
+    scheduler.schedule(cmd, threadIndex);
   }
 
   /**
@@ -129,132 +203,288 @@ public class AuditReplayThread extends Thread {
         LOG.warn("Starting late by " + (-1 * delay) + " ms");
       }
 
-      AuditReplayCommand cmd = commandQueue.take();
-      while (!cmd.isPoison()) {
+      AuditReplayCommand cmd = scheduler.take(threadIndex);
+      while (!cmd.isPoison() && exception == null) {
         replayCountersMap.get(REPLAYCOUNTERS.TOTALCOMMANDS).increment(1);
         delay = cmd.getDelay(TimeUnit.MILLISECONDS);
-        if (delay < -5) { // allow some tolerance here
+        // In a closed loop every command is due at the start, so none are considered late
+        if (delay < -5 && loadModel != LoadModel.CLOSED_LOOP) { // allow some tolerance here
           replayCountersMap.get(REPLAYCOUNTERS.LATECOMMANDS).increment(1);
           replayCountersMap.get(REPLAYCOUNTERS.LATECOMMANDSTOTALTIME).increment(-1 * delay);
+          if (metricsRecorder != null && cmd.getReplayCommand() != null) {
+            metricsRecorder.recordLate(cmd.getReplayCommand());
+          }
         }
-        if (!replayLog(cmd)) {
-          replayCountersMap.get(REPLAYCOUNTERS.TOTALINVALIDCOMMANDS).increment(1);
+        if (dependencyTracker != null && !dependencyTracker.start(cmd)) {
+          // Replayed by whichever thread completes the last command it depends upon
+          replayCountersMap.get(REPLAYCOUNTERS.DEPENDENCYWAITS).increment(1);
+        } else if (asyncExecutor == null) {
+          replay(cmd);
+        } else {
+          final AuditReplayCommand asyncCmd = cmd;
+          asyncExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                replay(asyncCmd);
+              } catch (RuntimeException e) {
+                if (exception == null) {
+                  exception = e;
+                }
+                LOG.error("Asynchronous replay encountered exception; stopping dispatch.", e);
+              }
+            }
+          });
         }
-        cmd = commandQueue.take();
+        cmd = scheduler.take(threadIndex);
       }
     } catch (InterruptedException e) {
       LOG.error("Interrupted; exiting from thread.", e);
     } catch (Exception e) {
       exception = e;
       LOG.error("ReplayThread encountered exception; exiting.", e);
+    } finally {
+      // Any commands still due to this thread will never be replayed
+      int dropped = scheduler.consumerExited(threadIndex);
+      if (dropped > 0) {
+        LOG.warn("Dropped " + dropped + " commands which were scheduled but not replayed");
+        replayCountersMap.get(REPLAYCOUNTERS.DROPPEDCOMMANDS).increment(dropped);
+      }
+    }
+  }
+
+  /**
+   * Replay the provided command, counting it as invalid if it was not successful.
+   * The command is released back to its pool afterwards. Any commands which were
+   * only waiting for it to complete are then replayed in turn.
+   * @param cmd The command to replay
+   */
+  private void replay(AuditReplayCommand cmd) {
+    Deque<AuditReplayCommand> ready = null;
+    while (cmd != null) {
+      try {
+        ProxyFileSystemPool.Entry fsEntry;
+        try {
+          fsEntry = fsPool.acquire(cmd.getSimpleUgi());
+        } catch (IOException ioe) {
+          throw new RuntimeException(ioe);
+        }
+        try {
+          if (!replayLog(cmd, fsEntry.getFileSystem())) {
+            replayCountersMap.get(REPLAYCOUNTERS.TOTALINVALIDCOMMANDS).increment(1);
+          }
+        } finally {
+          fsEntry.release();
+        }
+      } finally {
+        if (dependencyTracker != null) {
+          List<AuditReplayCommand> dependents = dependencyTracker.complete(cmd);
+          if (!dependents.isEmpty()) {
+            if (ready == null) {
+              ready = new ArrayDeque<>();
+            }
+            ready.addAll(dependents);
+          }
+        }
+        cmd.release();
+      }
+      cmd = ready == null ? null : ready.poll();
     }
   }
 
   /**
    * Attempt to replay the provided command. Updates counters accordingly.
    * @param command The command to replay
+   * @param fs The FileSystem of the user who performed the command
    * @return True iff the command was successfully replayed (i.e., no exceptions were thrown).
    */
-  private boolean replayLog(final AuditReplayCommand command) {
+  private boolean replayLog(final AuditReplayCommand command, FileSystem fs) {
     final String src = command.getSrc();
     final String dst = command.getDest();
-    FileSystem proxyFs = fsCache.get(command.getSimpleUgi());
-    if (proxyFs == null) {
-      UserGroupInformation ugi = UserGroupInformation.createProxyUser(command.getSimpleUgi(), loginUser);
-      proxyFs = ugi.doAs(new PrivilegedAction<FileSystem>() {
-        @Override
-        public FileSystem run() {
-          try {
-            FileSystem fs = new DistributedFileSystem();
-            fs.initialize(namenodeUri, mapperConf);
-            return fs;
-          } catch (IOException ioe) {
-            throw new RuntimeException(ioe);
-          }
-        }
-      });
-      fsCache.put(command.getSimpleUgi(), proxyFs);
-    }
-    final FileSystem fs = proxyFs;
-    ReplayCommand replayCommand;
-    try {
-      replayCommand = ReplayCommand.valueOf(command.getCommand().split(" ")[0].toUpperCase());
-    } catch (IllegalArgumentException iae) {
+    ReplayCommand replayCommand = command.getReplayCommand();
+    if (replayCommand == null) {
       LOG.warn("Unsupported/invalid command: " + command);
       replayCountersMap.get(REPLAYCOUNTERS.TOTALUNSUPPORTEDCOMMANDS).increment(1);
       return false;
     }
+    // On the replay clock, as is the command's timestamp, so that the recorded times can be compared
+    long startMs = recorder == null ? 0 : clock.currentTimeMillis();
+    long startNanos = System.nanoTime();
+    // In an open loop, latency includes any time by which the command was issued late
+    long issueDelayNanos =
+        loadModel == LoadModel.OPEN_LOOP ? Math.max(-command.getDelay(TimeUnit.NANOSECONDS), 0) : 0;
     try {
-      long startTime = System.currentTimeMillis();
-      switch (replayCommand) {
-        case CREATE:
-          FSDataOutputStream fsDos = fs.create(new Path(src));
-          if (createBlocks) {
-            fsDos.writeByte(0);
-          }
-          fsDos.close();
-          break;
+      DistributedFileSystem dfs = (DistributedFileSystem) fs;
+      // Commands which cannot be replayed directly against the NameNode fall back to the FileSystem
+      if (clientProtocolReplayer == null || !clientProtocolReplayer.replay(replayCommand, src, dst, dfs.getClient())) {
+        switch (replayCommand) {
+          case CREATE:
+            if (sizedFileWriter != null) {
+              replayCountersMap.get(REPLAYCOUNTERS.CREATEDBLOCKS).increment(sizedFileWriter.createFile(fs, src));
+              break;
+            }
+            FSDataOutputStream fsDos = fs.create(new Path(src));
+            if (createBlocks) {
+              fsDos.writeByte(0);
+            }
+            fsDos.close();
+            break;
 
-        case GETFILEINFO:
-          fs.getFileStatus(new Path(src));
-          break;
+          case GETFILEINFO:
+            fs.getFileStatus(new Path(src));
+            break;
 
-        case CONTENTSUMMARY:
-          fs.getContentSummary(new Path(src));
-          break;
+          case CONTENTSUMMARY:
+            fs.getContentSummary(new Path(src));
+            break;
 
-        case MKDIRS:
-          fs.mkdirs(new Path(src));
-          break;
+          case MKDIRS:
+            fs.mkdirs(new Path(src));
+            break;
 
-        case RENAME:
-          fs.rename(new Path(src), new Path(dst));
-          break;
+          case RENAME:
+            fs.rename(new Path(src), new Path(dst));
+            break;
 
-        case LISTSTATUS:
-          ((DistributedFileSystem) fs).getClient().listPaths(src, HdfsFileStatus.EMPTY_NAME);
-          break;
+          case LISTSTATUS:
+            dfs.getClient().listPaths(src, HdfsFileStatus.EMPTY_NAME);
+            break;
 
-        case APPEND:
-          fs.append(new Path(src));
-          return true;
+          case APPEND:
+            fs.append(new Path(src));
+            return true;
 
-        case DELETE:
-          fs.delete(new Path(src), true);
-          break;
+          case DELETE:
+            fs.delete(new Path(src), true);
+            break;
 
-        case OPEN:
-          fs.open(new Path(src)).close();
-          break;
+          case OPEN:
+            fs.open(new Path(src)).close();
+            break;
 
-        case SETPERMISSION:
-          fs.setPermission(new Path(src), FsPermission.getDefault());
-          break;
+          case SETPERMISSION:
+            fs.setPermission(new Path(src), FsPermission.getDefault());
+            break;
 
-        case SETOWNER:
-          fs.setOwner(new Path(src), UserGroupInformation.getCurrentUser().getShortUserName(),
-              UserGroupInformation.getCurrentUser().getPrimaryGroupName());
-          break;
+          case SETOWNER:
+            fs.setOwner(new Path(src), UserGroupInformation.getCurrentUser().getShortUserName(),
+                UserGroupInformation.getCurrentUser().getPrimaryGroupName());
+            break;
 
-        case SETTIMES:
-          fs.setTimes(new Path(src), System.currentTimeMillis(), System.currentTimeMillis());
-          break;
+          case SETTIMES:
+            fs.setTimes(new Path(src), System.currentTimeMillis(), System.currentTimeMillis());
+            break;
 
-        case SETREPLICATION:
-          fs.setReplication(new Path(src), (short) 1);
-          break;
+          case SETREPLICATION:
+            fs.setReplication(new Path(src), (short) 1);
+            break;
 
-        case CONCAT:
-          // dst is like [path1, path2] - strip brackets and split on comma
-          String bareDist = dst.length() < 2 ? "" : dst.substring(1, dst.length() - 1).trim();
-          List<Path> dsts = new ArrayList<>();
-          for (String s : Splitter.on(",").omitEmptyStrings().trimResults().split(bareDist)) {
-            dsts.add(new Path(s));
-          }
-          fs.concat(new Path(src), dsts.toArray(new Path[] {}));
-          break;
+          case CONCAT:
+            // dst is like [path1, path2] - strip brackets and split on comma
+            String bareDist = dst.length() < 2 ? "" : dst.substring(1, dst.length() - 1).trim();
+            List<Path> dsts = new ArrayList<>();
+            for (String s : Splitter.on(",").omitEmptyStrings().trimResults().split(bareDist)) {
+              dsts.add(new Path(s));
+            }
+            fs.concat(new Path(src), dsts.toArray(new Path[] {}));
+            break;
+
+          case TRUNCATE:
+            // The new length is not logged; truncating at a block boundary avoids block recovery
+            fs.truncate(new Path(src), 0);
+            break;
+
+          case CREATESYMLINK:
+            // Via DFSClient since FileSystem refuses unless symlinks are enabled within the client
+            dfs.getClient().createSymlink(dst, src, false);
+            break;
+
+          case SETACL:
+            fs.setAcl(new Path(src), BASE_ACL);
+            break;
+
+          case MODIFYACLENTRIES:
+            fs.modifyAclEntries(new Path(src), NAMED_USER_ACL);
+            break;
+
+          case REMOVEACLENTRIES:
+            fs.removeAclEntries(new Path(src), NAMED_USER_ACL_REMOVAL);
+            break;
+
+          case REMOVEDEFAULTACL:
+            fs.removeDefaultAcl(new Path(src));
+            break;
+
+          case REMOVEACL:
+            fs.removeAcl(new Path(src));
+            break;
+
+          case SETXATTR:
+            fs.setXAttr(new Path(src), XATTR_NAME, XATTR_VALUE, EnumSet.of(XAttrSetFlag.CREATE, XAttrSetFlag.REPLACE));
+            break;
+
+          case REMOVEXATTR:
+            fs.removeXAttr(new Path(src), XATTR_NAME);
+            break;
+
+          case SETSTORAGEPOLICY:
+            dfs.setStoragePolicy(new Path(src), HdfsConstants.HOT_STORAGE_POLICY_NAME);
+            break;
+
+          case GETACLSTATUS:
+            fs.getAclStatus(new Path(src));
+            break;
+
+          case GETXATTRS:
+            fs.getXAttrs(new Path(src));
+            break;
+
+          case LISTXATTRS:
+            fs.listXAttrs(new Path(src));
+            break;
+
+          case CHECKACCESS:
+            fs.access(new Path(src), FsAction.READ);
+            break;
+
+          case GETEZFORPATH:
+            dfs.getEZForPath(new Path(src));
+            break;
+
+          case GETSTORAGEPOLICIES:
+            dfs.getStoragePolicies();
+            break;
+
+          // Listing iterators only fetch their first batch from the NameNode upon hasNext()
+          case LISTCACHEPOOLS:
+            dfs.listCachePools().hasNext();
+            break;
+
+          case LISTCACHEDIRECTIVES:
+            dfs.listCacheDirectives(new CacheDirectiveInfo.Builder().build()).hasNext();
+            break;
+
+          case LISTSNAPSHOTTABLEDIRECTORY:
+            dfs.getSnapshottableDirListing();
+            break;
+
+          case LISTENCRYPTIONZONES:
+            dfs.listEncryptionZones().hasNext();
+            break;
+        }
+      }
+      long latency = System.nanoTime() - startNanos + issueDelayNanos;
+      if (loadModel == LoadModel.CLOSED_LOOP) {
+        getLatencyHistogram(replayCommand).recordNanosWithExpectedInterval(latency, closedLoopExpectedIntervalNanos);
+      } else {
+        getLatencyHistogram(replayCommand).recordNanos(latency);
+      }
+      if (metricsRecorder != null) {
+        metricsRecorder.recordCompleted(replayCommand, latency);
+      }
+      if (recorder != null) {
+        recorder.record(replayCommand, src, command.getAbsoluteTimestamp(), startMs, latency, null);
       }
-      long latency = System.currentTimeMillis() - startTime;
       switch (replayCommand.getType()) {
         case WRITE:
           replayCountersMap.get(REPLAYCOUNTERS.TOTALWRITECOMMANDLATENCY).increment(latency);
@@ -265,13 +495,30 @@ public class AuditReplayThread extends Thread {
           replayCountersMap.get(REPLAYCOUNTERS.TOTALREADCOMMANDS).increment(1);
           break;
       }
-      individualCommandsMap.get(replayCommand + INDIVIDUAL_COMMANDS_LATENCY_SUFFIX).increment(latency);
-      individualCommandsMap.get(replayCommand + INDIVIDUAL_COMMANDS_COUNT_SUFFIX).increment(1);
+      individualCommandsMap.get(replayCommand.getCounterName() + INDIVIDUAL_COMMANDS_LATENCY_SUFFIX).increment(latency);
+      individualCommandsMap.get(replayCommand.getCounterName() + INDIVIDUAL_COMMANDS_COUNT_SUFFIX).increment(1);
       return true;
     } catch (IOException e) {
       LOG.debug("IOException: " + e.getLocalizedMessage());
-      individualCommandsMap.get(replayCommand + INDIVIDUAL_COMMANDS_INVALID_SUFFIX).increment(1);
+      individualCommandsMap.get(replayCommand.getCounterName() + INDIVIDUAL_COMMANDS_INVALID_SUFFIX).increment(1);
+      if (metricsRecorder != null) {
+        metricsRecorder.recordInvalid(replayCommand);
+      }
+      if (recorder != null) {
+        recorder.record(replayCommand, src, command.getAbsoluteTimestamp(), startMs,
+            System.nanoTime() - startNanos + issueDelayNanos, e.getClass().getName());
+      }
       return false;
     }
   }
+
+  private LatencyHistogram getLatencyHistogram(ReplayCommand replayCommand) {
+    LatencyHistogram histogram = latencyHistograms.get(replayCommand.ordinal());
+    if (histogram == null) {
+      // Another thread may create it concurrently when replaying asynchronously
+      latencyHistograms.compareAndSet(replayCommand.ordinal(), null, new LatencyHistogram());
+      histogram = latencyHistograms.get(replayCommand.ordinal());
+    }
+    return histogram;
+  }
 }
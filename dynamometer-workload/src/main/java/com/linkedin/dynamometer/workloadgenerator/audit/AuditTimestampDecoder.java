@@ -0,0 +1,124 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Decodes the UTC timestamp at the start of an audit log line, which has the fixed
+ * layout {@code yyyy-MM-dd HH:mm:ss,SSS}, directly from its bytes. This replaces
+ * {@link java.text.SimpleDateFormat}, which is not thread-safe and allocates on
+ * every call. Since the lines of an audit log nearly always fall on the same day
+ * as the line before them, the start of the most recently seen day is cached.
+ * Instances are thread-safe and do not allocate unless the day changes.
+ */
+class AuditTimestampDecoder {
+
+  /** The number of bytes in a timestamp. */
+  static final int LENGTH = 23;
+
+  private static final long MS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+
+  // Immutable so that it can be safely shared between threads via a volatile
+  private static final class DayBase {
+    private final int dateKey;
+    private final long epochMs;
+
+    private DayBase(int dateKey, long epochMs) {
+      this.dateKey = dateKey;
+      this.epochMs = epochMs;
+    }
+  }
+
+  private volatile DayBase dayBase = new DayBase(-1, 0);
+
+  /**
+   * Decode the timestamp at the given offset.
+   * @param bytes The bytes containing the timestamp.
+   * @param offset The offset at which the timestamp starts.
+   * @param length The number of valid bytes from the offset.
+   * @return The timestamp in milliseconds since the epoch.
+   */
+  long decode(byte[] bytes, int offset, int length) throws IOException {
+    if (length < LENGTH || bytes[offset + 4] != '-' || bytes[offset + 7] != '-' || bytes[offset + 10] != ' ' ||
+        bytes[offset + 13] != ':' || bytes[offset + 16] != ':' || bytes[offset + 19] != ',') {
+      throw invalidTimestamp(bytes, offset, length);
+    }
+    int year = readDigits(bytes, offset, 4);
+    int month = readDigits(bytes, offset + 5, 2);
+    int day = readDigits(bytes, offset + 8, 2);
+    int hour = readDigits(bytes, offset + 11, 2);
+    int minute = readDigits(bytes, offset + 14, 2);
+    int second = readDigits(bytes, offset + 17, 2);
+    int milli = readDigits(bytes, offset + 20, 3);
+    if (year < 0 || month < 0 || day < 0 || hour < 0 || hour > 23 || minute < 0 || minute > 59 ||
+        second < 0 || second > 59 || milli < 0) {
+      throw invalidTimestamp(bytes, offset, length);
+    }
+
+    int dateKey = (year * 100 + month) * 100 + day;
+    DayBase base = dayBase;
+    if (base.dateKey != dateKey) {
+      if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+        throw invalidTimestamp(bytes, offset, length);
+      }
+      base = new DayBase(dateKey, daysSinceEpoch(year, month, day) * MS_PER_DAY);
+      dayBase = base;
+    }
+    return base.epochMs + ((hour * 60L + minute) * 60L + second) * 1000L + milli;
+  }
+
+  /**
+   * @return The value of the given number of decimal digits, or -1 if any of the bytes is not a digit.
+   */
+  private static int readDigits(byte[] bytes, int offset, int count) {
+    int value = 0;
+    for (int i = offset; i < offset + count; i++) {
+      int digit = bytes[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  private static int daysInMonth(int year, int month) {
+    switch (month) {
+      case 2:
+        boolean leapYear = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+        return leapYear ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+
+  /**
+   * Convert a date in the proleptic Gregorian calendar into the number of days since 1970-01-01.
+   */
+  private static long daysSinceEpoch(int year, int month, int day) {
+    // Count years from March so that the leap day falls at the end of the year
+    long y = month <= 2 ? year - 1 : year;
+    long era = (y >= 0 ? y : y - 399) / 400;
+    long yearOfEra = y - era * 400;
+    long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  private static IOException invalidTimestamp(byte[] bytes, int offset, int length) {
+    return new IOException("Unable to parse timestamp from audit log line: " +
+        new String(bytes, offset, Math.min(length, LENGTH), StandardCharsets.UTF_8));
+  }
+
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import com.google.common.base.Splitter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+
+/**
+ * This is a driver for amplifying an audit trace to model a cluster with more tenants, rather than the same
+ * tenants issuing more requests as is done by {@value AuditReplayMapper#RATE_FACTOR_KEY}. The trace is cloned
+ * into a number of copies, the first of which is the original trace. Within clone i (for i from 1 to factor - 1):
+ * <ul>
+ *   <li>Each absolute path under one of the specified path prefixes (by default, all paths) is moved beneath
+ *   /{clone_dir}/i, so that the clone operates on its own copy of the namespace.</li>
+ *   <li>The user of each command is given the suffix {user_suffix}i, so that the clone's load is spread across
+ *   as many distinct users as the original's.</li>
+ *   <li>All timestamps are shifted by an offset chosen for the clone between 0 and max_offset_ms, so that the
+ *   clones' bursts do not line up exactly. Each timestamp can additionally be jittered by up to jitter_ms; note
+ *   that jitter may reorder commands issued within that time of each other, so it should be kept well below
+ *   the spacing of dependent commands.</li>
+ * </ul>
+ * The offsets are drawn from the seed given by {@value SEED_KEY}, so every mapper of this job, and every run
+ * with the same arguments, shifts the same clone by the same amount. The namespace matching the amplified trace
+ * can be produced from the original fsimage by the block generator's NamespaceCloner, given the same factor,
+ * clone directory and user suffix.
+ *
+ * The input is read as it is by {@link AuditTraceCompiler}, using the parser specified by the
+ * {@value AuditReplayMapper#COMMAND_PARSER_KEY} configuration, and the output is a compiled trace to be
+ * replayed using {@link CompiledAuditTraceParser}. It takes in the following arguments:
+ *   - Required: input path of the audit trace
+ *   - Required: output path for the amplified, compiled trace
+ *   - Required: number of output files, i.e. the number of mappers to use for the replay
+ *   - Required: amplification factor, i.e. the number of copies of the trace including the original
+ *   - Optional: clone directory, user suffix, maximum offset, jitter, and path prefixes to clone
+ */
+public class AuditTraceAmplifier extends Configured implements Tool {
+
+  public static final String INPUT_PATH_ARG = "input_path";
+  public static final String OUTPUT_PATH_ARG = "output_path";
+  public static final String NUM_OUTPUT_FILES_ARG = "num_output_files";
+  public static final String FACTOR_ARG = "factor";
+  public static final String CLONE_DIR_ARG = "clone_dir";
+  public static final String USER_SUFFIX_ARG = "user_suffix";
+  public static final String MAX_OFFSET_MS_ARG = "max_offset_ms";
+  public static final String JITTER_MS_ARG = "jitter_ms";
+  public static final String PATH_PREFIXES_ARG = "path_prefixes";
+
+  public static final String FACTOR_KEY = "auditamplifier.factor";
+  public static final int FACTOR_DEFAULT = 1;
+  public static final String CLONE_DIR_KEY = "auditamplifier.clone-dir";
+  public static final String CLONE_DIR_DEFAULT = "dynamometer_clones";
+  public static final String USER_SUFFIX_KEY = "auditamplifier.user-suffix";
+  public static final String USER_SUFFIX_DEFAULT = "_clone";
+  public static final String MAX_OFFSET_MS_KEY = "auditamplifier.max-offset-ms";
+  public static final long MAX_OFFSET_MS_DEFAULT = 0;
+  public static final String JITTER_MS_KEY = "auditamplifier.jitter-ms";
+  public static final long JITTER_MS_DEFAULT = 0;
+  public static final String PATH_PREFIXES_KEY = "auditamplifier.path-prefixes";
+  public static final String PATH_PREFIXES_DEFAULT = "/";
+  public static final String SEED_KEY = "auditamplifier.seed";
+  public static final long SEED_DEFAULT = 0;
+
+  public AuditTraceAmplifier(Configuration conf) {
+    setConf(conf);
+  }
+
+  public int run(String[] args) throws Exception {
+    Options options = new Options();
+    options.addOption("h", "help", false, "Shows this message");
+    options.addOption(OptionBuilder.withArgName("Input path").hasArg().isRequired(true)
+        .withDescription("Input path of the audit trace to be amplified (required)").create(INPUT_PATH_ARG));
+    options.addOption(OptionBuilder.withArgName("Output path").hasArg().isRequired(true)
+        .withDescription("Directory where the amplified, compiled trace should be stored (required)")
+        .create(OUTPUT_PATH_ARG));
+    options.addOption(OptionBuilder.withArgName("Number of output files").hasArg().isRequired(true)
+        .withDescription("Number of files to produce; each will be replayed by a single mapper (required)")
+        .create(NUM_OUTPUT_FILES_ARG));
+    options.addOption(OptionBuilder.withArgName("Amplification factor").hasArg().isRequired(true)
+        .withDescription("Number of copies of the trace, including the original (required)").create(FACTOR_ARG));
+    options.addOption(OptionBuilder.withArgName("Clone directory").hasArg().isRequired(false)
+        .withDescription("Name of the top-level directory in which to place the clones' paths (defaults to " +
+            CLONE_DIR_DEFAULT + ")").create(CLONE_DIR_ARG));
+    options.addOption(OptionBuilder.withArgName("User suffix").hasArg().isRequired(false)
+        .withDescription("Suffix, followed by the clone index, added to the user of each cloned command " +
+            "(defaults to " + USER_SUFFIX_DEFAULT + ")").create(USER_SUFFIX_ARG));
+    options.addOption(OptionBuilder.withArgName("Maximum offset (ms)").hasArg().isRequired(false)
+        .withDescription("Upper bound of the random offset by which each clone is shifted in time (defaults to " +
+            MAX_OFFSET_MS_DEFAULT + ")").create(MAX_OFFSET_MS_ARG));
+    options.addOption(OptionBuilder.withArgName("Jitter (ms)").hasArg().isRequired(false)
+        .withDescription("Upper bound of the random delay added to each cloned command (defaults to " +
+            JITTER_MS_DEFAULT + ")").create(JITTER_MS_ARG));
+    options.addOption(OptionBuilder.withArgName("Path prefixes").hasArg().isRequired(false)
+        .withDescription("Comma-separated list of the path prefixes to clone; other paths are shared by all " +
+            "clones (defaults to " + PATH_PREFIXES_DEFAULT + ")").create(PATH_PREFIXES_ARG));
+
+    CommandLineParser parser = new PosixParser();
+    CommandLine cli = parser.parse(options, args);
+    if (cli.hasOption("h")) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp(200, "./amplify-audit-trace [options]", null, options,
+          "The format of the input trace is specified via -D" + AuditReplayMapper.COMMAND_PARSER_KEY +
+              " as it is for the replay, and the seed of the clones' offsets via -D" + SEED_KEY + ".");
+      return 0;
+    }
+
+    Configuration conf = getConf();
+    conf.setInt(FACTOR_KEY, Integer.parseInt(cli.getOptionValue(FACTOR_ARG)));
+    conf.set(CLONE_DIR_KEY, cli.getOptionValue(CLONE_DIR_ARG, CLONE_DIR_DEFAULT));
+    conf.set(USER_SUFFIX_KEY, cli.getOptionValue(USER_SUFFIX_ARG, USER_SUFFIX_DEFAULT));
+    conf.setLong(MAX_OFFSET_MS_KEY,
+        Long.parseLong(cli.getOptionValue(MAX_OFFSET_MS_ARG, String.valueOf(MAX_OFFSET_MS_DEFAULT))));
+    conf.setLong(JITTER_MS_KEY, Long.parseLong(cli.getOptionValue(JITTER_MS_ARG, String.valueOf(JITTER_MS_DEFAULT))));
+    conf.set(PATH_PREFIXES_KEY, cli.getOptionValue(PATH_PREFIXES_ARG, PATH_PREFIXES_DEFAULT));
+    Job job = getJobForSubmission(conf, cli.getOptionValue(INPUT_PATH_ARG), cli.getOptionValue(OUTPUT_PATH_ARG),
+        Integer.parseInt(cli.getOptionValue(NUM_OUTPUT_FILES_ARG)));
+    boolean success = job.waitForCompletion(true);
+    return success ? 0 : 1;
+  }
+
+  /**
+   * Get a job which amplifies the trace as specified by the {@code auditamplifier.*} configurations.
+   */
+  public static Job getJobForSubmission(Configuration conf, String inputPath, String outputPath,
+      int numOutputFiles) throws IOException {
+    if (conf.getInt(FACTOR_KEY, FACTOR_DEFAULT) < 1) {
+      throw new IllegalArgumentException("The amplification factor must be at least 1");
+    }
+    String cloneDir = conf.get(CLONE_DIR_KEY, CLONE_DIR_DEFAULT);
+    if (cloneDir.isEmpty() || cloneDir.contains("/")) {
+      throw new IllegalArgumentException("The clone directory must be a single path component; got " + cloneDir);
+    }
+    Job job = AuditTraceCompiler.getJobForSubmission(conf, inputPath, outputPath, numOutputFiles);
+    job.setJobName("Dynamometer Audit Trace Amplifier");
+    job.setJarByClass(AuditTraceAmplifier.class);
+    job.setMapperClass(AmplifyMapper.class);
+    return job;
+  }
+
+  public static void main(String[] args) throws Exception {
+    AuditTraceAmplifier amplifier = new AuditTraceAmplifier(new Configuration());
+    System.exit(ToolRunner.run(amplifier, args));
+  }
+
+  /**
+   * Get the offset of each clone's timestamps; the original, at index 0, is never shifted.
+   */
+  static long[] getCloneOffsets(int factor, long maxOffsetMs, long seed) {
+    long[] offsets = new long[factor];
+    Random random = new Random(seed);
+    for (int i = 1; i < factor; i++) {
+      offsets[i] = maxOffsetMs > 0 ? (long) (random.nextDouble() * maxOffsetMs) : 0;
+    }
+    return offsets;
+  }
+
+  /**
+   * Get the path prefixes to clone, without any trailing slashes other than that of the root.
+   */
+  static String[] getPathPrefixes(String prefixes) {
+    List<String> prefixList = new ArrayList<>();
+    for (String prefix : Splitter.on(",").omitEmptyStrings().trimResults().split(prefixes)) {
+      while (prefix.length() > 1 && prefix.endsWith("/")) {
+        prefix = prefix.substring(0, prefix.length() - 1);
+      }
+      if (!prefix.startsWith("/")) {
+        throw new IllegalArgumentException("Path prefixes must be absolute; got " + prefix);
+      }
+      prefixList.add(prefix);
+    }
+    return prefixList.toArray(new String[prefixList.size()]);
+  }
+
+  /**
+   * Move a path beneath the given clone root if it falls under one of the prefixes. The destination of
+   * a concat, a list of paths like [path1, path2], has each of its paths moved.
+   */
+  static String clonePath(String path, String cloneRoot, String[] prefixes) {
+    if (path == null) {
+      return null;
+    }
+    if (path.length() >= 2 && path.startsWith("[") && path.endsWith("]")) {
+      StringBuilder cloned = new StringBuilder(path.length() + 16).append('[');
+      for (String part : Splitter.on(",").omitEmptyStrings().trimResults()
+          .split(path.substring(1, path.length() - 1))) {
+        if (cloned.length() > 1) {
+          cloned.append(", ");
+        }
+        cloned.append(clonePath(part, cloneRoot, prefixes));
+      }
+      return cloned.append(']').toString();
+    }
+    for (String prefix : prefixes) {
+      if (isUnderPrefix(path, prefix)) {
+        return path.equals("/") ? cloneRoot : cloneRoot + path;
+      }
+    }
+    return path;
+  }
+
+  private static boolean isUnderPrefix(String path, String prefix) {
+    if (prefix.equals("/")) {
+      return path.startsWith("/");
+    }
+    return path.startsWith(prefix) && (path.length() == prefix.length() || path.charAt(prefix.length()) == '/');
+  }
+
+  /**
+   * Add the given suffix to the user of a UGI string, i.e. the part which the replay impersonates,
+   * keeping any host, realm or authentication method which follows it.
+   */
+  static String cloneUgi(String ugi, String suffix) {
+    if (ugi == null) {
+      return null;
+    }
+    for (int i = 0; i < ugi.length(); i++) {
+      char c = ugi.charAt(i);
+      if (c == '/' || c == '@' || c == ' ') {
+        return ugi.substring(0, i) + suffix + ugi.substring(i);
+      }
+    }
+    return ugi + suffix;
+  }
+
+  /**
+   * Parses each line of the input trace as {@link AuditTraceCompiler.CompileMapper} does, emitting the
+   * original command followed by each of its clones.
+   */
+  public static class AmplifyMapper extends AuditTraceCompiler.CompileMapper {
+
+    private int factor;
+    private String[] cloneRoots;
+    private String[] userSuffixes;
+    private String[] pathPrefixes;
+    private long[] offsets;
+    private long jitterMs;
+    private Random random;
+
+    @Override
+    public void setup(Context context) throws IOException {
+      super.setup(context);
+      Configuration conf = context.getConfiguration();
+      factor = conf.getInt(FACTOR_KEY, FACTOR_DEFAULT);
+      String cloneDir = conf.get(CLONE_DIR_KEY, CLONE_DIR_DEFAULT);
+      String userSuffix = conf.get(USER_SUFFIX_KEY, USER_SUFFIX_DEFAULT);
+      cloneRoots = new String[factor];
+      userSuffixes = new String[factor];
+      for (int i = 1; i < factor; i++) {
+        cloneRoots[i] = "/" + cloneDir + "/" + i;
+        userSuffixes[i] = userSuffix + i;
+      }
+      pathPrefixes = getPathPrefixes(conf.get(PATH_PREFIXES_KEY, PATH_PREFIXES_DEFAULT));
+      long seed = conf.getLong(SEED_KEY, SEED_DEFAULT);
+      offsets = getCloneOffsets(factor, conf.getLong(MAX_OFFSET_MS_KEY, MAX_OFFSET_MS_DEFAULT), seed);
+      jitterMs = conf.getLong(JITTER_MS_KEY, JITTER_MS_DEFAULT);
+      random = new Random(seed * 31 + context.getTaskAttemptID().getTaskID().getId());
+    }
+
+    @Override
+    protected void write(long timestamp, String ugi, String command, String src, String dest, String sourceIP,
+        Context context) throws IOException, InterruptedException {
+      super.write(timestamp, ugi, command, src, dest, sourceIP, context);
+      for (int i = 1; i < factor; i++) {
+        long jitter = jitterMs > 0 ? (long) (random.nextDouble() * jitterMs) : 0;
+        super.write(timestamp + offsets[i] + jitter, cloneUgi(ugi, userSuffixes[i]), command,
+            clonePath(src, cloneRoots[i], pathPrefixes), clonePath(dest, cloneRoots[i], pathPrefixes),
+            sourceIP, context);
+      }
+    }
+
+  }
+
+}
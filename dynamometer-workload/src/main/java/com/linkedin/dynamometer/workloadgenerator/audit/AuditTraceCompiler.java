@@ -0,0 +1,236 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import com.google.common.base.Functions;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+
+/**
+ * This is a driver for a one-time conversion of an audit trace into the binary format read by
+ * {@link CompiledAuditTraceParser}, so that the cost of parsing the trace is not paid again on
+ * every replay. The input trace is read using the parser specified by the
+ * {@value AuditReplayMapper#COMMAND_PARSER_KEY} configuration (along with any configurations that
+ * parser requires), and may be in any number of files in any order. Commands are distributed
+ * across the output files by source path and sorted by timestamp within each file, as is
+ * done by the Hive query described in {@link AuditLogHiveTableParser}. It takes in the
+ * following arguments:
+ *   - Required: input path of the audit trace
+ *   - Required: output path for the compiled trace
+ *   - Required: number of output files, i.e. the number of mappers to use for the replay
+ */
+public class AuditTraceCompiler extends Configured implements Tool {
+
+  public static final String INPUT_PATH_ARG = "input_path";
+  public static final String OUTPUT_PATH_ARG = "output_path";
+  public static final String NUM_OUTPUT_FILES_ARG = "num_output_files";
+
+  public AuditTraceCompiler(Configuration conf) {
+    setConf(conf);
+  }
+
+  public int run(String[] args) throws Exception {
+    Options options = new Options();
+    options.addOption("h", "help", false, "Shows this message");
+    options.addOption(OptionBuilder.withArgName("Input path").hasArg().isRequired(true)
+        .withDescription("Input path of the audit trace to be compiled (required)").create(INPUT_PATH_ARG));
+    options.addOption(OptionBuilder.withArgName("Output path").hasArg().isRequired(true)
+        .withDescription("Directory where the compiled trace should be stored (required)").create(OUTPUT_PATH_ARG));
+    options.addOption(OptionBuilder.withArgName("Number of output files").hasArg().isRequired(true)
+        .withDescription("Number of files to produce; each will be replayed by a single mapper (required)")
+        .create(NUM_OUTPUT_FILES_ARG));
+
+    CommandLineParser parser = new PosixParser();
+    CommandLine cli = parser.parse(options, args);
+    if (cli.hasOption("h")) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp(200, "./compile-audit-trace [options]", null, options,
+          "The format of the input trace is specified via -D" + AuditReplayMapper.COMMAND_PARSER_KEY +
+              " as it is for the replay.");
+      return 0;
+    }
+
+    Job job = getJobForSubmission(getConf(), cli.getOptionValue(INPUT_PATH_ARG),
+        cli.getOptionValue(OUTPUT_PATH_ARG), Integer.parseInt(cli.getOptionValue(NUM_OUTPUT_FILES_ARG)));
+    boolean success = job.waitForCompletion(true);
+    return success ? 0 : 1;
+  }
+
+  public static Job getJobForSubmission(Configuration conf, String inputPath, String outputPath,
+      int numOutputFiles) throws IOException {
+    Job job = Job.getInstance(conf, "Dynamometer Audit Trace Compiler");
+    FileInputFormat.setInputPaths(job, new Path(inputPath));
+    FileOutputFormat.setOutputPath(job, new Path(outputPath));
+
+    job.setJarByClass(AuditTraceCompiler.class);
+    job.setInputFormatClass(TextInputFormat.class);
+    job.setMapperClass(CompileMapper.class);
+    job.setPartitionerClass(SourcePathPartitioner.class);
+    job.setNumReduceTasks(numOutputFiles);
+    job.setOutputFormatClass(CompiledAuditTraceOutputFormat.class);
+    job.setMapOutputKeyClass(LongWritable.class);
+    job.setMapOutputValueClass(CommandWritable.class);
+    job.setOutputKeyClass(LongWritable.class);
+    job.setOutputValueClass(CommandWritable.class);
+    return job;
+  }
+
+  public static void main(String[] args) throws Exception {
+    AuditTraceCompiler compiler = new AuditTraceCompiler(new Configuration());
+    System.exit(ToolRunner.run(compiler, args));
+  }
+
+  /**
+   * Parses each line of the input trace, emitting the command keyed by its relative timestamp.
+   */
+  public static class CompileMapper extends Mapper<LongWritable, Text, LongWritable, CommandWritable> {
+
+    private AuditCommandParser commandParser;
+    private final LongWritable outKey = new LongWritable();
+    private final CommandWritable outValue = new CommandWritable();
+
+    @Override
+    public void setup(Context context) throws IOException {
+      Configuration conf = context.getConfiguration();
+      try {
+        commandParser = conf.getClass(AuditReplayMapper.COMMAND_PARSER_KEY, AuditReplayMapper.COMMAND_PARSER_DEFAULT,
+            AuditCommandParser.class).getConstructor().newInstance();
+      } catch (NoSuchMethodException|InstantiationException|IllegalAccessException|InvocationTargetException e) {
+        throw new IOException("Exception encountered while instantiating the command parser", e);
+      }
+      commandParser.initialize(conf);
+    }
+
+    @Override
+    public void map(LongWritable offset, Text inputLine, Context context) throws IOException, InterruptedException {
+      // Without a conversion to absolute time, the parser's timestamps remain relative
+      AuditReplayCommand cmd = commandParser.parse(inputLine, Functions.<Long>identity());
+      long timestamp = cmd.getAbsoluteTimestamp();
+      String ugi = cmd.getUgi();
+      String command = cmd.getCommand();
+      String src = cmd.getSrc();
+      String dest = cmd.getDest();
+      String sourceIP = cmd.getSourceIP();
+      cmd.release();
+      write(timestamp, ugi, command, src, dest, sourceIP, context);
+    }
+
+    /**
+     * Emit a single command into the compiled trace. Subclasses may override this to transform
+     * each parsed command, or to emit more than one command for it.
+     */
+    protected void write(long timestamp, String ugi, String command, String src, String dest, String sourceIP,
+        Context context) throws IOException, InterruptedException {
+      outKey.set(timestamp);
+      outValue.set(ugi, command, src, dest, sourceIP);
+      context.write(outKey, outValue);
+    }
+
+  }
+
+  /**
+   * Sends all commands with the same source path to the same output file.
+   */
+  public static class SourcePathPartitioner extends Partitioner<LongWritable, CommandWritable> {
+
+    @Override
+    public int getPartition(LongWritable timestamp, CommandWritable command, int numPartitions) {
+      return command.src == null ? 0 : (command.src.hashCode() & Integer.MAX_VALUE) % numPartitions;
+    }
+
+  }
+
+  /**
+   * Writes the commands received by each reducer, already in timestamp order, into a compiled trace file.
+   */
+  public static class CompiledAuditTraceOutputFormat extends FileOutputFormat<LongWritable, CommandWritable> {
+
+    @Override
+    public RecordWriter<LongWritable, CommandWritable> getRecordWriter(TaskAttemptContext context)
+        throws IOException {
+      Path file = getDefaultWorkFile(context, "");
+      final CompiledAuditTraceWriter writer =
+          new CompiledAuditTraceWriter(file.getFileSystem(context.getConfiguration()).create(file, false));
+      return new RecordWriter<LongWritable, CommandWritable>() {
+        @Override
+        public void write(LongWritable timestamp, CommandWritable command) throws IOException {
+          writer.write(timestamp.get(), command.ugi, command.command, command.src, command.dest, command.sourceIP);
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException {
+          writer.close();
+        }
+      };
+    }
+
+  }
+
+  /**
+   * The fields of an {@link AuditReplayCommand} other than its timestamp.
+   */
+  public static class CommandWritable implements Writable {
+
+    private String ugi;
+    private String command;
+    private String src;
+    private String dest;
+    private String sourceIP;
+
+    void set(String ugi, String command, String src, String dest, String sourceIP) {
+      this.ugi = ugi;
+      this.command = command;
+      this.src = src;
+      this.dest = dest;
+      this.sourceIP = sourceIP;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      WritableUtils.writeString(out, ugi);
+      WritableUtils.writeString(out, command);
+      WritableUtils.writeString(out, src);
+      WritableUtils.writeString(out, dest);
+      WritableUtils.writeString(out, sourceIP);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      ugi = WritableUtils.readString(in);
+      command = WritableUtils.readString(in);
+      src = WritableUtils.readString(in);
+      dest = WritableUtils.readString(in);
+      sourceIP = WritableUtils.readString(in);
+    }
+
+  }
+
+}
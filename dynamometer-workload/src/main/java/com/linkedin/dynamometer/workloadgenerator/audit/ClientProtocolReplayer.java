@@ -0,0 +1,217 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.crypto.CryptoProtocolVersion;
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.XAttr;
+import org.apache.hadoop.fs.XAttrSetFlag;
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.XAttrHelper;
+import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.io.EnumSetWritable;
+import org.apache.hadoop.security.UserGroupInformation;
+
+import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.ReplayCommand;
+
+
+/**
+ * Replays commands by calling {@link ClientProtocol} directly, rather than via the {@code FileSystem} API,
+ * avoiding the client-side cost of constructing and qualifying {@code Path}s, the checks and wrapping done by
+ * {@link DFSClient}, and for OPEN, creating an input stream; each command is a single RPC (two for CREATE).
+ * The RPC proxy used is that of the user's pooled {@link DFSClient}, so it is shared by all of the commands
+ * of that user and performs the calls as that user.
+ *
+ * <p>Commands which involve DataNodes cannot be replayed this way: APPEND, CONCAT, and CREATE when blocks
+ * are to be written. {@link #replay(ReplayCommand, AuditReplayCommand, DFSClient)} returns false for these,
+ * and they should be replayed via the {@code FileSystem} instead.
+ */
+class ClientProtocolReplayer {
+
+  private static final EnumSetWritable<CreateFlag> CREATE_FLAGS =
+      new EnumSetWritable<>(EnumSet.of(CreateFlag.CREATE, CreateFlag.OVERWRITE));
+  private static final XAttr XATTR =
+      XAttrHelper.buildXAttr(AuditReplayThread.XATTR_NAME, AuditReplayThread.XATTR_VALUE);
+
+  private final boolean createBlocks;
+  private final FsPermission dirPermission;
+  private final FsPermission filePermission;
+  private final short replication;
+  private final long blockSize;
+  private final long prefetchSize;
+
+  ClientProtocolReplayer(Configuration conf, boolean createBlocks) {
+    this.createBlocks = createBlocks;
+    // The same defaults as are applied by DistributedFileSystem
+    FsPermission umask = FsPermission.getUMask(conf);
+    dirPermission = FsPermission.getDirDefault().applyUMask(umask);
+    filePermission = FsPermission.getFileDefault().applyUMask(umask);
+    replication = (short) conf.getInt(DFSConfigKeys.DFS_REPLICATION_KEY, DFSConfigKeys.DFS_REPLICATION_DEFAULT);
+    blockSize = conf.getLongBytes(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, DFSConfigKeys.DFS_BLOCK_SIZE_DEFAULT);
+    prefetchSize = conf.getLong(DFSConfigKeys.DFS_CLIENT_READ_PREFETCH_SIZE_KEY, 10 * blockSize);
+  }
+
+  /**
+   * Replay a command, if possible, directly against the NameNode.
+   * @param replayCommand The type of the command.
+   * @param src The source path of the command.
+   * @param dest The destination path of the command, if any.
+   * @param client The client of the user who performed the command.
+   * @return True if the command was replayed; false if it must instead be replayed via the FileSystem.
+   */
+  @SuppressWarnings("deprecation")
+  boolean replay(ReplayCommand replayCommand, String src, String dest, DFSClient client) throws IOException {
+    ClientProtocol namenode = client.getNamenode();
+    switch (replayCommand) {
+      case CREATE:
+        if (createBlocks) {
+          return false;
+        }
+        HdfsFileStatus status = namenode.create(src, filePermission, client.getClientName(), CREATE_FLAGS, true,
+            replication, blockSize, CryptoProtocolVersion.supported());
+        namenode.complete(src, client.getClientName(), null, status.getFileId());
+        return true;
+
+      case GETFILEINFO:
+        namenode.getFileInfo(src);
+        return true;
+
+      case CONTENTSUMMARY:
+        namenode.getContentSummary(src);
+        return true;
+
+      case MKDIRS:
+        namenode.mkdirs(src, dirPermission, true);
+        return true;
+
+      case RENAME:
+        namenode.rename(src, dest);
+        return true;
+
+      case LISTSTATUS:
+        namenode.getListing(src, HdfsFileStatus.EMPTY_NAME, false);
+        return true;
+
+      case DELETE:
+        namenode.delete(src, true);
+        return true;
+
+      case OPEN:
+        // This is the only call made to the NameNode when opening a file
+        namenode.getBlockLocations(src, 0, prefetchSize);
+        return true;
+
+      case SETPERMISSION:
+        namenode.setPermission(src, FsPermission.getDefault());
+        return true;
+
+      case SETOWNER:
+        namenode.setOwner(src, UserGroupInformation.getCurrentUser().getShortUserName(),
+            UserGroupInformation.getCurrentUser().getPrimaryGroupName());
+        return true;
+
+      case SETTIMES:
+        namenode.setTimes(src, System.currentTimeMillis(), System.currentTimeMillis());
+        return true;
+
+      case SETREPLICATION:
+        namenode.setReplication(src, (short) 1);
+        return true;
+
+      case TRUNCATE:
+        namenode.truncate(src, 0, client.getClientName());
+        return true;
+
+      case CREATESYMLINK:
+        namenode.createSymlink(dest, src, dirPermission, false);
+        return true;
+
+      case SETACL:
+        namenode.setAcl(src, AuditReplayThread.BASE_ACL);
+        return true;
+
+      case MODIFYACLENTRIES:
+        namenode.modifyAclEntries(src, AuditReplayThread.NAMED_USER_ACL);
+        return true;
+
+      case REMOVEACLENTRIES:
+        namenode.removeAclEntries(src, AuditReplayThread.NAMED_USER_ACL_REMOVAL);
+        return true;
+
+      case REMOVEDEFAULTACL:
+        namenode.removeDefaultAcl(src);
+        return true;
+
+      case REMOVEACL:
+        namenode.removeAcl(src);
+        return true;
+
+      case SETXATTR:
+        namenode.setXAttr(src, XATTR, EnumSet.of(XAttrSetFlag.CREATE, XAttrSetFlag.REPLACE));
+        return true;
+
+      case REMOVEXATTR:
+        namenode.removeXAttr(src, XATTR);
+        return true;
+
+      case SETSTORAGEPOLICY:
+        namenode.setStoragePolicy(src, HdfsConstants.HOT_STORAGE_POLICY_NAME);
+        return true;
+
+      case GETACLSTATUS:
+        namenode.getAclStatus(src);
+        return true;
+
+      case GETXATTRS:
+        namenode.getXAttrs(src, null);
+        return true;
+
+      case LISTXATTRS:
+        namenode.listXAttrs(src);
+        return true;
+
+      case CHECKACCESS:
+        namenode.checkAccess(src, FsAction.READ);
+        return true;
+
+      case GETEZFORPATH:
+        namenode.getEZForPath(src);
+        return true;
+
+      case GETSTORAGEPOLICIES:
+        namenode.getStoragePolicies();
+        return true;
+
+      case LISTCACHEPOOLS:
+        namenode.listCachePools("");
+        return true;
+
+      case LISTCACHEDIRECTIVES:
+        namenode.listCacheDirectives(0, new CacheDirectiveInfo.Builder().build());
+        return true;
+
+      case LISTSNAPSHOTTABLEDIRECTORY:
+        namenode.getSnapshottableDirListing();
+        return true;
+
+      case LISTENCRYPTIONZONES:
+        namenode.listEncryptionZones(0);
+        return true;
+
+      default:
+        return false;
+    }
+  }
+
+}
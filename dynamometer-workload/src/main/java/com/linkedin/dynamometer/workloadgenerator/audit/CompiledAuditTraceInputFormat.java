@@ -0,0 +1,120 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+
+/**
+ * The {@link org.apache.hadoop.mapreduce.InputFormat} used by {@link AuditReplayMapper} for
+ * audit traces produced by {@link AuditTraceCompiler}. Like {@link NoSplitTextInputFormat},
+ * each file is consumed by a single mapper. Each value is a single binary record, to be
+ * decoded by {@link CompiledAuditTraceParser}, and each key is the offset of that record
+ * within the file.
+ */
+public class CompiledAuditTraceInputFormat extends FileInputFormat<LongWritable, Text> {
+
+  static final byte[] MAGIC = { 'D', 'Y', 'A', 'T' };
+  static final int VERSION = 1;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  @Override
+  public List<FileStatus> listStatus(JobContext context) throws IOException {
+    context.getConfiguration().set(FileInputFormat.INPUT_DIR,
+        context.getConfiguration().get(AuditReplayMapper.INPUT_PATH_KEY));
+    return super.listStatus(context);
+  }
+
+  @Override
+  public boolean isSplitable(JobContext context, Path file) {
+    return false;
+  }
+
+  @Override
+  public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
+    return new CompiledAuditTraceRecordReader();
+  }
+
+  static class CompiledAuditTraceRecordReader extends RecordReader<LongWritable, Text> {
+
+    private DataInputStream in;
+    private long pos;
+    private long length;
+    private final LongWritable key = new LongWritable();
+    private final Text value = new Text();
+
+    @Override
+    public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+      FileSplit split = (FileSplit) genericSplit;
+      Path file = split.getPath();
+      length = split.getLength();
+      FSDataInputStream fileIn = file.getFileSystem(context.getConfiguration()).open(file);
+      in = new DataInputStream(new BufferedInputStream(fileIn, BUFFER_SIZE));
+      byte[] magic = new byte[MAGIC.length];
+      in.readFully(magic);
+      if (!Arrays.equals(MAGIC, magic)) {
+        throw new IOException(file + " is not a compiled audit trace");
+      }
+      int version = WritableUtils.readVInt(in);
+      if (version != VERSION) {
+        throw new IOException("Unsupported compiled audit trace version " + version + " in " + file);
+      }
+      pos = MAGIC.length + WritableUtils.getVIntSize(version);
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+      if (pos >= length) {
+        return false;
+      }
+      key.set(pos);
+      int recordLength = WritableUtils.readVInt(in);
+      value.readWithKnownLength(in, recordLength);
+      pos += WritableUtils.getVIntSize(recordLength) + recordLength;
+      return true;
+    }
+
+    @Override
+    public LongWritable getCurrentKey() {
+      return key;
+    }
+
+    @Override
+    public Text getCurrentValue() {
+      return value;
+    }
+
+    @Override
+    public float getProgress() {
+      return length == 0 ? 1.0f : Math.min(1.0f, pos / (float) length);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (in != null) {
+        in.close();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import com.google.common.base.Function;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+
+/**
+ * This {@link AuditCommandParser} is used to read commands from an audit trace which
+ * has been converted into a compact binary form by {@link AuditTraceCompiler}. Since
+ * the trace has already been parsed once during conversion, replaying it requires no
+ * regex matching, date parsing, or splitting. This parser must be used together with
+ * {@link CompiledAuditTraceInputFormat}, which {@link AuditReplayMapper} will select
+ * automatically. Each input value should be a single record, and the records of a
+ * file must be passed to a single parser instance in order, since each record may
+ * refer to data from those before it.
+ *
+ * <p>A compiled trace file consists of a header (the bytes of
+ * {@link CompiledAuditTraceInputFormat#MAGIC} followed by a format version) and a
+ * sequence of records, each preceded by its length in bytes. All integers are written
+ * in Hadoop's variable-length format (see {@link WritableUtils#writeVLong}) and all
+ * strings as a length followed by UTF-8 bytes. The fields of a record are, in order:
+ * <ul>
+ *   <li>The relative timestamp, as a delta from that of the previous record</li>
+ *   <li>The UGI, command, source path, destination path, and source IP</li>
+ * </ul>
+ * The UGI, command, and source IP are dictionary-encoded: each is written as an index
+ * into a dictionary built up over the course of the file, or as {@value #NEW_ENTRY_CODE}
+ * followed by a string which becomes the next entry of the dictionary. The source and
+ * destination paths are prefix-compressed: each is written as the number of leading
+ * characters it shares with the previous value of the same field, followed by the
+ * remaining characters. A null value is written as {@value #NULL_CODE} in either case.
+ */
+public class CompiledAuditTraceParser implements AuditCommandParser {
+
+  static final int NEW_ENTRY_CODE = -1;
+  static final int NULL_CODE = -2;
+
+  private final List<String> dictionary = new ArrayList<>();
+  private final PrefixCompressedField src = new PrefixCompressedField();
+  private final PrefixCompressedField dest = new PrefixCompressedField();
+  private long lastTimestamp = 0;
+
+  // The record currently being parsed
+  private byte[] bytes;
+  private int pos;
+  private int end;
+
+  @Override
+  public void initialize(Configuration conf) throws IOException {
+    // Nothing to be done
+  }
+
+  @Override
+  public AuditReplayCommand parse(Text inputLine, Function<Long, Long> relativeToAbsolute) throws IOException {
+    bytes = inputLine.getBytes();
+    pos = 0;
+    end = inputLine.getLength();
+    long relativeTimestamp = lastTimestamp + readVLong();
+    String ugi = readDictionaryString();
+    String command = readDictionaryString();
+    String srcPath = readPrefixCompressedString(src);
+    String destPath = readPrefixCompressedString(dest);
+    String sourceIP = readDictionaryString();
+    if (pos != end) {
+      throw new IOException("Found " + (end - pos) + " unexpected trailing bytes in compiled audit trace record");
+    }
+    lastTimestamp = relativeTimestamp;
+    return AuditReplayCommand.obtain(relativeToAbsolute.apply(relativeTimestamp), ugi, command, srcPath, destPath,
+        sourceIP);
+  }
+
+  private String readDictionaryString() throws IOException {
+    int code = readVInt();
+    if (code == NULL_CODE) {
+      return null;
+    } else if (code == NEW_ENTRY_CODE) {
+      String str = readString();
+      dictionary.add(str);
+      return str;
+    } else if (code < 0 || code >= dictionary.size()) {
+      throw new IOException("Invalid dictionary code in compiled audit trace record: " + code);
+    }
+    return dictionary.get(code);
+  }
+
+  private String readPrefixCompressedString(PrefixCompressedField field) throws IOException {
+    int shared = readVInt();
+    if (shared == NULL_CODE) {
+      return null;
+    } else if (shared < 0 || shared > field.length) {
+      throw new IOException("Invalid shared prefix length in compiled audit trace record: " + shared);
+    }
+    int suffixLength = readVInt();
+    checkAvailable(suffixLength);
+    field.length = shared;
+    field.ensureCapacity(shared + suffixLength);
+    // Paths are nearly always ASCII, in which case each byte is a single character
+    for (int i = pos; i < pos + suffixLength; i++) {
+      if (bytes[i] < 0) {
+        String suffix = Text.decode(bytes, pos, suffixLength);
+        field.ensureCapacity(shared + suffix.length());
+        suffix.getChars(0, suffix.length(), field.chars, shared);
+        field.length = shared + suffix.length();
+        break;
+      }
+      field.chars[field.length++] = (char) bytes[i];
+    }
+    pos += suffixLength;
+    return new String(field.chars, 0, field.length);
+  }
+
+  private String readString() throws IOException {
+    int length = readVInt();
+    checkAvailable(length);
+    String str = Text.decode(bytes, pos, length);
+    pos += length;
+    return str;
+  }
+
+  private int readVInt() throws IOException {
+    long value = readVLong();
+    if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+      throw new IOException("Value too large for an int in compiled audit trace record: " + value);
+    }
+    return (int) value;
+  }
+
+  private long readVLong() throws IOException {
+    checkAvailable(1);
+    int size = WritableUtils.decodeVIntSize(bytes[pos]);
+    checkAvailable(size);
+    long value = WritableComparator.readVLong(bytes, pos);
+    pos += size;
+    return value;
+  }
+
+  private void checkAvailable(int length) throws IOException {
+    if (length < 0 || end - pos < length) {
+      throw new IOException("Truncated compiled audit trace record");
+    }
+  }
+
+  /**
+   * Holds the previous value of a prefix-compressed field.
+   */
+  private static class PrefixCompressedField {
+    private char[] chars = new char[256];
+    private int length = 0;
+
+    private void ensureCapacity(int capacity) {
+      if (chars.length < capacity) {
+        chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+
+/**
+ * Writes commands to a single file in the compiled audit trace format; see
+ * {@link CompiledAuditTraceParser} for a description of the format. Commands
+ * must be written in the order in which they should be replayed.
+ */
+class CompiledAuditTraceWriter implements Closeable {
+
+  private final DataOutputStream out;
+  private final DataOutputBuffer record = new DataOutputBuffer();
+  private final Map<String, Integer> dictionary = new HashMap<>();
+  private long lastTimestamp = 0;
+  private String lastSrc = "";
+  private String lastDest = "";
+
+  CompiledAuditTraceWriter(DataOutputStream out) throws IOException {
+    this.out = out;
+    out.write(CompiledAuditTraceInputFormat.MAGIC);
+    WritableUtils.writeVInt(out, CompiledAuditTraceInputFormat.VERSION);
+  }
+
+  /**
+   * Append a command to the trace. The parameters are the same as those
+   * of {@link AuditReplayCommand}, except that the timestamp is relative
+   * to the start of the trace.
+   */
+  void write(long relativeTimestamp, String ugi, String command, String src, String dest, String sourceIP)
+      throws IOException {
+    record.reset();
+    WritableUtils.writeVLong(record, relativeTimestamp - lastTimestamp);
+    lastTimestamp = relativeTimestamp;
+    writeDictionaryString(ugi);
+    writeDictionaryString(command);
+    lastSrc = writePrefixCompressedString(src, lastSrc);
+    lastDest = writePrefixCompressedString(dest, lastDest);
+    writeDictionaryString(sourceIP);
+    WritableUtils.writeVInt(out, record.getLength());
+    out.write(record.getData(), 0, record.getLength());
+  }
+
+  private void writeDictionaryString(String str) throws IOException {
+    if (str == null) {
+      WritableUtils.writeVInt(record, CompiledAuditTraceParser.NULL_CODE);
+      return;
+    }
+    Integer code = dictionary.get(str);
+    if (code == null) {
+      dictionary.put(str, dictionary.size());
+      WritableUtils.writeVInt(record, CompiledAuditTraceParser.NEW_ENTRY_CODE);
+      writeString(str);
+    } else {
+      WritableUtils.writeVInt(record, code);
+    }
+  }
+
+  /**
+   * @return The value against which the next value of the same field should be compressed.
+   */
+  private String writePrefixCompressedString(String str, String previous) throws IOException {
+    if (str == null) {
+      WritableUtils.writeVInt(record, CompiledAuditTraceParser.NULL_CODE);
+      return previous;
+    }
+    int maxShared = Math.min(str.length(), previous.length());
+    int shared = 0;
+    while (shared < maxShared && str.charAt(shared) == previous.charAt(shared)) {
+      shared++;
+    }
+    // Don't split a surrogate pair across the prefix and the suffix
+    if (shared > 0 && Character.isHighSurrogate(str.charAt(shared - 1))) {
+      shared--;
+    }
+    WritableUtils.writeVInt(record, shared);
+    writeString(str.substring(shared));
+    return str;
+  }
+
+  private void writeString(String str) throws IOException {
+    ByteBuffer bytes = Text.encode(str);
+    WritableUtils.writeVInt(record, bytes.limit());
+    record.write(bytes.array(), 0, bytes.limit());
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+
+}
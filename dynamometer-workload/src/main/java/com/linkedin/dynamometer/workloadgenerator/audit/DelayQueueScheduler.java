@@ -0,0 +1,85 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.conf.Configuration;
+
+
+/**
+ * An {@link AuditReplayScheduler} which places all commands into a single
+ * {@link DelayQueue} shared by all of the replay threads. Any thread may replay
+ * any command, but all producers and consumers contend on the lock of the queue,
+ * which becomes a bottleneck at high thread counts. If some threads exit, those remaining
+ * continue to replay all of the commands; scheduling only fails once none remain.
+ */
+public class DelayQueueScheduler implements AuditReplayScheduler {
+
+  private DelayQueue<AuditReplayCommand> commandQueue;
+  private AtomicInteger liveThreads;
+
+  @Override
+  public void initialize(Configuration conf, int numThreads, ReplayClock clock) throws IOException {
+    // Each command is compared against the clock it was given by the mapper
+    commandQueue = new DelayQueue<>();
+    liveThreads = new AtomicInteger(numThreads);
+  }
+
+  @Override
+  public void schedule(AuditReplayCommand command) {
+    if (liveThreads.get() <= 0 && !command.isPoison()) {
+      throw new IllegalStateException("All replay threads have exited; unable to replay " + command);
+    }
+    commandQueue.put(command);
+    // The last thread may have exited and drained the queue just before the put
+    if (liveThreads.get() <= 0 && !command.isPoison()) {
+      throw new IllegalStateException("All replay threads have exited; unable to replay " + command);
+    }
+  }
+
+  @Override
+  public void schedule(AuditReplayCommand command, int threadIndex) {
+    // All threads share the same queue; there is no way to target a specific one
+    schedule(command);
+  }
+
+  @Override
+  public boolean supportsThreadAffinity() {
+    return false;
+  }
+
+  @Override
+  public AuditReplayCommand take(int threadIndex) throws InterruptedException {
+    AuditReplayCommand command;
+    // Wait in bounded increments since the speed of the replay clock may change while waiting
+    do {
+      command = commandQueue.poll(ReplayClock.MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+    } while (command == null);
+    return command;
+  }
+
+  @Override
+  public int consumerExited(int threadIndex) {
+    if (liveThreads.decrementAndGet() > 0) {
+      // The remaining threads will still replay whatever is queued
+      return 0;
+    }
+    List<AuditReplayCommand> remaining = new ArrayList<>();
+    commandQueue.drainTo(remaining);
+    int dropped = 0;
+    for (AuditReplayCommand command : remaining) {
+      if (!command.isPoison()) {
+        dropped++;
+      }
+    }
+    return dropped;
+  }
+
+}
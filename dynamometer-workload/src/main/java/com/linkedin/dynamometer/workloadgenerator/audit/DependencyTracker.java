@@ -0,0 +1,302 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import com.google.common.base.Splitter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.CommandType;
+
+
+/**
+ * Tracks the dependencies between the commands of a trace so that, however they are spread across the replay
+ * threads, a command is not replayed until the earlier commands it depends upon have completed. Without this,
+ * commands which were seconds apart in the original trace, such as a mkdirs followed by a create within the
+ * new directory, may be replayed in the wrong order at high rate factors, failing commands which originally
+ * succeeded. Commands which do not depend on each other are still replayed fully in parallel.
+ *
+ * <p>Commands are registered, in the order of the trace, by {@link #register(AuditReplayCommand)} as they are
+ * scheduled. A later command depends on an earlier one if their paths (the source and, for commands such as
+ * rename, the destination) are the same or one is an ancestor of the other, and either:
+ * <ul>
+ *   <li>the earlier command is a write, e.g. a create after the mkdirs of its parent or a rename of its
+ *   source, or</li>
+ *   <li>the later command is a write to the same path or one of its ancestors, e.g. a delete after a read.</li>
+ * </ul>
+ * A read followed by a write beneath the read path is not a dependency, since the write cannot cause the
+ * read to fail.
+ *
+ * <p>Rather than recording every such pair, the tracker keeps for each path with outstanding commands the
+ * number of outstanding commands, and writes, at or beneath it, and the last outstanding write to it. Each
+ * write waits for its predecessors, so a command only needs to wait for the last write to each of its
+ * ancestors, plus the commands at or beneath its own path which were outstanding when it was registered.
+ *
+ * <p>When a replay thread takes a command, it calls {@link #start(AuditReplayCommand)}; if the command's
+ * predecessors have not all completed, the thread moves on to its next command. Once a command has been
+ * replayed, {@link #complete(AuditReplayCommand)} returns any started commands which were only waiting for
+ * it, which the completing thread should then replay. All methods are thread-safe.
+ */
+class DependencyTracker {
+
+  private static final Splitter PATH_LIST_SPLITTER = Splitter.on(',').omitEmptyStrings().trimResults();
+
+  /**
+   * The tracking state of a single command, attached to it while it is outstanding.
+   */
+  static class Operation {
+    private final AuditReplayCommand command;
+    private final long sequence;
+    private final boolean write;
+    // The node of each of the command's paths and of all of their ancestors
+    private final List<PathNode> nodes = new ArrayList<>();
+    private int pendingPredecessors = 0;
+    private boolean started = false;
+    private List<Operation> dependents = null;
+
+    private Operation(AuditReplayCommand command, long sequence, boolean write) {
+      this.command = command;
+      this.sequence = sequence;
+      this.write = write;
+    }
+
+    private void addDependent(Operation dependent) {
+      if (dependents == null) {
+        dependents = new ArrayList<>(2);
+      }
+      dependents.add(dependent);
+      dependent.pendingPredecessors++;
+    }
+  }
+
+  /**
+   * A command waiting for the commands which were outstanding at or beneath a path when it was registered.
+   */
+  private static class Waiter {
+    private final Operation operation;
+    private final boolean writesOnly;
+    private long remaining;
+
+    private Waiter(Operation operation, boolean writesOnly, long remaining) {
+      this.operation = operation;
+      this.writesOnly = writesOnly;
+      this.remaining = remaining;
+    }
+  }
+
+  /**
+   * The outstanding commands at or beneath a path.
+   */
+  private static class PathNode {
+    private final String path;
+    private long subtreeCommands = 0;
+    private long subtreeWrites = 0;
+    private Operation lastWrite = null;
+    private List<Waiter> waiters = null;
+
+    private PathNode(String path) {
+      this.path = path;
+    }
+  }
+
+  private final Map<String, PathNode> nodes = new HashMap<>();
+  private long nextSequence = 0;
+  // Only written while holding the lock; volatile so that it can be read without contention
+  private volatile long waitingCommands = 0;
+
+  /**
+   * Register a command, determining which of the previously registered commands it depends upon. Must be
+   * called in the order of the trace, before the command can be taken by a replay thread.
+   * @param command The command to register.
+   */
+  synchronized void register(AuditReplayCommand command) {
+    if (command.getReplayCommand() == null) {
+      return;
+    }
+    List<String> paths = getPaths(command);
+    if (paths.isEmpty()) {
+      return;
+    }
+    Operation operation = new Operation(command, nextSequence++,
+        command.getReplayCommand().getType() == CommandType.WRITE);
+    for (String path : paths) {
+      // Depend upon the last write to each ancestor
+      int slash = 0;
+      while ((slash = path.indexOf('/', slash + 1)) > 0) {
+        addAncestor(operation, getNode(path.substring(0, slash)));
+      }
+      if (path.length() > 1) {
+        addAncestor(operation, getNode("/"));
+      }
+      // Depend upon the outstanding commands at or beneath the path itself
+      PathNode node = getNode(path);
+      long predecessors = operation.write ? node.subtreeCommands : node.subtreeWrites;
+      if (predecessors > 0) {
+        if (node.waiters == null) {
+          node.waiters = new ArrayList<>(2);
+        }
+        node.waiters.add(new Waiter(operation, !operation.write, predecessors));
+        operation.pendingPredecessors++;
+      }
+      if (operation.write) {
+        node.lastWrite = operation;
+      }
+      operation.nodes.add(node);
+    }
+    for (PathNode node : operation.nodes) {
+      node.subtreeCommands++;
+      if (operation.write) {
+        node.subtreeWrites++;
+      }
+    }
+    command.dependency = operation;
+  }
+
+  private void addAncestor(Operation operation, PathNode ancestor) {
+    // A rename into a subdirectory of its source may already be the last write to its own ancestor
+    if (ancestor.lastWrite != null && ancestor.lastWrite != operation) {
+      ancestor.lastWrite.addDependent(operation);
+    }
+    operation.nodes.add(ancestor);
+  }
+
+  private PathNode getNode(String path) {
+    PathNode node = nodes.get(path);
+    if (node == null) {
+      node = new PathNode(path);
+      nodes.put(path, node);
+    }
+    return node;
+  }
+
+  /**
+   * Mark a command as ready to be replayed.
+   * @param command The command taken by a replay thread.
+   * @return True if it can be replayed now; false if it will instead be returned by
+   *         {@link #complete(AuditReplayCommand)} once its last predecessor completes.
+   */
+  synchronized boolean start(AuditReplayCommand command) {
+    Operation operation = command.dependency;
+    if (operation == null) {
+      return true;
+    }
+    operation.started = true;
+    if (operation.pendingPredecessors > 0) {
+      waitingCommands++;
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Mark a command as having been replayed. Must be called before the command is released.
+   * @param command The command which has been replayed.
+   * @return The commands which were waiting for this one and should now be replayed.
+   */
+  synchronized List<AuditReplayCommand> complete(AuditReplayCommand command) {
+    Operation operation = command.dependency;
+    if (operation == null) {
+      return Collections.emptyList();
+    }
+    command.dependency = null;
+    List<AuditReplayCommand> ready = Collections.emptyList();
+    for (PathNode node : operation.nodes) {
+      node.subtreeCommands--;
+      if (operation.write) {
+        node.subtreeWrites--;
+      }
+      if (node.lastWrite == operation) {
+        node.lastWrite = null;
+      }
+      if (node.waiters != null) {
+        Iterator<Waiter> iterator = node.waiters.iterator();
+        while (iterator.hasNext()) {
+          Waiter waiter = iterator.next();
+          // Commands registered after the waiter were not outstanding when it was registered
+          if (operation.sequence < waiter.operation.sequence && (operation.write || !waiter.writesOnly)) {
+            waiter.remaining--;
+            if (waiter.remaining == 0) {
+              iterator.remove();
+              ready = removePredecessor(waiter.operation, ready);
+            }
+          }
+        }
+        if (node.waiters.isEmpty()) {
+          node.waiters = null;
+        }
+      }
+      if (node.subtreeCommands == 0 && node.waiters == null) {
+        nodes.remove(node.path);
+      }
+    }
+    if (operation.dependents != null) {
+      for (Operation dependent : operation.dependents) {
+        ready = removePredecessor(dependent, ready);
+      }
+    }
+    return ready;
+  }
+
+  private List<AuditReplayCommand> removePredecessor(Operation operation, List<AuditReplayCommand> ready) {
+    operation.pendingPredecessors--;
+    if (operation.pendingPredecessors > 0 || !operation.started) {
+      return ready;
+    }
+    waitingCommands--;
+    if (ready.isEmpty()) {
+      ready = new ArrayList<>(2);
+    }
+    ready.add(operation.command);
+    return ready;
+  }
+
+  /**
+   * @return The number of commands which have been started but are waiting for their predecessors.
+   */
+  long getWaitingCommands() {
+    return waitingCommands;
+  }
+
+  /**
+   * @return The number of paths with outstanding commands.
+   */
+  synchronized int getTrackedPaths() {
+    return nodes.size();
+  }
+
+  /**
+   * Get the absolute paths affected by a command: its source and, if it has one, its destination. The
+   * destination of a concat is the list of its sources, e.g. [/a, /b].
+   */
+  private static List<String> getPaths(AuditReplayCommand command) {
+    List<String> paths = new ArrayList<>(2);
+    addPath(paths, command.getSrc());
+    String dest = command.getDest();
+    if (dest != null && dest.startsWith("[") && dest.endsWith("]")) {
+      for (String path : PATH_LIST_SPLITTER.split(dest.substring(1, dest.length() - 1))) {
+        addPath(paths, path);
+      }
+    } else {
+      addPath(paths, dest);
+    }
+    return paths;
+  }
+
+  private static void addPath(List<String> paths, String path) {
+    if (path == null || !path.startsWith("/")) {
+      return;
+    }
+    int end = path.length();
+    while (end > 1 && path.charAt(end - 1) == '/') {
+      end--;
+    }
+    paths.add(end == path.length() ? path : path.substring(0, end));
+  }
+
+}
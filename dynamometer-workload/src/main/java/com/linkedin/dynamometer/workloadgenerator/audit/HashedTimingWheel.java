@@ -0,0 +1,216 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A hashed timing wheel holding the commands for a single consumer thread. Commands
+ * are handed off by the producer through a lock-free inbox; all other state is owned
+ * exclusively by the consumer thread, so no locks are taken on either side.
+ *
+ * <p>The wheel is divided into a power-of-two number of slots, each covering one tick.
+ * Commands which fall within the span of the wheel are placed directly into the slot
+ * for their tick; commands further in the future are held in an overflow queue until
+ * the wheel has advanced far enough to hold them. A tick is expired once the wall
+ * clock has passed its final millisecond, so commands are never dispatched early,
+ * and are dispatched late by at most one tick. Commands within the same tick are
+ * dispatched in the order they were offered.
+ *
+ * <p>Commands are expected to be offered in timestamp order, as they appear in the
+ * input files. The overflow queue is FIFO, so a command which is offered out of order
+ * may wait behind a later one until that one fits into the wheel.
+ */
+class HashedTimingWheel {
+
+  private final long tickMs;
+  private final ReplayClock clock;
+  private final int mask;
+  private final ArrayDeque<AuditReplayCommand>[] slots;
+  private final Queue<AuditReplayCommand> inbox = new ConcurrentLinkedQueue<>();
+  private final ArrayDeque<AuditReplayCommand> overflow = new ArrayDeque<>();
+  private final ArrayDeque<AuditReplayCommand> ready = new ArrayDeque<>();
+
+  private volatile Thread consumer;
+  // The timestamp until which the consumer is parked; the producer only needs
+  // to wake it up if it hands off a command due before this time.
+  private volatile long parkedUntilMs = Long.MIN_VALUE;
+  // The next tick to be expired; -1 until the first call to take()
+  private long currentTick = -1;
+  private int slotCount = 0;
+
+  /**
+   * @param tickMs The duration covered by each slot, in milliseconds.
+   * @param numSlots The number of slots; will be rounded up to a power of two.
+   * @param clock The clock against which the timestamps of commands are compared.
+   */
+  @SuppressWarnings("unchecked")
+  HashedTimingWheel(long tickMs, int numSlots, ReplayClock clock) {
+    this.tickMs = tickMs;
+    this.clock = clock;
+    int size = Integer.highestOneBit(Math.max(numSlots - 1, 1)) << 1;
+    mask = size - 1;
+    slots = new ArrayDeque[size];
+    for (int i = 0; i < size; i++) {
+      slots[i] = new ArrayDeque<>();
+    }
+  }
+
+  /**
+   * Hand off a command to the consumer of this wheel. Safe to call from any thread.
+   * @param command The command to add.
+   */
+  void offer(AuditReplayCommand command) {
+    inbox.offer(command);
+    if (command.getAbsoluteTimestamp() < parkedUntilMs) {
+      Thread c = consumer;
+      if (c != null) {
+        LockSupport.unpark(c);
+      }
+    }
+  }
+
+  /**
+   * Retrieve the next command which is due, waiting if necessary. Must only ever be
+   * called by a single consumer thread.
+   * @return The next due command.
+   */
+  AuditReplayCommand take() throws InterruptedException {
+    if (consumer == null) {
+      consumer = Thread.currentThread();
+    }
+    while (true) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      long now = clock.currentTimeMillis();
+      if (currentTick < 0) {
+        currentTick = now / tickMs;
+      }
+      AuditReplayCommand command;
+      while ((command = inbox.poll()) != null) {
+        insert(command);
+      }
+      advance(now);
+      command = ready.poll();
+      if (command != null) {
+        return command;
+      }
+
+      long wakeMs;
+      if (slotCount > 0) {
+        wakeMs = getExpiryTimeMs(currentTick);
+      } else if (!overflow.isEmpty()) {
+        wakeMs = overflow.peek().getAbsoluteTimestamp();
+      } else {
+        wakeMs = Long.MAX_VALUE;
+      }
+      parkedUntilMs = wakeMs;
+      // Re-check the inbox after publishing the park time so that a concurrent
+      // offer either is seen here or sees the park time and wakes us.
+      if (inbox.isEmpty()) {
+        if (wakeMs == Long.MAX_VALUE) {
+          LockSupport.park(this);
+        } else if (wakeMs > now) {
+          // The speed of the clock may change while parked
+          long parkMs = Math.min(Math.max(clock.toWallDurationMs(wakeMs - now), 1), ReplayClock.MAX_WAIT_MS);
+          LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(parkMs));
+        }
+      }
+      parkedUntilMs = Long.MIN_VALUE;
+    }
+  }
+
+  /**
+   * @return The number of commands held by this wheel which have not yet been
+   *         returned by {@link #take()}, excluding any still in the inbox.
+   */
+  int size() {
+    return slotCount + overflow.size() + ready.size();
+  }
+
+  /**
+   * Discard every command held by this wheel, including any still in the inbox. Like
+   * {@link #take()}, this must only be called by the consuming thread.
+   * @return The number of discarded commands, excluding poison pills.
+   */
+  int drain() {
+    int dropped = 0;
+    AuditReplayCommand command;
+    while ((command = inbox.poll()) != null) {
+      if (!command.isPoison()) {
+        dropped++;
+      }
+    }
+    for (ArrayDeque<AuditReplayCommand> slot : slots) {
+      dropped += countAndClear(slot);
+    }
+    slotCount = 0;
+    dropped += countAndClear(overflow);
+    dropped += countAndClear(ready);
+    return dropped;
+  }
+
+  private static int countAndClear(ArrayDeque<AuditReplayCommand> queue) {
+    int count = 0;
+    for (AuditReplayCommand command : queue) {
+      if (!command.isPoison()) {
+        count++;
+      }
+    }
+    queue.clear();
+    return count;
+  }
+
+  private long getExpiryTimeMs(long tick) {
+    return tick * tickMs + tickMs - 1;
+  }
+
+  private void insert(AuditReplayCommand command) {
+    long tick = command.getAbsoluteTimestamp() / tickMs;
+    if (tick < currentTick) {
+      ready.add(command);
+    } else if (tick - currentTick <= mask) {
+      slots[(int) (tick & mask)].add(command);
+      slotCount++;
+    } else {
+      overflow.add(command);
+    }
+  }
+
+  private void advance(long now) {
+    while (getExpiryTimeMs(currentTick) <= now) {
+      if (slotCount == 0) {
+        // Nothing in the wheel; skip directly to the current tick
+        currentTick = Math.max(currentTick, now / tickMs);
+        refillFromOverflow();
+        if (slotCount == 0) {
+          return;
+        }
+        continue;
+      }
+      ArrayDeque<AuditReplayCommand> slot = slots[(int) (currentTick & mask)];
+      slotCount -= slot.size();
+      AuditReplayCommand command;
+      while ((command = slot.poll()) != null) {
+        ready.add(command);
+      }
+      currentTick++;
+      refillFromOverflow();
+    }
+  }
+
+  private void refillFromOverflow() {
+    while (!overflow.isEmpty() && overflow.peek().getAbsoluteTimestamp() / tickMs - currentTick <= mask) {
+      insert(overflow.poll());
+    }
+  }
+
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+
+/**
+ * A histogram of latencies with a fixed relative precision, in the style of HdrHistogram. Values are
+ * recorded in microseconds; those below {@value SUB_BUCKET_COUNT} are counted exactly, and above that,
+ * each range between consecutive powers of two is divided into {@value SUB_BUCKET_HALF_COUNT} buckets
+ * of equal width, so that the value reported for any percentile is within 1% of the true value. Values
+ * larger than {@value MAX_VALUE_US} microseconds (about 71 minutes) are recorded as that value.
+ *
+ * <p>Recording is thread-safe and lock-free. Histograms can be merged via {@link #add(LatencyHistogram)},
+ * and are {@link Writable} so that the histograms of separate tasks can be combined.
+ */
+public class LatencyHistogram implements Writable {
+
+  private static final int SUB_BUCKET_BITS = 8;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+  private static final long MAX_VALUE_US = (1L << 32) - 1;
+  private static final int NUM_BUCKETS = getIndex(MAX_VALUE_US) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong totalValue = new AtomicLong();
+  private final AtomicLong maxValue = new AtomicLong();
+
+  /**
+   * Record a single latency.
+   * @param latencyNanos The latency, in nanoseconds.
+   */
+  public void recordNanos(long latencyNanos) {
+    recordMicros(toClampedMicros(latencyNanos));
+  }
+
+  /**
+   * Record a single latency measured by a caller which issues requests one at a time, at most once
+   * per expected interval. A request which takes longer than the interval delays the ones which would
+   * otherwise have been issued during it, so these are also recorded, with the latencies they would
+   * have seen had they been issued on time (the correction applied by HdrHistogram's
+   * recordValueWithExpectedInterval).
+   * @param latencyNanos The latency, in nanoseconds.
+   * @param expectedIntervalNanos The expected interval between requests, in nanoseconds; if not
+   *                              positive, no correction is applied.
+   */
+  public void recordNanosWithExpectedInterval(long latencyNanos, long expectedIntervalNanos) {
+    long value = toClampedMicros(latencyNanos);
+    recordMicros(value);
+    long expectedIntervalUs = TimeUnit.NANOSECONDS.toMicros(expectedIntervalNanos);
+    if (expectedIntervalUs <= 0) {
+      return;
+    }
+    for (long missing = value - expectedIntervalUs; missing >= expectedIntervalUs; missing -= expectedIntervalUs) {
+      recordMicros(missing);
+    }
+  }
+
+  private void recordMicros(long value) {
+    counts.incrementAndGet(getIndex(value));
+    totalCount.incrementAndGet();
+    totalValue.addAndGet(value);
+    updateMax(value);
+  }
+
+  private void updateMax(long value) {
+    long currentMax = maxValue.get();
+    while (value > currentMax && !maxValue.compareAndSet(currentMax, value)) {
+      currentMax = maxValue.get();
+    }
+  }
+
+  /**
+   * Add all of the values recorded by another histogram into this one.
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      long count = other.counts.get(i);
+      if (count > 0) {
+        counts.addAndGet(i, count);
+      }
+    }
+    totalCount.addAndGet(other.totalCount.get());
+    totalValue.addAndGet(other.totalValue.get());
+    updateMax(other.maxValue.get());
+  }
+
+  /**
+   * Remove all recorded values. Must not be called concurrently with any other method.
+   */
+  public void reset() {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    totalCount.set(0);
+    totalValue.set(0);
+    maxValue.set(0);
+  }
+
+  /** @return The number of values recorded. */
+  public long getTotalCount() {
+    return totalCount.get();
+  }
+
+  /** @return The largest value recorded, in microseconds. */
+  public long getMaxValue() {
+    return maxValue.get();
+  }
+
+  /** @return The mean of the values recorded, in microseconds, or 0 if there are none. */
+  public double getMean() {
+    long count = totalCount.get();
+    return count == 0 ? 0 : (double) totalValue.get() / count;
+  }
+
+  /**
+   * Get the value below which the given percentage of recorded values fall.
+   * @param percentile The percentile, between 0 and 100.
+   * @return The value in microseconds, or 0 if no values have been recorded.
+   */
+  public long getValueAtPercentile(double percentile) {
+    long count = totalCount.get();
+    if (count == 0) {
+      return 0;
+    }
+    long targetCount = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= targetCount) {
+        return Math.min(getHighestValue(i), maxValue.get());
+      }
+    }
+    return maxValue.get();
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    int nonEmptyBuckets = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      if (counts.get(i) > 0) {
+        nonEmptyBuckets++;
+      }
+    }
+    WritableUtils.writeVInt(out, nonEmptyBuckets);
+    int previousIndex = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      long count = counts.get(i);
+      if (count > 0) {
+        WritableUtils.writeVInt(out, i - previousIndex);
+        WritableUtils.writeVLong(out, count);
+        previousIndex = i;
+      }
+    }
+    WritableUtils.writeVLong(out, totalValue.get());
+    WritableUtils.writeVLong(out, maxValue.get());
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    reset();
+    long count = 0;
+    int nonEmptyBuckets = WritableUtils.readVInt(in);
+    int index = 0;
+    for (int i = 0; i < nonEmptyBuckets; i++) {
+      index += WritableUtils.readVInt(in);
+      if (index < 0 || index >= NUM_BUCKETS) {
+        throw new IOException("Invalid histogram bucket: " + index);
+      }
+      long bucketCount = WritableUtils.readVLong(in);
+      counts.set(index, bucketCount);
+      count += bucketCount;
+    }
+    totalCount.set(count);
+    totalValue.set(WritableUtils.readVLong(in));
+    maxValue.set(WritableUtils.readVLong(in));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d (us)", getTotalCount(),
+        getMean(), getValueAtPercentile(50), getValueAtPercentile(90), getValueAtPercentile(99),
+        getValueAtPercentile(99.9), getMaxValue());
+  }
+
+  private static long toClampedMicros(long nanos) {
+    return Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0), MAX_VALUE_US);
+  }
+
+  private static int getIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    // The number of low bits dropped such that the remaining value is in [SUB_BUCKET_HALF_COUNT, SUB_BUCKET_COUNT)
+    int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift) - SUB_BUCKET_HALF_COUNT;
+  }
+
+  private static long getHighestValue(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+    long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.security.UserGroupInformation;
+
+
+/**
+ * A bounded pool of {@link FileSystem} instances used to replay commands on behalf of the users in the
+ * trace, one per user. Each instance has its own DFSClient, lease renewer and RPC connection, so holding
+ * one for every user in a trace with thousands of users is expensive; once the pool holds more than its
+ * maximum size, the least recently used instance is closed. An instance is only closed once no thread
+ * is using it, so a user's commands never fail because of an eviction.
+ *
+ * <p>When a user is not in the pool, a single thread creates its instance while any other threads
+ * requesting the same user wait for it, rather than each creating their own. Creation happens outside of
+ * the pool's lock so that other users are not blocked by it.
+ *
+ * <p>If impersonation is disabled, every command is instead replayed as the mapper's own user via a single
+ * instance, sharing a single RPC connection. Hadoop IPC binds each connection to one user, so this is the
+ * only way to avoid a connection per user, at the cost of the NameNode seeing a single user.
+ */
+class ProxyFileSystemPool implements Closeable {
+
+  private static final Log LOG = LogFactory.getLog(ProxyFileSystemPool.class);
+
+  /**
+   * A pooled {@link FileSystem}, which must be released once the caller is done with it.
+   */
+  class Entry {
+    private final String user;
+    private final CountDownLatch created = new CountDownLatch(1);
+    private volatile FileSystem fs;
+    private volatile IOException creationException;
+    // Guarded by the pool
+    private int references = 0;
+    private boolean evicted = false;
+
+    private Entry(String user) {
+      this.user = user;
+    }
+
+    FileSystem getFileSystem() {
+      return fs;
+    }
+
+    /**
+     * Return this entry to the pool; it must not be used afterwards.
+     */
+    void release() {
+      boolean close;
+      synchronized (ProxyFileSystemPool.this) {
+        references--;
+        close = evicted && references == 0;
+      }
+      if (close) {
+        closeQuietly(this);
+      }
+    }
+  }
+
+  private final Configuration conf;
+  private final URI namenodeUri;
+  private final UserGroupInformation loginUser;
+  private final int maxSize;
+  private final boolean impersonate;
+  // In access order, so the first entry is the least recently used
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  /**
+   * @param conf The configuration with which to create each {@link FileSystem}.
+   * @param namenodeUri The URI of the NameNode.
+   * @param loginUser The user as which the mapper is running, which must be able to impersonate the others.
+   * @param maxSize The maximum number of instances to retain; if not positive, all are retained.
+   * @param impersonate Whether to replay commands as the users who originally performed them.
+   */
+  ProxyFileSystemPool(Configuration conf, URI namenodeUri, UserGroupInformation loginUser, int maxSize,
+      boolean impersonate) {
+    this.conf = conf;
+    this.namenodeUri = namenodeUri;
+    this.loginUser = loginUser;
+    this.maxSize = maxSize;
+    this.impersonate = impersonate;
+  }
+
+  /**
+   * Get the {@link FileSystem} for a user, creating it if necessary. The returned entry must be released.
+   * @param user The short name of the user who performed the command.
+   * @return The entry holding the user's {@link FileSystem}.
+   */
+  Entry acquire(String user) throws IOException {
+    if (!impersonate) {
+      user = loginUser.getShortUserName();
+    }
+    Entry entry;
+    boolean creator = false;
+    List<Entry> toClose = new ArrayList<>();
+    synchronized (this) {
+      entry = entries.get(user);
+      if (entry == null) {
+        misses++;
+        creator = true;
+        entry = new Entry(user);
+        entries.put(user, entry);
+        evictExcessEntries(toClose);
+      } else {
+        hits++;
+      }
+      entry.references++;
+    }
+    for (Entry evicted : toClose) {
+      closeQuietly(evicted);
+    }
+    if (creator) {
+      try {
+        entry.fs = createFileSystem(user);
+      } catch (IOException|RuntimeException e) {
+        entry.creationException = e instanceof IOException ? (IOException) e : new IOException(e);
+        synchronized (this) {
+          // Allow a later attempt to try again
+          if (entries.get(user) == entry) {
+            entries.remove(user);
+          }
+        }
+      } finally {
+        entry.created.countDown();
+      }
+    } else {
+      try {
+        entry.created.await();
+      } catch (InterruptedException e) {
+        entry.release();
+        throw new InterruptedIOException("Interrupted while waiting for the FileSystem of " + user);
+      }
+    }
+    if (entry.creationException != null) {
+      entry.release();
+      throw entry.creationException;
+    }
+    return entry;
+  }
+
+  /**
+   * Remove least recently used entries until within the maximum size. Entries which are not in use are
+   * added to the list to be closed; the others are closed once released.
+   */
+  private void evictExcessEntries(List<Entry> toClose) {
+    if (maxSize <= 0) {
+      return;
+    }
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (entries.size() > maxSize && iterator.hasNext()) {
+      Entry entry = iterator.next();
+      iterator.remove();
+      evictions++;
+      entry.evicted = true;
+      if (entry.references == 0) {
+        toClose.add(entry);
+      }
+    }
+  }
+
+  /**
+   * Create the {@link FileSystem} used to replay commands as the given user.
+   * @param user The short name of the user.
+   * @return The new instance.
+   */
+  FileSystem createFileSystem(String user) throws IOException {
+    UserGroupInformation ugi = impersonate ? UserGroupInformation.createProxyUser(user, loginUser) : loginUser;
+    try {
+      return ugi.doAs(new PrivilegedExceptionAction<FileSystem>() {
+        @Override
+        public FileSystem run() throws IOException {
+          FileSystem fs = new DistributedFileSystem();
+          fs.initialize(namenodeUri, conf);
+          return fs;
+        }
+      });
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while creating the FileSystem of " + user);
+    }
+  }
+
+  private void closeQuietly(Entry entry) {
+    if (entry.fs == null) {
+      return;
+    }
+    try {
+      entry.fs.close();
+    } catch (IOException e) {
+      LOG.warn("Unable to close the FileSystem of " + entry.user, e);
+    }
+  }
+
+  synchronized long getHits() {
+    return hits;
+  }
+
+  synchronized long getMisses() {
+    return misses;
+  }
+
+  synchronized long getEvictions() {
+    return evictions;
+  }
+
+  synchronized int getSize() {
+    return entries.size();
+  }
+
+  /**
+   * Close all of the instances in the pool. Should only be called once no entries are in use.
+   */
+  @Override
+  public void close() {
+    List<Entry> toClose;
+    synchronized (this) {
+      toClose = new ArrayList<>(entries.values());
+      entries.clear();
+    }
+    for (Entry entry : toClose) {
+      closeQuietly(entry);
+    }
+  }
+
+}
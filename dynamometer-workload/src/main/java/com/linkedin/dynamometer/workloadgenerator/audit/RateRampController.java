@@ -0,0 +1,330 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import com.linkedin.dynamometer.workloadgenerator.WorkloadDriver;
+import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.ReplayCommand;
+import com.linkedin.dynamometer.workloadgenerator.audit.ReplayMetricsAggregator.IntervalStats;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import static com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.RATE_RAMP_COUNTER_GROUP;
+
+
+/**
+ * Searches for the highest rate at which the NameNode can keep up with the replay. The replay starts at the
+ * configured rate factor, which is multiplied by {@value AuditReplayMapper#RATE_RAMP_STEP_MULTIPLIER_KEY} at the
+ * end of each step of {@value AuditReplayMapper#RATE_RAMP_STEP_MS_KEY} by speeding up the {@link ReplayClock}.
+ * A step is considered to have saturated the NameNode if the fraction of commands which were replayed late
+ * exceeded {@value AuditReplayMapper#RATE_RAMP_MAX_LATE_FRACTION_KEY}, or if the p99 latency or the NameNode's
+ * average RPC queue time (as reported by its JMX) exceeded their configured limits, if any. Once a step is
+ * saturated, the rate factor returns to that of the previous step and the given callback is invoked so that the
+ * mapper can stop reading further input.
+ *
+ * <p>The statistics of each step are collected as a {@link ReplayMetricsAggregator.Sink}. Since every mapper
+ * starts its first step at the start timestamp, the steps of all mappers line up, so the throughput of each
+ * step is reported as a counter in the {@value AuditReplayMapper#RATE_RAMP_COUNTER_GROUP} group which, summed
+ * across the mappers, gives the total throughput; see {@link #summarize(Counters, Configuration)}.
+ */
+class RateRampController implements ReplayMetricsAggregator.Sink {
+
+  private static final Log LOG = LogFactory.getLog(RateRampController.class);
+
+  private static final String STEP_COUNTER_PREFIX = "STEP_";
+  private static final String COMMANDS_PER_SEC_SUFFIX = "_COMMANDS_PER_SEC";
+  private static final String SATURATED_MAPPERS_SUFFIX = "_SATURATED_MAPPERS";
+  private static final Pattern STEP_COUNTER_PATTERN =
+      Pattern.compile(STEP_COUNTER_PREFIX + "(\\d+)(" + COMMANDS_PER_SEC_SUFFIX + "|" + SATURATED_MAPPERS_SUFFIX + ")");
+  private static final String RPC_QUEUE_TIME_JMX_PROPERTY = "RpcQueueTimeAvgTime";
+
+  /**
+   * The outcome of a single step of the ramp.
+   */
+  static class Step {
+    private final int index;
+    private final double rateFactor;
+    private final double commandsPerSec;
+    private final double lateFraction;
+    private final long p99LatencyUs;
+    private final double rpcQueueTimeMs;
+    private final boolean saturated;
+
+    Step(int index, double rateFactor, double commandsPerSec, double lateFraction, long p99LatencyUs,
+        double rpcQueueTimeMs, boolean saturated) {
+      this.index = index;
+      this.rateFactor = rateFactor;
+      this.commandsPerSec = commandsPerSec;
+      this.lateFraction = lateFraction;
+      this.p99LatencyUs = p99LatencyUs;
+      this.rpcQueueTimeMs = rpcQueueTimeMs;
+      this.saturated = saturated;
+    }
+
+    int getIndex() {
+      return index;
+    }
+
+    double getRateFactor() {
+      return rateFactor;
+    }
+
+    double getCommandsPerSec() {
+      return commandsPerSec;
+    }
+
+    boolean isSaturated() {
+      return saturated;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("step %d: rate factor %.3f, %.1f commands/sec, %.2f%% late, p99 %d us, " +
+          "RPC queue time %s ms%s", index, rateFactor, commandsPerSec, lateFraction * 100, p99LatencyUs,
+          Double.isNaN(rpcQueueTimeMs) ? "unknown" : String.format("%.1f", rpcQueueTimeMs),
+          saturated ? " (saturated)" : "");
+    }
+  }
+
+  private final ReplayClock clock;
+  private final double baseRateFactor;
+  private final long rampStartMs;
+  private final long stepMs;
+  private final double stepMultiplier;
+  private final double maxLateFraction;
+  private final long maxP99LatencyUs;
+  private final double maxRpcQueueTimeMs;
+  private final URL rpcQueueTimeJmxUrl;
+  private final Runnable onSaturation;
+
+  private final List<Step> steps = new ArrayList<>();
+  private final IntervalStats stepStats = new IntervalStats();
+  private long stepDurationMs = 0;
+  private boolean finished = false;
+
+  /**
+   * @param conf The configuration of the mapper.
+   * @param clock The clock whose speed is adjusted.
+   * @param baseRateFactor The rate factor at which the command timestamps were computed.
+   * @param rampStartMs The time at which the first step starts.
+   * @param onSaturation Invoked, from the aggregator's thread, once a saturated step has been found.
+   */
+  RateRampController(Configuration conf, ReplayClock clock, double baseRateFactor, long rampStartMs,
+      Runnable onSaturation) throws IOException {
+    this.clock = clock;
+    this.baseRateFactor = baseRateFactor;
+    this.rampStartMs = rampStartMs;
+    this.onSaturation = onSaturation;
+    stepMs = conf.getLong(AuditReplayMapper.RATE_RAMP_STEP_MS_KEY, AuditReplayMapper.RATE_RAMP_STEP_MS_DEFAULT);
+    stepMultiplier = conf.getDouble(AuditReplayMapper.RATE_RAMP_STEP_MULTIPLIER_KEY,
+        AuditReplayMapper.RATE_RAMP_STEP_MULTIPLIER_DEFAULT);
+    maxLateFraction = conf.getDouble(AuditReplayMapper.RATE_RAMP_MAX_LATE_FRACTION_KEY,
+        AuditReplayMapper.RATE_RAMP_MAX_LATE_FRACTION_DEFAULT);
+    maxP99LatencyUs = 1000 * conf.getLong(AuditReplayMapper.RATE_RAMP_MAX_P99_LATENCY_MS_KEY,
+        AuditReplayMapper.RATE_RAMP_MAX_P99_LATENCY_MS_DEFAULT);
+    maxRpcQueueTimeMs = conf.getDouble(AuditReplayMapper.RATE_RAMP_MAX_RPC_QUEUE_TIME_MS_KEY,
+        AuditReplayMapper.RATE_RAMP_MAX_RPC_QUEUE_TIME_MS_DEFAULT);
+    if (stepMs <= 0 || stepMultiplier <= 1) {
+      throw new IOException("Invalid rate ramp configuration; step: " + stepMs + " ms, multiplier: " +
+          stepMultiplier);
+    }
+    String nameNodeWebUri = conf.get(AuditReplayMapper.RATE_RAMP_NAMENODE_WEB_URI_KEY);
+    if (maxRpcQueueTimeMs > 0) {
+      if (nameNodeWebUri == null) {
+        throw new IOException(AuditReplayMapper.RATE_RAMP_MAX_RPC_QUEUE_TIME_MS_KEY + " requires " +
+            AuditReplayMapper.RATE_RAMP_NAMENODE_WEB_URI_KEY);
+      }
+      // Client commands are served by the RPC server of the port which the replay connects to
+      int rpcPort = URI.create(conf.get(WorkloadDriver.NN_URI)).getPort();
+      rpcQueueTimeJmxUrl = URI.create(nameNodeWebUri).resolve(
+          "/jmx?qry=Hadoop:service=NameNode,name=RpcActivityForPort" + rpcPort).toURL();
+    } else {
+      rpcQueueTimeJmxUrl = null;
+    }
+  }
+
+  /**
+   * @return The rate factor used during the given step.
+   */
+  double getRateFactor(int stepIndex) {
+    return baseRateFactor * Math.pow(stepMultiplier, stepIndex);
+  }
+
+  @Override
+  public synchronized void publish(long intervalStartMs, long intervalEndMs, IntervalStats stats) {
+    if (finished || intervalEndMs <= rampStartMs) {
+      return;
+    }
+    stepStats.add(stats);
+    stepDurationMs += intervalEndMs - Math.max(intervalStartMs, rampStartMs);
+    int stepIndex = steps.size();
+    if (intervalEndMs < rampStartMs + (stepIndex + 1) * stepMs) {
+      return;
+    }
+    Step step = evaluateStep(stepIndex);
+    steps.add(step);
+    stepStats.reset();
+    stepDurationMs = 0;
+    if (step.isSaturated()) {
+      finished = true;
+      LOG.info("Rate ramp " + step + "; NameNode saturated at rate factor " + step.getRateFactor());
+      if (stepIndex > 0) {
+        clock.setSpeed(getRateFactor(stepIndex - 1) / baseRateFactor);
+      }
+      onSaturation.run();
+    } else {
+      LOG.info("Rate ramp " + step + "; increasing rate factor to " + getRateFactor(stepIndex + 1));
+      clock.setSpeed(getRateFactor(stepIndex + 1) / baseRateFactor);
+    }
+  }
+
+  private Step evaluateStep(int stepIndex) {
+    long completed = 0;
+    long attempted = 0;
+    long late = 0;
+    LatencyHistogram latencies = new LatencyHistogram();
+    for (ReplayCommand command : ReplayCommand.values()) {
+      if (stepStats.hasActivity(command)) {
+        completed += stepStats.getCompleted(command);
+        attempted += stepStats.getCompleted(command) + stepStats.getInvalid(command);
+        late += stepStats.getLate(command);
+        latencies.add(stepStats.getLatencies(command));
+      }
+    }
+    double lateFraction = attempted == 0 ? 0 : (double) late / attempted;
+    long p99LatencyUs = latencies.getValueAtPercentile(99);
+    double rpcQueueTimeMs = fetchRpcQueueTimeMs();
+    boolean saturated = lateFraction > maxLateFraction ||
+        (maxP99LatencyUs > 0 && p99LatencyUs > maxP99LatencyUs) ||
+        (maxRpcQueueTimeMs > 0 && rpcQueueTimeMs > maxRpcQueueTimeMs);
+    return new Step(stepIndex, getRateFactor(stepIndex), completed * 1000.0 / Math.max(stepDurationMs, 1),
+        lateFraction, p99LatencyUs, rpcQueueTimeMs, saturated);
+  }
+
+  /**
+   * @return The NameNode's average RPC queue time in milliseconds, as reported by its JMX, or NaN if it is not
+   *         being monitored or could not be retrieved.
+   */
+  private double fetchRpcQueueTimeMs() {
+    if (rpcQueueTimeJmxUrl == null) {
+      return Double.NaN;
+    }
+    HttpURLConnection conn = null;
+    try {
+      conn = (HttpURLConnection) rpcQueueTimeJmxUrl.openConnection();
+      if (conn.getResponseCode() != 200) {
+        throw new IOException("Unable to retrieve JMX: " + conn.getResponseMessage());
+      }
+      try (InputStream in = conn.getInputStream()) {
+        JsonParser parser = new JsonFactory().createJsonParser(in);
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+          if (token == JsonToken.FIELD_NAME && parser.getCurrentName().equals(RPC_QUEUE_TIME_JMX_PROPERTY)) {
+            parser.nextToken();
+            return parser.getDoubleValue();
+          }
+        }
+      }
+      throw new IOException("Property " + RPC_QUEUE_TIME_JMX_PROPERTY + " not found");
+    } catch (IOException e) {
+      LOG.warn("Unable to fetch the NameNode's RPC queue time from " + rpcQueueTimeJmxUrl, e);
+      return Double.NaN;
+    } finally {
+      if (conn != null) {
+        conn.disconnect();
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    // Nothing to release
+  }
+
+  /**
+   * @return The steps which have been completed so far.
+   */
+  synchronized List<Step> getSteps() {
+    return new ArrayList<>(steps);
+  }
+
+  /**
+   * Record the outcome of each completed step as counters.
+   */
+  synchronized void setCounters(TaskAttemptContext context) {
+    for (Step step : steps) {
+      context.getCounter(RATE_RAMP_COUNTER_GROUP, STEP_COUNTER_PREFIX + step.getIndex() + COMMANDS_PER_SEC_SUFFIX)
+          .setValue(Math.round(step.getCommandsPerSec()));
+      if (step.isSaturated()) {
+        context.getCounter(RATE_RAMP_COUNTER_GROUP, STEP_COUNTER_PREFIX + step.getIndex() + SATURATED_MAPPERS_SUFFIX)
+            .setValue(1);
+      }
+    }
+  }
+
+  /**
+   * Summarize the outcome of the ramp across all of the mappers of a completed job. The NameNode is taken to
+   * have saturated during the first step in which any mapper found it to be saturated.
+   * @param counters The counters of the job.
+   * @param conf The configuration of the job.
+   * @return A description of the rate factor and throughput at which the NameNode saturated.
+   */
+  static String summarize(Counters counters, Configuration conf) {
+    double baseRateFactor = conf.getDouble(AuditReplayMapper.RATE_FACTOR_KEY, AuditReplayMapper.RATE_FACTOR_DEFAULT);
+    double stepMultiplier = conf.getDouble(AuditReplayMapper.RATE_RAMP_STEP_MULTIPLIER_KEY,
+        AuditReplayMapper.RATE_RAMP_STEP_MULTIPLIER_DEFAULT);
+    TreeMap<Integer, Long> commandsPerSec = new TreeMap<>();
+    int saturatedStep = -1;
+    CounterGroup group = counters.getGroup(RATE_RAMP_COUNTER_GROUP);
+    for (Counter counter : group) {
+      Matcher matcher = STEP_COUNTER_PATTERN.matcher(counter.getName());
+      if (!matcher.matches()) {
+        continue;
+      }
+      int stepIndex = Integer.parseInt(matcher.group(1));
+      if (matcher.group(2).equals(COMMANDS_PER_SEC_SUFFIX)) {
+        commandsPerSec.put(stepIndex, counter.getValue());
+      } else if (counter.getValue() > 0 && (saturatedStep < 0 || stepIndex < saturatedStep)) {
+        saturatedStep = stepIndex;
+      }
+    }
+    if (commandsPerSec.isEmpty()) {
+      return "The rate ramp did not complete any steps";
+    }
+    if (saturatedStep < 0) {
+      int lastStep = commandsPerSec.lastKey();
+      return String.format("The NameNode did not saturate; the highest rate factor reached was %.3f " +
+          "with a throughput of %d commands/sec", baseRateFactor * Math.pow(stepMultiplier, lastStep),
+          commandsPerSec.get(lastStep));
+    }
+    StringBuilder summary = new StringBuilder(String.format("The NameNode saturated at rate factor %.3f " +
+        "with a throughput of %d commands/sec", baseRateFactor * Math.pow(stepMultiplier, saturatedStep),
+        commandsPerSec.get(saturatedStep)));
+    if (saturatedStep > 0 && commandsPerSec.containsKey(saturatedStep - 1)) {
+      summary.append(String.format("; the highest sustained rate factor was %.3f with a throughput of %d " +
+          "commands/sec", baseRateFactor * Math.pow(stepMultiplier, saturatedStep - 1),
+          commandsPerSec.get(saturatedStep - 1)));
+    }
+    return summary.toString();
+  }
+
+}
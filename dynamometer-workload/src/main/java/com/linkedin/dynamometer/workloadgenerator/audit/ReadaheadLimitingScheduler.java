@@ -0,0 +1,219 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.hadoop.conf.Configuration;
+
+
+/**
+ * An {@link AuditReplayScheduler} which wraps another scheduler to bound how far
+ * {@link AuditReplayMapper} reads ahead of the replay. Scheduling a command blocks
+ * the producer while either the command is further in the future than the time
+ * horizon given by {@value AuditReplayMapper#READAHEAD_MAX_MS_KEY}, or the number of
+ * commands which have been scheduled but not yet taken by a replay thread is at the
+ * limit given by {@value AuditReplayMapper#READAHEAD_MAX_COMMANDS_KEY}. Once blocked,
+ * the producer resumes when both are back below {@value #RESUME_FRACTION} of their
+ * limits, so that it does not wake up for every individual command. While blocked on the
+ * number of queued commands, the producer is parked until a replay thread takes a command
+ * which brings the queue back down to that threshold and wakes it up.
+ *
+ * <p>The number of queued commands is tracked without contention: the producer counts
+ * the commands it schedules, and each replay thread counts the commands it takes in its
+ * own slot, padded to avoid false sharing. Poison pills are never blocked or counted.
+ * If a {@link DependencyTracker} is given, the commands which replay threads have taken
+ * but which it holds back until their predecessors complete are also counted as queued,
+ * since they are still held in memory waiting to be replayed. They are released without
+ * passing through this scheduler, so a blocked producer then also re-checks the queue depth
+ * periodically rather than relying only on a replay thread to wake it up.
+ *
+ * <p>Once any replay thread has exited before receiving its poison pill, the queue may never
+ * drain again, so scheduling a command fails with an {@link IllegalStateException} rather
+ * than blocking forever.
+ */
+class ReadaheadLimitingScheduler implements AuditReplayScheduler {
+
+  static final double RESUME_FRACTION = 0.9;
+  // Slots per thread in takenCounts; 8 longs fill a 64-byte cache line
+  private static final int SLOT_PADDING = 8;
+
+  private final AuditReplayScheduler delegate;
+  private final DependencyTracker dependencyTracker;
+  private long maxReadaheadMs;
+  private long maxQueuedCommands;
+  private long resumeQueuedCommands;
+  private AtomicLongArray takenCounts;
+  // The producer, and whether it is blocked waiting for the replay threads to wake it up
+  private volatile Thread producer;
+  private volatile boolean producerWaiting = false;
+  // Set once any replay thread has exited
+  private volatile boolean consumerExited = false;
+  // Only written by the single producer thread; volatile so that it can be read for metrics
+  private volatile long scheduledCount = 0;
+  private volatile long maxQueueDepth = 0;
+  private volatile long blockedTimeMs = 0;
+
+  ReadaheadLimitingScheduler(AuditReplayScheduler delegate) {
+    this(delegate, null);
+  }
+
+  /**
+   * @param delegate The scheduler which holds the commands until they are due.
+   * @param dependencyTracker The tracker holding back commands until their predecessors complete,
+   *                          or null if dependencies are not tracked.
+   */
+  ReadaheadLimitingScheduler(AuditReplayScheduler delegate, DependencyTracker dependencyTracker) {
+    this.delegate = delegate;
+    this.dependencyTracker = dependencyTracker;
+  }
+
+  @Override
+  public void initialize(Configuration conf, int numThreads, ReplayClock clock) throws IOException {
+    maxReadaheadMs = conf.getLong(AuditReplayMapper.READAHEAD_MAX_MS_KEY,
+        AuditReplayMapper.READAHEAD_MAX_MS_DEFAULT);
+    maxQueuedCommands = conf.getLong(AuditReplayMapper.READAHEAD_MAX_COMMANDS_KEY,
+        AuditReplayMapper.READAHEAD_MAX_COMMANDS_DEFAULT);
+    if (maxReadaheadMs <= 0 || maxQueuedCommands <= 0) {
+      throw new IOException("Invalid readahead limits; time: " + maxReadaheadMs + " ms, commands: " +
+          maxQueuedCommands);
+    }
+    resumeQueuedCommands = (long) (maxQueuedCommands * RESUME_FRACTION);
+    takenCounts = new AtomicLongArray(numThreads * SLOT_PADDING);
+    delegate.initialize(conf, numThreads, clock);
+  }
+
+  @Override
+  public void schedule(AuditReplayCommand command) throws InterruptedException {
+    awaitCapacity(command);
+    delegate.schedule(command);
+  }
+
+  @Override
+  public void schedule(AuditReplayCommand command, int threadIndex) throws InterruptedException {
+    if (!command.isPoison()) {
+      awaitCapacity(command);
+    }
+    delegate.schedule(command, threadIndex);
+  }
+
+  @Override
+  public boolean supportsThreadAffinity() {
+    return delegate.supportsThreadAffinity();
+  }
+
+  @Override
+  public AuditReplayCommand take(int threadIndex) throws InterruptedException {
+    AuditReplayCommand command = delegate.take(threadIndex);
+    if (!command.isPoison()) {
+      // Only this thread writes to its slot, so no atomic increment is needed. The write must not be
+      // lazy, so that either the producer sees it or this thread sees that the producer is waiting.
+      int slot = threadIndex * SLOT_PADDING;
+      takenCounts.set(slot, takenCounts.get(slot) + 1);
+      if (producerWaiting && getQueueDepth() <= resumeQueuedCommands) {
+        LockSupport.unpark(producer);
+      }
+    }
+    return command;
+  }
+
+  @Override
+  public int consumerExited(int threadIndex) {
+    consumerExited = true;
+    int dropped = delegate.consumerExited(threadIndex);
+    Thread p = producer;
+    if (p != null) {
+      LockSupport.unpark(p);
+    }
+    return dropped;
+  }
+
+  /**
+   * @return The number of commands which have been scheduled but not yet taken by a replay thread,
+   *         plus those which have been taken but are held back by the dependency tracker.
+   */
+  long getQueueDepth() {
+    long taken = 0;
+    for (int i = 0; i < takenCounts.length(); i += SLOT_PADDING) {
+      taken += takenCounts.get(i);
+    }
+    return Math.max(0, scheduledCount - taken) + getHeldCommands();
+  }
+
+  private long getHeldCommands() {
+    return dependencyTracker == null ? 0 : dependencyTracker.getWaitingCommands();
+  }
+
+  /**
+   * @return The largest queue depth observed when scheduling a command.
+   */
+  long getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+  /**
+   * @return The total time the producer has spent blocked waiting for capacity, in milliseconds.
+   */
+  long getBlockedTimeMs() {
+    return blockedTimeMs;
+  }
+
+  /**
+   * Block until there is capacity to schedule the given command, then account for it.
+   * Must only be called by the single producer thread.
+   * @throws IllegalStateException If a replay thread has exited, so that there may never be capacity.
+   */
+  private void awaitCapacity(AuditReplayCommand command) throws InterruptedException {
+    checkConsumers();
+    long depth = getQueueDepth();
+    if (command.getDelay(TimeUnit.MILLISECONDS) > maxReadaheadMs || depth >= maxQueuedCommands) {
+      long blockStartMs = System.currentTimeMillis();
+      long resumeReadaheadMs = (long) (maxReadaheadMs * RESUME_FRACTION);
+      producer = Thread.currentThread();
+      try {
+        while (true) {
+          // Published before reading the queue depth, so that a replay thread which takes a command
+          // concurrently either is seen here or sees this and wakes us
+          producerWaiting = true;
+          long aheadMs = command.getDelay(TimeUnit.MILLISECONDS);
+          depth = getQueueDepth();
+          if (aheadMs <= resumeReadaheadMs && depth <= resumeQueuedCommands) {
+            break;
+          }
+          checkConsumers();
+          if (depth > resumeQueuedCommands && dependencyTracker == null) {
+            LockSupport.park(this);
+          } else if (depth > resumeQueuedCommands) {
+            // Held commands are released without a replay thread taking them, which would wake us
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(ReplayClock.MAX_WAIT_MS));
+          } else {
+            // The speed of the replay clock may change while waiting
+            LockSupport.parkNanos(this,
+                TimeUnit.MILLISECONDS.toNanos(Math.min(aheadMs - resumeReadaheadMs, ReplayClock.MAX_WAIT_MS)));
+          }
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+        }
+      } finally {
+        producerWaiting = false;
+      }
+      blockedTimeMs += System.currentTimeMillis() - blockStartMs;
+    }
+    scheduledCount++;
+    if (depth + 1 > maxQueueDepth) {
+      maxQueueDepth = depth + 1;
+    }
+  }
+
+  private void checkConsumers() {
+    if (consumerExited) {
+      throw new IllegalStateException("A replay thread has exited; the queued commands may never be replayed");
+    }
+  }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+/**
+ * The clock against which the absolute timestamps of {@link AuditReplayCommand}s are compared. By default it
+ * follows the wall clock, but its speed can be changed while the replay is running, which changes the
+ * effective rate factor of the replay without having to recompute the timestamps of the commands which
+ * have already been read. Replay time advances at {@code speed} times the rate of wall-clock time;
+ * changing the speed does not cause replay time to jump. The clock can also be paused, during which
+ * replay time does not advance at all, and later resumed at the speed it had before.
+ *
+ * <p>Since the speed may change at any time, code waiting for replay time to reach some value should not
+ * wait for longer than {@value MAX_WAIT_MS} ms at once before checking again.
+ *
+ * <p>Each {@link AuditReplayMapper} creates its own clock, which it passes to its scheduler, parse stage
+ * and rate controllers and sets on each command it schedules, so that mappers sharing a JVM cannot change
+ * each other's speed. Reading the clock is lock-free.
+ */
+public class ReplayClock {
+
+  /** The longest a caller should wait before re-checking the clock, in milliseconds. */
+  public static final long MAX_WAIT_MS = 100;
+
+  /** An immutable linear segment of the mapping from wall-clock time to replay time. */
+  private static class Segment {
+    private final long wallAnchorMs;
+    private final long replayAnchorMs;
+    private final double speed;
+
+    Segment(long wallAnchorMs, long replayAnchorMs, double speed) {
+      this.wallAnchorMs = wallAnchorMs;
+      this.replayAnchorMs = replayAnchorMs;
+      this.speed = speed;
+    }
+
+    long toReplayMs(long wallMs) {
+      return replayAnchorMs + (long) ((wallMs - wallAnchorMs) * speed);
+    }
+  }
+
+  // Initially identical to the wall clock
+  private volatile Segment segment = new Segment(0, 0, 1.0);
+  // The speed to return to when resumed; only accessed while synchronized
+  private double resumeSpeed = 1.0;
+
+  /**
+   * @return The current replay time, in milliseconds.
+   */
+  public long currentTimeMillis() {
+    return segment.toReplayMs(System.currentTimeMillis());
+  }
+
+  /**
+   * @return The rate at which replay time currently advances relative to wall-clock time; 0 if paused.
+   */
+  public double getSpeed() {
+    return segment.speed;
+  }
+
+  /**
+   * @return True iff the clock is currently paused.
+   */
+  public boolean isPaused() {
+    return segment.speed == 0;
+  }
+
+  /**
+   * Change the rate at which replay time advances relative to wall-clock time, from now on. If the
+   * clock is paused, this is instead the speed at which it will run once resumed.
+   * @param speed The new speed; must be positive.
+   */
+  public synchronized void setSpeed(double speed) {
+    if (!(speed > 0)) {
+      throw new IllegalArgumentException("Invalid replay clock speed: " + speed);
+    }
+    resumeSpeed = speed;
+    if (!isPaused()) {
+      reanchor(speed);
+    }
+  }
+
+  /**
+   * Stop replay time from advancing until {@link #resume()} is called. Has no effect if already paused.
+   */
+  public synchronized void pause() {
+    if (!isPaused()) {
+      reanchor(0);
+    }
+  }
+
+  /**
+   * Let replay time advance again, from where it was paused, at the speed it had before being paused.
+   * Has no effect if not paused.
+   */
+  public synchronized void resume() {
+    if (isPaused()) {
+      reanchor(resumeSpeed);
+    }
+  }
+
+  private void reanchor(double speed) {
+    long nowMs = System.currentTimeMillis();
+    segment = new Segment(nowMs, segment.toReplayMs(nowMs), speed);
+  }
+
+  /**
+   * Convert a duration of replay time into the corresponding duration of wall-clock time at the
+   * current speed.
+   * @param replayDurationMs The duration in replay time, in milliseconds; may be negative.
+   * @return The duration in wall-clock time, in milliseconds. If the clock is paused, this is
+   *         {@link Long#MAX_VALUE} for positive durations and the duration itself otherwise.
+   */
+  public long toWallDurationMs(long replayDurationMs) {
+    double speed = segment.speed;
+    if (speed == 0) {
+      return replayDurationMs > 0 ? Long.MAX_VALUE : replayDurationMs;
+    }
+    return (long) (replayDurationMs / speed);
+  }
+
+}
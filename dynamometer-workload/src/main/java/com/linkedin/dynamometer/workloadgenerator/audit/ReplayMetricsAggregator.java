@@ -0,0 +1,303 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.ReplayCommand;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+
+
+/**
+ * Periodically collects the commands recorded by each {@link ReplayMetricsRecorder} over the
+ * preceding interval, and publishes the number of commands completed per second, the number
+ * of invalid and late commands, and the latency percentiles of each command type to a number
+ * of {@link Sink}s. Intervals are aligned to multiples of the interval length since the epoch,
+ * so that the intervals of all of the mappers line up with each other and with those of other
+ * metrics, such as the NameNode's own.
+ */
+class ReplayMetricsAggregator implements Closeable {
+
+  private static final Log LOG = LogFactory.getLog(ReplayMetricsAggregator.class);
+
+  private final long intervalMs;
+  private final List<Sink> sinks;
+  private final List<ReplayMetricsRecorder> recorders = new CopyOnWriteArrayList<>();
+  private final IntervalStats stats = new IntervalStats();
+  private long intervalStartMs;
+  private boolean closed = false;
+
+  ReplayMetricsAggregator(long intervalMs, List<Sink> sinks) {
+    this.intervalMs = intervalMs;
+    this.sinks = sinks;
+    intervalStartMs = System.currentTimeMillis();
+  }
+
+  /**
+   * Create a recorder whose values will be included in the published intervals.
+   */
+  ReplayMetricsRecorder createRecorder() {
+    ReplayMetricsRecorder recorder = new ReplayMetricsRecorder();
+    recorders.add(recorder);
+    return recorder;
+  }
+
+  /**
+   * Begin publishing an interval at each interval boundary using the given executor.
+   */
+  void start(ScheduledExecutorService executor) {
+    long initialDelayMs = intervalMs - System.currentTimeMillis() % intervalMs;
+    executor.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        long nowMs = System.currentTimeMillis();
+        // Label the interval with the boundary at which it was meant to end
+        publishInterval(Math.round((double) nowMs / intervalMs) * intervalMs);
+      }
+    }, initialDelayMs, intervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Collect everything recorded since the previous interval and publish it as ending at the given time.
+   */
+  synchronized void publishInterval(long intervalEndMs) {
+    if (closed) {
+      return;
+    }
+    for (ReplayMetricsRecorder recorder : recorders) {
+      recorder.drainInto(stats);
+    }
+    for (Sink sink : sinks) {
+      try {
+        sink.publish(intervalStartMs, intervalEndMs, stats);
+      } catch (IOException | RuntimeException e) {
+        // Metrics are best-effort and must not affect the replay
+        LOG.warn("Unable to publish replay metrics to " + sink, e);
+      }
+    }
+    stats.reset();
+    intervalStartMs = intervalEndMs;
+  }
+
+  /**
+   * Publish the final, partial interval and close all of the sinks.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    publishInterval(System.currentTimeMillis());
+    closed = true;
+    for (Sink sink : sinks) {
+      sink.close();
+    }
+  }
+
+  /**
+   * The outcomes of commands, by command type, over an interval. All methods other than
+   * {@link #add(IntervalStats)} and {@link #reset()} are thread-safe.
+   */
+  static class IntervalStats {
+    private final AtomicLongArray completed = new AtomicLongArray(ReplayCommand.values().length);
+    private final AtomicLongArray invalid = new AtomicLongArray(ReplayCommand.values().length);
+    private final AtomicLongArray late = new AtomicLongArray(ReplayCommand.values().length);
+    // Each histogram is created upon its first use, and kept through resets
+    private final AtomicReferenceArray<LatencyHistogram> latencies =
+        new AtomicReferenceArray<>(ReplayCommand.values().length);
+
+    void recordCompleted(ReplayCommand command, long latencyNanos) {
+      completed.incrementAndGet(command.ordinal());
+      getLatencies(command).recordNanos(latencyNanos);
+    }
+
+    void recordInvalid(ReplayCommand command) {
+      invalid.incrementAndGet(command.ordinal());
+    }
+
+    void recordLate(ReplayCommand command) {
+      late.incrementAndGet(command.ordinal());
+    }
+
+    long getCompleted(ReplayCommand command) {
+      return completed.get(command.ordinal());
+    }
+
+    long getInvalid(ReplayCommand command) {
+      return invalid.get(command.ordinal());
+    }
+
+    long getLate(ReplayCommand command) {
+      return late.get(command.ordinal());
+    }
+
+    LatencyHistogram getLatencies(ReplayCommand command) {
+      LatencyHistogram histogram = latencies.get(command.ordinal());
+      if (histogram == null) {
+        latencies.compareAndSet(command.ordinal(), null, new LatencyHistogram());
+        histogram = latencies.get(command.ordinal());
+      }
+      return histogram;
+    }
+
+    /** @return True iff any command of this type completed, failed or was late during the interval. */
+    boolean hasActivity(ReplayCommand command) {
+      return getCompleted(command) > 0 || getInvalid(command) > 0 || getLate(command) > 0;
+    }
+
+    void add(IntervalStats other) {
+      for (ReplayCommand command : ReplayCommand.values()) {
+        int i = command.ordinal();
+        completed.addAndGet(i, other.completed.get(i));
+        invalid.addAndGet(i, other.invalid.get(i));
+        late.addAndGet(i, other.late.get(i));
+        LatencyHistogram otherLatencies = other.latencies.get(i);
+        if (otherLatencies != null && otherLatencies.getTotalCount() > 0) {
+          getLatencies(command).add(otherLatencies);
+        }
+      }
+    }
+
+    void reset() {
+      for (int i = 0; i < ReplayCommand.values().length; i++) {
+        completed.set(i, 0);
+        invalid.set(i, 0);
+        late.set(i, 0);
+        LatencyHistogram histogram = latencies.get(i);
+        if (histogram != null && histogram.getTotalCount() > 0) {
+          histogram.reset();
+        }
+      }
+    }
+  }
+
+  /**
+   * A destination for the metrics of each interval.
+   */
+  interface Sink extends Closeable {
+    /**
+     * Publish the metrics of an interval. The stats must not be retained after returning.
+     */
+    void publish(long intervalStartMs, long intervalEndMs, IntervalStats stats) throws IOException;
+  }
+
+  /**
+   * Writes one tab-separated line per active command type per interval to a file, which is
+   * flushed after each interval so that it can be followed while the replay is running.
+   */
+  static class FileSink implements Sink {
+    private final FSDataOutputStream out;
+    private final Writer writer;
+
+    FileSink(FSDataOutputStream out) throws IOException {
+      this.out = out;
+      writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+      writer.write("#intervalStartMs\tintervalEndMs\tcommand\tcompleted\topsPerSec\tinvalid\tlate\t" +
+          "p50Us\tp90Us\tp99Us\tp999Us\tmaxUs\n");
+    }
+
+    @Override
+    public void publish(long intervalStartMs, long intervalEndMs, IntervalStats stats) throws IOException {
+      double intervalSec = Math.max(intervalEndMs - intervalStartMs, 1) / 1000.0;
+      StringBuilder lines = new StringBuilder();
+      for (ReplayCommand command : ReplayCommand.values()) {
+        if (!stats.hasActivity(command)) {
+          continue;
+        }
+        LatencyHistogram latencies = stats.getLatencies(command);
+        lines.append(intervalStartMs).append('\t').append(intervalEndMs).append('\t').append(command)
+            .append('\t').append(stats.getCompleted(command))
+            .append('\t').append(String.format("%.1f", stats.getCompleted(command) / intervalSec))
+            .append('\t').append(stats.getInvalid(command)).append('\t').append(stats.getLate(command))
+            .append('\t').append(latencies.getValueAtPercentile(50))
+            .append('\t').append(latencies.getValueAtPercentile(90))
+            .append('\t').append(latencies.getValueAtPercentile(99))
+            .append('\t').append(latencies.getValueAtPercentile(99.9))
+            .append('\t').append(latencies.getMaxValue()).append('\n');
+      }
+      writer.write(lines.toString());
+      writer.flush();
+      out.hflush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      writer.close();
+    }
+  }
+
+  /**
+   * Exposes the metrics of the most recent interval as a Hadoop metrics2 source, so that they
+   * can be collected by whichever metrics sinks are configured for the task.
+   */
+  static class MetricsSystemSink implements Sink, MetricsSource {
+    static final String RECORD_NAME = "AuditReplay";
+
+    private final String sourceName;
+    private final String taskAttemptId;
+    // Values of the most recent interval, by command ordinal; the rows of inactive commands are null
+    private volatile double[][] latestValues = new double[ReplayCommand.values().length][];
+
+    MetricsSystemSink(String taskAttemptId) {
+      this.taskAttemptId = taskAttemptId;
+      sourceName = RECORD_NAME + "-" + taskAttemptId;
+      DefaultMetricsSystem.instance().register(sourceName, "Audit replay metrics of the most recent interval", this);
+    }
+
+    @Override
+    public void publish(long intervalStartMs, long intervalEndMs, IntervalStats stats) {
+      double intervalSec = Math.max(intervalEndMs - intervalStartMs, 1) / 1000.0;
+      double[][] values = new double[ReplayCommand.values().length][];
+      for (ReplayCommand command : ReplayCommand.values()) {
+        if (stats.hasActivity(command)) {
+          LatencyHistogram latencies = stats.getLatencies(command);
+          values[command.ordinal()] = new double[] { stats.getCompleted(command) / intervalSec,
+              stats.getInvalid(command), stats.getLate(command), latencies.getValueAtPercentile(50),
+              latencies.getValueAtPercentile(99), latencies.getValueAtPercentile(99.9) };
+        }
+      }
+      latestValues = values;
+    }
+
+    @Override
+    public void getMetrics(MetricsCollector collector, boolean all) {
+      double[][] values = latestValues;
+      MetricsRecordBuilder builder = collector.addRecord(RECORD_NAME).setContext("dynamometer")
+          .tag(Interns.info("TaskAttempt", "Task attempt performing the replay"), taskAttemptId);
+      for (ReplayCommand command : ReplayCommand.values()) {
+        double[] commandValues = values[command.ordinal()];
+        if (commandValues == null) {
+          continue;
+        }
+        String name = command.name();
+        builder.addGauge(Interns.info(name + "OpsPerSec", "Commands completed per second"), commandValues[0])
+            .addGauge(Interns.info(name + "Invalid", "Invalid commands in the interval"), (long) commandValues[1])
+            .addGauge(Interns.info(name + "Late", "Late commands in the interval"), (long) commandValues[2])
+            .addGauge(Interns.info(name + "LatencyP50Us", "Median latency"), (long) commandValues[3])
+            .addGauge(Interns.info(name + "LatencyP99Us", "99th percentile latency"), (long) commandValues[4])
+            .addGauge(Interns.info(name + "LatencyP999Us", "99.9th percentile latency"), (long) commandValues[5]);
+      }
+    }
+
+    @Override
+    public void close() {
+      DefaultMetricsSystem.instance().unregisterSource(sourceName);
+    }
+  }
+
+}
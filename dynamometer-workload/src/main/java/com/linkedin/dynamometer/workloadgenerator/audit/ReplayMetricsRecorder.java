@@ -0,0 +1,94 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.ReplayCommand;
+import com.linkedin.dynamometer.workloadgenerator.audit.ReplayMetricsAggregator.IntervalStats;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Records the outcome of the commands replayed on behalf of a single {@link AuditReplayThread}
+ * for a {@link ReplayMetricsAggregator}. Each replay thread has its own recorder, so in synchronous
+ * mode a recorder is only ever written by a single thread; in asynchronous mode it is also written
+ * by the workers performing that thread's commands.
+ *
+ * <p>Recording is wait-free. Values are recorded into the active one of two {@link IntervalStats}
+ * buffers; when the aggregator collects an interval, it swaps the buffers and then waits for any
+ * writers which may still be recording into the old buffer to finish, using the phase-flip scheme
+ * of HdrHistogram's WriterReaderPhaser. The writers never wait for the aggregator.
+ */
+class ReplayMetricsRecorder {
+
+  // Incremented by each writer upon entering; its sign indicates the current phase
+  private final AtomicLong startEpoch = new AtomicLong(0);
+  // Incremented by each writer upon leaving, according to the phase in which it entered
+  private final AtomicLong evenEndEpoch = new AtomicLong(0);
+  private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+
+  private volatile IntervalStats active = new IntervalStats();
+  // Accessed only by the aggregator
+  private IntervalStats inactive = new IntervalStats();
+
+  void recordCompleted(ReplayCommand command, long latencyNanos) {
+    long epoch = startEpoch.getAndIncrement();
+    try {
+      active.recordCompleted(command, latencyNanos);
+    } finally {
+      exit(epoch);
+    }
+  }
+
+  void recordInvalid(ReplayCommand command) {
+    long epoch = startEpoch.getAndIncrement();
+    try {
+      active.recordInvalid(command);
+    } finally {
+      exit(epoch);
+    }
+  }
+
+  void recordLate(ReplayCommand command) {
+    long epoch = startEpoch.getAndIncrement();
+    try {
+      active.recordLate(command);
+    } finally {
+      exit(epoch);
+    }
+  }
+
+  private void exit(long epoch) {
+    (epoch < 0 ? oddEndEpoch : evenEndEpoch).getAndIncrement();
+  }
+
+  /**
+   * Add everything recorded since the previous call into the given stats.
+   * Must only be called by a single thread at a time.
+   */
+  void drainInto(IntervalStats target) {
+    IntervalStats ended = active;
+    active = inactive;
+    flipPhase();
+    target.add(ended);
+    ended.reset();
+    inactive = ended;
+  }
+
+  /**
+   * Start a new phase, and wait until all of the writers which entered during the previous phase
+   * have left, after which none of them can be accessing the previously active buffer.
+   */
+  private void flipPhase() {
+    boolean nextPhaseIsEven = startEpoch.get() < 0;
+    long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+    (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).set(initialStartValue);
+    long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+    AtomicLong previousEndEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+    while (previousEndEpoch.get() != startValueAtFlip) {
+      Thread.yield();
+    }
+  }
+
+}
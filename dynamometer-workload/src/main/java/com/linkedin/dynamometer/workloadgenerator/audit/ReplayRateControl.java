@@ -0,0 +1,211 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileContext;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Options.Rename;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+
+/**
+ * Controls the rate of a running audit replay across all of its mappers. The control file, given by the
+ * {@value AuditReplayMapper#RATE_CONTROL_PATH_KEY} configuration, is a properties file on shared storage
+ * which every mapper polls (see {@link Poller}). It may contain:
+ *   - {@value RATE_FACTOR_PROPERTY}: the rate factor at which to replay, replacing the value of
+ *     {@value AuditReplayMapper#RATE_FACTOR_KEY}
+ *   - {@value PAUSED_PROPERTY}: if true, the replay is paused until this is set to false
+ * Each mapper applies a change by changing the speed of its {@link ReplayClock}, so commands which have
+ * already been read are also affected.
+ *
+ * <p>This is also a tool which updates the control file, replacing it atomically so that mappers never read
+ * a partially written file. It takes in the following arguments:
+ *   - Required: path of the control file
+ *   - Optional: the new rate factor
+ *   - Optional: whether to pause or resume the replay
+ */
+public class ReplayRateControl extends Configured implements Tool {
+
+  public static final String RATE_FACTOR_PROPERTY = "rate-factor";
+  public static final String PAUSED_PROPERTY = "paused";
+
+  public static final String CONTROL_PATH_ARG = "control_path";
+  public static final String RATE_FACTOR_ARG = "rate_factor";
+  public static final String PAUSE_ARG = "pause";
+  public static final String RESUME_ARG = "resume";
+
+  private static final Log LOG = LogFactory.getLog(ReplayRateControl.class);
+
+  public ReplayRateControl(Configuration conf) {
+    setConf(conf);
+  }
+
+  public int run(String[] args) throws Exception {
+    Options options = new Options();
+    options.addOption("h", "help", false, "Shows this message");
+    options.addOption(OptionBuilder.withArgName("Control path").hasArg().isRequired(true)
+        .withDescription("Path of the control file, as given by " + AuditReplayMapper.RATE_CONTROL_PATH_KEY +
+            " (required)").create(CONTROL_PATH_ARG));
+    options.addOption(OptionBuilder.withArgName("Rate factor").hasArg()
+        .withDescription("The rate factor at which the replay should continue").create(RATE_FACTOR_ARG));
+    options.addOption(PAUSE_ARG, false, "Pause the replay");
+    options.addOption(RESUME_ARG, false, "Resume the replay if it was paused");
+
+    CommandLineParser parser = new PosixParser();
+    CommandLine cli = parser.parse(options, args);
+    if (cli.hasOption("h")) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp(200, "./control-replay-rate [options]", null, options, null);
+      return 0;
+    }
+    if (cli.hasOption(PAUSE_ARG) && cli.hasOption(RESUME_ARG)) {
+      System.err.println("Only one of " + PAUSE_ARG + " and " + RESUME_ARG + " may be specified");
+      return 1;
+    }
+    Double rateFactor = null;
+    if (cli.hasOption(RATE_FACTOR_ARG)) {
+      rateFactor = Double.parseDouble(cli.getOptionValue(RATE_FACTOR_ARG));
+    }
+    Boolean paused = null;
+    if (cli.hasOption(PAUSE_ARG) || cli.hasOption(RESUME_ARG)) {
+      paused = cli.hasOption(PAUSE_ARG);
+    }
+    Properties props = update(getConf(), new Path(cli.getOptionValue(CONTROL_PATH_ARG)), rateFactor, paused);
+    System.out.println("Replay rate control is now: " + props);
+    return 0;
+  }
+
+  /**
+   * Update the control file, leaving any values which are not specified unchanged.
+   * @param conf The configuration used to access the file system.
+   * @param controlPath The path of the control file, which need not already exist.
+   * @param rateFactor The new rate factor, or null to leave it unchanged.
+   * @param paused Whether the replay should be paused, or null to leave it unchanged.
+   * @return The new contents of the control file.
+   */
+  public static Properties update(Configuration conf, Path controlPath, Double rateFactor, Boolean paused)
+      throws IOException {
+    if (rateFactor != null && !(rateFactor > 0)) {
+      throw new IllegalArgumentException("Invalid rate factor: " + rateFactor);
+    }
+    FileSystem fs = controlPath.getFileSystem(conf);
+    Properties props = new Properties();
+    try (InputStream in = fs.open(controlPath)) {
+      props.load(in);
+    } catch (FileNotFoundException e) {
+      // Nothing has been set yet
+    }
+    if (rateFactor != null) {
+      props.setProperty(RATE_FACTOR_PROPERTY, rateFactor.toString());
+    }
+    if (paused != null) {
+      props.setProperty(PAUSED_PROPERTY, paused.toString());
+    }
+    Path tmpPath = new Path(controlPath.getParent(), "." + controlPath.getName() + ".tmp");
+    try (OutputStream out = fs.create(tmpPath, true)) {
+      props.store(out, null);
+    }
+    FileContext.getFileContext(fs.getUri(), conf).rename(tmpPath, controlPath, Rename.OVERWRITE);
+    return props;
+  }
+
+  /**
+   * Periodically reads the control file and applies any changes to a {@link ReplayClock}. Errors are
+   * logged rather than thrown so that a malformed or temporarily unreadable file does not stop polling.
+   */
+  static class Poller implements Runnable {
+
+    private final FileSystem fs;
+    private final Path controlPath;
+    private final ReplayClock clock;
+    private final double baseRateFactor;
+    private long lastModificationTime = -1;
+    private double speed = 1.0;
+
+    /**
+     * @param fs The file system containing the control file.
+     * @param controlPath The path of the control file.
+     * @param clock The clock to control.
+     * @param baseRateFactor The rate factor with which timestamps were converted, at which the clock
+     *                       runs at a speed of 1.
+     */
+    Poller(FileSystem fs, Path controlPath, ReplayClock clock, double baseRateFactor) {
+      this.fs = fs;
+      this.controlPath = controlPath;
+      this.clock = clock;
+      this.baseRateFactor = baseRateFactor;
+    }
+
+    @Override
+    public void run() {
+      try {
+        poll();
+      } catch (IOException|RuntimeException e) {
+        LOG.warn("Unable to read the replay rate control file " + controlPath, e);
+      }
+    }
+
+    /**
+     * Read the control file, if it has changed since it was last read, and apply its contents.
+     */
+    void poll() throws IOException {
+      FileStatus status;
+      try {
+        status = fs.getFileStatus(controlPath);
+      } catch (FileNotFoundException e) {
+        return;
+      }
+      if (status.getModificationTime() == lastModificationTime) {
+        return;
+      }
+      Properties props = new Properties();
+      try (InputStream in = fs.open(controlPath)) {
+        props.load(in);
+      }
+      lastModificationTime = status.getModificationTime();
+      String rateFactor = props.getProperty(RATE_FACTOR_PROPERTY);
+      if (rateFactor != null) {
+        double newSpeed = Double.parseDouble(rateFactor) / baseRateFactor;
+        if (newSpeed != speed) {
+          LOG.info("Changing the rate factor to " + rateFactor);
+          clock.setSpeed(newSpeed);
+          speed = newSpeed;
+        }
+      }
+      boolean paused = Boolean.parseBoolean(props.getProperty(PAUSED_PROPERTY));
+      if (paused && !clock.isPaused()) {
+        LOG.info("Pausing the replay");
+        clock.pause();
+      } else if (!paused && clock.isPaused()) {
+        LOG.info("Resuming the replay");
+        clock.resume();
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    ReplayRateControl control = new ReplayRateControl(new Configuration());
+    System.exit(ToolRunner.run(control, args));
+  }
+
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+
+/**
+ * The outcome of a single replayed command, as written to a recording by {@link ReplayRecorder}.
+ */
+public class ReplayRecord implements Writable {
+
+  private String command;
+  private String src;
+  private long scheduledMs;
+  private long actualMs;
+  private long latencyNanos;
+  private String exceptionClass;
+
+  public ReplayRecord() {
+    // Used for deserialization
+  }
+
+  ReplayRecord(String command, String src, long scheduledMs, long actualMs, long latencyNanos,
+      String exceptionClass) {
+    this.command = command;
+    this.src = src;
+    this.scheduledMs = scheduledMs;
+    this.actualMs = actualMs;
+    this.latencyNanos = latencyNanos;
+    this.exceptionClass = exceptionClass;
+  }
+
+  /**
+   * @return The name of the replayed {@link AuditReplayMapper.ReplayCommand}.
+   */
+  public String getCommand() {
+    return command;
+  }
+
+  /**
+   * @return The source path of the command, or null if it has none.
+   */
+  public String getSrc() {
+    return src;
+  }
+
+  /**
+   * @return The time at which the command was due, in ms since the epoch on the replay's clock.
+   */
+  public long getScheduledMs() {
+    return scheduledMs;
+  }
+
+  /**
+   * @return The time at which the command was actually issued, in ms since the epoch on the replay's clock.
+   *         This only differs from the wall clock if the speed of the replay was changed.
+   */
+  public long getActualMs() {
+    return actualMs;
+  }
+
+  /**
+   * @return The latency of the command, measured as it is for the replay's latency histograms.
+   */
+  public long getLatencyNanos() {
+    return latencyNanos;
+  }
+
+  /**
+   * @return The class of the exception thrown by the command, or null if it succeeded.
+   */
+  public String getExceptionClass() {
+    return exceptionClass;
+  }
+
+  public boolean isSuccess() {
+    return exceptionClass == null;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeString(out, command);
+    WritableUtils.writeString(out, src);
+    WritableUtils.writeVLong(out, scheduledMs);
+    // Usually within a few ms of the scheduled time, so stored as the difference
+    WritableUtils.writeVLong(out, actualMs - scheduledMs);
+    WritableUtils.writeVLong(out, latencyNanos);
+    WritableUtils.writeString(out, exceptionClass);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    command = WritableUtils.readString(in);
+    src = WritableUtils.readString(in);
+    scheduledMs = WritableUtils.readVLong(in);
+    actualMs = scheduledMs + WritableUtils.readVLong(in);
+    latencyNanos = WritableUtils.readVLong(in);
+    exceptionClass = WritableUtils.readString(in);
+  }
+
+  @Override
+  public String toString() {
+    return command + "\t" + src + "\t" + scheduledMs + "\t" + actualMs + "\t" + latencyNanos + "\t" +
+        (exceptionClass == null ? "SUCCESS" : exceptionClass);
+  }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+
+
+/**
+ * Records the outcome of every command replayed by a mapper into a block-compressed {@link SequenceFile}
+ * of {@link ReplayRecord}s, for later comparison by {@link ReplayRecordingDiff}. The replay threads (and
+ * asynchronous workers) only add each record to a bounded buffer; a single background thread writes them
+ * out in batches. If the writer falls behind and the buffer fills, records are dropped and counted rather
+ * than slowing down the replay.
+ */
+class ReplayRecorder implements Closeable {
+
+  private static final Log LOG = LogFactory.getLog(ReplayRecorder.class);
+
+  private static final int MAX_BATCH_SIZE = 1024;
+  private static final long POLL_INTERVAL_MS = 100;
+
+  private final SequenceFile.Writer writer;
+  private final BlockingQueue<ReplayRecord> buffer;
+  private final Thread writerThread;
+  private final AtomicLong droppedRecords = new AtomicLong();
+  // Only modified by the writer thread
+  private volatile long writtenRecords = 0;
+  private volatile boolean closed = false;
+  private volatile IOException writeException;
+
+  ReplayRecorder(SequenceFile.Writer writer, int bufferSize) {
+    this.writer = writer;
+    this.buffer = new ArrayBlockingQueue<>(bufferSize);
+    writerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writeRecords();
+      }
+    }, "ReplayRecorder");
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  /**
+   * Create a recorder writing to a new file at the given path.
+   */
+  static ReplayRecorder create(Configuration conf, Path file, int bufferSize) throws IOException {
+    SequenceFile.Writer writer = SequenceFile.createWriter(conf, SequenceFile.Writer.file(file),
+        SequenceFile.Writer.keyClass(NullWritable.class), SequenceFile.Writer.valueClass(ReplayRecord.class),
+        SequenceFile.Writer.compression(SequenceFile.CompressionType.BLOCK));
+    return new ReplayRecorder(writer, bufferSize);
+  }
+
+  /**
+   * Record the outcome of a command; this never blocks.
+   * @param scheduledMs The time at which the command was due, on the replay's clock.
+   * @param actualMs The time at which the command was issued, on the same clock.
+   * @param exceptionClass The class of the exception thrown by the command, or null if it succeeded.
+   */
+  void record(AuditReplayMapper.ReplayCommand command, String src, long scheduledMs, long actualMs,
+      long latencyNanos, String exceptionClass) {
+    if (writeException != null ||
+        !buffer.offer(new ReplayRecord(command.name(), src, scheduledMs, actualMs, latencyNanos, exceptionClass))) {
+      droppedRecords.incrementAndGet();
+    }
+  }
+
+  long getWrittenRecords() {
+    return writtenRecords;
+  }
+
+  long getDroppedRecords() {
+    return droppedRecords.get();
+  }
+
+  private void writeRecords() {
+    List<ReplayRecord> batch = new ArrayList<>(MAX_BATCH_SIZE);
+    try {
+      while (true) {
+        ReplayRecord first = buffer.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          if (closed && buffer.isEmpty()) {
+            return;
+          }
+          continue;
+        }
+        batch.add(first);
+        buffer.drainTo(batch, MAX_BATCH_SIZE - 1);
+        for (ReplayRecord record : batch) {
+          writer.append(NullWritable.get(), record);
+        }
+        writtenRecords += batch.size();
+        batch.clear();
+      }
+    } catch (IOException e) {
+      LOG.error("Unable to write the replay recording; further records will be dropped", e);
+      writeException = e;
+      droppedRecords.addAndGet(batch.size() + buffer.size());
+      buffer.clear();
+    } catch (InterruptedException e) {
+      LOG.warn("Interrupted while writing the replay recording", e);
+    }
+  }
+
+  /**
+   * Write out all of the records added so far and close the file. No further records may be added.
+   * A failure to write records does not fail the replay; they are counted as dropped instead.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the replay recording to be written", e);
+    } finally {
+      writer.close();
+    }
+  }
+
+}
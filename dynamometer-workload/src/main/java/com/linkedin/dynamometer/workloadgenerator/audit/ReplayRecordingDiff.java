@@ -0,0 +1,343 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+
+/**
+ * This is a driver for comparing two recordings made by {@link AuditReplayMapper} with
+ * {@value AuditReplayMapper#RECORDING_PATH_KEY} set, typically of the same trace replayed against two versions
+ * of the NameNode. Commands are grouped by command and by the leading components of the parent directory of their
+ * source path (up to {@value PATH_DEPTH_KEY} of them), e.g. /user/alice for LISTSTATUS of /user/alice/data/x with
+ * the default depth of 2. The output is a single tab-separated file with one line per group, giving the number of
+ * successful and failed commands and the latency percentiles of each recording. The groups are ranked by how much
+ * slower the candidate recording is at the {@value PERCENTILE_KEY} percentile, as a ratio to the baseline; groups
+ * with fewer than {@value MIN_COUNT_KEY} successful commands in either recording are listed, unranked, at the end.
+ *
+ * <p>Each mapper holds a {@link LatencyHistogram} (about 26 KB) per group it encounters, so the depth should be
+ * small enough that the number of groups remains in the thousands. It takes in the following arguments:
+ *   - Required: path of the baseline recording
+ *   - Required: path of the candidate recording
+ *   - Required: output path for the comparison
+ *   - Optional: path depth, percentile to rank by, and minimum number of commands to rank a group
+ */
+public class ReplayRecordingDiff extends Configured implements Tool {
+
+  public static final String BASELINE_PATH_ARG = "baseline_path";
+  public static final String CANDIDATE_PATH_ARG = "candidate_path";
+  public static final String OUTPUT_PATH_ARG = "output_path";
+  public static final String PATH_DEPTH_ARG = "path_depth";
+  public static final String PERCENTILE_ARG = "percentile";
+  public static final String MIN_COUNT_ARG = "min_count";
+
+  public static final String PATH_DEPTH_KEY = "replaydiff.path-depth";
+  public static final int PATH_DEPTH_DEFAULT = 2;
+  public static final String PERCENTILE_KEY = "replaydiff.percentile";
+  public static final double PERCENTILE_DEFAULT = 50;
+  public static final String MIN_COUNT_KEY = "replaydiff.min-count";
+  public static final long MIN_COUNT_DEFAULT = 10;
+
+  public ReplayRecordingDiff(Configuration conf) {
+    setConf(conf);
+  }
+
+  public int run(String[] args) throws Exception {
+    Options options = new Options();
+    options.addOption("h", "help", false, "Shows this message");
+    options.addOption(OptionBuilder.withArgName("Baseline path").hasArg().isRequired(true)
+        .withDescription("Path of the baseline recording (required)").create(BASELINE_PATH_ARG));
+    options.addOption(OptionBuilder.withArgName("Candidate path").hasArg().isRequired(true)
+        .withDescription("Path of the candidate recording, compared against the baseline (required)")
+        .create(CANDIDATE_PATH_ARG));
+    options.addOption(OptionBuilder.withArgName("Output path").hasArg().isRequired(true)
+        .withDescription("Directory where the comparison should be stored (required)").create(OUTPUT_PATH_ARG));
+    options.addOption(OptionBuilder.withArgName("Path depth").hasArg().isRequired(false)
+        .withDescription("Number of leading components of the parent directory by which to group commands " +
+            "(defaults to " + PATH_DEPTH_DEFAULT + ")").create(PATH_DEPTH_ARG));
+    options.addOption(OptionBuilder.withArgName("Percentile").hasArg().isRequired(false)
+        .withDescription("Latency percentile by which to rank groups (defaults to " + PERCENTILE_DEFAULT + ")")
+        .create(PERCENTILE_ARG));
+    options.addOption(OptionBuilder.withArgName("Minimum count").hasArg().isRequired(false)
+        .withDescription("Minimum number of successful commands in each recording for a group to be ranked " +
+            "(defaults to " + MIN_COUNT_DEFAULT + ")").create(MIN_COUNT_ARG));
+
+    CommandLineParser parser = new PosixParser();
+    CommandLine cli = parser.parse(options, args);
+    if (cli.hasOption("h")) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp(200, "./diff-replay-recordings [options]", null, options, null);
+      return 0;
+    }
+
+    Configuration conf = getConf();
+    conf.setInt(PATH_DEPTH_KEY, Integer.parseInt(cli.getOptionValue(PATH_DEPTH_ARG,
+        String.valueOf(PATH_DEPTH_DEFAULT))));
+    conf.setDouble(PERCENTILE_KEY, Double.parseDouble(cli.getOptionValue(PERCENTILE_ARG,
+        String.valueOf(PERCENTILE_DEFAULT))));
+    conf.setLong(MIN_COUNT_KEY, Long.parseLong(cli.getOptionValue(MIN_COUNT_ARG, String.valueOf(MIN_COUNT_DEFAULT))));
+    Job job = getJobForSubmission(conf, cli.getOptionValue(BASELINE_PATH_ARG),
+        cli.getOptionValue(CANDIDATE_PATH_ARG), cli.getOptionValue(OUTPUT_PATH_ARG));
+    boolean success = job.waitForCompletion(true);
+    return success ? 0 : 1;
+  }
+
+  public static Job getJobForSubmission(Configuration conf, String baselinePath, String candidatePath,
+      String outputPath) throws IOException {
+    if (new Path(baselinePath).equals(new Path(candidatePath))) {
+      throw new IllegalArgumentException("The baseline and candidate recordings must be different paths");
+    }
+    Job job = Job.getInstance(conf, "Dynamometer Replay Recording Diff");
+    MultipleInputs.addInputPath(job, new Path(baselinePath), SequenceFileInputFormat.class, BaselineMapper.class);
+    MultipleInputs.addInputPath(job, new Path(candidatePath), SequenceFileInputFormat.class, CandidateMapper.class);
+    FileOutputFormat.setOutputPath(job, new Path(outputPath));
+
+    job.setJarByClass(ReplayRecordingDiff.class);
+    // A single reducer sees every group, so that it can rank them
+    job.setReducerClass(RankReducer.class);
+    job.setNumReduceTasks(1);
+    job.setOutputFormatClass(TextOutputFormat.class);
+    job.setMapOutputKeyClass(Text.class);
+    job.setMapOutputValueClass(GroupStats.class);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(NullWritable.class);
+    return job;
+  }
+
+  public static void main(String[] args) throws Exception {
+    ReplayRecordingDiff diff = new ReplayRecordingDiff(new Configuration());
+    System.exit(ToolRunner.run(diff, args));
+  }
+
+  /**
+   * Get the leading components, up to the given depth, of the parent directory of a path.
+   * @return The prefix, or "-" if the path is not absolute.
+   */
+  static String getPathPrefix(String src, int depth) {
+    if (src == null || !src.startsWith("/")) {
+      return "-";
+    }
+    String parent = src.substring(0, src.lastIndexOf('/'));
+    int end = 0;
+    for (int i = 0; i < depth; i++) {
+      int next = parent.indexOf('/', end + 1);
+      if (next < 0) {
+        return parent.isEmpty() ? "/" : parent;
+      }
+      end = next;
+    }
+    return end == 0 ? "/" : parent.substring(0, end);
+  }
+
+  /**
+   * The successful latencies and number of failures of a group of commands within one of the recordings.
+   */
+  public static class GroupStats implements Writable {
+
+    private boolean candidate;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private long failures;
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeBoolean(candidate);
+      histogram.write(out);
+      WritableUtils.writeVLong(out, failures);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      candidate = in.readBoolean();
+      histogram.readFields(in);
+      failures = WritableUtils.readVLong(in);
+    }
+
+  }
+
+  /**
+   * Aggregates the records of one of the recordings by group, emitting each group once all have been read.
+   */
+  public abstract static class RecordingMapper extends Mapper<NullWritable, ReplayRecord, Text, GroupStats> {
+
+    private final Map<String, GroupStats> groups = new HashMap<>();
+    private int pathDepth;
+
+    abstract boolean isCandidate();
+
+    @Override
+    public void setup(Context context) {
+      pathDepth = context.getConfiguration().getInt(PATH_DEPTH_KEY, PATH_DEPTH_DEFAULT);
+    }
+
+    @Override
+    public void map(NullWritable key, ReplayRecord record, Context context) {
+      String group = record.getCommand() + "\t" + getPathPrefix(record.getSrc(), pathDepth);
+      GroupStats stats = groups.get(group);
+      if (stats == null) {
+        stats = new GroupStats();
+        stats.candidate = isCandidate();
+        groups.put(group, stats);
+      }
+      if (record.isSuccess()) {
+        stats.histogram.recordNanos(record.getLatencyNanos());
+      } else {
+        stats.failures++;
+      }
+    }
+
+    @Override
+    public void cleanup(Context context) throws IOException, InterruptedException {
+      Text group = new Text();
+      for (Map.Entry<String, GroupStats> entry : groups.entrySet()) {
+        group.set(entry.getKey());
+        context.write(group, entry.getValue());
+      }
+    }
+
+  }
+
+  public static class BaselineMapper extends RecordingMapper {
+    @Override
+    boolean isCandidate() {
+      return false;
+    }
+  }
+
+  public static class CandidateMapper extends RecordingMapper {
+    @Override
+    boolean isCandidate() {
+      return true;
+    }
+  }
+
+  /**
+   * Merges the statistics of each group from both recordings, and writes all of the groups in ranked order.
+   */
+  public static class RankReducer extends Reducer<Text, GroupStats, Text, NullWritable> {
+
+    private final List<GroupComparison> comparisons = new ArrayList<>();
+    private double percentile;
+    private long minCount;
+
+    @Override
+    public void setup(Context context) {
+      percentile = context.getConfiguration().getDouble(PERCENTILE_KEY, PERCENTILE_DEFAULT);
+      minCount = context.getConfiguration().getLong(MIN_COUNT_KEY, MIN_COUNT_DEFAULT);
+    }
+
+    @Override
+    public void reduce(Text group, Iterable<GroupStats> values, Context context) {
+      LatencyHistogram baseline = new LatencyHistogram();
+      LatencyHistogram candidate = new LatencyHistogram();
+      long baselineFailures = 0;
+      long candidateFailures = 0;
+      for (GroupStats stats : values) {
+        if (stats.candidate) {
+          candidate.add(stats.histogram);
+          candidateFailures += stats.failures;
+        } else {
+          baseline.add(stats.histogram);
+          baselineFailures += stats.failures;
+        }
+      }
+      comparisons.add(new GroupComparison(group.toString(), baseline, candidate, baselineFailures,
+          candidateFailures, percentile));
+    }
+
+    @Override
+    public void cleanup(Context context) throws IOException, InterruptedException {
+      Collections.sort(comparisons, new Comparator<GroupComparison>() {
+        @Override
+        public int compare(GroupComparison a, GroupComparison b) {
+          boolean aRanked = a.isRanked(minCount);
+          boolean bRanked = b.isRanked(minCount);
+          if (aRanked != bRanked) {
+            return aRanked ? -1 : 1;
+          }
+          return aRanked ? Double.compare(b.getRatio(), a.getRatio()) : a.group.compareTo(b.group);
+        }
+      });
+      String percentileName = "p" + (percentile == Math.rint(percentile) ? String.valueOf((long) percentile) :
+          String.valueOf(percentile));
+      context.write(new Text("command\tpath_prefix\tbaseline_count\tcandidate_count\tbaseline_failures\t" +
+          "candidate_failures\tbaseline_" + percentileName + "_us\tcandidate_" + percentileName + "_us\t" +
+          percentileName + "_ratio\tbaseline_p99_us\tcandidate_p99_us"), NullWritable.get());
+      for (GroupComparison comparison : comparisons) {
+        context.write(new Text(comparison.toString(minCount)), NullWritable.get());
+      }
+    }
+
+  }
+
+  private static class GroupComparison {
+    private final String group;
+    private final long baselineCount;
+    private final long candidateCount;
+    private final long baselineFailures;
+    private final long candidateFailures;
+    private final long baselineValue;
+    private final long candidateValue;
+    private final long baselineP99;
+    private final long candidateP99;
+
+    GroupComparison(String group, LatencyHistogram baseline, LatencyHistogram candidate, long baselineFailures,
+        long candidateFailures, double percentile) {
+      this.group = group;
+      this.baselineCount = baseline.getTotalCount();
+      this.candidateCount = candidate.getTotalCount();
+      this.baselineFailures = baselineFailures;
+      this.candidateFailures = candidateFailures;
+      this.baselineValue = baseline.getValueAtPercentile(percentile);
+      this.candidateValue = candidate.getValueAtPercentile(percentile);
+      this.baselineP99 = baseline.getValueAtPercentile(99);
+      this.candidateP99 = candidate.getValueAtPercentile(99);
+    }
+
+    boolean isRanked(long minCount) {
+      return baselineCount >= Math.max(minCount, 1) && candidateCount >= Math.max(minCount, 1);
+    }
+
+    double getRatio() {
+      return (double) candidateValue / Math.max(baselineValue, 1);
+    }
+
+    String toString(long minCount) {
+      return group + "\t" + baselineCount + "\t" + candidateCount + "\t" + baselineFailures + "\t" +
+          candidateFailures + "\t" + baselineValue + "\t" + candidateValue + "\t" +
+          (isRanked(minCount) ? String.format("%.3f", getRatio()) : "-") + "\t" + baselineP99 + "\t" + candidateP99;
+    }
+  }
+
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+
+
+/**
+ * Writes the files of CREATE commands with sizes drawn from a distribution of file sizes, so that the
+ * NameNode sees a realistic number of blocks being allocated and completed. The distribution is read from
+ * the file given by the {@value AuditReplayMapper#CREATE_SIZE_DISTRIBUTION_PATH_KEY} configuration, in the
+ * format output by the FileDistribution processor of the Offline Image Viewer
+ * ({@code hdfs oiv -p FileDistribution}), so it can be derived from the fsimage of the cluster whose trace
+ * is being replayed. Each line of the form {@code <size> <numFiles>} gives the number of files whose size was
+ * greater than that of the previous line and at most this one; all other lines are ignored. Sizes are
+ * chosen uniformly within each range. The size of each file is determined by its path, so repeated
+ * replays of the same trace create the same files.
+ *
+ * <p>A file's blocks are counted using the block size of {@value AuditReplayMapper#CREATE_BLOCK_SIZE_KEY}.
+ * By default the file is written in full using that block size. Since the DataNodes are simulated, the
+ * data is discarded, but it still has to be sent to them. If
+ * {@value AuditReplayMapper#CREATE_BYTES_PER_BLOCK_KEY} is set, each block is instead written with only
+ * that many bytes, giving the same number of blocks at a much lower cost. It is used as the block size of
+ * the file, so it must be a multiple of {@value DFSConfigKeys#DFS_BYTES_PER_CHECKSUM_KEY}, which is checked
+ * when the writer is created, and the NameNode's {@value DFSConfigKeys#DFS_NAMENODE_MIN_BLOCK_SIZE_KEY} must
+ * be at most this value, which can only be checked by the NameNode as each file is created. In either case the
+ * data is written from a single shared buffer of zeros, so no per-file buffers are allocated.
+ */
+class SizedFileWriter {
+
+  private static final Pattern DISTRIBUTION_LINE = Pattern.compile("^\\s*(\\d+)\\s+(\\d+)\\s*$");
+  private static final byte[] ZEROS = new byte[64 * 1024];
+
+  // The upper bound of each range of sizes, in increasing order
+  private final long[] sizeBounds;
+  // The number of files in this and all previous ranges
+  private final long[] cumulativeCounts;
+  private final long blockSize;
+  private final long bytesPerBlock;
+  private final int bufferSize;
+
+  SizedFileWriter(long[] sizeBounds, long[] cumulativeCounts, long blockSize, long bytesPerBlock, int bufferSize) {
+    if (sizeBounds.length == 0 || cumulativeCounts[cumulativeCounts.length - 1] == 0) {
+      throw new IllegalArgumentException("The distribution of file sizes is empty");
+    }
+    this.sizeBounds = sizeBounds;
+    this.cumulativeCounts = cumulativeCounts;
+    this.blockSize = blockSize;
+    this.bytesPerBlock = bytesPerBlock;
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * Create a writer as configured by the given configuration.
+   * @param conf The configuration of the replay.
+   * @return The writer, or null if no distribution of file sizes is configured.
+   */
+  static SizedFileWriter create(Configuration conf) throws IOException {
+    String distributionPath = conf.get(AuditReplayMapper.CREATE_SIZE_DISTRIBUTION_PATH_KEY);
+    if (distributionPath == null) {
+      return null;
+    }
+    long blockSize = conf.getLongBytes(AuditReplayMapper.CREATE_BLOCK_SIZE_KEY,
+        conf.getLongBytes(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, DFSConfigKeys.DFS_BLOCK_SIZE_DEFAULT));
+    long bytesPerBlock = conf.getLongBytes(AuditReplayMapper.CREATE_BYTES_PER_BLOCK_KEY,
+        AuditReplayMapper.CREATE_BYTES_PER_BLOCK_DEFAULT);
+    if (bytesPerBlock > 0) {
+      int bytesPerChecksum = conf.getInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY,
+          DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_DEFAULT);
+      if (bytesPerChecksum <= 0 || bytesPerBlock % bytesPerChecksum != 0) {
+        throw new IOException(AuditReplayMapper.CREATE_BYTES_PER_BLOCK_KEY + " (" + bytesPerBlock +
+            ") must be a multiple of " + DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY + " (" + bytesPerChecksum + ")");
+      }
+    }
+    int bufferSize = conf.getInt(CommonConfigurationKeysPublic.IO_FILE_BUFFER_SIZE_KEY,
+        CommonConfigurationKeysPublic.IO_FILE_BUFFER_SIZE_DEFAULT);
+    Path path = new Path(distributionPath);
+    List<long[]> ranges = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(path.getFileSystem(conf).open(path), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Matcher matcher = DISTRIBUTION_LINE.matcher(line);
+        if (matcher.matches()) {
+          ranges.add(new long[] { Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)) });
+        }
+      }
+    }
+    long[] sizeBounds = new long[ranges.size()];
+    long[] cumulativeCounts = new long[ranges.size()];
+    for (int i = 0; i < ranges.size(); i++) {
+      sizeBounds[i] = ranges.get(i)[0];
+      cumulativeCounts[i] = ranges.get(i)[1] + (i == 0 ? 0 : cumulativeCounts[i - 1]);
+      if (i > 0 && sizeBounds[i] <= sizeBounds[i - 1]) {
+        throw new IOException("File sizes in " + path + " must be in increasing order");
+      }
+    }
+    try {
+      return new SizedFileWriter(sizeBounds, cumulativeCounts, blockSize, bytesPerBlock, bufferSize);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Unable to use the file sizes in " + path, e);
+    }
+  }
+
+  /**
+   * Get the size of the file to create at a path.
+   * @param path The path of the file.
+   * @return Its size, in bytes.
+   */
+  long getSize(String path) {
+    // Similar paths must still be spread across the distribution, so mix the bits of the path's hash
+    long hash = mix(path.hashCode());
+    long fileIndex = (hash & Long.MAX_VALUE) % cumulativeCounts[cumulativeCounts.length - 1];
+    int range = 0;
+    while (cumulativeCounts[range] <= fileIndex) {
+      range++;
+    }
+    // Sizes within the range are greater than the previous upper bound
+    long lowerBound = range == 0 ? 0 : sizeBounds[range - 1] + 1;
+    double fraction = (mix(hash) >>> 11) / (double) (1L << 53);
+    return Math.min(lowerBound + (long) (fraction * (sizeBounds[range] - lowerBound + 1)), sizeBounds[range]);
+  }
+
+  private static long mix(long value) {
+    long hash = value * 0x9E3779B97F4A7C15L;
+    hash ^= hash >>> 29;
+    hash *= 0xBF58476D1CE4E5B9L;
+    return hash ^ (hash >>> 32);
+  }
+
+  /**
+   * @param size The size of a file, in bytes.
+   * @return The number of blocks in a file of that size.
+   */
+  long getNumBlocks(long size) {
+    return (size + blockSize - 1) / blockSize;
+  }
+
+  /**
+   * Create the file at a path, writing a number of blocks determined by its size.
+   * @param fs The FileSystem with which to create the file.
+   * @param path The path of the file.
+   * @return The number of blocks written.
+   */
+  long createFile(FileSystem fs, String path) throws IOException {
+    long size = getSize(path);
+    long numBlocks = getNumBlocks(size);
+    long writeBlockSize = bytesPerBlock > 0 ? bytesPerBlock : blockSize;
+    long remaining = bytesPerBlock > 0 ? numBlocks * bytesPerBlock : size;
+    Path filePath = new Path(path);
+    try (FSDataOutputStream out =
+        fs.create(filePath, true, bufferSize, fs.getDefaultReplication(filePath), writeBlockSize)) {
+      while (remaining > 0) {
+        int length = (int) Math.min(remaining, ZEROS.length);
+        out.write(ZEROS, 0, length);
+        remaining -= length;
+      }
+    }
+    return numBlocks;
+  }
+
+}
@@ -0,0 +1,392 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import com.google.common.base.Functions;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.util.LineReader;
+
+
+/**
+ * An {@link org.apache.hadoop.mapreduce.InputFormat} which allows a single input file to be shared
+ * by several mappers, used by {@link AuditReplayMapper} when {@value AuditReplayMapper#INPUT_SPLIT_BY_TIME_KEY}
+ * is set. Each input file must be uncompressed and sorted by time.
+ *
+ * <p>First, a small index of each file is built by sampling the timestamp of the line found at each
+ * of {@value AuditReplayMapper#INPUT_SAMPLES_PER_FILE_KEY} evenly spaced offsets (small files are
+ * simply read in full). The time covered by all of the files is then divided into
+ * {@value AuditReplayMapper#INPUT_TIME_WINDOWS_KEY} windows of equal length, and each file is cut into
+ * one chunk per window using the index. The expected number of commands in each chunk is estimated
+ * from the average length of the sampled lines of its file.
+ *
+ * <p>The chunks are then assigned to {@value AuditReplayMapper#INPUT_NUM_SPLITS_KEY} splits, one per
+ * mapper, such that within every window each split has a similar expected number of commands, i.e. a
+ * similar expected rate of commands per second: within each window, the chunks are assigned in order of
+ * decreasing size, each to the split with the least load in that window. A chunk which is larger than
+ * a split's fair share of its window, such as one from a single very busy file, is first divided into
+ * several stripes which are assigned to different splits; each stripe reads the whole chunk but keeps
+ * only every n-th line. Commands on the same path within such a chunk may then be replayed by different
+ * mappers, so their relative order is only preserved as far as they are apart in time. As a result all
+ * of the mappers are kept similarly busy until the end of the replay.
+ *
+ * <p>Since each split contains chunks of several files covering the same time, {@link TimeSplitRecordReader}
+ * merges them such that the lines of a split are read in time order.
+ */
+public class TimeSplitInputFormat extends FileInputFormat<LongWritable, Text> {
+
+  private static final Log LOG = LogFactory.getLog(TimeSplitInputFormat.class);
+
+  // Files which would be sampled more densely than this are instead read in full
+  private static final int MIN_SAMPLE_SPACING_BYTES = 4096;
+  // The last line of each file is found by reading this far from its end
+  private static final int TAIL_BYTES = 16 * 1024;
+  private static final int READ_BUFFER_SIZE = 4096;
+
+  @Override
+  public List<FileStatus> listStatus(JobContext context) throws IOException {
+    context.getConfiguration().set(FileInputFormat.INPUT_DIR,
+        context.getConfiguration().get(AuditReplayMapper.INPUT_PATH_KEY));
+    return super.listStatus(context);
+  }
+
+  @Override
+  public List<InputSplit> getSplits(JobContext job) throws IOException {
+    Configuration conf = job.getConfiguration();
+    int numWindows = conf.getInt(AuditReplayMapper.INPUT_TIME_WINDOWS_KEY,
+        AuditReplayMapper.INPUT_TIME_WINDOWS_DEFAULT);
+    int samplesPerFile = conf.getInt(AuditReplayMapper.INPUT_SAMPLES_PER_FILE_KEY,
+        AuditReplayMapper.INPUT_SAMPLES_PER_FILE_DEFAULT);
+    if (numWindows < 1 || samplesPerFile < 1) {
+      throw new IOException(AuditReplayMapper.INPUT_TIME_WINDOWS_KEY + " and " +
+          AuditReplayMapper.INPUT_SAMPLES_PER_FILE_KEY + " must be positive");
+    }
+    TimestampExtractor extractor = new TimestampExtractor(conf);
+    CompressionCodecFactory codecFactory = new CompressionCodecFactory(conf);
+
+    List<FileIndex> indices = new ArrayList<>();
+    for (FileStatus file : listStatus(job)) {
+      if (codecFactory.getCodec(file.getPath()) != null) {
+        throw new IOException("Compressed input files cannot be split by time: " + file.getPath());
+      }
+      FileIndex index = indexFile(file.getPath().getFileSystem(conf), file, samplesPerFile, extractor);
+      if (index.size > 0) {
+        indices.add(index);
+      }
+    }
+    if (indices.isEmpty()) {
+      return new ArrayList<>();
+    }
+    int numSplits = conf.getInt(AuditReplayMapper.INPUT_NUM_SPLITS_KEY, AuditReplayMapper.INPUT_NUM_SPLITS_DEFAULT);
+    if (numSplits <= 0) {
+      numSplits = indices.size();
+    }
+
+    long minTimestamp = Long.MAX_VALUE;
+    long maxTimestamp = Long.MIN_VALUE;
+    for (FileIndex index : indices) {
+      minTimestamp = Math.min(minTimestamp, index.timestamps[0]);
+      maxTimestamp = Math.max(maxTimestamp, index.timestamps[index.size - 1]);
+    }
+    long windowLength = Math.max(1, (maxTimestamp - minTimestamp + numWindows) / numWindows);
+
+    List<List<Chunk>> chunksByWindow = new ArrayList<>();
+    for (int window = 0; window < numWindows; window++) {
+      chunksByWindow.add(new ArrayList<Chunk>());
+    }
+    for (int file = 0; file < indices.size(); file++) {
+      for (Chunk chunk : indices.get(file).getChunks(file, minTimestamp, windowLength, numWindows)) {
+        chunksByWindow.get(chunk.window).add(chunk);
+      }
+    }
+    List<List<Chunk>> assignment = assignChunks(chunksByWindow, indices.size(), numSplits);
+
+    List<InputSplit> splits = new ArrayList<>();
+    for (List<Chunk> splitChunks : assignment) {
+      if (splitChunks.isEmpty()) {
+        continue;
+      }
+      Collections.sort(splitChunks, new Comparator<Chunk>() {
+        @Override
+        public int compare(Chunk c1, Chunk c2) {
+          return Long.compare(c1.startTimestamp, c2.startTimestamp);
+        }
+      });
+      TimeSplitInputSplit split = new TimeSplitInputSplit();
+      for (Chunk chunk : splitChunks) {
+        FileIndex index = indices.get(chunk.file);
+        // A FileSplit's first line is the one following the first line break at or after its start,
+        // and its last line is the one containing its end, so offset each boundary by one byte
+        long start = chunk.startOffset == 0 ? 0 : chunk.startOffset - 1;
+        long end = chunk.endOffset == index.length ? index.length : chunk.endOffset - 1;
+        split.addChunk(index.path, start, end - start, chunk.startTimestamp, chunk.stripe, chunk.numStripes);
+      }
+      splits.add(split);
+    }
+    LOG.info("Split " + indices.size() + " files into " + splits.size() + " splits using " + numWindows +
+        " windows of " + windowLength + " ms");
+    return splits;
+  }
+
+  @Override
+  public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
+    return new TimeSplitRecordReader();
+  }
+
+  /**
+   * Assign each chunk to one of the splits, balancing the expected number of commands of
+   * each split within every window. Adjacent chunks of the same file which are assigned
+   * to the same split are combined.
+   */
+  private static List<List<Chunk>> assignChunks(List<List<Chunk>> chunksByWindow, int numFiles, int numSplits) {
+    List<List<Chunk>> assignment = new ArrayList<>();
+    for (int split = 0; split < numSplits; split++) {
+      assignment.add(new ArrayList<Chunk>());
+    }
+    double[] totalLoad = new double[numSplits];
+    // The split which was assigned the previous chunk of each file, and that chunk
+    int[] previousSplit = new int[numFiles];
+    Chunk[] previousChunk = new Chunk[numFiles];
+    Arrays.fill(previousSplit, -1);
+    for (List<Chunk> windowChunks : chunksByWindow) {
+      double fairShare = 0;
+      for (Chunk chunk : windowChunks) {
+        fairShare += chunk.expectedCommands / numSplits;
+      }
+      List<Chunk> stripedChunks = new ArrayList<>();
+      for (Chunk chunk : windowChunks) {
+        int numStripes = chunk.expectedCommands > fairShare ?
+            (int) Math.min(numSplits, Math.ceil(chunk.expectedCommands / fairShare)) : 1;
+        for (int stripe = 0; stripe < numStripes; stripe++) {
+          stripedChunks.add(numStripes == 1 ? chunk : chunk.getStripe(stripe, numStripes));
+        }
+      }
+      // Stable, so the stripes of a chunk remain adjacent
+      Collections.sort(stripedChunks, new Comparator<Chunk>() {
+        @Override
+        public int compare(Chunk c1, Chunk c2) {
+          return Double.compare(c2.expectedCommands, c1.expectedCommands);
+        }
+      });
+      double[] windowLoad = new double[numSplits];
+      // The file of the most recent stripe given to each split, so that no split gets two stripes of one chunk
+      int[] stripedFile = new int[numSplits];
+      Arrays.fill(stripedFile, -1);
+      for (Chunk chunk : stripedChunks) {
+        int best = -1;
+        for (int split = 0; split < numSplits; split++) {
+          if (chunk.numStripes > 1 && stripedFile[split] == chunk.file) {
+            continue;
+          }
+          if (best < 0 || windowLoad[split] < windowLoad[best] || (windowLoad[split] == windowLoad[best] &&
+              (split == previousSplit[chunk.file] || (best != previousSplit[chunk.file] &&
+                  totalLoad[split] < totalLoad[best])))) {
+            best = split;
+          }
+        }
+        windowLoad[best] += chunk.expectedCommands;
+        totalLoad[best] += chunk.expectedCommands;
+        if (chunk.numStripes > 1) {
+          stripedFile[best] = chunk.file;
+        }
+        Chunk previous = previousChunk[chunk.file];
+        if (previousSplit[chunk.file] == best && previous.numStripes == 1 && chunk.numStripes == 1 &&
+            previous.endOffset == chunk.startOffset) {
+          previous.endOffset = chunk.endOffset;
+        } else {
+          assignment.get(best).add(chunk);
+          previousChunk[chunk.file] = chunk;
+          previousSplit[chunk.file] = best;
+        }
+      }
+    }
+    return assignment;
+  }
+
+  /**
+   * Build the index of a single file. Sampled lines are recorded along with the offset at which they start.
+   */
+  private static FileIndex indexFile(FileSystem fs, FileStatus file, int samplesPerFile,
+      TimestampExtractor extractor) throws IOException {
+    FileIndex index = new FileIndex(file.getPath(), file.getLen());
+    Text line = new Text();
+    try (FSDataInputStream in = fs.open(file.getPath())) {
+      if (file.getLen() / samplesPerFile < MIN_SAMPLE_SPACING_BYTES) {
+        LineReader reader = new LineReader(in, READ_BUFFER_SIZE);
+        long offset = 0;
+        int lineBytes;
+        while ((lineBytes = reader.readLine(line)) > 0) {
+          index.add(offset, line, lineBytes, extractor);
+          offset += lineBytes;
+        }
+        return index;
+      }
+      for (int sample = 0; sample <= samplesPerFile; sample++) {
+        // The final sample reads all of the lines at the end of the file, to find the last one
+        boolean tail = sample == samplesPerFile;
+        long offset = tail ? Math.max(0, file.getLen() - TAIL_BYTES) : file.getLen() * sample / samplesPerFile;
+        in.seek(offset);
+        LineReader reader = new LineReader(in, READ_BUFFER_SIZE);
+        if (offset > 0) {
+          // Skip the remainder of the line containing the offset
+          offset += reader.readLine(line);
+        }
+        int lineBytes;
+        while ((lineBytes = reader.readLine(line)) > 0) {
+          index.add(offset, line, lineBytes, extractor);
+          offset += lineBytes;
+          if (!tail) {
+            break;
+          }
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * A range of a single input file covering a single time window, or a stripe of one.
+   */
+  private static class Chunk {
+    private final int file;
+    private final int window;
+    // Offset of the first line of the chunk, and of the line following the last one
+    private final long startOffset;
+    private long endOffset;
+    private final long startTimestamp;
+    private final double expectedCommands;
+    private final int stripe;
+    private final int numStripes;
+
+    Chunk(int file, int window, long startOffset, long endOffset, long startTimestamp, double expectedCommands,
+        int stripe, int numStripes) {
+      this.file = file;
+      this.window = window;
+      this.startOffset = startOffset;
+      this.endOffset = endOffset;
+      this.startTimestamp = startTimestamp;
+      this.expectedCommands = expectedCommands;
+      this.stripe = stripe;
+      this.numStripes = numStripes;
+    }
+
+    Chunk getStripe(int stripeIndex, int stripeCount) {
+      return new Chunk(file, window, startOffset, endOffset, startTimestamp, expectedCommands / stripeCount,
+          stripeIndex, stripeCount);
+    }
+  }
+
+  /**
+   * The sampled lines of a single file, in order of offset.
+   */
+  private static class FileIndex {
+    private final Path path;
+    private final long length;
+    private long[] offsets = new long[16];
+    private long[] timestamps = new long[16];
+    private int size = 0;
+    private long sampledBytes = 0;
+
+    FileIndex(Path path, long length) {
+      this.path = path;
+      this.length = length;
+    }
+
+    void add(long offset, Text line, int lineBytes, TimestampExtractor extractor) throws IOException {
+      if (line.getLength() == 0 || (size > 0 && offset <= offsets[size - 1])) {
+        return;
+      }
+      long timestamp = extractor.getRelativeTimestamp(line);
+      if (size > 0 && timestamp < timestamps[size - 1]) {
+        throw new IOException("Input file " + path + " is not sorted by time: found timestamp " + timestamp +
+            " at offset " + offset + " following timestamp " + timestamps[size - 1]);
+      }
+      if (size == offsets.length) {
+        offsets = Arrays.copyOf(offsets, size * 2);
+        timestamps = Arrays.copyOf(timestamps, size * 2);
+      }
+      offsets[size] = offset;
+      timestamps[size] = timestamp;
+      size++;
+      sampledBytes += lineBytes;
+    }
+
+    /**
+     * Cut this file into at most one chunk per window. Each chunk starts at the first sampled
+     * line whose timestamp falls within its window.
+     */
+    List<Chunk> getChunks(int file, long minTimestamp, long windowLength, int numWindows) {
+      double bytesPerCommand = (double) sampledBytes / size;
+      List<Chunk> chunks = new ArrayList<>();
+      int sample = 0;
+      for (int window = 0; window < numWindows && sample < size; window++) {
+        long windowEnd = minTimestamp + (window + 1) * windowLength;
+        int startSample = sample;
+        while (sample < size && timestamps[sample] < windowEnd) {
+          sample++;
+        }
+        if (sample > startSample) {
+          long startOffset = startSample == 0 ? 0 : offsets[startSample];
+          long endOffset = sample == size ? length : offsets[sample];
+          chunks.add(new Chunk(file, window, startOffset, endOffset, timestamps[startSample],
+              (endOffset - startOffset) / bytesPerCommand, 0, 1));
+        }
+      }
+      return chunks;
+    }
+  }
+
+  /**
+   * Determines the relative timestamp of input lines using the configured {@link AuditCommandParser}.
+   */
+  static class TimestampExtractor {
+    private final AuditCommandParser parser;
+
+    TimestampExtractor(Configuration conf) throws IOException {
+      Class<? extends AuditCommandParser> parserClass = conf.getClass(AuditReplayMapper.COMMAND_PARSER_KEY,
+          AuditReplayMapper.COMMAND_PARSER_DEFAULT, AuditCommandParser.class);
+      if (CompiledAuditTraceParser.class.isAssignableFrom(parserClass)) {
+        throw new IOException("Compiled audit traces cannot be split by time");
+      }
+      try {
+        parser = parserClass.getConstructor().newInstance();
+      } catch (NoSuchMethodException|InstantiationException|IllegalAccessException|InvocationTargetException e) {
+        throw new IOException("Exception encountered while instantiating the command parser", e);
+      }
+      parser.initialize(conf);
+    }
+
+    long getRelativeTimestamp(Text line) throws IOException {
+      if (parser instanceof TimestampedAuditCommandParser) {
+        return ((TimestampedAuditCommandParser) parser).parseRelativeTimestamp(line);
+      }
+      AuditReplayCommand cmd = parser.parse(line, Functions.<Long>identity());
+      long timestamp = cmd.getAbsoluteTimestamp();
+      cmd.release();
+      return timestamp;
+    }
+  }
+
+}
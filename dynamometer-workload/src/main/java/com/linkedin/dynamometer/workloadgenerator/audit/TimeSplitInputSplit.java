@@ -0,0 +1,134 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+
+/**
+ * The {@link InputSplit} produced by {@link TimeSplitInputFormat}. It consists of a
+ * number of chunks, each of which is a byte range within an input file covering a
+ * range of time, ordered by the time at which each chunk starts. A chunk may be a
+ * stripe of such a range, consisting of only every n-th line within it.
+ */
+public class TimeSplitInputSplit extends InputSplit implements Writable {
+
+  private final List<Path> paths = new ArrayList<>();
+  private final List<Long> starts = new ArrayList<>();
+  private final List<Long> lengths = new ArrayList<>();
+  private final List<Long> startTimestamps = new ArrayList<>();
+  private final List<Integer> stripes = new ArrayList<>();
+  private final List<Integer> stripeCounts = new ArrayList<>();
+
+  public TimeSplitInputSplit() {
+    // Used for deserialization
+  }
+
+  /**
+   * Add a chunk to this split. Chunks must be added in order of their start timestamp.
+   * @param path The file containing the chunk.
+   * @param start The byte offset at which the chunk starts, following the same
+   *              line boundary rules as a {@link org.apache.hadoop.mapreduce.lib.input.FileSplit}.
+   * @param length The length of the chunk in bytes.
+   * @param startTimestamp The relative timestamp of the first command in the chunk.
+   * @param stripe Which of the lines of the chunk to read; those whose index within the
+   *               chunk modulo numStripes is equal to this.
+   * @param numStripes The number of stripes into which the chunk is divided, or 1 to read all lines.
+   */
+  void addChunk(Path path, long start, long length, long startTimestamp, int stripe, int numStripes) {
+    paths.add(path);
+    starts.add(start);
+    lengths.add(length);
+    startTimestamps.add(startTimestamp);
+    stripes.add(stripe);
+    stripeCounts.add(numStripes);
+  }
+
+  int getNumChunks() {
+    return paths.size();
+  }
+
+  Path getPath(int chunk) {
+    return paths.get(chunk);
+  }
+
+  long getStart(int chunk) {
+    return starts.get(chunk);
+  }
+
+  long getLength(int chunk) {
+    return lengths.get(chunk);
+  }
+
+  long getStartTimestamp(int chunk) {
+    return startTimestamps.get(chunk);
+  }
+
+  int getStripe(int chunk) {
+    return stripes.get(chunk);
+  }
+
+  int getNumStripes(int chunk) {
+    return stripeCounts.get(chunk);
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, paths.size());
+    for (int i = 0; i < paths.size(); i++) {
+      Text.writeString(out, paths.get(i).toString());
+      WritableUtils.writeVLong(out, starts.get(i));
+      WritableUtils.writeVLong(out, lengths.get(i));
+      WritableUtils.writeVLong(out, startTimestamps.get(i));
+      WritableUtils.writeVInt(out, stripes.get(i));
+      WritableUtils.writeVInt(out, stripeCounts.get(i));
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    paths.clear();
+    starts.clear();
+    lengths.clear();
+    startTimestamps.clear();
+    stripes.clear();
+    stripeCounts.clear();
+    int numChunks = WritableUtils.readVInt(in);
+    for (int i = 0; i < numChunks; i++) {
+      addChunk(new Path(Text.readString(in)), WritableUtils.readVLong(in), WritableUtils.readVLong(in),
+          WritableUtils.readVLong(in), WritableUtils.readVInt(in), WritableUtils.readVInt(in));
+    }
+  }
+
+  @Override
+  public long getLength() {
+    long length = 0;
+    for (long chunkLength : lengths) {
+      length += chunkLength;
+    }
+    return length;
+  }
+
+  @Override
+  public String[] getLocations() {
+    // The chunks are generally spread across many files, so no single location is preferable
+    return new String[] {};
+  }
+
+  @Override
+  public String toString() {
+    return "TimeSplitInputSplit[chunks=" + paths.size() + ", length=" + getLength() + "]";
+  }
+
+}
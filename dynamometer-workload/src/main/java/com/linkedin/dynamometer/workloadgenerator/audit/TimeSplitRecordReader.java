@@ -0,0 +1,143 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.IOException;
+import java.util.PriorityQueue;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+
+
+/**
+ * Reads a {@link TimeSplitInputSplit}, merging the lines of all of its chunks in time order.
+ * Each chunk is only opened once the merge reaches the time at which it starts, so only
+ * those chunks which overlap in time are open at once. The key is the relative timestamp
+ * of each line, and the value is the line itself.
+ */
+public class TimeSplitRecordReader extends RecordReader<LongWritable, Text> {
+
+  private TaskAttemptContext context;
+  private TimeSplitInputSplit split;
+  private TimeSplitInputFormat.TimestampExtractor extractor;
+  private final PriorityQueue<ChunkReader> openChunks = new PriorityQueue<>();
+  private int nextChunk = 0;
+  // The chunk whose line was most recently returned; advanced on the next call to nextKeyValue
+  private ChunkReader current = null;
+  private final LongWritable key = new LongWritable();
+  private long completedBytes = 0;
+
+  @Override
+  public void initialize(InputSplit inputSplit, TaskAttemptContext taskContext) throws IOException {
+    context = taskContext;
+    split = (TimeSplitInputSplit) inputSplit;
+    extractor = new TimeSplitInputFormat.TimestampExtractor(taskContext.getConfiguration());
+  }
+
+  @Override
+  public boolean nextKeyValue() throws IOException, InterruptedException {
+    if (current != null) {
+      advance(current);
+      current = null;
+    }
+    while (nextChunk < split.getNumChunks() &&
+        (openChunks.isEmpty() || split.getStartTimestamp(nextChunk) <= openChunks.peek().timestamp)) {
+      ChunkReader chunk = new ChunkReader(nextChunk++);
+      advance(chunk);
+    }
+    current = openChunks.poll();
+    if (current == null) {
+      return false;
+    }
+    key.set(current.timestamp);
+    return true;
+  }
+
+  private void advance(ChunkReader chunk) throws IOException {
+    if (chunk.next()) {
+      openChunks.add(chunk);
+    } else {
+      chunk.reader.close();
+      completedBytes += split.getLength(chunk.index);
+    }
+  }
+
+  @Override
+  public LongWritable getCurrentKey() {
+    return key;
+  }
+
+  @Override
+  public Text getCurrentValue() {
+    return current == null ? null : current.reader.getCurrentValue();
+  }
+
+  @Override
+  public float getProgress() throws IOException {
+    long totalBytes = split.getLength();
+    if (totalBytes == 0) {
+      return 1.0f;
+    }
+    float readBytes = completedBytes;
+    for (ChunkReader chunk : openChunks) {
+      readBytes += chunk.reader.getProgress() * split.getLength(chunk.index);
+    }
+    if (current != null) {
+      readBytes += current.reader.getProgress() * split.getLength(current.index);
+    }
+    return Math.min(1.0f, readBytes / totalBytes);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (current != null) {
+      current.reader.close();
+      current = null;
+    }
+    for (ChunkReader chunk : openChunks) {
+      chunk.reader.close();
+    }
+    openChunks.clear();
+  }
+
+  private class ChunkReader implements Comparable<ChunkReader> {
+    private final int index;
+    private final LineRecordReader reader;
+    private final int stripe;
+    private final int numStripes;
+    private long lineIndex = 0;
+    private long timestamp;
+
+    ChunkReader(int index) throws IOException {
+      this.index = index;
+      stripe = split.getStripe(index);
+      numStripes = split.getNumStripes(index);
+      reader = new LineRecordReader();
+      reader.initialize(new FileSplit(split.getPath(index), split.getStart(index), split.getLength(index),
+          new String[] {}), context);
+    }
+
+    boolean next() throws IOException {
+      while (reader.nextKeyValue()) {
+        if (reader.getCurrentValue().getLength() > 0 && lineIndex++ % numStripes == stripe) {
+          timestamp = extractor.getRelativeTimestamp(reader.getCurrentValue());
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public int compareTo(ChunkReader other) {
+      int compare = Long.compare(timestamp, other.timestamp);
+      return compare != 0 ? compare : Integer.compare(index, other.index);
+    }
+  }
+
+}
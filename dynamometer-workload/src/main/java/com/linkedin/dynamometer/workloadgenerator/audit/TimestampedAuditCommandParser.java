@@ -0,0 +1,29 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import com.google.common.base.Function;
+import java.io.IOException;
+import org.apache.hadoop.io.Text;
+
+
+/**
+ * An {@link AuditCommandParser} which is able to determine the time of a command
+ * without parsing the rest of the line. This is used by {@link TimeSplitInputFormat}
+ * to index and merge input files by time; parsers which do not implement it can
+ * still be used, but each line will be parsed fully for this purpose.
+ */
+public interface TimestampedAuditCommandParser extends AuditCommandParser {
+
+  /**
+   * Determine the relative timestamp of a line of input, i.e. the value which
+   * would be passed to the relativeToAbsolute function by
+   * {@link #parse(Text, Function)}.
+   * @param inputLine Single input line.
+   * @return The relative timestamp of the command, in milliseconds.
+   */
+  long parseRelativeTimestamp(Text inputLine) throws IOException;
+
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.apache.hadoop.conf.Configuration;
+
+
+/**
+ * An {@link AuditReplayScheduler} which gives each replay thread its own
+ * {@link HashedTimingWheel}. Commands are assigned to threads in round-robin fashion
+ * and handed off through a lock-free queue, so neither the producer nor the replay
+ * threads contend on a shared lock, and the cost of dispatching a command does not
+ * grow with the number of threads. Since each command is bound to a thread when it
+ * is scheduled, a thread which is blocked on a slow command will delay the commands
+ * assigned to it even if other threads are idle. Likewise, once a thread has exited,
+ * scheduling any further command to it fails rather than leaving the command in a wheel
+ * which is never drained, and the commands which were already in its wheel are counted
+ * as dropped.
+ *
+ * <p>Configuration options available:
+ * <ul>
+ *   <li>{@value TICK_MS_KEY} (default: {@value TICK_MS_DEFAULT}): The resolution of the
+ *       timing wheels, in milliseconds. Commands may be dispatched up to one tick late.</li>
+ *   <li>{@value NUM_SLOTS_KEY} (default: {@value NUM_SLOTS_DEFAULT}): The number of slots
+ *       in each timing wheel, rounded up to a power of two. Commands further in the future
+ *       than the span of the wheel are held in an overflow queue.</li>
+ * </ul>
+ */
+public class TimingWheelScheduler implements AuditReplayScheduler {
+
+  public static final String TICK_MS_KEY = "auditreplay.timing-wheel.tick-ms";
+  public static final long TICK_MS_DEFAULT = 1;
+  public static final String NUM_SLOTS_KEY = "auditreplay.timing-wheel.num-slots";
+  public static final int NUM_SLOTS_DEFAULT = 4096;
+
+  private HashedTimingWheel[] wheels;
+  // Non-zero for each thread which has exited and will not drain its wheel any further
+  private AtomicIntegerArray exited;
+  // Only accessed by the single producer thread
+  private int nextThreadIndex = 0;
+
+  @Override
+  public void initialize(Configuration conf, int numThreads, ReplayClock clock) throws IOException {
+    long tickMs = conf.getLong(TICK_MS_KEY, TICK_MS_DEFAULT);
+    int numSlots = conf.getInt(NUM_SLOTS_KEY, NUM_SLOTS_DEFAULT);
+    if (tickMs <= 0 || numSlots <= 0) {
+      throw new IOException("Invalid timing wheel configuration; tick: " + tickMs + " ms, slots: " + numSlots);
+    }
+    wheels = new HashedTimingWheel[numThreads];
+    exited = new AtomicIntegerArray(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      wheels[i] = new HashedTimingWheel(tickMs, numSlots, clock);
+    }
+  }
+
+  @Override
+  public void schedule(AuditReplayCommand command) {
+    int threadIndex = nextThreadIndex;
+    nextThreadIndex = (nextThreadIndex + 1) % wheels.length;
+    schedule(command, threadIndex);
+  }
+
+  @Override
+  public void schedule(AuditReplayCommand command, int threadIndex) {
+    if (exited.get(threadIndex) != 0) {
+      if (command.isPoison()) {
+        // The thread has already stopped
+        return;
+      }
+      throw new IllegalStateException("Replay thread " + threadIndex + " has exited; unable to replay " + command);
+    }
+    wheels[threadIndex].offer(command);
+    // The thread may have exited and drained its wheel just before the offer, in which
+    // case nothing will ever take the command. It is marked as exited before draining,
+    // so the command has either been counted by the drain or is caught here.
+    if (exited.get(threadIndex) != 0 && !command.isPoison()) {
+      throw new IllegalStateException("Replay thread " + threadIndex + " has exited; unable to replay " + command);
+    }
+  }
+
+  @Override
+  public boolean supportsThreadAffinity() {
+    return true;
+  }
+
+  @Override
+  public AuditReplayCommand take(int threadIndex) throws InterruptedException {
+    return wheels[threadIndex].take();
+  }
+
+  @Override
+  public int consumerExited(int threadIndex) {
+    exited.set(threadIndex, 1);
+    return wheels[threadIndex].drain();
+  }
+
+}
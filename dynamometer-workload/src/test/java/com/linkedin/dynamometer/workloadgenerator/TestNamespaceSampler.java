@@ -0,0 +1,117 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class TestNamespaceSampler {
+
+  @Rule
+  public TemporaryFolder tempDir = new TemporaryFolder();
+
+  private static String directory(long id, String name) {
+    return "<inode><id>" + id + "</id><type>DIRECTORY</type><name>" + name + "</name><mtime>0</mtime>" +
+        "<permission>hdfs:hdfs:rwxr-xr-x</permission><nsquota>-1</nsquota><dsquota>-1</dsquota></inode>";
+  }
+
+  private static String[] file(long id, String name) {
+    return new String[] {
+        "<inode><id>" + id + "</id><type>FILE</type><name>" + name + "</name><replication>1</replication>" +
+            "<mtime>0</mtime><atime>0</atime><perferredBlockSize>134217728</perferredBlockSize>" +
+            "<permission>hdfs:hdfs:rw-r--r--</permission><blocks><block><id>" + id + "</id>" +
+            "<genstamp>1001</genstamp><numBytes>4</numBytes></block>",
+        "</blocks>",
+        "</inode>"
+    };
+  }
+
+  private Path writeFsImage() throws Exception {
+    File fsImage = tempDir.newFile("fsimage.xml");
+    try (PrintWriter writer = new PrintWriter(fsImage, "UTF-8")) {
+      writer.println("<?xml version=\"1.0\"?>");
+      writer.println("<fsimage><NameSection>");
+      writer.println("<genstampV1>1000</genstampV1><txid>1</txid></NameSection>");
+      writer.println("<INodeSection><lastInodeId>16400</lastInodeId>" + directory(16385, ""));
+      writer.println(directory(16386, "shallow"));
+      writer.println(directory(16387, "deep"));
+      writer.println(directory(16388, "a&amp;b"));
+      for (String line : file(16390, "f0")) {
+        writer.println(line);
+      }
+      for (int i = 1; i <= 3; i++) {
+        for (String line : file(16390 + i, "f" + i)) {
+          writer.println(line);
+        }
+      }
+      // Only within a snapshot, so not connected to the root
+      writer.println(directory(16399, "deleted"));
+      writer.println("</INodeSection>");
+      writer.println("<INodeDirectorySection><directory><parent>16385</parent><inode>16386</inode>" +
+          "<inode>16387</inode></directory>");
+      writer.println("<directory><parent>16386</parent><inode>16390</inode></directory>");
+      writer.println("<directory><parent>16387</parent><inode>16388</inode></directory>");
+      writer.println("<directory><parent>16388</parent><inode>16391</inode><inode>16392</inode>" +
+          "<inode>16393</inode></directory>");
+      writer.println("</INodeDirectorySection>");
+      writer.println("<INodeReferenceSection></INodeReferenceSection></fsimage>");
+    }
+    return new Path(fsImage.getAbsolutePath());
+  }
+
+  @Test
+  public void testSample() throws Exception {
+    Path dictionaryPath = new Path(tempDir.getRoot().getAbsolutePath(), "dictionary");
+    Configuration conf = new Configuration();
+    NamespaceSampler.sample(conf, writeFsImage(), dictionaryPath, 100, 1, 1, new Random(0));
+    PathDictionary dictionary = PathDictionary.open(dictionaryPath.getFileSystem(conf), dictionaryPath);
+    assertEquals(4, dictionary.getNumFiles());
+    assertEquals(4, dictionary.getNumDirectories());
+
+    Random random = new Random(0);
+    Map<String, Integer> fileCounts = new HashMap<>();
+    Map<String, Integer> directoryCounts = new HashMap<>();
+    for (int i = 0; i < 10000; i++) {
+      increment(fileCounts, dictionary.getRandomFile(random));
+      increment(directoryCounts, dictionary.getRandomDirectory(random));
+    }
+    // /shallow/f0 has weight 1 * 3; each of /deep/a&b/f* has weight 3 * 4
+    assertEquals(4, fileCounts.size());
+    assertEquals(10000 * 3 / 39, fileCounts.get("/shallow/f0"), 150);
+    assertEquals(10000 * 12 / 39, fileCounts.get("/deep/a&b/f2"), 200);
+    // The weights of /, /shallow, /deep and /deep/a&b are 2 * 1, 1 * 2, 1 * 2 and 3 * 3
+    assertEquals(10000 * 2 / 15, directoryCounts.get("/"), 200);
+    assertEquals(10000 * 2 / 15, directoryCounts.get("/shallow"), 200);
+    assertEquals(10000 * 9 / 15, directoryCounts.get("/deep/a&b"), 200);
+  }
+
+  @Test
+  public void testSampleBoundsPaths() throws Exception {
+    Path dictionaryPath = new Path(tempDir.getRoot().getAbsolutePath(), "dictionary");
+    Configuration conf = new Configuration();
+    NamespaceSampler.sample(conf, writeFsImage(), dictionaryPath, 2, 0, 0, new Random(0));
+    PathDictionary dictionary = PathDictionary.open(dictionaryPath.getFileSystem(conf), dictionaryPath);
+    assertEquals(2, dictionary.getNumFiles());
+    // One of the sampled directories may be the one which is not connected to the root
+    assertEquals(2, dictionary.getNumDirectories(), 1);
+  }
+
+  private static void increment(Map<String, Integer> counts, String key) {
+    Integer count = counts.get(key);
+    counts.put(key, count == null ? 1 : count + 1);
+  }
+
+}
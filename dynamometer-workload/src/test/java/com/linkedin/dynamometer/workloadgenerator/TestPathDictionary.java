@@ -0,0 +1,91 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class TestPathDictionary {
+
+  @Rule
+  public TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Test
+  public void testAliasTable() {
+    double[] weights = {1, 0, 3, 4};
+    float[] probabilities = new float[weights.length];
+    int[] aliases = new int[weights.length];
+    PathDictionary.buildAliasTable(weights, probabilities, aliases);
+    // The probability of each index is the sum of its own slot and the slots of which it is the alias
+    double[] expected = new double[weights.length];
+    for (int i = 0; i < weights.length; i++) {
+      expected[i] += probabilities[i] / weights.length;
+      expected[aliases[i]] += (1 - probabilities[i]) / weights.length;
+    }
+    for (int i = 0; i < weights.length; i++) {
+      assertEquals(weights[i] / 8, expected[i], 1e-6);
+    }
+  }
+
+  @Test
+  public void testWriteAndDraw() throws Exception {
+    File file = tempDir.newFile("dictionary");
+    PathDictionary.write(new FileOutputStream(file), Arrays.asList("/a/f1", "/b/f2", "/b/\u00e9"),
+        new double[] {1, 2, 1}, Arrays.asList("/", "/a", "/b"), new double[] {0, 1, 3});
+    PathDictionary dictionary =
+        PathDictionary.open(FileSystem.getLocal(new Configuration()), new Path(file.getAbsolutePath()));
+    assertEquals(3, dictionary.getNumFiles());
+    assertEquals(3, dictionary.getNumDirectories());
+    Random random = new Random(0);
+    Map<String, Integer> fileCounts = new HashMap<>();
+    Map<String, Integer> directoryCounts = new HashMap<>();
+    for (int i = 0; i < 8000; i++) {
+      increment(fileCounts, dictionary.getRandomFile(random));
+      increment(directoryCounts, dictionary.getRandomDirectory(random));
+    }
+    assertEquals(2000, fileCounts.get("/a/f1"), 200);
+    assertEquals(4000, fileCounts.get("/b/f2"), 200);
+    assertEquals(2000, fileCounts.get("/b/\u00e9"), 200);
+    assertEquals(2, directoryCounts.size());
+    assertEquals(2000, directoryCounts.get("/a"), 200);
+    assertEquals(6000, directoryCounts.get("/b"), 200);
+  }
+
+  @Test
+  public void testInvalidDictionary() throws Exception {
+    File file = tempDir.newFile("dictionary");
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+    }
+    try {
+      PathDictionary.open(file);
+      fail("An invalid dictionary should be rejected");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("Not a path dictionary"));
+    }
+  }
+
+  private static void increment(Map<String, Integer> counts, String key) {
+    Integer count = counts.get(key);
+    counts.put(key, count == null ? 1 : count + 1);
+  }
+
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class TestSyntheticNamespace {
+
+  @Rule
+  public TemporaryFolder tempDir = new TemporaryFolder();
+
+  private FileSystem fs;
+
+  @Before
+  public void setup() throws Exception {
+    fs = FileSystem.getLocal(new Configuration());
+  }
+
+  private Path writeListing(String... lines) throws IOException {
+    File listing = tempDir.newFile("listing");
+    try (PrintWriter writer = new PrintWriter(listing, "UTF-8")) {
+      for (String line : lines) {
+        writer.println(line);
+      }
+    }
+    return new Path(listing.getAbsolutePath());
+  }
+
+  @Test
+  public void testLoadDelimitedListing() throws Exception {
+    // As output by the Offline Image Viewer's Delimited processor
+    Path listing = writeListing(
+        "Path\tReplication\tModificationTime\tAccessTime\tPreferredBlockSize\tBlocksCount\tFileSize\t" +
+            "NSQUOTA\tDSQUOTA\tPermission\tUserName\tGroupName",
+        "/\t0\t2017-01-01 00:00\t1970-01-01 00:00\t0\t0\t0\t9223372036854775807\t-1\tdrwxr-xr-x\thdfs\thdfs",
+        "/a\t0\t2017-01-01 00:00\t1970-01-01 00:00\t0\t0\t0\t-1\t-1\tdrwxr-xr-x\thdfs\thdfs",
+        "/a/f1\t3\t2017-01-01 00:00\t2017-01-01 00:00\t134217728\t1\t10\t0\t0\t-rw-r--r--\thdfs\thdfs",
+        "/a/f2\t3\t2017-01-01 00:00\t2017-01-01 00:00\t134217728\t1\t10\t0\t0\t-rw-r--r--\thdfs\thdfs",
+        "/a/f3\t3\t2017-01-01 00:00\t2017-01-01 00:00\t134217728\t1\t10\t0\t0\t-rw-r--r--\thdfs\thdfs");
+    SyntheticNamespace namespace = SyntheticNamespace.load(fs, listing, 100, new Random(0));
+    assertEquals(3, namespace.getNumFiles());
+    // The parent of every path but the root
+    assertEquals(4, namespace.getNumDirectories());
+    Random random = new Random(0);
+    int picksOfA = 0;
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(namespace.getRandomFile(random).startsWith("/a/f"));
+      if (namespace.getRandomDirectory(random).equals("/a")) {
+        picksOfA++;
+      }
+    }
+    // /a has three listed children and / only one
+    assertEquals(750, picksOfA, 100);
+  }
+
+  @Test
+  public void testLoadBoundsSample() throws Exception {
+    String[] lines = new String[1000];
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = "/dir" + (i % 10) + "/file" + i;
+    }
+    SyntheticNamespace namespace = SyntheticNamespace.load(fs, writeListing(lines), 50, new Random(0));
+    assertEquals(50, namespace.getNumFiles());
+    assertEquals(50, namespace.getNumDirectories());
+    Set<String> directories = new HashSet<>();
+    Random random = new Random(0);
+    for (int i = 0; i < 1000; i++) {
+      directories.add(namespace.getRandomDirectory(random));
+    }
+    assertEquals(10, directories.size());
+  }
+
+  @Test
+  public void testLoadEmptyListing() throws Exception {
+    try {
+      SyntheticNamespace.load(fs, writeListing("Path\tReplication"), 100, new Random(0));
+      fail("An empty listing should be rejected");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("at least one file"));
+    }
+  }
+
+  @Test
+  public void testGenerate() throws Exception {
+    Path root = new Path(tempDir.getRoot().getAbsolutePath(), "root");
+    SyntheticNamespace namespace = SyntheticNamespace.generate(fs, root, 2, 3, 4);
+    assertEquals(1 + 3 + 9, namespace.getNumDirectories());
+    assertEquals(9 * 4, namespace.getNumFiles());
+    assertTrue(fs.getFileStatus(new Path(root, "dir2/dir1/file3")).isFile());
+    assertEquals(3, fs.listStatus(new Path(root, "dir0")).length);
+  }
+
+}
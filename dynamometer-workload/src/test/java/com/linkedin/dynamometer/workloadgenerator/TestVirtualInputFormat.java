@@ -0,0 +1,122 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator;
+
+import java.io.IOException;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class TestVirtualInputFormat {
+
+  private Configuration conf;
+
+  @Before
+  public void setup() {
+    conf = new Configuration();
+    conf.setInt(CreateFileMapper.NUM_MAPPERS_KEY, 3);
+  }
+
+  @Test
+  public void testSplits() throws Exception {
+    conf.setInt(VirtualInputFormat.RECORDS_PER_SPLIT_KEY, 4);
+    List<InputSplit> splits = getSplits();
+    assertEquals(3, splits.size());
+    for (int i = 0; i < splits.size(); i++) {
+      VirtualInputSplit split = copy(splits.get(i));
+      assertEquals(i, split.getSplitIndex());
+      assertEquals(4, split.getNumRecords());
+    }
+
+    conf.unset(CreateFileMapper.NUM_MAPPERS_KEY);
+    try {
+      getSplits();
+      fail("The number of mappers should be required");
+    } catch (IOException expected) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testRecordProgress() throws Exception {
+    conf.setInt(VirtualInputFormat.RECORDS_PER_SPLIT_KEY, 4);
+    // Readers in the same JVM, as in local or uber mode, must not affect each other
+    RecordReader<LongWritable, NullWritable> reader = createReader(getSplits().get(1));
+    RecordReader<LongWritable, NullWritable> otherReader = createReader(getSplits().get(2));
+    assertEquals(0.0f, reader.getProgress(), 0.0f);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(reader.nextKeyValue());
+      assertEquals(i, reader.getCurrentKey().get());
+      assertEquals(i / 4.0f, reader.getProgress(), 0.001f);
+    }
+    assertFalse(reader.nextKeyValue());
+    assertEquals(1.0f, reader.getProgress(), 0.0f);
+    assertTrue(otherReader.nextKeyValue());
+    assertEquals(0, otherReader.getCurrentKey().get());
+  }
+
+  @Test
+  public void testTimeProgress() throws Exception {
+    conf.setLong(WorkloadDriver.START_TIMESTAMP_MS, System.currentTimeMillis() - 30000);
+    conf.setInt(CreateFileMapper.DURATION_MIN_KEY, 1);
+    RecordReader<LongWritable, NullWritable> reader = createReader(getSplits().get(0));
+    assertTrue(reader.nextKeyValue());
+    assertEquals(0.5f, reader.getProgress(), 0.1f);
+    // Mappers may keep working long after reading all of their records
+    while (reader.nextKeyValue()) {
+      // Drain the reader
+    }
+    assertEquals(0.5f, reader.getProgress(), 0.1f);
+    assertTrue(reader.getProgress() < 1.0f);
+
+    // Before the start time, and long after the expected duration, progress remains within bounds
+    conf.setLong(WorkloadDriver.START_TIMESTAMP_MS, System.currentTimeMillis() + 30000);
+    assertEquals(0.0f, createReader(getSplits().get(0)).getProgress(), 0.0f);
+    conf.setLong(WorkloadDriver.START_TIMESTAMP_MS, System.currentTimeMillis() - 30000);
+    conf.setLong(VirtualInputFormat.DURATION_MS_KEY, 1000);
+    assertEquals(1.0f, createReader(getSplits().get(0)).getProgress(), 0.0f);
+  }
+
+  private List<InputSplit> getSplits() throws IOException {
+    return new VirtualInputFormat().getSplits(Job.getInstance(conf));
+  }
+
+  private RecordReader<LongWritable, NullWritable> createReader(InputSplit split) throws Exception {
+    VirtualInputSplit copy = copy(split);
+    TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+    RecordReader<LongWritable, NullWritable> reader = new VirtualInputFormat().createRecordReader(copy, context);
+    reader.initialize(copy, context);
+    return reader;
+  }
+
+  /** Pass the split through serialization as the framework would. */
+  private static VirtualInputSplit copy(InputSplit split) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    ((VirtualInputSplit) split).write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    VirtualInputSplit copy = new VirtualInputSplit();
+    copy.readFields(in);
+    return copy;
+  }
+
+}
@@ -8,15 +8,28 @@ import com.linkedin.dynamometer.workloadgenerator.audit.AuditCommandParser;
 import com.linkedin.dynamometer.workloadgenerator.audit.AuditLogDirectParser;
 import com.linkedin.dynamometer.workloadgenerator.audit.AuditLogHiveTableParser;
 import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper;
+import com.linkedin.dynamometer.workloadgenerator.audit.AuditTraceAmplifier;
+import com.linkedin.dynamometer.workloadgenerator.audit.AuditTraceCompiler;
+import com.linkedin.dynamometer.workloadgenerator.audit.CompiledAuditTraceParser;
+import com.linkedin.dynamometer.workloadgenerator.audit.LatencyHistogram;
+import com.linkedin.dynamometer.workloadgenerator.audit.ReplayRecord;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.security.UserGroupInformation;
@@ -63,7 +76,24 @@ public class TestWorkloadGenerator {
         TestWorkloadGenerator.class.getClassLoader().getResource("audit_trace_direct").toString();
     conf.set(AuditReplayMapper.INPUT_PATH_KEY, workloadInputPath);
     conf.setLong(AuditLogDirectParser.AUDIT_START_TIMESTAMP_KEY, 60*1000);
+    conf.set(AuditReplayMapper.OUTPUT_PATH_KEY, "/workload_output");
     testAuditWorkload();
+
+    LatencyHistogram mkdirsHistogram = null;
+    try (SequenceFile.Reader reader = new SequenceFile.Reader(dfs.getConf(),
+        SequenceFile.Reader.file(new Path("/workload_output/part-r-00000")))) {
+      Text command = new Text();
+      LatencyHistogram histogram = new LatencyHistogram();
+      while (reader.next(command, histogram)) {
+        if (command.toString().equals("MKDIRS")) {
+          mkdirsHistogram = histogram;
+          histogram = new LatencyHistogram();
+        }
+      }
+    }
+    assertTrue("Histogram for MKDIRS should be written", mkdirsHistogram != null);
+    // The mkdirs of /denied failed and is not included
+    assertEquals(3, mkdirsHistogram.getTotalCount());
   }
 
   @Test
@@ -74,6 +104,240 @@ public class TestWorkloadGenerator {
     testAuditWorkload();
   }
 
+  @Test
+  public void testAuditWorkloadAsync() throws Exception {
+    String workloadInputPath = TestWorkloadGenerator.class.getClassLoader().getResource("audit_trace_hive").toString();
+    conf.set(AuditReplayMapper.INPUT_PATH_KEY, workloadInputPath);
+    conf.setClass(AuditReplayMapper.COMMAND_PARSER_KEY, AuditLogHiveTableParser.class, AuditCommandParser.class);
+    conf.setBoolean(AuditReplayMapper.ASYNC_ENABLED_KEY, true);
+    conf.set(AuditReplayMapper.LIVE_METRICS_PATH_KEY, "/live_metrics");
+    conf.set(AuditReplayMapper.RECORDING_PATH_KEY, "/recording");
+    Job job = testAuditWorkload();
+
+    FileStatus[] metricsFiles = dfs.listStatus(new Path("/live_metrics"));
+    assertEquals(1, metricsFiles.length);
+    String metrics = IOUtils.toString(dfs.open(metricsFiles[0].getPath()), StandardCharsets.UTF_8);
+    assertTrue("Live metrics should include MKDIRS: " + metrics, metrics.contains("\tMKDIRS\t"));
+
+    assertEquals(6, job.getCounters().findCounter(AuditReplayMapper.REPLAYCOUNTERS.RECORDEDCOMMANDS).getValue());
+    FileStatus[] recordingFiles = dfs.listStatus(new Path("/recording"));
+    assertEquals(1, recordingFiles.length);
+    int records = 0;
+    int failures = 0;
+    try (SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+        SequenceFile.Reader.file(recordingFiles[0].getPath()))) {
+      ReplayRecord record = new ReplayRecord();
+      while (reader.next(NullWritable.get(), record)) {
+        records++;
+        // Both times are on the replay clock, and commands are never issued before they are due
+        assertTrue(record.toString(), record.getActualMs() >= record.getScheduledMs());
+        if (!record.isSuccess()) {
+          failures++;
+        }
+      }
+    }
+    assertEquals(6, records);
+    assertEquals(1, failures);
+  }
+
+  @Test
+  public void testAuditWorkloadDependencyTracking() throws Exception {
+    String workloadInputPath = TestWorkloadGenerator.class.getClassLoader().getResource("audit_trace_hive").toString();
+    conf.set(AuditReplayMapper.INPUT_PATH_KEY, workloadInputPath);
+    conf.setClass(AuditReplayMapper.COMMAND_PARSER_KEY, AuditLogHiveTableParser.class, AuditCommandParser.class);
+    // The mkdirs and rename of the same directory are due at the same time, but must not be reordered
+    conf.setBoolean(AuditReplayMapper.ASYNC_ENABLED_KEY, true);
+    conf.setDouble(AuditReplayMapper.RATE_FACTOR_KEY, 1000);
+    conf.setBoolean(AuditReplayMapper.DEPENDENCY_TRACKING_ENABLED_KEY, true);
+    testAuditWorkload();
+  }
+
+  @Test
+  public void testAuditWorkloadClientProtocol() throws Exception {
+    String workloadInputPath = TestWorkloadGenerator.class.getClassLoader().getResource("audit_trace_hive").toString();
+    conf.set(AuditReplayMapper.INPUT_PATH_KEY, workloadInputPath);
+    conf.setClass(AuditReplayMapper.COMMAND_PARSER_KEY, AuditLogHiveTableParser.class, AuditCommandParser.class);
+    conf.setEnum(AuditReplayMapper.BACKEND_KEY, AuditReplayMapper.ReplayBackend.CLIENT_PROTOCOL);
+    // Allows CREATE to be replayed without the FileSystem as well
+    conf.setBoolean(AuditReplayMapper.CREATE_BLOCKS_KEY, false);
+    testAuditWorkload();
+  }
+
+  @Test
+  public void testAuditWorkloadSizedCreates() throws Exception {
+    String workloadInputPath = TestWorkloadGenerator.class.getClassLoader().getResource("audit_trace_hive").toString();
+    conf.set(AuditReplayMapper.INPUT_PATH_KEY, workloadInputPath);
+    conf.setClass(AuditReplayMapper.COMMAND_PARSER_KEY, AuditLogHiveTableParser.class, AuditCommandParser.class);
+    // Every file is between 2 and 3 blocks in size
+    try (FSDataOutputStream out = dfs.create(new Path("/size_distribution"))) {
+      out.write("Size\tNumFiles\n2097152\t0\n3145728\t10\n".getBytes(StandardCharsets.UTF_8));
+    }
+    conf.set(AuditReplayMapper.CREATE_SIZE_DISTRIBUTION_PATH_KEY, "/size_distribution");
+    conf.setLong(AuditReplayMapper.CREATE_BLOCK_SIZE_KEY, 1024 * 1024);
+    Job job = testAuditWorkload();
+    assertEquals(3, job.getCounters().findCounter(AuditReplayMapper.REPLAYCOUNTERS.CREATEDBLOCKS).getValue());
+    assertEquals(3, dfs.getFileBlockLocations(new Path("/tmp/test1"), 0, Long.MAX_VALUE).length);
+  }
+
+  @Test
+  public void testAuditWorkloadAdditionalCommands() throws Exception {
+    testAdditionalCommands();
+  }
+
+  @Test
+  public void testAuditWorkloadAdditionalCommandsClientProtocol() throws Exception {
+    conf.setEnum(AuditReplayMapper.BACKEND_KEY, AuditReplayMapper.ReplayBackend.CLIENT_PROTOCOL);
+    testAdditionalCommands();
+  }
+
+  private void testAdditionalCommands() throws Exception {
+    String workloadInputPath =
+        TestWorkloadGenerator.class.getClassLoader().getResource("audit_trace_additional").toString();
+    conf.set(AuditReplayMapper.INPUT_PATH_KEY, workloadInputPath);
+    conf.setClass(AuditReplayMapper.COMMAND_PARSER_KEY, AuditLogHiveTableParser.class, AuditCommandParser.class);
+    long workloadStartTime = System.currentTimeMillis() + 10000;
+    Job workloadJob = WorkloadDriver.getJobForSubmission(conf, dfs.getUri().toString(),
+        workloadStartTime, AuditReplayMapper.class);
+    assertTrue("workload job should succeed", workloadJob.waitForCompletion(true));
+    Counters counters = workloadJob.getCounters();
+    assertEquals(9, counters.findCounter(AuditReplayMapper.REPLAYCOUNTERS.TOTALCOMMANDS).getValue());
+    assertEquals(0, counters.findCounter(AuditReplayMapper.REPLAYCOUNTERS.TOTALUNSUPPORTEDCOMMANDS).getValue());
+    assertEquals(0, counters.findCounter(AuditReplayMapper.REPLAYCOUNTERS.TOTALINVALIDCOMMANDS).getValue());
+    assertEquals(AuditReplayMapper.OTHER_COMMANDS_COUNTER_NAME,
+        AuditReplayMapper.ReplayCommand.TRUNCATE.getCounterName());
+    // Every command but the create shares the counters of the less common commands
+    assertEquals(8, counters.findCounter(AuditReplayMapper.INDIVIDUAL_COMMANDS_COUNTER_GROUP,
+        AuditReplayMapper.OTHER_COMMANDS_COUNTER_NAME + AuditReplayMapper.INDIVIDUAL_COMMANDS_COUNT_SUFFIX).getValue());
+    assertEquals(1, counters.findCounter(AuditReplayMapper.INDIVIDUAL_COMMANDS_COUNTER_GROUP,
+        "CREATE" + AuditReplayMapper.INDIVIDUAL_COMMANDS_COUNT_SUFFIX).getValue());
+    // Every counter is created, even for commands absent from the trace, but their number is bounded
+    assertEquals(0, counters.findCounter(AuditReplayMapper.INDIVIDUAL_COMMANDS_COUNTER_GROUP,
+        "CONCAT" + AuditReplayMapper.INDIVIDUAL_COMMANDS_COUNT_SUFFIX).getValue());
+    assertEquals(45, counters.getGroup(AuditReplayMapper.INDIVIDUAL_COMMANDS_COUNTER_GROUP).size());
+    assertTrue(dfs.getXAttrs(new Path("/tmp/file1")).containsKey("user.dynamometer"));
+    assertEquals(0, dfs.getFileStatus(new Path("/tmp/file1")).getLen());
+  }
+
+  @Test
+  public void testAuditWorkloadParseThreads() throws Exception {
+    String workloadInputPath = TestWorkloadGenerator.class.getClassLoader().getResource("audit_trace_hive").toString();
+    conf.set(AuditReplayMapper.INPUT_PATH_KEY, workloadInputPath);
+    conf.setClass(AuditReplayMapper.COMMAND_PARSER_KEY, AuditLogHiveTableParser.class, AuditCommandParser.class);
+    conf.setInt(AuditReplayMapper.PARSE_NUM_THREADS_KEY, 2);
+    testAuditWorkload();
+  }
+
+  @Test
+  public void testAuditWorkloadSplitByTime() throws Exception {
+    String workloadInputPath = TestWorkloadGenerator.class.getClassLoader().getResource("audit_trace_hive").toString();
+    conf.set(AuditReplayMapper.INPUT_PATH_KEY, workloadInputPath);
+    conf.setClass(AuditReplayMapper.COMMAND_PARSER_KEY, AuditLogHiveTableParser.class, AuditCommandParser.class);
+    conf.setBoolean(AuditReplayMapper.INPUT_SPLIT_BY_TIME_KEY, true);
+    conf.setInt(AuditReplayMapper.INPUT_TIME_WINDOWS_KEY, 3);
+    testAuditWorkload();
+  }
+
+  @Test
+  public void testAuditWorkloadClosedLoop() throws Exception {
+    String workloadInputPath = TestWorkloadGenerator.class.getClassLoader().getResource("audit_trace_hive").toString();
+    conf.set(AuditReplayMapper.INPUT_PATH_KEY, workloadInputPath);
+    conf.setClass(AuditReplayMapper.COMMAND_PARSER_KEY, AuditLogHiveTableParser.class, AuditCommandParser.class);
+    conf.setEnum(AuditReplayMapper.LOAD_MODEL_KEY, AuditReplayMapper.LoadModel.CLOSED_LOOP);
+    Job job = testAuditWorkload();
+    // The commands are replayed as soon as the replay starts rather than spread over the trace
+    assertTrue(job.getCounters().findCounter(AuditReplayMapper.REPLAYCOUNTERS.COMMANDSPERSECOND).getValue() > 0);
+  }
+
+  @Test
+  public void testAuditWorkloadCompiledTrace() throws Exception {
+    String workloadInputPath =
+        TestWorkloadGenerator.class.getClassLoader().getResource("audit_trace_direct").toString();
+    conf.setLong(AuditLogDirectParser.AUDIT_START_TIMESTAMP_KEY, 60*1000);
+    Job compileJob = AuditTraceCompiler.getJobForSubmission(conf, workloadInputPath, "/compiled_trace", 1);
+    assertTrue("compile job should succeed", compileJob.waitForCompletion(true));
+    conf.set(AuditReplayMapper.INPUT_PATH_KEY, "/compiled_trace");
+    conf.setClass(AuditReplayMapper.COMMAND_PARSER_KEY, CompiledAuditTraceParser.class, AuditCommandParser.class);
+    testAuditWorkload();
+  }
+
+  @Test
+  public void testAuditWorkloadAmplifiedTrace() throws Exception {
+    String workloadInputPath =
+        TestWorkloadGenerator.class.getClassLoader().getResource("audit_trace_direct").toString();
+    conf.setLong(AuditLogDirectParser.AUDIT_START_TIMESTAMP_KEY, 60*1000);
+    conf.setInt(AuditTraceAmplifier.FACTOR_KEY, 2);
+    conf.set(AuditTraceAmplifier.PATH_PREFIXES_KEY, "/tmp");
+    conf.setLong(AuditTraceAmplifier.MAX_OFFSET_MS_KEY, 100);
+    Job amplifyJob = AuditTraceAmplifier.getJobForSubmission(conf, workloadInputPath, "/amplified_trace", 2);
+    assertTrue("amplify job should succeed", amplifyJob.waitForCompletion(true));
+
+    // The clone's namespace, as would be created by cloning the fsimage
+    Path cloneTmp = new Path("/" + AuditTraceAmplifier.CLONE_DIR_DEFAULT + "/1/tmp");
+    dfs.mkdirs(cloneTmp, new FsPermission(FsAction.ALL, FsAction.ALL, FsAction.ALL));
+    dfs.setOwner(cloneTmp, "hdfs_clone1", "hdfs");
+    conf.set(AuditReplayMapper.INPUT_PATH_KEY, "/amplified_trace");
+    conf.setClass(AuditReplayMapper.COMMAND_PARSER_KEY, CompiledAuditTraceParser.class, AuditCommandParser.class);
+    Job workloadJob = WorkloadDriver.getJobForSubmission(conf, dfs.getUri().toString(),
+        System.currentTimeMillis() + 10000, AuditReplayMapper.class);
+    assertTrue("workload job should succeed", workloadJob.waitForCompletion(true));
+    Counters counters = workloadJob.getCounters();
+    assertEquals(12, counters.findCounter(AuditReplayMapper.REPLAYCOUNTERS.TOTALCOMMANDS).getValue());
+    // Both the original and cloned mkdirs of /denied, which is not cloned, fail
+    assertEquals(2, counters.findCounter(AuditReplayMapper.REPLAYCOUNTERS.TOTALINVALIDCOMMANDS).getValue());
+    assertTrue(dfs.getFileStatus(new Path("/tmp/test1")).isFile());
+    assertTrue(dfs.getFileStatus(new Path(cloneTmp, "test1")).isFile());
+    assertEquals("hdfs_clone1", dfs.getFileStatus(new Path(cloneTmp, "test1")).getOwner());
+    assertTrue(dfs.getFileStatus(new Path(cloneTmp, "testDirRenamed")).isDirectory());
+    assertFalse(dfs.exists(new Path("/denied")));
+  }
+
+  @Test
+  public void testSyntheticWorkload() throws Exception {
+    conf.setInt(CreateFileMapper.NUM_MAPPERS_KEY, 1);
+    conf.setInt(CreateFileMapper.DURATION_MIN_KEY, 1);
+    conf.setInt(SyntheticWorkloadMapper.NUM_THREADS_KEY, 2);
+    conf.set(SyntheticWorkloadMapper.OPERATION_MIX_KEY,
+        "getfileinfo:4,liststatus:1,open:1,contentsummary:1,create:2,mkdirs:1,rename:1,delete:1");
+    conf.setLong(SyntheticWorkloadMapper.MAX_OPERATIONS_KEY, 200);
+    conf.setInt(SyntheticWorkloadMapper.NAMESPACE_FAN_OUT_KEY, 3);
+    conf.setInt(SyntheticWorkloadMapper.NAMESPACE_FILES_PER_DIR_KEY, 2);
+    Job workloadJob = WorkloadDriver.getJobForSubmission(conf, dfs.getUri().toString(),
+        System.currentTimeMillis() + 10000, SyntheticWorkloadMapper.class);
+    assertTrue("workload job should succeed", workloadJob.waitForCompletion(true));
+    Counters counters = workloadJob.getCounters();
+    assertEquals(200, counters.findCounter(SyntheticWorkloadMapper.SYNTHETICCOUNTERS.TOTALOPERATIONS).getValue());
+    assertEquals(0, counters.findCounter(SyntheticWorkloadMapper.SYNTHETICCOUNTERS.FAILEDOPERATIONS).getValue());
+    assertTrue(counters.findCounter(SyntheticWorkloadMapper.OPERATIONS_COUNTER_GROUP, "GETFILEINFO_COUNT")
+        .getValue() > 0);
+    long medianUs =
+        counters.findCounter(AuditReplayMapper.LATENCY_PERCENTILES_COUNTER_GROUP, "ALL_P50_US").getValue();
+    assertTrue(medianUs > 0);
+    assertTrue(dfs.getFileStatus(new Path(SyntheticWorkloadMapper.NAMESPACE_ROOT_DEFAULT + "/mapper0/dir2/dir2/file1"))
+        .isFile());
+  }
+
+  @Test
+  public void testSyntheticWorkloadPathDictionary() throws Exception {
+    dfs.mkdirs(new Path("/tmp/dictionary/dir"));
+    dfs.create(new Path("/tmp/dictionary/dir/file")).close();
+    PathDictionary.write(dfs.create(new Path("/dictionary")), Arrays.asList("/tmp/dictionary/dir/file"),
+        new double[] {1}, Arrays.asList("/tmp/dictionary", "/tmp/dictionary/dir"), new double[] {0, 1});
+    conf.setInt(CreateFileMapper.NUM_MAPPERS_KEY, 1);
+    conf.setInt(CreateFileMapper.DURATION_MIN_KEY, 1);
+    conf.set(SyntheticWorkloadMapper.OPERATION_MIX_KEY, "getfileinfo:1,open:1,create:1");
+    conf.setLong(SyntheticWorkloadMapper.MAX_OPERATIONS_KEY, 50);
+    conf.set(SyntheticWorkloadMapper.NAMESPACE_DICTIONARY_KEY, dfs.getUri() + "/dictionary");
+    Job workloadJob = WorkloadDriver.getJobForSubmission(conf, dfs.getUri().toString(),
+        System.currentTimeMillis() + 10000, SyntheticWorkloadMapper.class);
+    assertTrue("workload job should succeed", workloadJob.waitForCompletion(true));
+    Counters counters = workloadJob.getCounters();
+    assertEquals(50, counters.findCounter(SyntheticWorkloadMapper.SYNTHETICCOUNTERS.TOTALOPERATIONS).getValue());
+    assertEquals(0, counters.findCounter(SyntheticWorkloadMapper.SYNTHETICCOUNTERS.FAILEDOPERATIONS).getValue());
+    // Files are only created in the directory with a nonzero weight
+    long created = counters.findCounter(SyntheticWorkloadMapper.OPERATIONS_COUNTER_GROUP, "CREATE_COUNT").getValue();
+    assertEquals(created + 1, dfs.listStatus(new Path("/tmp/dictionary/dir")).length);
+  }
+
   /**
    * {@link ImpersonationProvider} that confirms the user doing the impersonating is the same as the user
    * running the MiniCluster.
@@ -93,7 +357,7 @@ public class TestWorkloadGenerator {
     }
   }
 
-  private void testAuditWorkload() throws Exception {
+  private Job testAuditWorkload() throws Exception {
     long workloadStartTime = System.currentTimeMillis() + 10000;
     Job workloadJob = WorkloadDriver.getJobForSubmission(conf, dfs.getUri().toString(),
         workloadStartTime, AuditReplayMapper.class);
@@ -102,8 +366,16 @@ public class TestWorkloadGenerator {
     Counters counters = workloadJob.getCounters();
     assertEquals(6, counters.findCounter(AuditReplayMapper.REPLAYCOUNTERS.TOTALCOMMANDS).getValue());
     assertEquals(1, counters.findCounter(AuditReplayMapper.REPLAYCOUNTERS.TOTALINVALIDCOMMANDS).getValue());
+    long medianUs =
+        counters.findCounter(AuditReplayMapper.LATENCY_PERCENTILES_COUNTER_GROUP, "ALL_P50_US").getValue();
+    long maxUs =
+        counters.findCounter(AuditReplayMapper.LATENCY_PERCENTILES_COUNTER_GROUP, "ALL_MAX_US").getValue();
+    assertTrue(medianUs > 0 && medianUs <= maxUs);
+    // Only the fixed set of percentiles of all commands is published as counters
+    assertEquals(5, counters.getGroup(AuditReplayMapper.LATENCY_PERCENTILES_COUNTER_GROUP).size());
     assertTrue(dfs.getFileStatus(new Path("/tmp/test1")).isFile());
     assertTrue(dfs.getFileStatus(new Path("/tmp/testDirRenamed")).isDirectory());
     assertFalse(dfs.exists(new Path("/denied")));
+    return workloadJob;
   }
 }
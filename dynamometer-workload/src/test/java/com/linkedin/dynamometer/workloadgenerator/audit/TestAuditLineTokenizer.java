@@ -0,0 +1,66 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class TestAuditLineTokenizer {
+
+  private final AuditLineTokenizer tokenizer = new AuditLineTokenizer();
+
+  @Test
+  public void testTokens() throws Exception {
+    tokenizer.reset(new Text("a\t\t b=c \t/d\u00efr/\u6587\u4ef6\t"));
+    assertTrue(tokenizer.nextToken('\t'));
+    assertEquals("a", tokenizer.getTokenString());
+    assertTrue(tokenizer.nextToken('\t'));
+    assertEquals("", tokenizer.getTokenString());
+    assertTrue(tokenizer.nextToken('\t'));
+    tokenizer.trimToken();
+    assertEquals("b=c", tokenizer.getTokenString());
+    int separator = tokenizer.indexOfInToken('=');
+    assertTrue(tokenizer.regionEquals(tokenizer.getTokenStart(), separator, "b".getBytes(StandardCharsets.UTF_8)));
+    tokenizer.setToken(separator + 1, tokenizer.getTokenEnd());
+    assertEquals("c", tokenizer.getTokenString());
+    assertTrue(tokenizer.nextToken('\t'));
+    assertEquals("/d\u00efr/\u6587\u4ef6", tokenizer.getTokenString());
+    assertFalse(tokenizer.nextToken('\t'));
+  }
+
+  @Test
+  public void testSkipPastAndNumbers() throws Exception {
+    tokenizer.reset(new Text("prefix: 1234,-56,x"));
+    assertFalse(tokenizer.skipPast("::".getBytes(StandardCharsets.UTF_8)));
+    assertEquals(0, tokenizer.getPosition());
+    assertTrue(tokenizer.skipPast(": ".getBytes(StandardCharsets.UTF_8)));
+    tokenizer.requireNextToken(',');
+    assertEquals(1234, tokenizer.getTokenLong());
+    tokenizer.requireNextToken(',');
+    assertEquals(-56, tokenizer.getTokenLong());
+    tokenizer.requireNextToken(',');
+    try {
+      tokenizer.getTokenLong();
+      fail("Should not parse a non-numeric token");
+    } catch (IOException expected) {
+      // Expected
+    }
+    try {
+      tokenizer.requireNextToken(',');
+      fail("Should fail when there are no tokens remaining");
+    } catch (IOException expected) {
+      // Expected
+    }
+  }
+
+}
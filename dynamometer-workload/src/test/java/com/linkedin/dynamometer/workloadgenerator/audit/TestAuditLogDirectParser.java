@@ -5,12 +5,19 @@
 package com.linkedin.dynamometer.workloadgenerator.audit;
 
 import com.google.common.base.Function;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
 import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 
 public class TestAuditLogDirectParser {
@@ -72,4 +79,52 @@ public class TestAuditLogDirectParser {
     assertEquals(expected, parser.parse(in, IDENTITY_FN));
   }
 
+  @Test
+  public void testAfternoonTimestamp() throws Exception {
+    Text in = getAuditString("1970-01-01 13:00:11,000", "fakeUser", "listStatus", "sourcePath", "null");
+    AuditReplayCommand expected =
+        new AuditReplayCommand(13 * 60 * 60 * 1000 + 1000, "fakeUser", "listStatus", "sourcePath", "null", "0.0.0.0");
+    assertEquals(expected, parser.parse(in, IDENTITY_FN));
+  }
+
+  @Test
+  public void testTimestampsMatchDateFormat() throws Exception {
+    SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
+    dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    AuditTimestampDecoder decoder = new AuditTimestampDecoder();
+    Random random = new Random(0);
+    for (int i = 0; i < 10000; i++) {
+      // Between 1970 and 2100, covering leap days and century boundaries
+      long timestamp = (long) (random.nextDouble() * 4102444800000L);
+      byte[] bytes = dateFormat.format(new Date(timestamp)).getBytes(StandardCharsets.UTF_8);
+      assertEquals(timestamp, decoder.decode(bytes, 0, bytes.length));
+    }
+  }
+
+  @Test
+  public void testInvalidTimestamp() throws Exception {
+    for (String timestamp : new String[] { "1970-01-01 00:00:11", "1970-13-01 00:00:11,000",
+        "1970-02-29 00:00:11,000", "1970-01-01 24:00:11,000", "1970-01-01T00:00:11,000" }) {
+      try {
+        parser.parse(getAuditString(timestamp, "fakeUser", "listStatus", "sourcePath", "null"), IDENTITY_FN);
+        fail("Timestamp should be invalid: " + timestamp);
+      } catch (IOException expected) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void testInputWithExtraFields() throws Exception {
+    Text in = new Text("1970-01-01 00:00:11,000 INFO FSNamesystem.audit: allowed=true\tugi=fakeUser\t" +
+        "ip=/127.0.0.1\tcmd=open\tsrc=/src\tdst=null\tperm=null\tproto=rpc\tcallerContext=job_1:task_2");
+    AuditReplayCommand expected = new AuditReplayCommand(1000, "fakeUser", "open", "/src", "null", "/127.0.0.1");
+    assertEquals(expected, parser.parse(in, IDENTITY_FN));
+  }
+
+  @Test(expected = IOException.class)
+  public void testInputWithoutMessage() throws Exception {
+    parser.parse(new Text("1970-01-01 00:00:11,000 INFO FSNamesystem.audit"), IDENTITY_FN);
+  }
+
 }
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.ReplayCommand;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestAuditReplayCommand {
+
+  @Test
+  public void testResolvedFields() {
+    AuditReplayCommand cmd = new AuditReplayCommand(1000, "hdfs/127.0.0.1@REALM.COM", "rename (options=[TO_TRASH])",
+        "/tmp/dir/file", "/file2", "0.0.0.0");
+    assertEquals("hdfs", cmd.getSimpleUgi());
+    assertEquals(ReplayCommand.RENAME, cmd.getReplayCommand());
+    assertEquals("/tmp/dir/file", cmd.getSrc());
+    assertEquals("/file2", cmd.getDest());
+
+    cmd = new AuditReplayCommand(1000, "proxyUser (auth:TOKEN) via fakeUser", "notACommand", "null", "null",
+        "0.0.0.0");
+    assertEquals("proxyUser", cmd.getSimpleUgi());
+    assertNull(cmd.getReplayCommand());
+    assertEquals("null", cmd.getSrc());
+
+    cmd = new AuditReplayCommand(1000, "hdfs", "listSnapshottableDirectory", "null", "null", "0.0.0.0");
+    assertEquals(ReplayCommand.LISTSNAPSHOTTABLEDIRECTORY, cmd.getReplayCommand());
+    cmd = new AuditReplayCommand(1000, "hdfs", "setXAttr", "/a", "null", "0.0.0.0");
+    assertEquals(ReplayCommand.SETXATTR, cmd.getReplayCommand());
+  }
+
+  @Test
+  public void testPoolRecyclesCommands() {
+    AuditReplayCommand first = AuditReplayCommand.obtain(1000, "hdfs", "open", "/a", "null", "0.0.0.0");
+    first.release();
+    AuditReplayCommand second = AuditReplayCommand.obtain(2000, "other", "mkdirs", "/b/c", "null", "0.0.0.0");
+    assertSame(first, second);
+    assertEquals(2000, second.getAbsoluteTimestamp());
+    assertEquals("other", second.getSimpleUgi());
+    assertEquals(ReplayCommand.MKDIRS, second.getReplayCommand());
+    assertEquals("/b/c", second.getSrc());
+    // Joined once, and rebuilt for the new path once recycled
+    assertSame(second.getSrc(), second.getSrc());
+    second.release();
+    AuditReplayCommand third = AuditReplayCommand.obtain(3000, "other", "mkdirs", "/b/d", "null", "0.0.0.0");
+    assertEquals("/b/d", third.getSrc());
+  }
+
+  @Test
+  public void testSrcHashCodes() {
+    for (String src : new String[] { "/tmp/dir/file", "/file", "/", "null" }) {
+      AuditReplayCommand cmd = new AuditReplayCommand(1000, "hdfs", "open", src, "null", "0.0.0.0");
+      assertTrue(cmd.hasSrc());
+      assertEquals(src.hashCode(), cmd.getSrcHashCode());
+      int lastSlash = src.lastIndexOf('/');
+      assertEquals(lastSlash > 0 ? src.substring(0, lastSlash).hashCode() : 0, cmd.getSrcParentHashCode());
+    }
+    assertFalse(new AuditReplayCommand(1000, "hdfs", "open", null, null, "0.0.0.0").hasSrc());
+  }
+
+}
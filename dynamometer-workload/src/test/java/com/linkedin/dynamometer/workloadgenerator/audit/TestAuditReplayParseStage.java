@@ -0,0 +1,121 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class TestAuditReplayParseStage {
+
+  private static class CollectingSink implements AuditReplayParseStage.CommandSink {
+    private final List<Long> timestamps = new ArrayList<>();
+
+    @Override
+    public void accept(AuditReplayCommand cmd) {
+      timestamps.add(cmd.getAbsoluteTimestamp());
+      cmd.release();
+    }
+  }
+
+  private AuditReplayParseStage createStage(int numThreads, int bufferSize, CollectingSink sink)
+      throws IOException {
+    List<AuditCommandParser> parsers = new ArrayList<>();
+    for (int i = 0; i < Math.max(numThreads, 1); i++) {
+      AuditCommandParser parser = new AuditLogHiveTableParser();
+      parser.initialize(new Configuration(false));
+      parsers.add(parser);
+    }
+    return new AuditReplayParseStage(parsers, numThreads, bufferSize, Functions.<Long>identity(), new ReplayClock(),
+        sink);
+  }
+
+  private Text getLine(long timestamp) {
+    return new Text(timestamp + "\u0001hdfs\u0001open\u0001/tmp/" + timestamp + "\u0001null\u00010.0.0.0");
+  }
+
+  @Test
+  public void testOrderPreserved() throws Exception {
+    for (int numThreads : new int[] { 0, 1, 3 }) {
+      CollectingSink sink = new CollectingSink();
+      AuditReplayParseStage stage = createStage(numThreads, 16, sink);
+      // Reuse the same Text for every line, as the MapReduce framework does
+      Text line = new Text();
+      for (long i = 0; i < 10000; i++) {
+        line.set(getLine(i));
+        stage.submit(line);
+        assertTrue(stage.getBacklog() <= 16);
+      }
+      stage.finish();
+      assertEquals(10000, sink.timestamps.size());
+      for (int i = 0; i < sink.timestamps.size(); i++) {
+        assertEquals(i, (long) sink.timestamps.get(i));
+      }
+      assertEquals(0, stage.getBacklog());
+      assertEquals(10000, stage.getSubmittedCount());
+      // All of the timestamps are in the past
+      assertEquals(10000, stage.getLateCommands());
+    }
+  }
+
+  @Test
+  public void testParseErrorPropagated() throws Exception {
+    CollectingSink sink = new CollectingSink();
+    AuditReplayParseStage stage = createStage(2, 4, sink);
+    stage.submit(getLine(1));
+    stage.submit(new Text("notATimestamp\u0001hdfs"));
+    stage.submit(getLine(3));
+    try {
+      stage.finish();
+      fail("The parse error should be thrown");
+    } catch (IOException expected) {
+      // Expected
+    }
+    assertEquals(1, sink.timestamps.size());
+  }
+
+  @Test
+  public void testParseErrorFromParserThread() throws Exception {
+    CollectingSink sink = new CollectingSink();
+    List<AuditCommandParser> parsers = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      AuditCommandParser parser = new AuditLogHiveTableParser() {
+        @Override
+        public AuditReplayCommand parse(Text inputLine, Function<Long, Long> relativeToAbsolute)
+            throws IOException {
+          if (inputLine.toString().startsWith("2")) {
+            throw new AssertionError("Unexpected line: " + inputLine);
+          }
+          return super.parse(inputLine, relativeToAbsolute);
+        }
+      };
+      parser.initialize(new Configuration(false));
+      parsers.add(parser);
+    }
+    AuditReplayParseStage stage = new AuditReplayParseStage(parsers, 2, 4, Functions.<Long>identity(),
+        new ReplayClock(), sink);
+    stage.submit(getLine(1));
+    stage.submit(getLine(2));
+    stage.submit(getLine(3));
+    try {
+      stage.finish();
+      fail("The error should be thrown rather than leaving the submitter waiting");
+    } catch (IOException expected) {
+      assertTrue(expected.getCause() instanceof AssertionError);
+    }
+    assertEquals(1, sink.timestamps.size());
+  }
+
+}
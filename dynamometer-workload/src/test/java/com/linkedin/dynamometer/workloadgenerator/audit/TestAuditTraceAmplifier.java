@@ -0,0 +1,58 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestAuditTraceAmplifier {
+
+  @Test
+  public void testClonePath() {
+    String[] all = AuditTraceAmplifier.getPathPrefixes("/");
+    assertEquals("/clones/1/tmp/file", AuditTraceAmplifier.clonePath("/tmp/file", "/clones/1", all));
+    assertEquals("/clones/1", AuditTraceAmplifier.clonePath("/", "/clones/1", all));
+    assertEquals("null", AuditTraceAmplifier.clonePath("null", "/clones/1", all));
+    assertNull(AuditTraceAmplifier.clonePath(null, "/clones/1", all));
+    assertEquals("[/clones/2/tmp/a, /clones/2/tmp/b]",
+        AuditTraceAmplifier.clonePath("[/tmp/a, /tmp/b]", "/clones/2", all));
+
+    String[] some = AuditTraceAmplifier.getPathPrefixes("/user/, /data");
+    assertArrayEquals(new String[] { "/user", "/data" }, some);
+    assertEquals("/clones/1/user/a", AuditTraceAmplifier.clonePath("/user/a", "/clones/1", some));
+    assertEquals("/clones/1/data", AuditTraceAmplifier.clonePath("/data", "/clones/1", some));
+    assertEquals("/database/a", AuditTraceAmplifier.clonePath("/database/a", "/clones/1", some));
+    assertEquals("/tmp/a", AuditTraceAmplifier.clonePath("/tmp/a", "/clones/1", some));
+  }
+
+  @Test
+  public void testCloneUgi() {
+    assertEquals("hdfs_clone1", AuditTraceAmplifier.cloneUgi("hdfs", "_clone1"));
+    assertEquals("hdfs_clone1@REALM.COM", AuditTraceAmplifier.cloneUgi("hdfs@REALM.COM", "_clone1"));
+    assertEquals("hdfs_clone2/127.0.0.1@REALM.COM",
+        AuditTraceAmplifier.cloneUgi("hdfs/127.0.0.1@REALM.COM", "_clone2"));
+    assertEquals("user_clone1 (auth:PROXY) via hdfs (auth:SIMPLE)",
+        AuditTraceAmplifier.cloneUgi("user (auth:PROXY) via hdfs (auth:SIMPLE)", "_clone1"));
+    assertNull(AuditTraceAmplifier.cloneUgi(null, "_clone1"));
+  }
+
+  @Test
+  public void testCloneOffsets() {
+    long[] offsets = AuditTraceAmplifier.getCloneOffsets(4, 1000, 42);
+    assertEquals(0, offsets[0]);
+    for (int i = 1; i < offsets.length; i++) {
+      assertTrue(offsets[i] >= 0 && offsets[i] < 1000);
+    }
+    // Every mapper must shift each clone by the same amount
+    assertArrayEquals(offsets, AuditTraceAmplifier.getCloneOffsets(4, 1000, 42));
+    assertArrayEquals(new long[] { 0, 0 }, AuditTraceAmplifier.getCloneOffsets(2, 0, 42));
+  }
+
+}
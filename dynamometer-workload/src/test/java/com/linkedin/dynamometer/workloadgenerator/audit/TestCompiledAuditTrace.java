@@ -0,0 +1,122 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import com.google.common.base.Functions;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class TestCompiledAuditTrace {
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private Configuration conf;
+  private FileSystem localFs;
+  private Path tracePath;
+
+  @Before
+  public void setup() throws Exception {
+    conf = new Configuration();
+    localFs = FileSystem.getLocal(conf);
+    tracePath = new Path(new File(tmpDir.getRoot(), "trace").toURI());
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    List<AuditReplayCommand> commands = new ArrayList<>();
+    commands.add(new AuditReplayCommand(10, "hdfs", "create", "/tmp/dir/file1", "null", "0.0.0.0"));
+    commands.add(new AuditReplayCommand(10, "hdfs", "open", "/tmp/dir/file1", "null", "0.0.0.0"));
+    commands.add(new AuditReplayCommand(25, "otherUser", "rename (options=[TO_TRASH])", "/tmp/dir/file2",
+        "/user/otherUser/.Trash/file2", "127.0.0.1"));
+    commands.add(new AuditReplayCommand(25, "hdfs", "listStatus", "/tmp", "null", "0.0.0.0"));
+    commands.add(new AuditReplayCommand(3000, "hdfs", "mkdirs", "/tmp/d\u00efr/\u6587\u4ef6", "null", "0.0.0.0"));
+    commands.add(new AuditReplayCommand(3000, "hdfs", "mkdirs", "/tmp/d\u00efr/other", null, null));
+    commands.add(new AuditReplayCommand(3001, null, "getfileinfo", null, "null", "0.0.0.0"));
+
+    CompiledAuditTraceWriter writer = new CompiledAuditTraceWriter(localFs.create(tracePath));
+    for (AuditReplayCommand cmd : commands) {
+      writer.write(cmd.getAbsoluteTimestamp(), cmd.getUgi(), cmd.getCommand(), cmd.getSrc(), cmd.getDest(),
+          cmd.getSourceIP());
+    }
+    writer.close();
+
+    assertEquals(commands, readTrace());
+  }
+
+  @Test
+  public void testRejectsOtherFiles() throws Exception {
+    localFs.create(tracePath).close();
+    try {
+      readTrace();
+      fail("Reading an empty file should fail");
+    } catch (IOException expected) {
+      // Expected
+    }
+    writeBytes(new byte[] { 'D', 'Y', 'A', 'T', 9 });
+    try {
+      readTrace();
+      fail("Reading an unknown version should fail");
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage().contains("version"));
+    }
+  }
+
+  @Test
+  public void testRejectsTruncatedRecord() throws Exception {
+    CompiledAuditTraceParser parser = new CompiledAuditTraceParser();
+    // A timestamp delta and a reference to a dictionary entry which does not exist
+    try {
+      parser.parse(new Text(new byte[] { 1, 0 }), Functions.<Long>identity());
+      fail("Parsing an invalid record should fail");
+    } catch (IOException expected) {
+      // Expected
+    }
+  }
+
+  private void writeBytes(byte[] bytes) throws IOException {
+    try (OutputStream out = localFs.create(tracePath, true)) {
+      out.write(bytes);
+    }
+  }
+
+  private List<AuditReplayCommand> readTrace() throws IOException, InterruptedException {
+    CompiledAuditTraceParser parser = new CompiledAuditTraceParser();
+    parser.initialize(conf);
+    List<AuditReplayCommand> commands = new ArrayList<>();
+    FileSplit split = new FileSplit(tracePath, 0, localFs.getFileStatus(tracePath).getLen(), null);
+    try (RecordReader<?, Text> reader = new CompiledAuditTraceInputFormat().createRecordReader(split, null)) {
+      reader.initialize(split, new TaskAttemptContextImpl(conf, new TaskAttemptID()));
+      while (reader.nextKeyValue()) {
+        commands.add(parser.parse(reader.getCurrentValue(), Functions.<Long>identity()));
+      }
+      assertFalse(reader.nextKeyValue());
+      assertEquals(1.0f, reader.getProgress(), 0.0f);
+    }
+    return commands;
+  }
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestDependencyTracker {
+
+  private DependencyTracker tracker;
+
+  @Before
+  public void setup() {
+    tracker = new DependencyTracker();
+  }
+
+  private AuditReplayCommand register(String command, String src, String dest) {
+    AuditReplayCommand cmd = new AuditReplayCommand(0, "user", command, src, dest, "0.0.0.0");
+    tracker.register(cmd);
+    return cmd;
+  }
+
+  private AuditReplayCommand register(String command, String src) {
+    return register(command, src, null);
+  }
+
+  @Test
+  public void testCreateWaitsForParentMkdirs() {
+    AuditReplayCommand mkdirs = register("mkdirs", "/a/b");
+    AuditReplayCommand create = register("create", "/a/b/c");
+    AuditReplayCommand unrelated = register("create", "/a/d");
+    assertFalse(tracker.start(create));
+    assertTrue(tracker.start(unrelated));
+    assertTrue(tracker.start(mkdirs));
+    assertEquals(1, tracker.getWaitingCommands());
+    assertEquals(Collections.singletonList(create), tracker.complete(mkdirs));
+    assertEquals(0, tracker.getWaitingCommands());
+    assertTrue(tracker.complete(create).isEmpty());
+    assertTrue(tracker.complete(unrelated).isEmpty());
+    assertEquals(0, tracker.getTrackedPaths());
+  }
+
+  @Test
+  public void testReadsAndWritesOnSamePath() {
+    AuditReplayCommand read1 = register("getfileinfo", "/a");
+    AuditReplayCommand read2 = register("open", "/a");
+    AuditReplayCommand delete = register("delete", "/a");
+    AuditReplayCommand read3 = register("getfileinfo", "/a");
+    assertTrue(tracker.start(read1));
+    assertTrue(tracker.start(read2));
+    assertFalse(tracker.start(delete));
+    assertFalse(tracker.start(read3));
+    assertTrue(tracker.complete(read2).isEmpty());
+    assertEquals(Collections.singletonList(delete), tracker.complete(read1));
+    assertEquals(Collections.singletonList(read3), tracker.complete(delete));
+    assertTrue(tracker.complete(read3).isEmpty());
+    assertEquals(0, tracker.getTrackedPaths());
+  }
+
+  @Test
+  public void testDeleteWaitsForDescendants() {
+    AuditReplayCommand list = register("listStatus", "/a");
+    AuditReplayCommand create = register("create", "/a/b/c");
+    AuditReplayCommand read = register("getfileinfo", "/a/b/d");
+    AuditReplayCommand delete = register("delete", "/a");
+    // A write beneath an earlier read does not depend on it
+    assertTrue(tracker.start(create));
+    assertTrue(tracker.start(read));
+    assertFalse(tracker.start(delete));
+    assertTrue(tracker.complete(create).isEmpty());
+    assertTrue(tracker.complete(read).isEmpty());
+    assertEquals(Collections.singletonList(delete), tracker.complete(list));
+    assertTrue(tracker.complete(delete).isEmpty());
+  }
+
+  @Test
+  public void testRenameChain() {
+    AuditReplayCommand create = register("create", "/src/file");
+    AuditReplayCommand rename1 = register("rename", "/src", "/dst1");
+    AuditReplayCommand rename2 = register("rename", "/dst1", "/dst2");
+    AuditReplayCommand open = register("open", "/dst2/file");
+    // Renaming into a subdirectory of the source must not depend upon itself
+    AuditReplayCommand rename3 = register("rename", "/dst2", "/dst2/sub");
+    assertFalse(tracker.start(open));
+    assertFalse(tracker.start(rename2));
+    assertFalse(tracker.start(rename1));
+    assertTrue(tracker.start(create));
+    assertEquals(Collections.singletonList(rename1), tracker.complete(create));
+    assertEquals(Collections.singletonList(rename2), tracker.complete(rename1));
+    assertEquals(Collections.singletonList(open), tracker.complete(rename2));
+    assertFalse(tracker.start(rename3));
+    assertEquals(Collections.singletonList(rename3), tracker.complete(open));
+    assertTrue(tracker.complete(rename3).isEmpty());
+    assertEquals(0, tracker.getTrackedPaths());
+  }
+
+  @Test
+  public void testPredecessorCompletesBeforeStart() {
+    AuditReplayCommand mkdirs = register("mkdirs", "/a");
+    AuditReplayCommand create = register("create", "/a/b");
+    assertTrue(tracker.start(mkdirs));
+    // The create has not been taken by a replay thread yet, so it is not returned
+    assertTrue(tracker.complete(mkdirs).isEmpty());
+    assertTrue(tracker.start(create));
+    assertTrue(tracker.complete(create).isEmpty());
+  }
+
+  @Test
+  public void testUntrackedCommands() {
+    AuditReplayCommand unsupported = register("unknown", "/a");
+    AuditReplayCommand noPath = register("listCachePools", null);
+    AuditReplayCommand concat = register("concat", "/target", "[/a, /b]");
+    AuditReplayCommand open = register("open", "/b");
+    assertTrue(tracker.start(unsupported));
+    assertTrue(tracker.start(noPath));
+    assertFalse(tracker.start(open));
+    assertTrue(tracker.start(concat));
+    assertEquals(Collections.singletonList(open), tracker.complete(concat));
+  }
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestLatencyHistogram {
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getValueAtPercentile(99));
+    Random random = new Random(42);
+    long[] valuesUs = new long[100000];
+    for (int i = 0; i < valuesUs.length; i++) {
+      // Log-uniform between 1 us and about 1 s
+      valuesUs[i] = (long) Math.exp(random.nextDouble() * Math.log(1000000));
+      histogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(valuesUs[i]) + random.nextInt(1000));
+    }
+    Arrays.sort(valuesUs);
+    assertEquals(valuesUs.length, histogram.getTotalCount());
+    assertEquals(valuesUs[valuesUs.length - 1], histogram.getMaxValue());
+    for (double percentile : new double[] { 0, 10, 50, 90, 99, 99.9, 99.99, 100 }) {
+      long expected = valuesUs[Math.max(0, (int) Math.ceil(percentile / 100 * valuesUs.length) - 1)];
+      long actual = histogram.getValueAtPercentile(percentile);
+      assertTrue("p" + percentile + ": expected " + expected + " but was " + actual,
+          actual >= expected && actual <= expected * 1.01);
+    }
+  }
+
+  @Test
+  public void testSubMillisecondLatencies() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 99; i++) {
+      histogram.recordNanos(150000);
+    }
+    histogram.recordNanos(TimeUnit.DAYS.toNanos(1));
+    assertEquals(150, histogram.getValueAtPercentile(50));
+    assertEquals(150, histogram.getValueAtPercentile(99));
+    // Values beyond the maximum trackable value are clamped
+    assertEquals((1L << 32) - 1, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void testExpectedIntervalCorrection() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 9; i++) {
+      histogram.recordNanosWithExpectedInterval(TimeUnit.MICROSECONDS.toNanos(100), TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    // A stall of 10 ms also delayed the 9 commands which should have been issued during it
+    histogram.recordNanosWithExpectedInterval(TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(1));
+    assertEquals(19, histogram.getTotalCount());
+    assertEquals(10000, histogram.getMaxValue());
+    assertTrue(histogram.getValueAtPercentile(50) >= 1000);
+    // Without an expected interval, no correction is applied
+    LatencyHistogram uncorrected = new LatencyHistogram();
+    uncorrected.recordNanosWithExpectedInterval(TimeUnit.MILLISECONDS.toNanos(10), 0);
+    assertEquals(1, uncorrected.getTotalCount());
+  }
+
+  @Test
+  public void testMergeAndSerialize() throws Exception {
+    LatencyHistogram first = new LatencyHistogram();
+    LatencyHistogram second = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      (i % 2 == 0 ? first : second).recordNanos(TimeUnit.MICROSECONDS.toNanos(i));
+    }
+    first.add(second);
+    assertEquals(1000, first.getTotalCount());
+    assertEquals(1000, first.getMaxValue());
+    assertEquals(500.5, first.getMean(), 0.001);
+
+    DataOutputBuffer out = new DataOutputBuffer();
+    first.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    // Reuse an existing instance, as the framework does, to check that its contents are replaced
+    second.readFields(in);
+    assertEquals(first.toString(), second.toString());
+    assertEquals(first.getValueAtPercentile(99.9), second.getValueAtPercentile(99.9));
+  }
+
+}
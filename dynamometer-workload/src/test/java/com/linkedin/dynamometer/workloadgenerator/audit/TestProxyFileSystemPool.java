@@ -0,0 +1,155 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class TestProxyFileSystemPool {
+
+  /** Records whether it has been closed. */
+  private static class FakeFileSystem extends RawLocalFileSystem {
+    private volatile boolean closed = false;
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  /** Creates fake FileSystems, optionally blocking the creation for one user until allowed. */
+  private static class FakePool extends ProxyFileSystemPool {
+    private final AtomicInteger creations = new AtomicInteger();
+    private final Map<String, FakeFileSystem> created = new ConcurrentHashMap<>();
+    private volatile String blockedUser = null;
+    private final CountDownLatch creationStarted = new CountDownLatch(1);
+    private final CountDownLatch allowCreation = new CountDownLatch(1);
+    private volatile boolean failCreation = false;
+
+    FakePool(int maxSize) throws IOException {
+      super(new Configuration(), URI.create("hdfs://localhost:9000"), UserGroupInformation.getCurrentUser(),
+          maxSize, true);
+    }
+
+    @Override
+    FileSystem createFileSystem(String user) throws IOException {
+      creations.incrementAndGet();
+      if (user.equals(blockedUser)) {
+        creationStarted.countDown();
+        try {
+          allowCreation.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      if (failCreation) {
+        throw new IOException("Injected failure");
+      }
+      FakeFileSystem fs = new FakeFileSystem();
+      created.put(user, fs);
+      return fs;
+    }
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction() throws Exception {
+    FakePool pool = new FakePool(2);
+    pool.acquire("a").release();
+    pool.acquire("b").release();
+    ProxyFileSystemPool.Entry a = pool.acquire("a");
+    assertSame(pool.created.get("a"), a.getFileSystem());
+    // "b" is now the least recently used
+    pool.acquire("c").release();
+    assertTrue(pool.created.get("b").closed);
+    assertEquals(2, pool.getSize());
+
+    // "a" is evicted while still in use, so it is only closed once released
+    pool.acquire("d").release();
+    assertFalse(pool.created.get("a").closed);
+    a.release();
+    assertTrue(pool.created.get("a").closed);
+    assertFalse(pool.created.get("d").closed);
+
+    assertEquals(1, pool.getHits());
+    assertEquals(4, pool.getMisses());
+    assertEquals(2, pool.getEvictions());
+    pool.close();
+    assertTrue(pool.created.get("c").closed);
+    assertTrue(pool.created.get("d").closed);
+  }
+
+  @Test
+  public void testSingleCreationPerUser() throws Exception {
+    final FakePool pool = new FakePool(0);
+    pool.blockedUser = "user";
+    final FileSystem[] acquired = new FileSystem[4];
+    Thread[] threads = new Thread[acquired.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            ProxyFileSystemPool.Entry entry = pool.acquire("user");
+            acquired[index] = entry.getFileSystem();
+            entry.release();
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    pool.creationStarted.await();
+    // Other users are not blocked by a creation in progress
+    pool.acquire("other").release();
+    pool.allowCreation.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(2, pool.creations.get());
+    for (FileSystem fs : acquired) {
+      assertSame(pool.created.get("user"), fs);
+    }
+    assertEquals(3, pool.getHits());
+    assertEquals(2, pool.getMisses());
+  }
+
+  @Test
+  public void testFailedCreationIsRetried() throws Exception {
+    FakePool pool = new FakePool(0);
+    pool.failCreation = true;
+    try {
+      pool.acquire("user");
+      fail("Creation should have failed");
+    } catch (IOException e) {
+      assertEquals("Injected failure", e.getMessage());
+    }
+    assertEquals(0, pool.getSize());
+    pool.failCreation = false;
+    ProxyFileSystemPool.Entry entry = pool.acquire("user");
+    assertNotNull(entry.getFileSystem());
+    entry.release();
+    assertEquals(2, pool.creations.get());
+  }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.ReplayCommand;
+import com.linkedin.dynamometer.workloadgenerator.audit.ReplayMetricsAggregator.IntervalStats;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counters;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestRateRampController {
+
+  private static final long START_MS = 1000000;
+  private static final long STEP_MS = 10000;
+
+  private static IntervalStats getStats(int completed, int late) {
+    IntervalStats stats = new IntervalStats();
+    for (int i = 0; i < completed; i++) {
+      stats.recordCompleted(ReplayCommand.GETFILEINFO, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    for (int i = 0; i < late; i++) {
+      stats.recordLate(ReplayCommand.GETFILEINFO);
+    }
+    return stats;
+  }
+
+  @Test
+  public void testRampUntilSaturated() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setLong(AuditReplayMapper.RATE_RAMP_STEP_MS_KEY, STEP_MS);
+    conf.setDouble(AuditReplayMapper.RATE_RAMP_STEP_MULTIPLIER_KEY, 2);
+    ReplayClock clock = new ReplayClock();
+    final AtomicBoolean saturated = new AtomicBoolean(false);
+    RateRampController ramp = new RateRampController(conf, clock, 1.5, START_MS, new Runnable() {
+      @Override
+      public void run() {
+        saturated.set(true);
+      }
+    });
+
+    // Intervals before the start of the replay are ignored
+    ramp.publish(START_MS - 5000, START_MS, getStats(0, 0));
+    ramp.publish(START_MS, START_MS + 5000, getStats(500, 0));
+    assertEquals(1.0, clock.getSpeed(), 0.0001);
+    ramp.publish(START_MS + 5000, START_MS + STEP_MS, getStats(500, 5));
+    assertEquals(2.0, clock.getSpeed(), 0.0001);
+    ramp.publish(START_MS + STEP_MS, START_MS + 2 * STEP_MS, getStats(2000, 10));
+    assertEquals(4.0, clock.getSpeed(), 0.0001);
+    assertFalse(saturated.get());
+    // More than 1% of the commands were late
+    ramp.publish(START_MS + 2 * STEP_MS, START_MS + 3 * STEP_MS, getStats(3000, 100));
+    assertTrue(saturated.get());
+    // Returns to the rate of the last step which was not saturated
+    assertEquals(2.0, clock.getSpeed(), 0.0001);
+    ramp.publish(START_MS + 3 * STEP_MS, START_MS + 4 * STEP_MS, getStats(3000, 3000));
+
+    List<RateRampController.Step> steps = ramp.getSteps();
+    assertEquals(3, steps.size());
+    assertEquals(100.0, steps.get(0).getCommandsPerSec(), 0.0001);
+    assertEquals(1.5, steps.get(0).getRateFactor(), 0.0001);
+    assertEquals(6.0, steps.get(2).getRateFactor(), 0.0001);
+    assertTrue(steps.get(2).isSaturated());
+    assertFalse(steps.get(1).isSaturated());
+  }
+
+  @Test
+  public void testSummarize() {
+    Configuration conf = new Configuration(false);
+    conf.setDouble(AuditReplayMapper.RATE_FACTOR_KEY, 1.0);
+    conf.setDouble(AuditReplayMapper.RATE_RAMP_STEP_MULTIPLIER_KEY, 2);
+    Counters counters = new Counters();
+    // Two mappers; the second one found the NameNode to be saturated a step earlier than the first
+    counters.findCounter(AuditReplayMapper.RATE_RAMP_COUNTER_GROUP, "STEP_0_COMMANDS_PER_SEC").setValue(200);
+    counters.findCounter(AuditReplayMapper.RATE_RAMP_COUNTER_GROUP, "STEP_1_COMMANDS_PER_SEC").setValue(400);
+    counters.findCounter(AuditReplayMapper.RATE_RAMP_COUNTER_GROUP, "STEP_2_COMMANDS_PER_SEC").setValue(500);
+    counters.findCounter(AuditReplayMapper.RATE_RAMP_COUNTER_GROUP, "STEP_3_COMMANDS_PER_SEC").setValue(250);
+    counters.findCounter(AuditReplayMapper.RATE_RAMP_COUNTER_GROUP, "STEP_2_SATURATED_MAPPERS").setValue(1);
+    counters.findCounter(AuditReplayMapper.RATE_RAMP_COUNTER_GROUP, "STEP_3_SATURATED_MAPPERS").setValue(1);
+    assertEquals("The NameNode saturated at rate factor 4.000 with a throughput of 500 commands/sec; the highest " +
+        "sustained rate factor was 2.000 with a throughput of 400 commands/sec",
+        RateRampController.summarize(counters, conf));
+
+    counters = new Counters();
+    counters.findCounter(AuditReplayMapper.RATE_RAMP_COUNTER_GROUP, "STEP_0_COMMANDS_PER_SEC").setValue(200);
+    counters.findCounter(AuditReplayMapper.RATE_RAMP_COUNTER_GROUP, "STEP_1_COMMANDS_PER_SEC").setValue(400);
+    assertEquals("The NameNode did not saturate; the highest rate factor reached was 2.000 with a throughput of " +
+        "400 commands/sec", RateRampController.summarize(counters, conf));
+  }
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class TestReadaheadLimitingScheduler {
+
+  private Configuration conf;
+
+  @Before
+  public void setup() {
+    conf = new Configuration();
+    conf.setLong(AuditReplayMapper.READAHEAD_MAX_COMMANDS_KEY, 10);
+    conf.setLong(AuditReplayMapper.READAHEAD_MAX_MS_KEY, 1000);
+  }
+
+  private AuditReplayCommand getCommand(long absoluteTimestamp) {
+    return new AuditReplayCommand(absoluteTimestamp, "fakeUser", "getfileinfo", "/path", "null", "0.0.0.0");
+  }
+
+  @Test
+  public void testBlocksOnQueuedCommands() throws Exception {
+    final ReadaheadLimitingScheduler scheduler = new ReadaheadLimitingScheduler(new TimingWheelScheduler());
+    scheduler.initialize(conf, 1, new ReplayClock());
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < 10; i++) {
+      scheduler.schedule(getCommand(now));
+    }
+    assertEquals(10, scheduler.getQueueDepth());
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(200);
+          for (int i = 0; i < 2; i++) {
+            scheduler.take(0);
+          }
+        } catch (InterruptedException ie) {
+          throw new RuntimeException(ie);
+        }
+      }
+    };
+    consumer.start();
+    // Blocks until the queue has drained to the resume threshold (9 commands)
+    scheduler.schedule(getCommand(now));
+    consumer.join();
+    assertEquals(9, scheduler.getQueueDepth());
+    assertEquals(10, scheduler.getMaxQueueDepth());
+    assertTrue(scheduler.getBlockedTimeMs() >= 100);
+  }
+
+  @Test
+  public void testFailsOnceConsumerExits() throws Exception {
+    final ReadaheadLimitingScheduler scheduler = new ReadaheadLimitingScheduler(new TimingWheelScheduler());
+    scheduler.initialize(conf, 2, new ReplayClock());
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < 10; i++) {
+      scheduler.schedule(getCommand(now));
+    }
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException ie) {
+          throw new RuntimeException(ie);
+        }
+        // The queue will never drain without this thread
+        scheduler.consumerExited(1);
+      }
+    };
+    consumer.start();
+    try {
+      scheduler.schedule(getCommand(now));
+      fail("Scheduling should fail once a replay thread has exited");
+    } catch (IllegalStateException expected) {
+      // Expected
+    }
+    consumer.join();
+    // The remaining thread can still be shut down
+    scheduler.schedule(AuditReplayCommand.getPoisonPill(now + 1), 0);
+  }
+
+  @Test
+  public void testCountsCommandsHeldByDependencies() throws Exception {
+    final DependencyTracker tracker = new DependencyTracker();
+    final ReadaheadLimitingScheduler scheduler =
+        new ReadaheadLimitingScheduler(new TimingWheelScheduler(), tracker);
+    scheduler.initialize(conf, 1, new ReplayClock());
+    long now = System.currentTimeMillis();
+    final AuditReplayCommand mkdirs =
+        new AuditReplayCommand(now, "fakeUser", "mkdirs", "/path", "null", "0.0.0.0");
+    tracker.register(mkdirs);
+    scheduler.schedule(mkdirs);
+    for (int i = 0; i < 9; i++) {
+      AuditReplayCommand cmd = getCommand(now);
+      tracker.register(cmd);
+      scheduler.schedule(cmd);
+    }
+    // Every read is held back until the mkdirs completes, so none of them has been replayed yet
+    assertTrue(tracker.start(scheduler.take(0)));
+    for (int i = 0; i < 9; i++) {
+      assertFalse(tracker.start(scheduler.take(0)));
+    }
+    assertEquals(9, scheduler.getQueueDepth());
+    scheduler.schedule(getCommand(now));
+    assertEquals(10, scheduler.getQueueDepth());
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException ie) {
+          throw new RuntimeException(ie);
+        }
+        // Releases the held commands without taking any further command from the scheduler
+        tracker.complete(mkdirs);
+      }
+    };
+    consumer.start();
+    // Blocks until the held commands have been released
+    scheduler.schedule(getCommand(now));
+    consumer.join();
+    assertEquals(2, scheduler.getQueueDepth());
+    assertTrue(scheduler.getBlockedTimeMs() >= 100);
+  }
+
+  @Test
+  public void testBlocksOnReadaheadTime() throws Exception {
+    ReadaheadLimitingScheduler scheduler = new ReadaheadLimitingScheduler(new TimingWheelScheduler());
+    scheduler.initialize(conf, 1, new ReplayClock());
+    long start = System.currentTimeMillis();
+    scheduler.schedule(getCommand(start + 1300));
+    // Should not resume until the command is within 90% of the 1000 ms readahead
+    assertTrue(System.currentTimeMillis() - start >= 400);
+    assertEquals(1, scheduler.getQueueDepth());
+  }
+
+}
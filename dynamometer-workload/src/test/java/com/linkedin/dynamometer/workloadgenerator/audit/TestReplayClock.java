@@ -0,0 +1,53 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestReplayClock {
+
+  @Test
+  public void testSpeedChanges() throws Exception {
+    ReplayClock clock = new ReplayClock();
+    assertTrue(Math.abs(clock.currentTimeMillis() - System.currentTimeMillis()) <= 1);
+
+    clock.setSpeed(10);
+    long replayStartMs = clock.currentTimeMillis();
+    long wallStartMs = System.currentTimeMillis();
+    // Changing the speed does not make the replay time jump
+    assertTrue(Math.abs(replayStartMs - wallStartMs) <= 20);
+    Thread.sleep(100);
+    long replayElapsedMs = clock.currentTimeMillis() - replayStartMs;
+    long wallElapsedMs = System.currentTimeMillis() - wallStartMs;
+    assertTrue("Expected about " + wallElapsedMs * 10 + " but was " + replayElapsedMs,
+        Math.abs(replayElapsedMs - wallElapsedMs * 10) <= 20);
+    assertEquals(100, clock.toWallDurationMs(1000));
+    assertEquals(-100, clock.toWallDurationMs(-1000));
+
+    // Commands report how long to wait in wall-clock time
+    ReplayClock commandClock = new ReplayClock();
+    commandClock.setSpeed(4);
+    AuditReplayCommand command = new AuditReplayCommand(commandClock.currentTimeMillis() + 4000, "fakeUser",
+        "listStatus", "sourcePath", "null", "0.0.0.0");
+    command.setClock(commandClock);
+    long delayMs = command.getDelay(TimeUnit.MILLISECONDS);
+    assertTrue("Delay was " + delayMs, delayMs > 900 && delayMs <= 1000);
+
+    // Each clock is independent, and a command without one follows the wall clock
+    AuditReplayCommand wallCommand = new AuditReplayCommand(System.currentTimeMillis() + 4000, "fakeUser",
+        "listStatus", "sourcePath", "null", "0.0.0.0");
+    delayMs = wallCommand.getDelay(TimeUnit.MILLISECONDS);
+    assertTrue("Delay was " + delayMs, delayMs > 3900 && delayMs <= 4000);
+    wallCommand.setClock(new ReplayClock());
+    delayMs = wallCommand.getDelay(TimeUnit.MILLISECONDS);
+    assertTrue("Delay was " + delayMs, delayMs > 3900 && delayMs <= 4000);
+  }
+
+}
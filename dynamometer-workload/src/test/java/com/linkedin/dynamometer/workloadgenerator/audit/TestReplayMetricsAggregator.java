@@ -0,0 +1,123 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.ReplayCommand;
+import com.linkedin.dynamometer.workloadgenerator.audit.ReplayMetricsAggregator.IntervalStats;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestReplayMetricsAggregator {
+
+  @Rule
+  public TemporaryFolder tempDir = new TemporaryFolder();
+
+  /** Sums the published intervals. */
+  private static class SummingSink implements ReplayMetricsAggregator.Sink {
+    private final IntervalStats total = new IntervalStats();
+    private int intervals = 0;
+
+    @Override
+    public void publish(long intervalStartMs, long intervalEndMs, IntervalStats stats) {
+      total.add(stats);
+      intervals++;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  @Test
+  public void testNoValuesLostWhileCollecting() throws Exception {
+    SummingSink sink = new SummingSink();
+    final ReplayMetricsAggregator aggregator =
+        new ReplayMetricsAggregator(1000, Collections.<ReplayMetricsAggregator.Sink>singletonList(sink));
+    final int numThreads = 4;
+    final int commandsPerThread = 200000;
+    final CountDownLatch done = new CountDownLatch(numThreads);
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < numThreads; i++) {
+      final ReplayMetricsRecorder recorder = aggregator.createRecorder();
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < commandsPerThread; j++) {
+            recorder.recordCompleted(ReplayCommand.GETFILEINFO, TimeUnit.MICROSECONDS.toNanos(j % 1000));
+            if (j % 10 == 0) {
+              recorder.recordLate(ReplayCommand.GETFILEINFO);
+            }
+            if (j % 100 == 0) {
+              recorder.recordInvalid(ReplayCommand.MKDIRS);
+            }
+          }
+          done.countDown();
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    long intervalEndMs = 0;
+    while (!done.await(1, TimeUnit.MILLISECONDS)) {
+      aggregator.publishInterval(++intervalEndMs);
+    }
+    aggregator.close();
+
+    assertTrue(sink.intervals > 1);
+    assertEquals(numThreads * commandsPerThread, sink.total.getCompleted(ReplayCommand.GETFILEINFO));
+    assertEquals(numThreads * commandsPerThread, sink.total.getLatencies(ReplayCommand.GETFILEINFO).getTotalCount());
+    assertEquals(999, sink.total.getLatencies(ReplayCommand.GETFILEINFO).getMaxValue());
+    assertEquals(numThreads * commandsPerThread / 10, sink.total.getLate(ReplayCommand.GETFILEINFO));
+    assertEquals(numThreads * commandsPerThread / 100, sink.total.getInvalid(ReplayCommand.MKDIRS));
+    assertEquals(0, sink.total.getCompleted(ReplayCommand.MKDIRS));
+  }
+
+  @Test
+  public void testFileSink() throws IOException {
+    File file = new File(tempDir.getRoot(), "metrics.tsv");
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    ReplayMetricsAggregator.Sink sink =
+        new ReplayMetricsAggregator.FileSink(fs.create(new Path(file.getAbsolutePath())));
+    ReplayMetricsAggregator aggregator =
+        new ReplayMetricsAggregator(1000, Collections.singletonList(sink));
+    ReplayMetricsRecorder recorder = aggregator.createRecorder();
+    aggregator.publishInterval(10000);
+    for (int i = 0; i < 20; i++) {
+      recorder.recordCompleted(ReplayCommand.CREATE, TimeUnit.MILLISECONDS.toNanos(2));
+    }
+    recorder.recordLate(ReplayCommand.CREATE);
+    recorder.recordInvalid(ReplayCommand.DELETE);
+    aggregator.publishInterval(12000);
+    // Nothing happened during this interval
+    aggregator.publishInterval(14000);
+    aggregator.close();
+
+    List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    assertEquals(3, lines.size());
+    assertTrue(lines.get(0).startsWith("#"));
+    assertEquals("10000\t12000\tCREATE\t20\t10.0\t0\t1\t2000\t2000\t2000\t2000\t2000", lines.get(1));
+    assertEquals("10000\t12000\tDELETE\t0\t0.0\t1\t0\t0\t0\t0\t0\t0", lines.get(2));
+  }
+
+}
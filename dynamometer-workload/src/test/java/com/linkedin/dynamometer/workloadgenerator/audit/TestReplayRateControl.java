@@ -0,0 +1,87 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestReplayRateControl {
+
+  @Rule
+  public TemporaryFolder tempDir = new TemporaryFolder();
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path controlPath;
+  // Local file modification times may only have a resolution of one second
+  private long modificationTime;
+
+  @Before
+  public void setup() throws Exception {
+    conf = new Configuration();
+    fs = FileSystem.getLocal(conf);
+    controlPath = new Path(tempDir.getRoot().getAbsolutePath(), "rate_control");
+    modificationTime = System.currentTimeMillis();
+  }
+
+  private void update(Double rateFactor, Boolean paused) throws Exception {
+    ReplayRateControl.update(conf, controlPath, rateFactor, paused);
+    modificationTime += 1000;
+    fs.setTimes(controlPath, modificationTime, -1);
+  }
+
+  @Test
+  public void testPollAppliesChanges() throws Exception {
+    ReplayClock clock = new ReplayClock();
+    ReplayRateControl.Poller poller = new ReplayRateControl.Poller(fs, controlPath, clock, 2.0);
+    // The control file does not need to exist
+    poller.poll();
+    assertEquals(1.0, clock.getSpeed(), 0.0001);
+
+    update(5.0, null);
+    poller.poll();
+    assertEquals(2.5, clock.getSpeed(), 0.0001);
+
+    update(null, true);
+    poller.poll();
+    assertTrue(clock.isPaused());
+    long pausedAtMs = clock.currentTimeMillis();
+    Thread.sleep(50);
+    assertEquals(pausedAtMs, clock.currentTimeMillis());
+    assertEquals(Long.MAX_VALUE, clock.toWallDurationMs(1));
+
+    // The rate factor is retained while paused, and applies once resumed
+    update(1.0, null);
+    poller.poll();
+    assertTrue(clock.isPaused());
+    update(null, false);
+    poller.poll();
+    assertFalse(clock.isPaused());
+    assertEquals(0.5, clock.getSpeed(), 0.0001);
+    assertTrue(clock.currentTimeMillis() - pausedAtMs < 20);
+  }
+
+  @Test
+  public void testUpdateKeepsUnspecifiedValues() throws Exception {
+    ReplayRateControl.update(conf, controlPath, 3.0, null);
+    ReplayRateControl.update(conf, controlPath, null, true);
+    assertEquals("3.0", ReplayRateControl.update(conf, controlPath, null, null)
+        .getProperty(ReplayRateControl.RATE_FACTOR_PROPERTY));
+    assertEquals("true", ReplayRateControl.update(conf, controlPath, null, null)
+        .getProperty(ReplayRateControl.PAUSED_PROPERTY));
+    assertFalse(fs.exists(new Path(controlPath.getParent(), "." + controlPath.getName() + ".tmp")));
+  }
+
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.ReplayCommand.GETFILEINFO;
+import static com.linkedin.dynamometer.workloadgenerator.audit.AuditReplayMapper.ReplayCommand.LISTSTATUS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class TestReplayRecordingDiff {
+
+  private static final long MS_NANOS = 1000000;
+
+  private File testDir;
+  private Configuration conf;
+
+  @Before
+  public void setup() {
+    testDir = new File(System.getProperty("test.build.data", "target/test/data"), "replaydiff");
+    FileUtil.fullyDelete(testDir);
+    conf = new Configuration();
+    conf.set("fs.defaultFS", "file:///");
+    conf.set("mapreduce.framework.name", "local");
+  }
+
+  @After
+  public void cleanup() {
+    FileUtil.fullyDelete(testDir);
+  }
+
+  @Test
+  public void testPathPrefix() {
+    assertEquals("/user/alice", ReplayRecordingDiff.getPathPrefix("/user/alice/data/file", 2));
+    assertEquals("/user/alice/data", ReplayRecordingDiff.getPathPrefix("/user/alice/data/file", 5));
+    assertEquals("/user", ReplayRecordingDiff.getPathPrefix("/user/alice/data/file", 1));
+    assertEquals("/", ReplayRecordingDiff.getPathPrefix("/user/alice/data/file", 0));
+    assertEquals("/tmp", ReplayRecordingDiff.getPathPrefix("/tmp/file", 2));
+    assertEquals("/", ReplayRecordingDiff.getPathPrefix("/file", 2));
+    assertEquals("-", ReplayRecordingDiff.getPathPrefix(null, 2));
+    assertEquals("-", ReplayRecordingDiff.getPathPrefix("null", 2));
+  }
+
+  @Test
+  public void testRecordAndDiff() throws Exception {
+    Path baseline = new Path(testDir.getAbsolutePath(), "baseline");
+    Path candidate = new Path(testDir.getAbsolutePath(), "candidate");
+    try (ReplayRecorder recorder = ReplayRecorder.create(conf, new Path(baseline, "0.seq"), 1024)) {
+      for (int i = 0; i < 20; i++) {
+        recorder.record(LISTSTATUS, "/user/alice/" + i, 1000 + i, 1001 + i, MS_NANOS, null);
+        recorder.record(GETFILEINFO, "/user/bob/" + i, 1000 + i, 1001 + i, MS_NANOS, null);
+      }
+      recorder.record(GETFILEINFO, "/tmp/x", 2000, 2000, MS_NANOS, null);
+    }
+    ReplayRecorder candidateRecorder = ReplayRecorder.create(conf, new Path(candidate, "0.seq"), 1024);
+    try (ReplayRecorder recorder = candidateRecorder) {
+      for (int i = 0; i < 20; i++) {
+        // LISTSTATUS of /user/alice regressed, while GETFILEINFO of /user/bob improved
+        recorder.record(LISTSTATUS, "/user/alice/" + i, 1000 + i, 1001 + i, 10 * MS_NANOS, null);
+        recorder.record(GETFILEINFO, "/user/bob/" + i, 1000 + i, 1001 + i, MS_NANOS / 2, null);
+      }
+      recorder.record(GETFILEINFO, "/tmp/x", 2000, 2000, MS_NANOS,
+          "org.apache.hadoop.security.AccessControlException");
+    }
+    assertEquals(41, candidateRecorder.getWrittenRecords());
+    assertEquals(0, candidateRecorder.getDroppedRecords());
+
+    try (SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+        SequenceFile.Reader.file(new Path(candidate, "0.seq")))) {
+      ReplayRecord record = new ReplayRecord();
+      assertTrue(reader.next(NullWritable.get(), record));
+      assertEquals("LISTSTATUS", record.getCommand());
+      assertEquals("/user/alice/0", record.getSrc());
+      assertEquals(1001, record.getActualMs());
+      assertEquals(10 * MS_NANOS, record.getLatencyNanos());
+      assertTrue(record.isSuccess());
+    }
+
+    Path output = new Path(testDir.getAbsolutePath(), "output");
+    assertTrue(ReplayRecordingDiff.getJobForSubmission(conf, baseline.toString(), candidate.toString(),
+        output.toString()).waitForCompletion(false));
+    List<String> lines = FileUtils.readLines(new File(output.toUri().getPath(), "part-r-00000"),
+        StandardCharsets.UTF_8);
+    assertEquals(4, lines.size());
+    assertTrue(lines.get(0).startsWith("command\tpath_prefix\t"));
+    String[] regressed = lines.get(1).split("\t");
+    assertEquals("LISTSTATUS", regressed[0]);
+    assertEquals("/user/alice", regressed[1]);
+    assertEquals("20", regressed[2]);
+    assertEquals("20", regressed[3]);
+    assertTrue(Double.parseDouble(regressed[8]) > 5);
+    String[] improved = lines.get(2).split("\t");
+    assertEquals("/user/bob", improved[1]);
+    assertTrue(Double.parseDouble(improved[8]) < 1);
+    // Too few commands to rank, but the new failure is still reported
+    String[] unranked = lines.get(3).split("\t");
+    assertEquals("GETFILEINFO", unranked[0]);
+    assertEquals("/tmp", unranked[1]);
+    assertEquals("0", unranked[3]);
+    assertEquals("1", unranked[5]);
+    assertEquals("-", unranked[8]);
+
+    try {
+      ReplayRecordingDiff.getJobForSubmission(conf, baseline.toString(), baseline.toString(), output.toString());
+      fail("The same recording should not be diffed against itself");
+    } catch (IllegalArgumentException expected) {
+      // Expected
+    }
+  }
+
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class TestSizedFileWriter {
+
+  @Rule
+  public TemporaryFolder tempDir = new TemporaryFolder();
+
+  private Configuration conf;
+  private FileSystem fs;
+
+  @Before
+  public void setup() throws Exception {
+    conf = new Configuration();
+    conf.setLong(AuditReplayMapper.CREATE_BLOCK_SIZE_KEY, 1000);
+    fs = FileSystem.getLocal(conf);
+  }
+
+  private void writeDistribution(String... lines) throws IOException {
+    File distribution = tempDir.newFile("distribution");
+    try (PrintWriter writer = new PrintWriter(distribution, "UTF-8")) {
+      for (String line : lines) {
+        writer.println(line);
+      }
+    }
+    conf.set(AuditReplayMapper.CREATE_SIZE_DISTRIBUTION_PATH_KEY, distribution.getAbsolutePath());
+  }
+
+  @Test
+  public void testSizesFollowDistribution() throws Exception {
+    assertNull(SizedFileWriter.create(conf));
+    // As output by the Offline Image Viewer
+    writeDistribution("Processed 0 inodes.", "Size\tNumFiles", "0\t100", "1000\t300", "5000\t600",
+        "totalFiles = 1000", "totalDirectories = 10", "maxFileSize = 5000");
+    SizedFileWriter writer = SizedFileWriter.create(conf);
+    int[] counts = new int[3];
+    for (int i = 0; i < 10000; i++) {
+      String path = "/tmp/dir" + (i % 10) + "/file" + i;
+      long size = writer.getSize(path);
+      assertEquals(size, writer.getSize(path));
+      if (size == 0) {
+        counts[0]++;
+      } else if (size <= 1000) {
+        counts[1]++;
+      } else {
+        assertTrue(size <= 5000);
+        counts[2]++;
+      }
+    }
+    assertEquals(1000, counts[0], 200);
+    assertEquals(3000, counts[1], 300);
+    assertEquals(6000, counts[2], 300);
+  }
+
+  @Test
+  public void testCreateFile() throws Exception {
+    writeDistribution("2500\t1");
+    Path file = new Path(tempDir.getRoot().getAbsolutePath(), "file");
+    SizedFileWriter writer = SizedFileWriter.create(conf);
+    long size = writer.getSize(file.toString());
+    assertEquals(writer.getNumBlocks(size), writer.createFile(fs, file.toString()));
+    assertEquals(size, fs.getFileStatus(file).getLen());
+
+    // Each block is written with only the configured number of bytes
+    conf.setLong(AuditReplayMapper.CREATE_BYTES_PER_BLOCK_KEY, 512);
+    writer = SizedFileWriter.create(conf);
+    long numBlocks = writer.createFile(fs, file.toString());
+    assertEquals((size + 999) / 1000, numBlocks);
+    assertEquals(numBlocks * 512, fs.getFileStatus(file).getLen());
+  }
+
+  @Test
+  public void testBytesPerBlockMustBeMultipleOfChecksum() throws Exception {
+    writeDistribution("2500\t1");
+    conf.setLong(AuditReplayMapper.CREATE_BYTES_PER_BLOCK_KEY, 1000);
+    try {
+      SizedFileWriter.create(conf);
+      fail("Bytes per block which are not a multiple of the checksum size should be rejected");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains(AuditReplayMapper.CREATE_BYTES_PER_BLOCK_KEY));
+    }
+    conf.setInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY, 100);
+    SizedFileWriter.create(conf);
+  }
+
+  @Test
+  public void testEmptyDistribution() throws Exception {
+    writeDistribution("Size\tNumFiles", "totalFiles = 0");
+    try {
+      SizedFileWriter.create(conf);
+      fail("An empty distribution should be rejected");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("distribution"));
+    }
+  }
+
+}
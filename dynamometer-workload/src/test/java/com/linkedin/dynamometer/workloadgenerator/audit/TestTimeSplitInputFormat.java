@@ -0,0 +1,164 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class TestTimeSplitInputFormat {
+
+  private static final int DURATION_MS = 10000;
+  private static final int NUM_WINDOWS = 20;
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private Configuration conf;
+  private FileSystem localFs;
+  private final Random random = new Random(42);
+
+  @Before
+  public void setup() throws Exception {
+    conf = new Configuration();
+    localFs = FileSystem.getLocal(conf);
+    conf.set(AuditReplayMapper.INPUT_PATH_KEY, tmpDir.getRoot().toURI().toString());
+    conf.setClass(AuditReplayMapper.COMMAND_PARSER_KEY, AuditLogHiveTableParser.class, AuditCommandParser.class);
+    conf.setInt(AuditReplayMapper.INPUT_TIME_WINDOWS_KEY, NUM_WINDOWS);
+  }
+
+  @Test
+  public void testSplitsBalancedByRate() throws Exception {
+    // One busy file which is large enough to be sampled, and a few quiet ones which are read in full
+    writeTrace("busy", 40000);
+    writeTrace("quiet0", 2000);
+    writeTrace("quiet1", 2000);
+    writeTrace("quiet2", 2000);
+    conf.setInt(AuditReplayMapper.INPUT_NUM_SPLITS_KEY, 4);
+    conf.setInt(AuditReplayMapper.INPUT_SAMPLES_PER_FILE_KEY, 50);
+
+    List<InputSplit> splits = getSplits();
+    assertEquals(4, splits.size());
+    Set<String> paths = new HashSet<>();
+    long[][] commandsPerWindow = new long[splits.size()][NUM_WINDOWS];
+    for (int i = 0; i < splits.size(); i++) {
+      RecordReader<LongWritable, Text> reader = createReader(splits.get(i));
+      long lastTimestamp = -1;
+      while (reader.nextKeyValue()) {
+        long timestamp = reader.getCurrentKey().get();
+        assertTrue("Lines should be read in time order", timestamp >= lastTimestamp);
+        lastTimestamp = timestamp;
+        String src = reader.getCurrentValue().toString().split("\u0001")[3];
+        assertTrue("Line should only be read once: " + src, paths.add(src));
+        commandsPerWindow[i][(int) (timestamp * NUM_WINDOWS / DURATION_MS)]++;
+      }
+      assertEquals(1.0f, reader.getProgress(), 0.0f);
+      reader.close();
+    }
+    assertEquals(46000, paths.size());
+    // Each window has 2300 commands; even the busy file should be spread evenly across the splits
+    for (int window = 0; window < NUM_WINDOWS; window++) {
+      for (int i = 0; i < splits.size(); i++) {
+        assertTrue("Split " + i + " has " + commandsPerWindow[i][window] + " commands in window " + window,
+            Math.abs(commandsPerWindow[i][window] - 575) < 150);
+      }
+    }
+  }
+
+  @Test
+  public void testSingleSmallFile() throws Exception {
+    writeTrace("trace", 6);
+    List<InputSplit> splits = getSplits();
+    assertEquals(1, splits.size());
+    RecordReader<LongWritable, Text> reader = createReader(splits.get(0));
+    int lines = 0;
+    while (reader.nextKeyValue()) {
+      lines++;
+    }
+    assertEquals(6, lines);
+  }
+
+  @Test
+  public void testRejectsUnsortedFile() throws Exception {
+    writeLines("trace", "20\u0001hdfs\u0001open\u0001/a\u0001null\u00010.0.0.0",
+        "10\u0001hdfs\u0001open\u0001/b\u0001null\u00010.0.0.0");
+    try {
+      getSplits();
+      fail("An unsorted file should be rejected");
+    } catch (IOException expected) {
+      // Expected
+    }
+  }
+
+  private List<InputSplit> getSplits() throws IOException {
+    return new TimeSplitInputFormat().getSplits(Job.getInstance(conf));
+  }
+
+  private RecordReader<LongWritable, Text> createReader(InputSplit split) throws Exception {
+    // Pass the split through serialization as the framework would
+    DataOutputBuffer out = new DataOutputBuffer();
+    ((TimeSplitInputSplit) split).write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    TimeSplitInputSplit copy = new TimeSplitInputSplit();
+    copy.readFields(in);
+    TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+    RecordReader<LongWritable, Text> reader = new TimeSplitInputFormat().createRecordReader(copy, context);
+    reader.initialize(copy, context);
+    return reader;
+  }
+
+  /** Write a trace of evenly spread commands with paths of varying length. */
+  private void writeTrace(String name, int numCommands) throws IOException {
+    String[] lines = new String[numCommands];
+    for (int i = 0; i < numCommands; i++) {
+      StringBuilder src = new StringBuilder("/" + name + "/" + i + "/");
+      for (int j = random.nextInt(20); j > 0; j--) {
+        src.append('x');
+      }
+      lines[i] = ((long) i * DURATION_MS / numCommands) + "\u0001hdfs\u0001open\u0001" + src + "\u0001null\u00010.0.0.0";
+    }
+    writeLines(name, lines);
+  }
+
+  private void writeLines(String name, String... lines) throws IOException {
+    try (Writer writer = new OutputStreamWriter(localFs.create(new Path(new File(tmpDir.getRoot(), name).toURI())),
+        StandardCharsets.UTF_8)) {
+      for (String line : lines) {
+        writer.write(line);
+        writer.write('\n');
+      }
+    }
+  }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2017 LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+package com.linkedin.dynamometer.workloadgenerator.audit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class TestTimingWheelScheduler {
+
+  private Configuration conf;
+
+  @Before
+  public void setup() {
+    conf = new Configuration();
+    // Use a small wheel so that the overflow path is exercised
+    conf.setInt(TimingWheelScheduler.NUM_SLOTS_KEY, 16);
+  }
+
+  private AuditReplayCommand getCommand(long absoluteTimestamp, String src) {
+    return new AuditReplayCommand(absoluteTimestamp, "fakeUser", "getfileinfo", src, "null", "0.0.0.0");
+  }
+
+  @Test
+  public void testCommandsReturnedInOrderAndNotEarly() throws Exception {
+    TimingWheelScheduler scheduler = new TimingWheelScheduler();
+    scheduler.initialize(conf, 1, new ReplayClock());
+    long start = System.currentTimeMillis() + 50;
+    long[] offsets = { 0, 5, 5, 30, 100 };
+    for (int i = 0; i < offsets.length; i++) {
+      scheduler.schedule(getCommand(start + offsets[i], "/path" + i));
+    }
+    for (int i = 0; i < offsets.length; i++) {
+      AuditReplayCommand cmd = scheduler.take(0);
+      assertTrue("Command should not be dispatched early", System.currentTimeMillis() >= start + offsets[i]);
+      assertEquals("/path" + i, cmd.getSrc());
+    }
+  }
+
+  @Test
+  public void testOfferOrderPreservedForThread() throws Exception {
+    TimingWheelScheduler scheduler = new TimingWheelScheduler();
+    scheduler.initialize(conf, 2, new ReplayClock());
+    long start = System.currentTimeMillis() + 20;
+    for (int i = 0; i < 10; i++) {
+      // Later commands are beyond the span of the wheel and pass through the overflow queue
+      scheduler.schedule(getCommand(start + (i / 3) * 10, "/path" + i), 1);
+    }
+    for (int i = 0; i < 10; i++) {
+      assertEquals("/path" + i, scheduler.take(1).getSrc());
+    }
+  }
+
+  @Test
+  public void testLateCommandsReturnedImmediately() throws Exception {
+    TimingWheelScheduler scheduler = new TimingWheelScheduler();
+    scheduler.initialize(conf, 1, new ReplayClock());
+    scheduler.schedule(getCommand(System.currentTimeMillis() - 1000, "/late"));
+    assertEquals("/late", scheduler.take(0).getSrc());
+  }
+
+  @Test
+  public void testRoundRobinAndTargetedDelivery() throws Exception {
+    TimingWheelScheduler scheduler = new TimingWheelScheduler();
+    scheduler.initialize(conf, 2, new ReplayClock());
+    long now = System.currentTimeMillis();
+    scheduler.schedule(getCommand(now, "/first"));
+    scheduler.schedule(getCommand(now, "/second"));
+    scheduler.schedule(AuditReplayCommand.getPoisonPill(now + 1), 1);
+    scheduler.schedule(AuditReplayCommand.getPoisonPill(now + 1), 0);
+    assertEquals("/first", scheduler.take(0).getSrc());
+    assertTrue(scheduler.take(0).isPoison());
+    assertEquals("/second", scheduler.take(1).getSrc());
+    assertTrue(scheduler.take(1).isPoison());
+  }
+
+  @Test
+  public void testExitedThreadFailsFast() throws Exception {
+    TimingWheelScheduler scheduler = new TimingWheelScheduler();
+    scheduler.initialize(conf, 2, new ReplayClock());
+    long now = System.currentTimeMillis();
+    scheduler.schedule(getCommand(now + 60000, "/pending"), 1);
+    scheduler.schedule(AuditReplayCommand.getPoisonPill(now + 60001), 1);
+    // Commands already held by the exited thread are counted, excluding poison pills
+    assertEquals(1, scheduler.consumerExited(1));
+    scheduler.schedule(getCommand(now, "/first"));
+    try {
+      // Would be assigned to the exited thread, which will never replay it
+      scheduler.schedule(getCommand(now, "/second"));
+      fail("Scheduling to an exited thread should fail");
+    } catch (IllegalStateException expected) {
+      // Expected
+    }
+    // Shutting down the exited thread is a no-op
+    scheduler.schedule(AuditReplayCommand.getPoisonPill(now + 1), 1);
+    scheduler.schedule(AuditReplayCommand.getPoisonPill(now + 1), 0);
+    assertEquals("/first", scheduler.take(0).getSrc());
+    assertTrue(scheduler.take(0).isPoison());
+  }
+
+}